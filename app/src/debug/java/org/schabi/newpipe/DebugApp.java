@@ -40,7 +40,8 @@ public class DebugApp extends App {
     @Override
     protected Downloader getDownloader() {
         return org.schabi.newpipe.Downloader.init(new OkHttpClient.Builder()
-                .addNetworkInterceptor(new StethoInterceptor()));
+                .addNetworkInterceptor(new StethoInterceptor()),
+                getHttpCacheDirectory(), org.schabi.newpipe.Downloader.DEFAULT_CACHE_SIZE);
     }
 
     private void initStetho() {
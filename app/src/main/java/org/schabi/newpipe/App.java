@@ -28,8 +28,10 @@ import org.schabi.newpipe.report.ErrorActivity;
 import org.schabi.newpipe.report.UserAction;
 import org.schabi.newpipe.settings.SettingsActivity;
 import org.schabi.newpipe.util.ExtractorHelper;
+import org.schabi.newpipe.util.InfoCache;
 import org.schabi.newpipe.util.StateSaver;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.net.SocketException;
@@ -94,6 +96,7 @@ public class App extends Application {
         NewPipe.init(getDownloader(),
                 org.schabi.newpipe.util.Localization.getPreferredExtractorLocal(this));
         StateSaver.init(this);
+        InfoCache.init(this);
         initNotificationChannel();
 
         // Initialize image loader
@@ -103,7 +106,12 @@ public class App extends Application {
     }
 
     protected Downloader getDownloader() {
-        return org.schabi.newpipe.Downloader.init(null);
+        return org.schabi.newpipe.Downloader.init(null, getHttpCacheDirectory(),
+                org.schabi.newpipe.Downloader.DEFAULT_CACHE_SIZE);
+    }
+
+    protected File getHttpCacheDirectory() {
+        return new File(getCacheDir(), "okhttp");
     }
 
     private void configureRxJavaErrorHandler() {
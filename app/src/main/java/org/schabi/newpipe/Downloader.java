@@ -6,17 +6,30 @@ import android.text.TextUtils;
 import org.schabi.newpipe.extractor.exceptions.ReCaptchaException;
 import org.schabi.newpipe.extractor.utils.Localization;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import okhttp3.Cache;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
 
 
 /*
@@ -42,14 +55,39 @@ import okhttp3.ResponseBody;
 public class Downloader implements org.schabi.newpipe.extractor.Downloader {
     public static final String USER_AGENT = "Mozilla/5.0 (Windows NT 6.1; WOW64; rv:43.0) Gecko/20100101 Firefox/43.0";
 
+    /**
+     * Default size of the HTTP cache, 304 responses to revalidated pages only cost their headers
+     */
+    public static final long DEFAULT_CACHE_SIZE = 16 * 1024 * 1024;
+
+    private static final int MAX_IDLE_CONNECTIONS = 8;
+    private static final long KEEP_ALIVE_DURATION_MINUTES = 5;
+    private static final int MAX_REQUESTS = 64;
+    private static final int MAX_REQUESTS_PER_HOST = 8;
+    private static final long HTTP2_PING_INTERVAL_SECONDS = 30;
+
     private static Downloader instance;
     private String mCookies;
     private final OkHttpClient client;
+    private final Map<String, HostMetrics> hostMetrics = new ConcurrentHashMap<>();
+
+    private Downloader(OkHttpClient.Builder builder, @Nullable Cache cache) {
+        // Only limits the asynchronous calls, the extractor requests are executed on their own thread
+        final Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(MAX_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
 
-    private Downloader(OkHttpClient.Builder builder) {
         this.client = builder
                 .readTimeout(30, TimeUnit.SECONDS)
-                //.cache(new Cache(new File(context.getExternalCacheDir(), "okhttp"), 16 * 1024 * 1024))
+                .cache(cache)
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS,
+                        KEEP_ALIVE_DURATION_MINUTES, TimeUnit.MINUTES))
+                .dispatcher(dispatcher)
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                // Detects dead HTTP/2 connections before a request is sent on them
+                .pingInterval(HTTP2_PING_INTERVAL_SECONDS, TimeUnit.SECONDS)
+                .addInterceptor(this::countRequest)
+                .addNetworkInterceptor(this::countNetworkResponse)
                 .build();
     }
 
@@ -59,7 +97,24 @@ public class Downloader implements org.schabi.newpipe.extractor.Downloader {
      * @param builder if null, default builder will be used
      */
     public static Downloader init(@Nullable OkHttpClient.Builder builder) {
-        return instance = new Downloader(builder != null ? builder : new OkHttpClient.Builder());
+        return init(builder, null, 0);
+    }
+
+    /**
+     * It's recommended to call exactly once in the entire lifetime of the application.
+     * <p>
+     * Responses are cached according to their HTTP headers, the cached pages with validators
+     * are requested again conditionally, e.g. a channel which didn't change is answered
+     * with an empty 304 response.
+     *
+     * @param builder        if null, default builder will be used
+     * @param cacheDirectory directory of the HTTP cache, if null nothing is cached
+     * @param maxCacheSize   maximum size of the HTTP cache, in bytes
+     */
+    public static Downloader init(@Nullable OkHttpClient.Builder builder,
+                                  @Nullable File cacheDirectory, long maxCacheSize) {
+        final Cache cache = cacheDirectory != null ? new Cache(cacheDirectory, maxCacheSize) : null;
+        return instance = new Downloader(builder != null ? builder : new OkHttpClient.Builder(), cache);
     }
 
     public static Downloader getInstance() {
@@ -154,6 +209,7 @@ public class Downloader implements org.schabi.newpipe.extractor.Downloader {
         final ResponseBody body = response.body();
 
         if (response.code() == 429) {
+            response.close();
             throw new ReCaptchaException("reCaptcha Challenge requested");
         }
 
@@ -176,4 +232,116 @@ public class Downloader implements org.schabi.newpipe.extractor.Downloader {
     public String download(String siteUrl) throws IOException, ReCaptchaException {
         return download(siteUrl, Collections.emptyMap());
     }
+
+    /*//////////////////////////////////////////////////////////////////////////
+    // Metrics
+    //////////////////////////////////////////////////////////////////////////*/
+
+    /**
+     * @return the metrics of every host requested since the application started
+     */
+    public Map<String, HostMetrics> getHostMetrics() {
+        return Collections.unmodifiableMap(hostMetrics);
+    }
+
+    private HostMetrics getHostMetrics(final Request request) {
+        final String host = request.url().host();
+        HostMetrics metrics = hostMetrics.get(host);
+        if (metrics == null) {
+            final HostMetrics newMetrics = new HostMetrics();
+            metrics = hostMetrics.putIfAbsent(host, newMetrics);
+            if (metrics == null) metrics = newMetrics;
+        }
+        return metrics;
+    }
+
+    private Response countRequest(final Interceptor.Chain chain) throws IOException {
+        final Response response = chain.proceed(chain.request());
+        final HostMetrics metrics = getHostMetrics(chain.request());
+
+        metrics.requests.incrementAndGet();
+        final Response networkResponse = response.networkResponse();
+        if (networkResponse == null) {
+            metrics.cacheHits.incrementAndGet();
+        } else if (networkResponse.code() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            // Both responses are also set when a conditional request got a new page
+            metrics.revalidations.incrementAndGet();
+        }
+        return response;
+    }
+
+    private Response countNetworkResponse(final Interceptor.Chain chain) throws IOException {
+        final Response response = chain.proceed(chain.request());
+        final HostMetrics metrics = getHostMetrics(chain.request());
+        metrics.networkRequests.incrementAndGet();
+
+        final ResponseBody body = response.body();
+        if (body == null) return response;
+
+        final ForwardingSource countingSource = new ForwardingSource(body.source()) {
+            @Override
+            public long read(Buffer sink, long byteCount) throws IOException {
+                final long read = super.read(sink, byteCount);
+                if (read > 0) metrics.bytesReceived.addAndGet(read);
+                return read;
+            }
+        };
+        return response.newBuilder()
+                .body(ResponseBody.create(body.contentType(), body.contentLength(),
+                        Okio.buffer(countingSource)))
+                .build();
+    }
+
+    /**
+     * Counters of the requests made to a host.
+     */
+    public static final class HostMetrics {
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong networkRequests = new AtomicLong();
+        private final AtomicLong cacheHits = new AtomicLong();
+        private final AtomicLong revalidations = new AtomicLong();
+        private final AtomicLong bytesReceived = new AtomicLong();
+
+        /**
+         * @return the number of requests, whether they were answered from the cache or not
+         */
+        public long getRequests() {
+            return requests.get();
+        }
+
+        /**
+         * @return the number of requests sent to the host, including the conditional ones
+         */
+        public long getNetworkRequests() {
+            return networkRequests.get();
+        }
+
+        /**
+         * @return the number of requests answered from the cache without contacting the host
+         */
+        public long getCacheHits() {
+            return cacheHits.get();
+        }
+
+        /**
+         * @return the number of conditional requests for which the cached response was still valid
+         */
+        public long getRevalidations() {
+            return revalidations.get();
+        }
+
+        /**
+         * @return the number of body bytes received from the host, before decompression
+         */
+        public long getBytesReceived() {
+            return bytesReceived.get();
+        }
+
+        @Override
+        public String toString() {
+            return "requests = [" + getRequests() + "], networkRequests = [" + getNetworkRequests()
+                    + "], cacheHits = [" + getCacheHits() + "], revalidations = ["
+                    + getRevalidations() + "], bytesReceived = [" + getBytesReceived() + "]";
+        }
+    }
 }
@@ -1,13 +1,18 @@
 package org.schabi.newpipe;
 
+import android.arch.persistence.db.SupportSQLiteDatabase;
 import android.arch.persistence.room.Room;
+import android.arch.persistence.room.RoomDatabase;
 import android.content.Context;
 import android.support.annotation.NonNull;
 
 import org.schabi.newpipe.database.AppDatabase;
+import org.schabi.newpipe.database.search.LocalSearchIndex;
 
 import static org.schabi.newpipe.database.AppDatabase.DATABASE_NAME;
 import static org.schabi.newpipe.database.Migrations.MIGRATION_11_12;
+import static org.schabi.newpipe.database.Migrations.MIGRATION_12_15;
+import static org.schabi.newpipe.database.Migrations.createStreamStatisticsTriggers;
 
 public final class NewPipeDatabase {
 
@@ -20,8 +25,16 @@ public final class NewPipeDatabase {
     private static AppDatabase getDatabase(Context context) {
         return Room
                 .databaseBuilder(context.getApplicationContext(), AppDatabase.class, DATABASE_NAME)
-                .addMigrations(MIGRATION_11_12)
+                .addMigrations(MIGRATION_11_12, MIGRATION_12_15)
                 .fallbackToDestructiveMigration()
+                .addCallback(new RoomDatabase.Callback() {
+                    // Also covers the tables recreated by a destructive migration
+                    @Override
+                    public void onOpen(@NonNull SupportSQLiteDatabase db) {
+                        createStreamStatisticsTriggers(db);
+                        LocalSearchIndex.ensureCreated(db);
+                    }
+                })
                 .build();
     }
 
@@ -4,16 +4,21 @@ import android.arch.persistence.room.Database;
 import android.arch.persistence.room.RoomDatabase;
 import android.arch.persistence.room.TypeConverters;
 
+import org.schabi.newpipe.database.feed.dao.FeedDAO;
+import org.schabi.newpipe.database.feed.model.FeedEntity;
+import org.schabi.newpipe.database.feed.model.FeedLastUpdatedEntity;
 import org.schabi.newpipe.database.history.dao.SearchHistoryDAO;
 import org.schabi.newpipe.database.history.dao.StreamHistoryDAO;
 import org.schabi.newpipe.database.history.model.SearchHistoryEntry;
 import org.schabi.newpipe.database.history.model.StreamHistoryEntity;
+import org.schabi.newpipe.database.history.model.StreamStatisticsEntity;
 import org.schabi.newpipe.database.playlist.dao.PlaylistDAO;
 import org.schabi.newpipe.database.playlist.dao.PlaylistRemoteDAO;
 import org.schabi.newpipe.database.playlist.dao.PlaylistStreamDAO;
 import org.schabi.newpipe.database.playlist.model.PlaylistEntity;
 import org.schabi.newpipe.database.playlist.model.PlaylistRemoteEntity;
 import org.schabi.newpipe.database.playlist.model.PlaylistStreamEntity;
+import org.schabi.newpipe.database.search.LocalSearchDAO;
 import org.schabi.newpipe.database.stream.dao.StreamDAO;
 import org.schabi.newpipe.database.stream.dao.StreamStateDAO;
 import org.schabi.newpipe.database.stream.model.StreamEntity;
@@ -21,16 +26,17 @@ import org.schabi.newpipe.database.stream.model.StreamStateEntity;
 import org.schabi.newpipe.database.subscription.SubscriptionDAO;
 import org.schabi.newpipe.database.subscription.SubscriptionEntity;
 
-import static org.schabi.newpipe.database.Migrations.DB_VER_12_0;
+import static org.schabi.newpipe.database.Migrations.DB_VER_15_0;
 
 @TypeConverters({Converters.class})
 @Database(
         entities = {
                 SubscriptionEntity.class, SearchHistoryEntry.class,
                 StreamEntity.class, StreamHistoryEntity.class, StreamStateEntity.class,
-                PlaylistEntity.class, PlaylistStreamEntity.class, PlaylistRemoteEntity.class
+                PlaylistEntity.class, PlaylistStreamEntity.class, PlaylistRemoteEntity.class,
+                FeedEntity.class, FeedLastUpdatedEntity.class, StreamStatisticsEntity.class
         },
-        version = DB_VER_12_0,
+        version = DB_VER_15_0,
         exportSchema = false
 )
 public abstract class AppDatabase extends RoomDatabase {
@@ -52,4 +58,8 @@ public abstract class AppDatabase extends RoomDatabase {
     public abstract PlaylistStreamDAO playlistStreamDAO();
 
     public abstract PlaylistRemoteDAO playlistRemoteDAO();
+
+    public abstract FeedDAO feedDAO();
+
+    public abstract LocalSearchDAO localSearchDAO();
 }
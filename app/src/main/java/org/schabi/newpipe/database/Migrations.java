@@ -8,6 +8,54 @@ public class Migrations {
 
     public static final int DB_VER_11_0 = 1;
     public static final int DB_VER_12_0 = 2;
+    public static final int DB_VER_15_0 = 3;
+
+    /**
+     * Keep {@code stream_statistics} in sync with {@code stream_history}: an insert only adds to
+     * the statistics of its stream, a delete or an update aggregates the remaining history of
+     * the streams it touched, using the stream id index.
+     * <p>
+     * Room doesn't know about triggers, they are created by the migration of existing databases
+     * and checked every time the database is opened.
+     */
+    public static final String[] STREAM_STATISTICS_TRIGGERS = {
+            "CREATE TRIGGER IF NOT EXISTS `stream_statistics_after_insert` " +
+                    "AFTER INSERT ON `stream_history` BEGIN " +
+                    "INSERT OR IGNORE INTO `stream_statistics` " +
+                    "(`stream_id`, `latest_access`, `watch_count`) " +
+                    "VALUES (NEW.`stream_id`, NEW.`access_date`, 0); " +
+                    "UPDATE `stream_statistics` " +
+                    "SET `watch_count` = `watch_count` + NEW.`repeat_count`, " +
+                    "`latest_access` = MAX(`latest_access`, NEW.`access_date`) " +
+                    "WHERE `stream_id` = NEW.`stream_id`; " +
+                    "END",
+            "CREATE TRIGGER IF NOT EXISTS `stream_statistics_after_delete` " +
+                    "AFTER DELETE ON `stream_history` BEGIN " +
+                    "DELETE FROM `stream_statistics` WHERE `stream_id` = OLD.`stream_id`; " +
+                    "INSERT INTO `stream_statistics` " +
+                    "(`stream_id`, `latest_access`, `watch_count`) " +
+                    "SELECT `stream_id`, MAX(`access_date`), SUM(`repeat_count`) " +
+                    "FROM `stream_history` WHERE `stream_id` = OLD.`stream_id` " +
+                    "GROUP BY `stream_id`; " +
+                    "END",
+            "CREATE TRIGGER IF NOT EXISTS `stream_statistics_after_update` " +
+                    "AFTER UPDATE ON `stream_history` BEGIN " +
+                    "DELETE FROM `stream_statistics` " +
+                    "WHERE `stream_id` IN (OLD.`stream_id`, NEW.`stream_id`); " +
+                    "INSERT INTO `stream_statistics` " +
+                    "(`stream_id`, `latest_access`, `watch_count`) " +
+                    "SELECT `stream_id`, MAX(`access_date`), SUM(`repeat_count`) " +
+                    "FROM `stream_history` " +
+                    "WHERE `stream_id` IN (OLD.`stream_id`, NEW.`stream_id`) " +
+                    "GROUP BY `stream_id`; " +
+                    "END"
+    };
+
+    public static void createStreamStatisticsTriggers(@NonNull SupportSQLiteDatabase database) {
+        for (final String trigger : STREAM_STATISTICS_TRIGGERS) {
+            database.execSQL(trigger);
+        }
+    }
 
     public static final Migration MIGRATION_11_12 = new Migration(DB_VER_11_0, DB_VER_12_0) {
         @Override
@@ -58,4 +106,25 @@ public class Migrations {
             database.execSQL("DROP TABLE IF EXISTS watch_history");
         }
     };
+
+    public static final Migration MIGRATION_12_15 = new Migration(DB_VER_12_0, DB_VER_15_0) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `feed` (`subscription_id` INTEGER NOT NULL, `stream_id` INTEGER NOT NULL, `feed_order` INTEGER NOT NULL, PRIMARY KEY(`subscription_id`, `stream_id`), FOREIGN KEY(`subscription_id`) REFERENCES `subscriptions`(`uid`) ON UPDATE CASCADE ON DELETE CASCADE , FOREIGN KEY(`stream_id`) REFERENCES `streams`(`uid`) ON UPDATE CASCADE ON DELETE CASCADE )");
+            database.execSQL("CREATE  INDEX `index_feed_stream_id` ON `feed` (`stream_id`)");
+            database.execSQL("CREATE  INDEX `index_feed_feed_order` ON `feed` (`feed_order`)");
+            database.execSQL("CREATE TABLE IF NOT EXISTS `feed_last_updated` (`subscription_id` INTEGER NOT NULL, `last_updated` INTEGER NOT NULL, PRIMARY KEY(`subscription_id`), FOREIGN KEY(`subscription_id`) REFERENCES `subscriptions`(`uid`) ON UPDATE CASCADE ON DELETE CASCADE )");
+
+            database.execSQL("CREATE  INDEX `index_stream_history_access_date` ON `stream_history` (`access_date`)");
+            database.execSQL("CREATE TABLE IF NOT EXISTS `stream_statistics` (`stream_id` INTEGER NOT NULL, `latest_access` INTEGER NOT NULL, `watch_count` INTEGER NOT NULL, PRIMARY KEY(`stream_id`), FOREIGN KEY(`stream_id`) REFERENCES `streams`(`uid`) ON UPDATE CASCADE ON DELETE CASCADE )");
+            database.execSQL("CREATE  INDEX `index_stream_statistics_latest_access` ON `stream_statistics` (`latest_access`)");
+            database.execSQL("CREATE  INDEX `index_stream_statistics_watch_count` ON `stream_statistics` (`watch_count`)");
+
+            // Aggregate the existing history once, the triggers take over from here
+            database.execSQL("INSERT INTO stream_statistics (stream_id, latest_access, watch_count) " +
+                    "SELECT stream_id, MAX(access_date), SUM(repeat_count) " +
+                    "FROM stream_history GROUP BY stream_id");
+            createStreamStatisticsTriggers(database);
+        }
+    };
 }
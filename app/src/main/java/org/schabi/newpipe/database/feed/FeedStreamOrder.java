@@ -0,0 +1,21 @@
+package org.schabi.newpipe.database.feed;
+
+import android.arch.persistence.room.ColumnInfo;
+
+import org.schabi.newpipe.database.feed.model.FeedEntity;
+import org.schabi.newpipe.database.stream.model.StreamEntity;
+
+/**
+ * Position of a stream already in the feed of a subscription
+ */
+public class FeedStreamOrder {
+    @ColumnInfo(name = StreamEntity.STREAM_URL)
+    final public String url;
+    @ColumnInfo(name = FeedEntity.FEED_ORDER)
+    final public long order;
+
+    public FeedStreamOrder(String url, long order) {
+        this.url = url;
+        this.order = order;
+    }
+}
@@ -0,0 +1,93 @@
+package org.schabi.newpipe.database.feed.dao;
+
+import android.arch.persistence.room.Dao;
+import android.arch.persistence.room.Insert;
+import android.arch.persistence.room.OnConflictStrategy;
+import android.arch.persistence.room.Query;
+
+import org.schabi.newpipe.database.BasicDAO;
+import org.schabi.newpipe.database.feed.FeedStreamOrder;
+import org.schabi.newpipe.database.feed.model.FeedEntity;
+import org.schabi.newpipe.database.feed.model.FeedLastUpdatedEntity;
+import org.schabi.newpipe.database.stream.model.StreamEntity;
+import org.schabi.newpipe.database.subscription.SubscriptionEntity;
+
+import java.util.List;
+
+import io.reactivex.Flowable;
+
+import static org.schabi.newpipe.database.feed.model.FeedEntity.FEED_ORDER;
+import static org.schabi.newpipe.database.feed.model.FeedEntity.FEED_STREAM_ID;
+import static org.schabi.newpipe.database.feed.model.FeedEntity.FEED_SUBSCRIPTION_ID;
+import static org.schabi.newpipe.database.feed.model.FeedEntity.FEED_TABLE;
+import static org.schabi.newpipe.database.feed.model.FeedLastUpdatedEntity.FEED_LAST_UPDATED_TABLE;
+import static org.schabi.newpipe.database.feed.model.FeedLastUpdatedEntity.LAST_UPDATED;
+import static org.schabi.newpipe.database.feed.model.FeedLastUpdatedEntity.SUBSCRIPTION_ID;
+import static org.schabi.newpipe.database.stream.model.StreamEntity.STREAM_ID;
+import static org.schabi.newpipe.database.stream.model.StreamEntity.STREAM_TABLE;
+import static org.schabi.newpipe.database.stream.model.StreamEntity.STREAM_URL;
+import static org.schabi.newpipe.database.subscription.SubscriptionEntity.SUBSCRIPTION_TABLE;
+import static org.schabi.newpipe.database.subscription.SubscriptionEntity.SUBSCRIPTION_UID;
+
+@Dao
+public abstract class FeedDAO implements BasicDAO<FeedEntity> {
+    @Override
+    @Query("SELECT * FROM " + FEED_TABLE)
+    public abstract Flowable<List<FeedEntity>> getAll();
+
+    @Override
+    @Query("DELETE FROM " + FEED_TABLE)
+    public abstract int deleteAll();
+
+    @Override
+    public Flowable<List<FeedEntity>> listByService(int serviceId) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Query("SELECT " + STREAM_TABLE + ".* FROM " + STREAM_TABLE +
+            " INNER JOIN " + FEED_TABLE +
+            " ON " + STREAM_TABLE + "." + STREAM_ID + " = " + FEED_TABLE + "." + FEED_STREAM_ID +
+            " ORDER BY " + FEED_ORDER + " DESC, " + FEED_TABLE + "." + FEED_STREAM_ID + " DESC" +
+            " LIMIT :limit")
+    public abstract Flowable<List<StreamEntity>> getLatestStreams(final int limit);
+
+    /**
+     * Subscriptions whose feed was never fetched or was last fetched before the given time.
+     */
+    @Query("SELECT " + SUBSCRIPTION_TABLE + ".* FROM " + SUBSCRIPTION_TABLE +
+            " LEFT JOIN " + FEED_LAST_UPDATED_TABLE +
+            " ON " + SUBSCRIPTION_TABLE + "." + SUBSCRIPTION_UID + " = " +
+            FEED_LAST_UPDATED_TABLE + "." + SUBSCRIPTION_ID +
+            " WHERE " + LAST_UPDATED + " IS NULL OR " + LAST_UPDATED + " < :outdatedThreshold" +
+            " ORDER BY " + LAST_UPDATED + " ASC")
+    public abstract List<SubscriptionEntity> getOutdatedSubscriptions(final long outdatedThreshold);
+
+    @Query("SELECT " + STREAM_URL + ", " + FEED_ORDER + " FROM " + FEED_TABLE +
+            " INNER JOIN " + STREAM_TABLE +
+            " ON " + FEED_STREAM_ID + " = " + STREAM_TABLE + "." + STREAM_ID +
+            " WHERE " + FEED_SUBSCRIPTION_ID + " = :subscriptionId")
+    public abstract List<FeedStreamOrder> getStreamOrders(final long subscriptionId);
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    public abstract List<Long> silentInsertAll(final List<FeedEntity> entities);
+
+    @Query("UPDATE " + FEED_TABLE + " SET " + FEED_ORDER + " = :order" +
+            " WHERE " + FEED_SUBSCRIPTION_ID + " = :subscriptionId" +
+            " AND " + FEED_STREAM_ID + " = :streamId")
+    public abstract int setOrder(final long subscriptionId, final long streamId, final long order);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    public abstract long setLastUpdated(final FeedLastUpdatedEntity lastUpdated);
+
+    /**
+     * Only keep the newest items of a subscription.
+     */
+    @Query("DELETE FROM " + FEED_TABLE +
+            " WHERE " + FEED_SUBSCRIPTION_ID + " = :subscriptionId" +
+            " AND " + FEED_STREAM_ID + " NOT IN " +
+            "(SELECT " + FEED_STREAM_ID + " FROM " + FEED_TABLE +
+            " WHERE " + FEED_SUBSCRIPTION_ID + " = :subscriptionId" +
+            " ORDER BY " + FEED_ORDER + " DESC, " + FEED_STREAM_ID + " DESC" +
+            " LIMIT :keep)")
+    public abstract int trimSubscription(final long subscriptionId, final int keep);
+}
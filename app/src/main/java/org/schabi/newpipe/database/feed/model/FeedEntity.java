@@ -0,0 +1,81 @@
+package org.schabi.newpipe.database.feed.model;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.ForeignKey;
+import android.arch.persistence.room.Index;
+
+import org.schabi.newpipe.database.stream.model.StreamEntity;
+import org.schabi.newpipe.database.subscription.SubscriptionEntity;
+
+import static android.arch.persistence.room.ForeignKey.CASCADE;
+import static org.schabi.newpipe.database.feed.model.FeedEntity.FEED_ORDER;
+import static org.schabi.newpipe.database.feed.model.FeedEntity.FEED_STREAM_ID;
+import static org.schabi.newpipe.database.feed.model.FeedEntity.FEED_SUBSCRIPTION_ID;
+import static org.schabi.newpipe.database.feed.model.FeedEntity.FEED_TABLE;
+
+@Entity(tableName = FEED_TABLE,
+        primaryKeys = {FEED_SUBSCRIPTION_ID, FEED_STREAM_ID},
+        indices = {
+                @Index(value = {FEED_STREAM_ID}),
+                @Index(value = {FEED_ORDER})
+        },
+        foreignKeys = {
+                @ForeignKey(entity = SubscriptionEntity.class,
+                        parentColumns = SubscriptionEntity.SUBSCRIPTION_UID,
+                        childColumns = FEED_SUBSCRIPTION_ID,
+                        onDelete = CASCADE, onUpdate = CASCADE),
+                @ForeignKey(entity = StreamEntity.class,
+                        parentColumns = StreamEntity.STREAM_ID,
+                        childColumns = FEED_STREAM_ID,
+                        onDelete = CASCADE, onUpdate = CASCADE)
+        })
+public class FeedEntity {
+
+    final public static String FEED_TABLE               = "feed";
+    final public static String FEED_SUBSCRIPTION_ID     = "subscription_id";
+    final public static String FEED_STREAM_ID           = "stream_id";
+    final public static String FEED_ORDER               = "feed_order";
+
+    @ColumnInfo(name = FEED_SUBSCRIPTION_ID)
+    private long subscriptionUid;
+
+    @ColumnInfo(name = FEED_STREAM_ID)
+    private long streamUid;
+
+    /**
+     * Sort key of the item in the feed, higher is newer
+     */
+    @ColumnInfo(name = FEED_ORDER)
+    private long order;
+
+    public FeedEntity(final long subscriptionUid, final long streamUid, final long order) {
+        this.subscriptionUid = subscriptionUid;
+        this.streamUid = streamUid;
+        this.order = order;
+    }
+
+    public long getSubscriptionUid() {
+        return subscriptionUid;
+    }
+
+    public void setSubscriptionUid(long subscriptionUid) {
+        this.subscriptionUid = subscriptionUid;
+    }
+
+    public long getStreamUid() {
+        return streamUid;
+    }
+
+    public void setStreamUid(long streamUid) {
+        this.streamUid = streamUid;
+    }
+
+    public long getOrder() {
+        return order;
+    }
+
+    public void setOrder(long order) {
+        this.order = order;
+    }
+}
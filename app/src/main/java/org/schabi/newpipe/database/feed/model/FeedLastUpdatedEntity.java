@@ -0,0 +1,53 @@
+package org.schabi.newpipe.database.feed.model;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.ForeignKey;
+
+import org.schabi.newpipe.database.subscription.SubscriptionEntity;
+
+import static android.arch.persistence.room.ForeignKey.CASCADE;
+import static org.schabi.newpipe.database.feed.model.FeedLastUpdatedEntity.FEED_LAST_UPDATED_TABLE;
+import static org.schabi.newpipe.database.feed.model.FeedLastUpdatedEntity.SUBSCRIPTION_ID;
+
+@Entity(tableName = FEED_LAST_UPDATED_TABLE,
+        primaryKeys = {SUBSCRIPTION_ID},
+        foreignKeys = {
+                @ForeignKey(entity = SubscriptionEntity.class,
+                        parentColumns = SubscriptionEntity.SUBSCRIPTION_UID,
+                        childColumns = SUBSCRIPTION_ID,
+                        onDelete = CASCADE, onUpdate = CASCADE)
+        })
+public class FeedLastUpdatedEntity {
+
+    final public static String FEED_LAST_UPDATED_TABLE  = "feed_last_updated";
+    final public static String SUBSCRIPTION_ID          = "subscription_id";
+    final public static String LAST_UPDATED             = "last_updated";
+
+    @ColumnInfo(name = SUBSCRIPTION_ID)
+    private long subscriptionUid;
+
+    @ColumnInfo(name = LAST_UPDATED)
+    private long lastUpdated;
+
+    public FeedLastUpdatedEntity(final long subscriptionUid, final long lastUpdated) {
+        this.subscriptionUid = subscriptionUid;
+        this.lastUpdated = lastUpdated;
+    }
+
+    public long getSubscriptionUid() {
+        return subscriptionUid;
+    }
+
+    public void setSubscriptionUid(long subscriptionUid) {
+        this.subscriptionUid = subscriptionUid;
+    }
+
+    public long getLastUpdated() {
+        return lastUpdated;
+    }
+
+    public void setLastUpdated(long lastUpdated) {
+        this.lastUpdated = lastUpdated;
+    }
+}
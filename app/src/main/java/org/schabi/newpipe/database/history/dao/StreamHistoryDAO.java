@@ -8,14 +8,17 @@ import android.support.annotation.Nullable;
 import org.schabi.newpipe.database.history.model.StreamHistoryEntry;
 import org.schabi.newpipe.database.stream.StreamStatisticsEntry;
 import org.schabi.newpipe.database.history.model.StreamHistoryEntity;
+import org.schabi.newpipe.database.history.model.StreamStatisticsEntity;
 
+import java.util.Date;
 import java.util.List;
 
 import io.reactivex.Flowable;
 
-import static org.schabi.newpipe.database.history.model.StreamHistoryEntity.STREAM_REPEAT_COUNT;
+import static org.schabi.newpipe.database.history.model.StreamStatisticsEntity.STREAM_LATEST_ACCESS;
+import static org.schabi.newpipe.database.history.model.StreamStatisticsEntity.STREAM_STATISTICS_TABLE;
+import static org.schabi.newpipe.database.history.model.StreamStatisticsEntity.STREAM_WATCH_COUNT;
 import static org.schabi.newpipe.database.stream.StreamStatisticsEntry.STREAM_LATEST_DATE;
-import static org.schabi.newpipe.database.stream.StreamStatisticsEntry.STREAM_WATCH_COUNT;
 import static org.schabi.newpipe.database.stream.model.StreamEntity.STREAM_ID;
 import static org.schabi.newpipe.database.stream.model.StreamEntity.STREAM_TABLE;
 import static org.schabi.newpipe.database.history.model.StreamHistoryEntity.JOIN_STREAM_ID;
@@ -44,24 +47,76 @@ public abstract class StreamHistoryDAO implements HistoryDAO<StreamHistoryEntity
         throw new UnsupportedOperationException();
     }
 
+    /*//////////////////////////////////////////////////////////////////////////
+    // History pages, newest first
+    //////////////////////////////////////////////////////////////////////////*/
+
+    @Query("SELECT * FROM " + STREAM_TABLE +
+            " INNER JOIN " + STREAM_HISTORY_TABLE +
+            " ON " + STREAM_ID + " = " + JOIN_STREAM_ID +
+            " ORDER BY " + STREAM_ACCESS_DATE + " DESC, " + JOIN_STREAM_ID + " DESC" +
+            " LIMIT :limit")
+    public abstract Flowable<List<StreamHistoryEntry>> getHistory(final int limit);
+
+    /**
+     * The page following the entry of the given stream and access date.
+     */
     @Query("SELECT * FROM " + STREAM_TABLE +
             " INNER JOIN " + STREAM_HISTORY_TABLE +
             " ON " + STREAM_ID + " = " + JOIN_STREAM_ID +
-            " ORDER BY " + STREAM_ACCESS_DATE + " DESC")
-    public abstract Flowable<List<StreamHistoryEntry>> getHistory();
+            " WHERE " + STREAM_ACCESS_DATE + " <= :accessDate" +
+            " AND (" + STREAM_ACCESS_DATE + " < :accessDate OR " + JOIN_STREAM_ID + " < :streamId)" +
+            " ORDER BY " + STREAM_ACCESS_DATE + " DESC, " + JOIN_STREAM_ID + " DESC" +
+            " LIMIT :limit")
+    public abstract List<StreamHistoryEntry> getHistoryAfter(final Date accessDate,
+                                                             final long streamId,
+                                                             final int limit);
 
     @Query("DELETE FROM " + STREAM_HISTORY_TABLE + " WHERE " + JOIN_STREAM_ID + " = :streamId")
     public abstract int deleteStreamHistory(final long streamId);
 
-    @Query("SELECT * FROM " + STREAM_TABLE +
+    /*//////////////////////////////////////////////////////////////////////////
+    // Statistics pages, from the materialized statistics table
+    //////////////////////////////////////////////////////////////////////////*/
+
+    private static final String STATISTICS_STREAM_ID =
+            STREAM_STATISTICS_TABLE + "." + StreamStatisticsEntity.JOIN_STREAM_ID;
+
+    private static final String STATISTICS_QUERY = "SELECT " + STREAM_TABLE + ".*, " +
+            STATISTICS_STREAM_ID + ", " +
+            STREAM_LATEST_ACCESS + " AS " + STREAM_LATEST_DATE + ", " +
+            STREAM_WATCH_COUNT + " AS " + StreamStatisticsEntry.STREAM_WATCH_COUNT +
+            " FROM " + STREAM_TABLE +
+            " INNER JOIN " + STREAM_STATISTICS_TABLE +
+            " ON " + STREAM_ID + " = " + STATISTICS_STREAM_ID;
+
+    private static final String LAST_PLAYED_ORDER = " ORDER BY " + STREAM_LATEST_ACCESS +
+            " DESC, " + STATISTICS_STREAM_ID + " DESC";
+
+    private static final String MOST_PLAYED_ORDER = " ORDER BY " + STREAM_WATCH_COUNT +
+            " DESC, " + STATISTICS_STREAM_ID + " DESC";
+
+    @Query(STATISTICS_QUERY + LAST_PLAYED_ORDER + " LIMIT :limit")
+    public abstract Flowable<List<StreamStatisticsEntry>> getLastPlayed(final int limit);
+
+    @Query(STATISTICS_QUERY +
+            " WHERE " + STREAM_LATEST_ACCESS + " <= :latestAccess" +
+            " AND (" + STREAM_LATEST_ACCESS + " < :latestAccess OR " +
+            STATISTICS_STREAM_ID + " < :streamId)" +
+            LAST_PLAYED_ORDER + " LIMIT :limit")
+    public abstract List<StreamStatisticsEntry> getLastPlayedAfter(final Date latestAccess,
+                                                                   final long streamId,
+                                                                   final int limit);
 
-            // Select the latest entry and watch count for each stream id on history table
-            " INNER JOIN " +
-            "(SELECT " + JOIN_STREAM_ID + ", " +
-            "  MAX(" + STREAM_ACCESS_DATE + ") AS " + STREAM_LATEST_DATE + ", " +
-            "  SUM(" + STREAM_REPEAT_COUNT + ") AS " + STREAM_WATCH_COUNT +
-            " FROM " + STREAM_HISTORY_TABLE + " GROUP BY " + JOIN_STREAM_ID + ")" +
+    @Query(STATISTICS_QUERY + MOST_PLAYED_ORDER + " LIMIT :limit")
+    public abstract Flowable<List<StreamStatisticsEntry>> getMostPlayed(final int limit);
 
-            " ON " + STREAM_ID + " = " + JOIN_STREAM_ID)
-    public abstract Flowable<List<StreamStatisticsEntry>> getStatistics();
+    @Query(STATISTICS_QUERY +
+            " WHERE " + STREAM_WATCH_COUNT + " <= :watchCount" +
+            " AND (" + STREAM_WATCH_COUNT + " < :watchCount OR " +
+            STATISTICS_STREAM_ID + " < :streamId)" +
+            MOST_PLAYED_ORDER + " LIMIT :limit")
+    public abstract List<StreamStatisticsEntry> getMostPlayedAfter(final long watchCount,
+                                                                   final long streamId,
+                                                                   final int limit);
 }
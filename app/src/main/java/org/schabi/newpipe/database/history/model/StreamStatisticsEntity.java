@@ -0,0 +1,80 @@
+package org.schabi.newpipe.database.history.model;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.ForeignKey;
+import android.arch.persistence.room.Index;
+import android.support.annotation.NonNull;
+
+import org.schabi.newpipe.database.stream.model.StreamEntity;
+
+import java.util.Date;
+
+import static android.arch.persistence.room.ForeignKey.CASCADE;
+import static org.schabi.newpipe.database.history.model.StreamStatisticsEntity.JOIN_STREAM_ID;
+import static org.schabi.newpipe.database.history.model.StreamStatisticsEntity.STREAM_LATEST_ACCESS;
+import static org.schabi.newpipe.database.history.model.StreamStatisticsEntity.STREAM_STATISTICS_TABLE;
+import static org.schabi.newpipe.database.history.model.StreamStatisticsEntity.STREAM_WATCH_COUNT;
+
+/**
+ * Watch count and latest access of each stream in the {@link StreamHistoryEntity history},
+ * kept up to date by triggers on the history table (see
+ * {@link org.schabi.newpipe.database.Migrations#STREAM_STATISTICS_TRIGGERS}) so the statistics
+ * never have to be aggregated from the whole history.
+ */
+@Entity(tableName = STREAM_STATISTICS_TABLE,
+        primaryKeys = {JOIN_STREAM_ID},
+        indices = {@Index(value = {STREAM_LATEST_ACCESS}), @Index(value = {STREAM_WATCH_COUNT})},
+        foreignKeys = {
+                @ForeignKey(entity = StreamEntity.class,
+                        parentColumns = StreamEntity.STREAM_ID,
+                        childColumns = JOIN_STREAM_ID,
+                        onDelete = CASCADE, onUpdate = CASCADE)
+        })
+public class StreamStatisticsEntity {
+    final public static String STREAM_STATISTICS_TABLE  = "stream_statistics";
+    final public static String JOIN_STREAM_ID           = "stream_id";
+    final public static String STREAM_LATEST_ACCESS     = "latest_access";
+    final public static String STREAM_WATCH_COUNT       = "watch_count";
+
+    @ColumnInfo(name = JOIN_STREAM_ID)
+    private long streamUid;
+
+    @NonNull
+    @ColumnInfo(name = STREAM_LATEST_ACCESS)
+    private Date latestAccess;
+
+    @ColumnInfo(name = STREAM_WATCH_COUNT)
+    private long watchCount;
+
+    public StreamStatisticsEntity(long streamUid, @NonNull Date latestAccess, long watchCount) {
+        this.streamUid = streamUid;
+        this.latestAccess = latestAccess;
+        this.watchCount = watchCount;
+    }
+
+    public long getStreamUid() {
+        return streamUid;
+    }
+
+    public void setStreamUid(long streamUid) {
+        this.streamUid = streamUid;
+    }
+
+    @NonNull
+    public Date getLatestAccess() {
+        return latestAccess;
+    }
+
+    public void setLatestAccess(@NonNull Date latestAccess) {
+        this.latestAccess = latestAccess;
+    }
+
+    public long getWatchCount() {
+        return watchCount;
+    }
+
+    public void setWatchCount(long watchCount) {
+        this.watchCount = watchCount;
+    }
+}
@@ -27,8 +27,9 @@ public class PlaylistStreamEntry implements LocalItem {
     final public String thumbnailUrl;
     @ColumnInfo(name = PlaylistStreamEntity.JOIN_STREAM_ID)
     final public long streamId;
+    /* Updated when the stream is moved in the playlist, until the playlist is saved */
     @ColumnInfo(name = PlaylistStreamEntity.JOIN_INDEX)
-    final public int joinIndex;
+    public int joinIndex;
 
     public PlaylistStreamEntry(long uid, int serviceId, String url, String title,
                                StreamType streamType, long duration, String uploader,
@@ -37,6 +37,22 @@ public abstract class PlaylistStreamDAO implements BasicDAO<PlaylistStreamEntity
             " WHERE " + JOIN_PLAYLIST_ID + " = :playlistId")
     public abstract void deleteBatch(final long playlistId);
 
+    @Query("UPDATE " + PLAYLIST_STREAM_JOIN_TABLE +
+            " SET " + JOIN_INDEX + " = :toIndex" +
+            " WHERE " + JOIN_PLAYLIST_ID + " = :playlistId" +
+            " AND " + JOIN_INDEX + " = :fromIndex")
+    public abstract int moveJoin(final long playlistId, final int fromIndex, final int toIndex);
+
+    @Query("DELETE FROM " + PLAYLIST_STREAM_JOIN_TABLE +
+            " WHERE " + JOIN_PLAYLIST_ID + " = :playlistId" +
+            " AND " + JOIN_INDEX + " = :index")
+    public abstract int deleteJoin(final long playlistId, final int index);
+
+    @Query("SELECT " + JOIN_STREAM_ID + " FROM " + PLAYLIST_STREAM_JOIN_TABLE +
+            " WHERE " + JOIN_PLAYLIST_ID + " = :playlistId" +
+            " ORDER BY " + JOIN_INDEX + " ASC")
+    public abstract List<Long> getOrderedStreamIdsOf(final long playlistId);
+
     @Query("SELECT COALESCE(MAX(" + JOIN_INDEX + "), -1)" +
             " FROM " + PLAYLIST_STREAM_JOIN_TABLE +
             " WHERE " + JOIN_PLAYLIST_ID + " = :playlistId")
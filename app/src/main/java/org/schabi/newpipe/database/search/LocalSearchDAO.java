@@ -0,0 +1,55 @@
+package org.schabi.newpipe.database.search;
+
+import android.arch.persistence.db.SupportSQLiteQuery;
+import android.arch.persistence.room.Dao;
+import android.arch.persistence.room.RawQuery;
+import android.arch.persistence.room.Transaction;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@Dao
+public abstract class LocalSearchDAO {
+    @RawQuery
+    abstract List<LocalSearchEntry> searchInternal(SupportSQLiteQuery query);
+
+    /**
+     * All the matches are ranked from their {@code matchinfo()}, the text is only read for the
+     * best ones.
+     *
+     * @return the best matches of the query in the library, best first
+     */
+    @NonNull
+    @Transaction
+    public List<LocalSearchEntry> search(@NonNull final String query, final int limit) {
+        final String matchQuery = LocalSearchIndex.toMatchQuery(query);
+        if (matchQuery == null || limit <= 0) return Collections.emptyList();
+
+        final List<LocalSearchEntry> matches = new ArrayList<>(
+                searchInternal(LocalSearchIndex.matchesQuery(matchQuery)));
+        if (matches.isEmpty()) return matches;
+        Collections.sort(matches, (a, b) -> Double.compare(b.getRank(), a.getRank()));
+        final List<LocalSearchEntry> best = matches.size() > limit
+                ? matches.subList(0, limit) : matches;
+
+        final long[] docids = new long[best.size()];
+        for (int i = 0; i < docids.length; i++) docids[i] = best.get(i).docid;
+        final Map<Long, LocalSearchEntry> texts = new HashMap<>(docids.length);
+        for (final LocalSearchEntry entry : searchInternal(LocalSearchIndex.entriesQuery(docids))) {
+            texts.put(entry.docid, entry);
+        }
+
+        final List<LocalSearchEntry> results = new ArrayList<>(best.size());
+        for (final LocalSearchEntry match : best) {
+            final LocalSearchEntry text = texts.get(match.docid);
+            if (text == null) continue;
+            results.add(new LocalSearchEntry(match.docid, text.title, text.uploader,
+                    match.matchinfo));
+        }
+        return results;
+    }
+}
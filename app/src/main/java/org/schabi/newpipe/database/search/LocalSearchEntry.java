@@ -0,0 +1,52 @@
+package org.schabi.newpipe.database.search;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Ignore;
+
+/**
+ * An item of the library matching a local search, see {@link LocalSearchIndex}.
+ */
+public class LocalSearchEntry {
+    /* The docid of the row in the index */
+    @ColumnInfo(name = "docid")
+    final public long docid;
+
+    @ColumnInfo(name = "title")
+    final public String title;
+
+    @ColumnInfo(name = "uploader")
+    final public String uploader;
+
+    @ColumnInfo(name = "matchinfo")
+    final public byte[] matchinfo;
+
+    @Ignore
+    private double rank = -1;
+
+    public LocalSearchEntry(long docid, String title, String uploader, byte[] matchinfo) {
+        this.docid = docid;
+        this.title = title;
+        this.uploader = uploader;
+        this.matchinfo = matchinfo;
+    }
+
+    /**
+     * @return one of {@link LocalSearchIndex#KIND_STREAM}, {@link LocalSearchIndex#KIND_PLAYLIST}
+     * and {@link LocalSearchIndex#KIND_SUBSCRIPTION}
+     */
+    public int getKind() {
+        return (int) (docid % LocalSearchIndex.KINDS);
+    }
+
+    /**
+     * @return the uid of the item in the table of its kind
+     */
+    public long getUid() {
+        return docid / LocalSearchIndex.KINDS;
+    }
+
+    public double getRank() {
+        if (rank < 0) rank = matchinfo == null ? 0 : LocalSearchIndex.rank(matchinfo);
+        return rank;
+    }
+}
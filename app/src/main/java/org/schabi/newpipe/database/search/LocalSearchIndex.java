@@ -0,0 +1,244 @@
+package org.schabi.newpipe.database.search;
+
+import android.arch.persistence.db.SimpleSQLiteQuery;
+import android.arch.persistence.db.SupportSQLiteDatabase;
+import android.arch.persistence.db.SupportSQLiteQuery;
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+import static org.schabi.newpipe.database.playlist.model.PlaylistEntity.PLAYLIST_ID;
+import static org.schabi.newpipe.database.playlist.model.PlaylistEntity.PLAYLIST_NAME;
+import static org.schabi.newpipe.database.playlist.model.PlaylistEntity.PLAYLIST_TABLE;
+import static org.schabi.newpipe.database.stream.model.StreamEntity.STREAM_ID;
+import static org.schabi.newpipe.database.stream.model.StreamEntity.STREAM_TABLE;
+import static org.schabi.newpipe.database.stream.model.StreamEntity.STREAM_TITLE;
+import static org.schabi.newpipe.database.stream.model.StreamEntity.STREAM_UPLOADER;
+import static org.schabi.newpipe.database.subscription.SubscriptionEntity.SUBSCRIPTION_NAME;
+import static org.schabi.newpipe.database.subscription.SubscriptionEntity.SUBSCRIPTION_TABLE;
+import static org.schabi.newpipe.database.subscription.SubscriptionEntity.SUBSCRIPTION_UID;
+
+/**
+ * Full-text index of the titles and uploaders of the local streams, playlists and
+ * subscriptions, kept up to date by triggers on these tables.
+ * <p>
+ * Room doesn't support virtual tables, the FTS4 table and its triggers are created when the
+ * database is opened, and the index is rebuilt whenever a trigger is missing, i.e. the first
+ * time or after the tables were recreated by a destructive migration.
+ * <p>
+ * The docid of a row encodes the source table and the uid of the item in it, see
+ * {@link LocalSearchEntry}. The default tokenizer is used, the only one available on all
+ * supported API levels, which only folds the case of ASCII characters.
+ */
+public final class LocalSearchIndex {
+    public static final String TABLE_NAME = "local_search";
+    public static final String TITLE = "title";
+    public static final String UPLOADER = "uploader";
+
+    public static final int KIND_STREAM = 0;
+    public static final int KIND_PLAYLIST = 1;
+    public static final int KIND_SUBSCRIPTION = 2;
+    /* docid = uid * KINDS + kind */
+    static final int KINDS = 4;
+
+    private static final String TRIGGER_PREFIX = TABLE_NAME + "_";
+
+    /* Weights of the title and uploader columns in the rank */
+    private static final double[] COLUMN_WEIGHTS = {2.0, 1.0};
+
+    private LocalSearchIndex() {
+        //no instance
+    }
+
+    /*//////////////////////////////////////////////////////////////////////////
+    // Index
+    //////////////////////////////////////////////////////////////////////////*/
+
+    private static final class Source {
+        final String table;
+        final String uid;
+        final String title;
+        final String uploader;
+        final int kind;
+
+        Source(final String table, final String uid, final String title,
+               final String uploader, final int kind) {
+            this.table = table;
+            this.uid = uid;
+            this.title = title;
+            this.uploader = uploader;
+            this.kind = kind;
+        }
+
+        String docid(final String row) {
+            return "(" + row + ".`" + uid + "` * " + KINDS + " + " + kind + ")";
+        }
+
+        String uploaderOf(final String row) {
+            return uploader == null ? "NULL" : row + ".`" + uploader + "`";
+        }
+
+        String indexedColumns() {
+            return "`" + title + "`" + (uploader == null ? "" : ", `" + uploader + "`");
+        }
+    }
+
+    private static final Source[] SOURCES = {
+            new Source(STREAM_TABLE, STREAM_ID, STREAM_TITLE, STREAM_UPLOADER, KIND_STREAM),
+            new Source(PLAYLIST_TABLE, PLAYLIST_ID, PLAYLIST_NAME, null, KIND_PLAYLIST),
+            new Source(SUBSCRIPTION_TABLE, SUBSCRIPTION_UID, SUBSCRIPTION_NAME, null,
+                    KIND_SUBSCRIPTION)
+    };
+
+    private static String insertOf(final Source source) {
+        return "INSERT INTO `" + TABLE_NAME + "` (`docid`, `" + TITLE + "`, `" + UPLOADER + "`) " +
+                "VALUES (" + source.docid("NEW") + ", NEW.`" + source.title + "`, " +
+                source.uploaderOf("NEW") + "); ";
+    }
+
+    private static String deleteOf(final Source source, final String row) {
+        return "DELETE FROM `" + TABLE_NAME + "` WHERE `docid` = " + source.docid(row) + "; ";
+    }
+
+    /**
+     * The insert trigger also deletes, in case a row was replaced on conflict: the delete
+     * triggers don't run for the replaced row.
+     */
+    private static String[] triggersOf(final Source source) {
+        final String name = "`" + TRIGGER_PREFIX + source.table;
+        final String table = " ON `" + source.table + "` BEGIN ";
+        return new String[]{
+                "CREATE TRIGGER IF NOT EXISTS " + name + "_after_insert` AFTER INSERT" + table +
+                        deleteOf(source, "NEW") + insertOf(source) + "END",
+                "CREATE TRIGGER IF NOT EXISTS " + name + "_after_update` AFTER UPDATE OF " +
+                        source.indexedColumns() + table +
+                        deleteOf(source, "OLD") + insertOf(source) + "END",
+                "CREATE TRIGGER IF NOT EXISTS " + name + "_after_delete` AFTER DELETE" + table +
+                        deleteOf(source, "OLD") + "END"
+        };
+    }
+
+    /**
+     * Create the index if needed, must be called every time the database is opened.
+     */
+    public static void ensureCreated(@NonNull final SupportSQLiteDatabase database) {
+        final int triggers;
+        final Cursor cursor = database.query("SELECT COUNT(*) FROM sqlite_master " +
+                "WHERE type = 'trigger' AND name LIKE '" + TRIGGER_PREFIX + "%'");
+        try {
+            triggers = cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+        if (triggers == SOURCES.length * 3) return;
+
+        database.beginTransaction();
+        try {
+            database.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `" + TABLE_NAME + "` " +
+                    "USING fts4(`" + TITLE + "`, `" + UPLOADER + "`)");
+            database.execSQL("DELETE FROM `" + TABLE_NAME + "`");
+
+            for (final Source source : SOURCES) {
+                database.execSQL("INSERT INTO `" + TABLE_NAME + "` " +
+                        "(`docid`, `" + TITLE + "`, `" + UPLOADER + "`) " +
+                        "SELECT " + source.docid("s") + ", s.`" + source.title + "`, " +
+                        source.uploaderOf("s") + " FROM `" + source.table + "` s");
+                for (final String trigger : triggersOf(source)) {
+                    database.execSQL(trigger);
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /*//////////////////////////////////////////////////////////////////////////
+    // Search
+    //////////////////////////////////////////////////////////////////////////*/
+
+    /**
+     * Turn what the user typed into a full-text query matching the items containing all the
+     * words, the last ones being possibly incomplete: every word is used as a prefix.
+     *
+     * @return the query, or null if there is no word to search
+     */
+    @Nullable
+    public static String toMatchQuery(@NonNull final String query) {
+        final StringBuilder builder = new StringBuilder(query.length() + 8);
+        boolean inWord = false;
+        for (int i = 0; i < query.length(); i++) {
+            final char c = query.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (!inWord && builder.length() > 0) builder.append(' ');
+                // The default tokenizer only folds ASCII, and upper case words are operators
+                builder.append(c < 128 ? Character.toLowerCase(c) : c);
+                inWord = true;
+            } else if (inWord) {
+                builder.append('*');
+                inWord = false;
+            }
+        }
+        if (inWord) builder.append('*');
+        return builder.length() > 0 ? builder.toString() : null;
+    }
+
+    /**
+     * The docid and {@code matchinfo()} of all the rows matching the query, enough to rank
+     * them without reading the indexed text.
+     *
+     * @param matchQuery a query returned by {@link #toMatchQuery}
+     */
+    @NonNull
+    static SupportSQLiteQuery matchesQuery(@NonNull final String matchQuery) {
+        return new SimpleSQLiteQuery("SELECT `docid` AS docid, NULL AS title, NULL AS uploader," +
+                " matchinfo(`" + TABLE_NAME + "`, 'pcnx') AS matchinfo" +
+                " FROM `" + TABLE_NAME + "` WHERE `" + TABLE_NAME + "` MATCH ?",
+                new Object[]{matchQuery});
+    }
+
+    /**
+     * The indexed text of the given rows, in no particular order.
+     */
+    @NonNull
+    static SupportSQLiteQuery entriesQuery(@NonNull final long[] docids) {
+        final StringBuilder builder = new StringBuilder("SELECT `docid` AS docid, `" + TITLE +
+                "` AS title, `" + UPLOADER + "` AS uploader, NULL AS matchinfo" +
+                " FROM `" + TABLE_NAME + "` WHERE `docid` IN (");
+        for (int i = 0; i < docids.length; i++) {
+            if (i > 0) builder.append(", ");
+            builder.append(docids[i]);
+        }
+        return new SimpleSQLiteQuery(builder.append(")").toString());
+    }
+
+    /**
+     * Rank a match from the 'pcnx' {@code matchinfo()} of its row: the hits of each word in
+     * each column count more in the title, and more for the words found in few rows.
+     */
+    static double rank(@NonNull final byte[] matchinfo) {
+        final IntBuffer info = ByteBuffer.wrap(matchinfo).order(ByteOrder.nativeOrder())
+                .asIntBuffer();
+        final int phrases = info.get(0);
+        final int columns = info.get(1);
+        final int rows = info.get(2);
+
+        double rank = 0;
+        for (int phrase = 0; phrase < phrases; phrase++) {
+            for (int column = 0; column < columns && column < COLUMN_WEIGHTS.length; column++) {
+                final int offset = 3 + 3 * (phrase * columns + column);
+                final int hits = info.get(offset);
+                final int rowsWithHits = info.get(offset + 2);
+                if (hits == 0) continue;
+
+                rank += COLUMN_WEIGHTS[column] * hits *
+                        Math.log(1.0 + (double) rows / rowsWithHits);
+            }
+        }
+        return rank;
+    }
+}
@@ -1,18 +1,21 @@
 package org.schabi.newpipe.database.stream.dao;
 
 import android.arch.persistence.room.Dao;
-import android.arch.persistence.room.Insert;
-import android.arch.persistence.room.OnConflictStrategy;
 import android.arch.persistence.room.Query;
 import android.arch.persistence.room.Transaction;
 
 import org.schabi.newpipe.database.BasicDAO;
+import org.schabi.newpipe.database.feed.model.FeedEntity;
 import org.schabi.newpipe.database.playlist.model.PlaylistStreamEntity;
 import org.schabi.newpipe.database.stream.model.StreamEntity;
 import org.schabi.newpipe.database.history.model.StreamHistoryEntity;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import io.reactivex.Flowable;
 
@@ -25,6 +28,12 @@ import static org.schabi.newpipe.database.history.model.StreamHistoryEntity.STRE
 
 @Dao
 public abstract class StreamDAO implements BasicDAO<StreamEntity> {
+    /**
+     * Streams looked up per query by {@link #upsertAll}, below the limit of 999 bound
+     * parameters of SQLite
+     */
+    static final int LOOKUP_CHUNK_SIZE = 500;
+
     @Override
     @Query("SELECT * FROM " + STREAM_TABLE)
     public abstract Flowable<List<StreamEntity>> getAll();
@@ -42,46 +51,109 @@ public abstract class StreamDAO implements BasicDAO<StreamEntity> {
             STREAM_SERVICE_ID + " = :serviceId")
     public abstract Flowable<List<StreamEntity>> getStream(long serviceId, String url);
 
-    @Insert(onConflict = OnConflictStrategy.IGNORE)
-    abstract void silentInsertAllInternal(final List<StreamEntity> streams);
-
-    @Query("SELECT " + STREAM_ID + " FROM " + STREAM_TABLE + " WHERE " +
+    @Query("SELECT * FROM " + STREAM_TABLE + " WHERE " +
             STREAM_URL + " = :url AND " +
             STREAM_SERVICE_ID + " = :serviceId")
-    abstract Long getStreamIdInternal(long serviceId, String url);
+    abstract StreamEntity getStreamInternal(long serviceId, String url);
 
+    /**
+     * Insert the stream, or update it if its metadata changed. Unchanged streams aren't written.
+     */
     @Transaction
     public long upsert(StreamEntity stream) {
-        final Long streamIdCandidate = getStreamIdInternal(stream.getServiceId(), stream.getUrl());
+        final StreamEntity existing = getStreamInternal(stream.getServiceId(), stream.getUrl());
 
-        if (streamIdCandidate == null) {
+        if (existing == null) {
             return insert(stream);
         } else {
-            stream.setUid(streamIdCandidate);
-            update(stream);
-            return streamIdCandidate;
+            stream.setUid(existing.getUid());
+            if (!existing.hasEqualValues(stream)) update(stream);
+            return existing.getUid();
         }
     }
 
+    @Query("SELECT * FROM " + STREAM_TABLE + " WHERE " +
+            STREAM_SERVICE_ID + " = :serviceId AND " +
+            STREAM_URL + " IN (:urls)")
+    abstract List<StreamEntity> getStreamsInternal(int serviceId, List<String> urls);
+
+    /**
+     * Insert the new streams and update the ones whose metadata changed, like {@link #upsert}
+     * for each stream but with a lookup query per {@link #LOOKUP_CHUNK_SIZE} streams of a
+     * service instead of one per stream.
+     *
+     * @return the ids of the streams, in the same order
+     */
     @Transaction
     public List<Long> upsertAll(List<StreamEntity> streams) {
-        silentInsertAllInternal(streams);
+        final Map<String, StreamEntity> known = getExistingStreams(streams);
+
+        final List<StreamEntity> newStreams = new ArrayList<>();
+        for (final StreamEntity stream : streams) {
+            final String key = keyOf(stream);
+            if (!known.containsKey(key)) {
+                newStreams.add(stream);
+                known.put(key, stream);
+            }
+        }
+        if (!newStreams.isEmpty()) {
+            final List<Long> newIds = insertAll(newStreams);
+            for (int i = 0; i < newStreams.size(); i++) {
+                newStreams.get(i).setUid(newIds.get(i));
+            }
+        }
 
         final List<Long> streamIds = new ArrayList<>(streams.size());
-        for (StreamEntity stream : streams) {
-            final Long streamId = getStreamIdInternal(stream.getServiceId(), stream.getUrl());
-            if (streamId == null) {
-                throw new IllegalStateException("StreamID cannot be null just after insertion.");
+        final List<StreamEntity> changedStreams = new ArrayList<>();
+        for (final StreamEntity stream : streams) {
+            final String key = keyOf(stream);
+            final StreamEntity current = known.get(key);
+            if (current != stream) {
+                stream.setUid(current.getUid());
+                if (!current.hasEqualValues(stream)) {
+                    changedStreams.add(stream);
+                    known.put(key, stream);
+                }
             }
-
-            streamIds.add(streamId);
-            stream.setUid(streamId);
+            streamIds.add(stream.getUid());
         }
 
-        update(streams);
+        if (!changedStreams.isEmpty()) update(changedStreams);
         return streamIds;
     }
 
+    /**
+     * @return the stored streams among the given ones, by {@link #keyOf key}
+     */
+    private Map<String, StreamEntity> getExistingStreams(final List<StreamEntity> streams) {
+        final Map<Integer, Set<String>> urlsByService = new HashMap<>();
+        for (final StreamEntity stream : streams) {
+            Set<String> urls = urlsByService.get(stream.getServiceId());
+            if (urls == null) {
+                urls = new LinkedHashSet<>();
+                urlsByService.put(stream.getServiceId(), urls);
+            }
+            urls.add(stream.getUrl());
+        }
+
+        final Map<String, StreamEntity> existing = new HashMap<>(streams.size());
+        for (final Map.Entry<Integer, Set<String>> service : urlsByService.entrySet()) {
+            final List<String> urls = new ArrayList<>(service.getValue());
+            for (int start = 0; start < urls.size(); start += LOOKUP_CHUNK_SIZE) {
+                final List<String> chunk =
+                        urls.subList(start, Math.min(start + LOOKUP_CHUNK_SIZE, urls.size()));
+                for (final StreamEntity stream : getStreamsInternal(service.getKey(), chunk)) {
+                    existing.put(keyOf(stream), stream);
+                }
+            }
+        }
+        return existing;
+    }
+
+    private static String keyOf(final StreamEntity stream) {
+        return stream.getServiceId() + ":" + stream.getUrl();
+    }
+
     @Query("DELETE FROM " + STREAM_TABLE + " WHERE " + STREAM_ID +
             " NOT IN " +
             "(SELECT DISTINCT " + STREAM_ID + " FROM " + STREAM_TABLE +
@@ -93,6 +165,10 @@ public abstract class StreamDAO implements BasicDAO<StreamEntity> {
             " LEFT JOIN " + PLAYLIST_STREAM_JOIN_TABLE +
             " ON " + STREAM_ID + " = " +
             PlaylistStreamEntity.PLAYLIST_STREAM_JOIN_TABLE + "." + PlaylistStreamEntity.JOIN_STREAM_ID +
+
+            " LEFT JOIN " + FeedEntity.FEED_TABLE +
+            " ON " + STREAM_ID + " = " +
+            FeedEntity.FEED_TABLE + "." + FeedEntity.FEED_STREAM_ID +
             ")")
     public abstract int deleteOrphans();
 }
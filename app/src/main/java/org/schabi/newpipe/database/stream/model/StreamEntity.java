@@ -87,6 +87,29 @@ public class StreamEntity implements Serializable {
                 item.getThumbnailUrl(), item.getUploader(), item.getDuration());
     }
 
+    /**
+     * @return true if both entities describe the same stream with the same metadata,
+     * regardless of their uid
+     */
+    public boolean hasEqualValues(final StreamEntity other) {
+        return serviceId == other.serviceId && streamType == other.streamType &&
+                sameValue(duration, other.duration) && sameValue(url, other.url) &&
+                sameValue(title, other.title) && sameValue(uploader, other.uploader) &&
+                sameValue(thumbnailUrl, other.thumbnailUrl);
+    }
+
+    private static boolean sameValue(final Object a, final Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    public StreamInfoItem toStreamInfoItem() {
+        StreamInfoItem item = new StreamInfoItem(serviceId, url, title, streamType);
+        if (duration != null) item.setDuration(duration);
+        item.setUploaderName(uploader);
+        item.setThumbnailUrl(thumbnailUrl);
+        return item;
+    }
+
     public long getUid() {
         return uid;
     }
@@ -22,6 +22,7 @@ import android.widget.Toast;
 
 import org.schabi.newpipe.MainActivity;
 import org.schabi.newpipe.R;
+import org.schabi.newpipe.extractor.MediaFormat;
 import org.schabi.newpipe.extractor.stream.AudioStream;
 import org.schabi.newpipe.extractor.stream.Stream;
 import org.schabi.newpipe.extractor.stream.StreamInfo;
@@ -328,7 +329,26 @@ public class DownloadDialog extends DialogFragment implements RadioGroup.OnCheck
         String url = stream.getUrl();
         fileName += "." + stream.getFormat().getSuffix();
 
-        DownloadManagerService.startMission(getContext(), url, location, fileName, isAudio, threadsSeekBar.getProgress() + 1);
+        // A video-only MP4 stream gets the best M4A audio stream muxed in after the download
+        String audioUrl = null;
+        if (!isAudio && ((VideoStream) stream).isVideoOnly() && stream.getFormat() == MediaFormat.MPEG_4) {
+            final AudioStream audioStream = getBestM4aAudioStream();
+            if (audioStream != null) audioUrl = audioStream.getUrl();
+        }
+
+        DownloadManagerService.startMission(getContext(), url, audioUrl, location, fileName, isAudio, threadsSeekBar.getProgress() + 1);
         getDialog().dismiss();
     }
+
+    @Nullable
+    private AudioStream getBestM4aAudioStream() {
+        AudioStream best = null;
+        for (AudioStream audioStream : wrappedAudioStreams.getStreamsList()) {
+            if (audioStream.getFormat() != MediaFormat.M4A) continue;
+            if (best == null || audioStream.getAverageBitrate() > best.getAverageBitrate()) {
+                best = audioStream;
+            }
+        }
+        return best;
+    }
 }
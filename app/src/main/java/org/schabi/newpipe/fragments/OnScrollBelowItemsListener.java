@@ -6,10 +6,25 @@ import android.support.v7.widget.StaggeredGridLayoutManager;
 
 /**
  * Recycler view scroll listener which calls the method {@link #onScrolledDown(RecyclerView)}
- * if the view is scrolled below the last item.
+ * if the view is scrolled below the last item, and {@link #onScrolledNearBottom(RecyclerView)}
+ * when it gets close to it.
  */
 public abstract class OnScrollBelowItemsListener extends RecyclerView.OnScrollListener {
 
+    private final int itemsNearBottom;
+
+    public OnScrollBelowItemsListener() {
+        this(0);
+    }
+
+    /**
+     * @param itemsNearBottom how many items before the last one
+     *                        {@link #onScrolledNearBottom(RecyclerView)} is called, 0 to disable it
+     */
+    public OnScrollBelowItemsListener(int itemsNearBottom) {
+        this.itemsNearBottom = itemsNearBottom;
+    }
+
     @Override
     public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
         super.onScrolled(recyclerView, dx, dy);
@@ -30,10 +45,20 @@ public abstract class OnScrollBelowItemsListener extends RecyclerView.OnScrollLi
 
             if ((visibleItemCount + pastVisibleItems) >= totalItemCount) {
                 onScrolledDown(recyclerView);
+            } else if (itemsNearBottom > 0
+                    && (visibleItemCount + pastVisibleItems) >= totalItemCount - itemsNearBottom) {
+                onScrolledNearBottom(recyclerView);
             }
         }
     }
 
+    /**
+     * Called when the recycler view is scrolled near the last item, if enabled.
+     *
+     * @param recyclerView the recycler view
+     */
+    public void onScrolledNearBottom(RecyclerView recyclerView) {}
+
     /**
      * Called when the recycler view is scrolled below the last item.
      *
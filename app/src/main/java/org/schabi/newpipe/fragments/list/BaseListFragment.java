@@ -53,6 +53,11 @@ public abstract class BaseListFragment<I, N> extends BaseStateFragment<I> implem
 
     private static final int LIST_MODE_UPDATE_FLAG = 0x32;
 
+    /**
+     * How many items before the end of the list the next items start loading in the background.
+     */
+    protected static final int PREFETCH_DISTANCE = 15;
+
     /*//////////////////////////////////////////////////////////////////////////
     // LifeCycle
     //////////////////////////////////////////////////////////////////////////*/
@@ -221,11 +226,18 @@ public abstract class BaseListFragment<I, N> extends BaseStateFragment<I> implem
         });
 
         itemsList.clearOnScrollListeners();
-        itemsList.addOnScrollListener(new OnScrollBelowItemsListener() {
+        itemsList.addOnScrollListener(new OnScrollBelowItemsListener(PREFETCH_DISTANCE) {
             @Override
             public void onScrolledDown(RecyclerView recyclerView) {
                 onScrollToBottom();
             }
+
+            @Override
+            public void onScrolledNearBottom(RecyclerView recyclerView) {
+                if (hasMoreItems() && !isLoading.get()) {
+                    prefetchMoreItems();
+                }
+            }
         });
     }
 
@@ -303,6 +315,12 @@ public abstract class BaseListFragment<I, N> extends BaseStateFragment<I> implem
 
     protected abstract void loadMoreItems();
 
+    /**
+     * Start loading the next items in the background, before the user reaches the end of the
+     * list, so {@link #loadMoreItems()} doesn't have to wait for them. Does nothing by default.
+     */
+    protected void prefetchMoreItems() {}
+
     protected abstract boolean hasMoreItems();
 
     /*//////////////////////////////////////////////////////////////////////////
@@ -9,6 +9,7 @@ import android.view.View;
 import org.schabi.newpipe.extractor.ListExtractor;
 import org.schabi.newpipe.extractor.ListInfo;
 import org.schabi.newpipe.util.Constants;
+import org.schabi.newpipe.util.PagePrefetcher;
 
 import java.util.Queue;
 
@@ -31,6 +32,8 @@ public abstract class BaseListInfoFragment<I extends ListInfo>
     protected I currentInfo;
     protected String currentNextPageUrl;
     protected Disposable currentWorker;
+    private final PagePrefetcher<ListExtractor.InfoItemsPage> nextPagePrefetcher =
+            new PagePrefetcher<>();
 
     @Override
     protected void initViews(View rootView, Bundle savedInstanceState) {
@@ -63,6 +66,7 @@ public abstract class BaseListInfoFragment<I extends ListInfo>
         super.onDestroy();
         if (currentWorker != null) currentWorker.dispose();
         currentWorker = null;
+        nextPagePrefetcher.clear();
     }
 
     /*//////////////////////////////////////////////////////////////////////////
@@ -109,6 +113,7 @@ public abstract class BaseListInfoFragment<I extends ListInfo>
 
         showListFooter(false);
         currentInfo = null;
+        nextPagePrefetcher.clear();
         if (currentWorker != null) currentWorker.dispose();
         currentWorker = loadResult(forceLoad)
                 .subscribeOn(Schedulers.io())
@@ -131,7 +136,7 @@ public abstract class BaseListInfoFragment<I extends ListInfo>
         isLoading.set(true);
 
         if (currentWorker != null) currentWorker.dispose();
-        currentWorker = loadMoreItemsLogic()
+        currentWorker = nextPagePrefetcher.get(currentNextPageUrl, loadMoreItemsLogic())
                 .subscribeOn(Schedulers.io())
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe((@io.reactivex.annotations.NonNull ListExtractor.InfoItemsPage InfoItemsPage) -> {
@@ -143,6 +148,11 @@ public abstract class BaseListInfoFragment<I extends ListInfo>
                 });
     }
 
+    @Override
+    protected void prefetchMoreItems() {
+        nextPagePrefetcher.prefetch(currentNextPageUrl, loadMoreItemsLogic());
+    }
+
     @Override
     public void handleNextItems(ListExtractor.InfoItemsPage result) {
         super.handleNextItems(result);
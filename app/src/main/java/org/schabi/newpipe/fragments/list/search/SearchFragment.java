@@ -32,6 +32,7 @@ import android.widget.TextView;
 import org.schabi.newpipe.R;
 import org.schabi.newpipe.ReCaptchaActivity;
 import org.schabi.newpipe.database.history.model.SearchHistoryEntry;
+import org.schabi.newpipe.database.search.LocalSearchEntry;
 import org.schabi.newpipe.extractor.InfoItem;
 import org.schabi.newpipe.extractor.ListExtractor;
 import org.schabi.newpipe.extractor.NewPipe;
@@ -42,6 +43,7 @@ import org.schabi.newpipe.extractor.search.SearchInfo;
 import org.schabi.newpipe.fragments.BackPressable;
 import org.schabi.newpipe.fragments.list.BaseListFragment;
 import org.schabi.newpipe.local.history.HistoryRecordManager;
+import org.schabi.newpipe.local.search.LocalSearchManager;
 import org.schabi.newpipe.report.ErrorActivity;
 import org.schabi.newpipe.report.UserAction;
 import org.schabi.newpipe.util.Constants;
@@ -49,6 +51,7 @@ import org.schabi.newpipe.util.AnimationUtils;
 import org.schabi.newpipe.util.ExtractorHelper;
 import org.schabi.newpipe.util.LayoutManagerSmoothScroller;
 import org.schabi.newpipe.util.NavigationHelper;
+import org.schabi.newpipe.util.PagePrefetcher;
 import org.schabi.newpipe.util.ServiceHelper;
 
 import java.io.IOException;
@@ -66,6 +69,7 @@ import java.util.concurrent.TimeUnit;
 import icepick.State;
 import io.reactivex.Flowable;
 import io.reactivex.Observable;
+import io.reactivex.Single;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.CompositeDisposable;
 import io.reactivex.disposables.Disposable;
@@ -95,6 +99,11 @@ public class SearchFragment
      */
     private static final int SUGGESTIONS_DEBOUNCE = 120; //ms
 
+    /**
+     * How many matching streams, playlists and subscriptions of the library are suggested.
+     */
+    private static final int LIBRARY_SUGGESTIONS = 3;
+
     @State
     protected int filterItemCheckedId = -1;
 
@@ -120,6 +129,8 @@ public class SearchFragment
     private StreamingService service;
     private String currentPageUrl;
     private String nextPageUrl;
+    private final PagePrefetcher<ListExtractor.InfoItemsPage> nextPagePrefetcher =
+            new PagePrefetcher<>();
     private String contentCountry;
     private boolean isSuggestionsEnabled = true;
 
@@ -130,6 +141,7 @@ public class SearchFragment
 
     private SuggestionListAdapter suggestionListAdapter;
     private HistoryRecordManager historyRecordManager;
+    private LocalSearchManager localSearchManager;
 
     /*//////////////////////////////////////////////////////////////////////////
     // Views
@@ -176,6 +188,7 @@ public class SearchFragment
         suggestionListAdapter.setShowSuggestionHistory(isSearchHistoryEnabled);
 
         historyRecordManager = new HistoryRecordManager(context);
+        localSearchManager = new LocalSearchManager(context);
     }
 
     @Override
@@ -264,6 +277,7 @@ public class SearchFragment
         if (searchDisposable != null) searchDisposable.dispose();
         if (suggestionDisposable != null) suggestionDisposable.dispose();
         if (disposables != null) disposables.clear();
+        nextPagePrefetcher.clear();
     }
 
     @Override
@@ -612,7 +626,7 @@ public class SearchFragment
                 .switchMap(query -> {
                     final Flowable<List<SearchHistoryEntry>> flowable = historyRecordManager
                             .getRelatedSearches(query, 3, 25);
-                    final Observable<List<SuggestionItem>> local = flowable.toObservable()
+                    final Observable<List<SuggestionItem>> history = flowable.toObservable()
                             .map(searchHistoryEntries -> {
                                 List<SuggestionItem> result = new ArrayList<>();
                                 for (SearchHistoryEntry entry : searchHistoryEntries)
@@ -620,6 +634,29 @@ public class SearchFragment
                                 return result;
                             });
 
+                    // Titles of the matching streams, playlists and subscriptions of the library
+                    final Observable<List<SuggestionItem>> library = localSearchManager
+                            .search(query, LIBRARY_SUGGESTIONS)
+                            .toObservable()
+                            .map(matches -> {
+                                List<SuggestionItem> result = new ArrayList<>();
+                                for (LocalSearchEntry entry : matches) {
+                                    if (!TextUtils.isEmpty(entry.title)) {
+                                        result.add(new SuggestionItem(false, entry.title));
+                                    }
+                                }
+                                return result;
+                            });
+
+                    final Observable<List<SuggestionItem>> local = Observable.combineLatest(
+                            history, library, (historyResult, libraryResult) -> {
+                                List<SuggestionItem> result = new ArrayList<>(historyResult);
+                                for (SuggestionItem item : libraryResult) {
+                                    if (!containsQuery(result, item.query)) result.add(item);
+                                }
+                                return result;
+                            });
+
                     if (query.length() < THRESHOLD_NETWORK_SUGGESTION) {
                         // Only pass through if the query length is equal or greater than THRESHOLD_NETWORK_SUGGESTION
                         return local.materialize();
@@ -643,12 +680,8 @@ public class SearchFragment
                         // Remove duplicates
                         final Iterator<SuggestionItem> iterator = networkResult.iterator();
                         while (iterator.hasNext() && localResult.size() > 0) {
-                            final SuggestionItem next = iterator.next();
-                            for (SuggestionItem item : localResult) {
-                                if (item.query.equals(next.query)) {
-                                    iterator.remove();
-                                    break;
-                                }
+                            if (containsQuery(localResult, iterator.next().query)) {
+                                iterator.remove();
                             }
                         }
 
@@ -672,6 +705,13 @@ public class SearchFragment
                 });
     }
 
+    private static boolean containsQuery(final List<SuggestionItem> items, final String query) {
+        for (SuggestionItem item : items) {
+            if (item.query.equals(query)) return true;
+        }
+        return false;
+    }
+
     @Override
     protected void doInitialLoadLogic() {
         // no-op
@@ -723,6 +763,7 @@ public class SearchFragment
         super.startLoading(forceLoad);
         if (disposables != null) disposables.clear();
         if (searchDisposable != null) searchDisposable.dispose();
+        nextPagePrefetcher.clear();
         searchDisposable = ExtractorHelper.searchFor(serviceId,
                     searchString,
                     Arrays.asList(contentFilter),
@@ -739,18 +780,27 @@ public class SearchFragment
         isLoading.set(true);
         showListFooter(true);
         if (searchDisposable != null) searchDisposable.dispose();
-        searchDisposable = ExtractorHelper.getMoreSearchItems(
-                    serviceId,
-                    searchString,
-                    asList(contentFilter),
-                    sortFilter,
-                    nextPageUrl)
+        searchDisposable = nextPagePrefetcher.get(nextPageUrl, getMoreSearchItems())
                 .subscribeOn(Schedulers.io())
                 .observeOn(AndroidSchedulers.mainThread())
                 .doOnEvent((nextItemsResult, throwable) -> isLoading.set(false))
                 .subscribe(this::handleNextItems, this::onError);
     }
 
+    @Override
+    protected void prefetchMoreItems() {
+        nextPagePrefetcher.prefetch(nextPageUrl, getMoreSearchItems());
+    }
+
+    private Single<ListExtractor.InfoItemsPage> getMoreSearchItems() {
+        return ExtractorHelper.getMoreSearchItems(
+                serviceId,
+                searchString,
+                asList(contentFilter),
+                sortFilter,
+                nextPageUrl);
+    }
+
     @Override
     protected boolean hasMoreItems() {
         // TODO: No way to tell if search has more items in the moment
@@ -115,6 +115,15 @@ public class LocalItemListAdapter extends RecyclerView.Adapter<RecyclerView.View
         }
     }
 
+    /**
+     * Replace all the items, the views of the items still in the list are rebound in place
+     */
+    public void setItems(List<? extends LocalItem> data) {
+        localItems.clear();
+        localItems.addAll(data);
+        notifyDataSetChanged();
+    }
+
     public void removeItem(final LocalItem data) {
         final int index = localItems.indexOf(data);
 
@@ -0,0 +1,149 @@
+package org.schabi.newpipe.local.feed;
+
+import android.support.annotation.NonNull;
+
+import org.schabi.newpipe.database.AppDatabase;
+import org.schabi.newpipe.database.feed.FeedStreamOrder;
+import org.schabi.newpipe.database.feed.dao.FeedDAO;
+import org.schabi.newpipe.database.feed.model.FeedEntity;
+import org.schabi.newpipe.database.feed.model.FeedLastUpdatedEntity;
+import org.schabi.newpipe.database.stream.dao.StreamDAO;
+import org.schabi.newpipe.database.stream.model.StreamEntity;
+import org.schabi.newpipe.database.subscription.SubscriptionEntity;
+import org.schabi.newpipe.extractor.InfoItem;
+import org.schabi.newpipe.extractor.channel.ChannelInfo;
+import org.schabi.newpipe.extractor.stream.StreamInfoItem;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.Single;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Stores the latest streams of each subscription, so the feed can be shown right away
+ * from the database while the outdated channels are fetched again.
+ */
+public class FeedDatabaseManager {
+
+    /**
+     * Number of streams kept for each subscription
+     */
+    private static final int MAX_STREAMS_PER_SUBSCRIPTION = 60;
+    /**
+     * Feed orders per millisecond, leaves room to place streams between the known ones
+     */
+    static final long ORDER_GAP = 1024;
+
+    private final AppDatabase database;
+    private final StreamDAO streamTable;
+    private final FeedDAO feedTable;
+
+    public FeedDatabaseManager(final AppDatabase db) {
+        database = db;
+        streamTable = db.streamDAO();
+        feedTable = db.feedDAO();
+    }
+
+    public Flowable<List<StreamEntity>> getLatestStreams(final int limit) {
+        return feedTable.getLatestStreams(limit).subscribeOn(Schedulers.io());
+    }
+
+    /**
+     * @param maxAge how long, in milliseconds, the streams of a subscription are considered
+     *               up to date since they were last fetched
+     */
+    public Single<List<SubscriptionEntity>> getOutdatedSubscriptions(final long maxAge) {
+        return Single.fromCallable(() ->
+                feedTable.getOutdatedSubscriptions(System.currentTimeMillis() - maxAge))
+                .subscribeOn(Schedulers.io());
+    }
+
+    /**
+     * Merge the streams of a freshly fetched channel into the feed of its subscription.
+     */
+    public Completable updateFeed(@NonNull final SubscriptionEntity subscription,
+                                  @NonNull final ChannelInfo info) {
+        return Completable.fromRunnable(() -> database.runInTransaction(() ->
+                mergeStreams(subscription.getUid(), info.getRelatedItems(),
+                        System.currentTimeMillis())
+        )).subscribeOn(Schedulers.io());
+    }
+
+    private void mergeStreams(final long subscriptionId, final List<InfoItem> items,
+                              final long now) {
+        final List<StreamEntity> streams = new ArrayList<>(items.size());
+        final List<String> urls = new ArrayList<>(items.size());
+        for (final InfoItem item : items) {
+            if (!(item instanceof StreamInfoItem)) continue;
+            streams.add(new StreamEntity((StreamInfoItem) item));
+            urls.add(item.getUrl());
+        }
+
+        final Map<String, Long> knownOrders = new HashMap<>();
+        for (final FeedStreamOrder known : feedTable.getStreamOrders(subscriptionId)) {
+            knownOrders.put(known.url, known.order);
+        }
+
+        final List<Long> streamIds = streamTable.upsertAll(streams);
+        final long[] orders = computeOrders(urls, knownOrders, now);
+
+        final List<FeedEntity> newEntries = new ArrayList<>();
+        for (int i = 0; i < streamIds.size(); i++) {
+            final Long known = knownOrders.get(urls.get(i));
+            if (known == null) {
+                newEntries.add(new FeedEntity(subscriptionId, streamIds.get(i), orders[i]));
+            } else if (known != orders[i]) {
+                feedTable.setOrder(subscriptionId, streamIds.get(i), orders[i]);
+            }
+        }
+
+        feedTable.silentInsertAll(newEntries);
+        feedTable.trimSubscription(subscriptionId, MAX_STREAMS_PER_SUBSCRIPTION);
+        feedTable.setLastUpdated(new FeedLastUpdatedEntity(subscriptionId, now));
+    }
+
+    /**
+     * Compute the feed order of the streams of a channel, given newest first.
+     * <p>
+     * The extractor doesn't give a sortable upload date, so the order of a new stream comes
+     * from its position in the channel: the streams newer than any known one are placed at
+     * the time they were first seen, the others between the known streams around them, at
+     * most {@link #ORDER_GAP} below the preceding one. The known streams keep their order,
+     * unless there is no room left between them, then they are moved down just enough.
+     */
+    static long[] computeOrders(final List<String> urls, final Map<String, Long> knownOrders,
+                                final long now) {
+        final long[] orders = new long[urls.size()];
+        long previous = (now + 1) * ORDER_GAP;
+        int i = 0;
+        while (i < urls.size()) {
+            final Long known = knownOrders.get(urls.get(i));
+            if (known != null) {
+                orders[i] = Math.min(known, previous - 1);
+                previous = orders[i++];
+                continue;
+            }
+
+            // A run of new streams, up to the next known one
+            int end = i;
+            while (end < urls.size() && !knownOrders.containsKey(urls.get(end))) end++;
+            final long count = end - i;
+
+            long step = ORDER_GAP;
+            if (end < urls.size()) {
+                final long room = previous - knownOrders.get(urls.get(end));
+                step = Math.max(1, Math.min(ORDER_GAP, room / (count + 1)));
+            }
+            for (; i < end; i++) {
+                orders[i] = previous - step;
+                previous = orders[i];
+            }
+        }
+        return orders;
+    }
+}
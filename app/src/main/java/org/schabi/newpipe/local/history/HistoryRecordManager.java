@@ -41,7 +41,9 @@ import org.schabi.newpipe.extractor.stream.StreamInfo;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import io.reactivex.Flowable;
 import io.reactivex.Maybe;
@@ -50,6 +52,7 @@ import io.reactivex.schedulers.Schedulers;
 
 public class HistoryRecordManager {
 
+    private final Context context;
     private final AppDatabase database;
     private final StreamDAO streamTable;
     private final StreamHistoryDAO streamHistoryTable;
@@ -60,6 +63,7 @@ public class HistoryRecordManager {
     private final String streamHistoryKey;
 
     public HistoryRecordManager(final Context context) {
+        this.context = context.getApplicationContext();
         database = NewPipeDatabase.getInstance(context);
         streamTable = database.streamDAO();
         streamHistoryTable = database.streamHistoryDAO();
@@ -80,35 +84,80 @@ public class HistoryRecordManager {
         final Date currentTime = new Date();
         return Maybe.fromCallable(() -> database.runInTransaction(() -> {
             final long streamId = streamTable.upsert(new StreamEntity(info));
-            StreamHistoryEntity latestEntry = streamHistoryTable.getLatestEntry();
-
-            if (latestEntry != null && latestEntry.getStreamUid() == streamId) {
-                streamHistoryTable.delete(latestEntry);
-                latestEntry.setAccessDate(currentTime);
-                latestEntry.setRepeatCount(latestEntry.getRepeatCount() + 1);
-                return streamHistoryTable.insert(latestEntry);
-            } else {
-                return streamHistoryTable.insert(new StreamHistoryEntity(streamId, currentTime));
-            }
+            return insertView(streamId, currentTime);
         })).subscribeOn(Schedulers.io());
     }
 
-    public Single<Integer> deleteStreamHistory(final long streamId) {
-        return Single.fromCallable(() -> streamHistoryTable.deleteStreamHistory(streamId))
-                .subscribeOn(Schedulers.io());
+    private long insertView(final long streamId, final Date accessDate) {
+        StreamHistoryEntity latestEntry = streamHistoryTable.getLatestEntry();
+
+        if (latestEntry != null && latestEntry.getStreamUid() == streamId) {
+            streamHistoryTable.delete(latestEntry);
+            latestEntry.setAccessDate(accessDate);
+            latestEntry.setRepeatCount(latestEntry.getRepeatCount() + 1);
+            return streamHistoryTable.insert(latestEntry);
+        } else {
+            return streamHistoryTable.insert(new StreamHistoryEntity(streamId, accessDate));
+        }
+    }
+
+    public Single<Integer> deleteStreamHistory(@NonNull final StreamStatisticsEntry entry) {
+        return Single.fromCallable(() -> HistoryWriteBuffer.getInstance(context).deleteViews(
+                info -> info.getServiceId() == entry.serviceId && entry.url.equals(info.getUrl()),
+                () -> streamHistoryTable.deleteStreamHistory(entry.streamId)
+        )).subscribeOn(Schedulers.io());
     }
 
     public Single<Integer> deleteWholeStreamHistory() {
-        return Single.fromCallable(() -> streamHistoryTable.deleteAll())
+        return Single.fromCallable(() -> HistoryWriteBuffer.getInstance(context).deleteViews(
+                info -> true,
+                streamHistoryTable::deleteAll
+        )).subscribeOn(Schedulers.io());
+    }
+
+    /**
+     * The newest entries of the history, emitted again when the history changes.
+     * The following entries are loaded with {@link #getStreamHistoryAfter}.
+     */
+    public Flowable<List<StreamHistoryEntry>> getStreamHistory(final int limit) {
+        return streamHistoryTable.getHistory(limit).subscribeOn(Schedulers.io());
+    }
+
+    public Single<List<StreamHistoryEntry>> getStreamHistoryAfter(final StreamHistoryEntry last,
+                                                                  final int limit) {
+        return Single.fromCallable(() ->
+                streamHistoryTable.getHistoryAfter(last.accessDate, last.streamId, limit))
                 .subscribeOn(Schedulers.io());
     }
 
-    public Flowable<List<StreamHistoryEntry>> getStreamHistory() {
-        return streamHistoryTable.getHistory().subscribeOn(Schedulers.io());
+    /**
+     * The most recently played streams, emitted again when the history changes.
+     * The following streams are loaded with {@link #getLastPlayedAfter}.
+     */
+    public Flowable<List<StreamStatisticsEntry>> getLastPlayed(final int limit) {
+        return streamHistoryTable.getLastPlayed(limit).subscribeOn(Schedulers.io());
     }
 
-    public Flowable<List<StreamStatisticsEntry>> getStreamStatistics() {
-        return streamHistoryTable.getStatistics().subscribeOn(Schedulers.io());
+    public Single<List<StreamStatisticsEntry>> getLastPlayedAfter(final StreamStatisticsEntry last,
+                                                                  final int limit) {
+        return Single.fromCallable(() -> streamHistoryTable
+                .getLastPlayedAfter(last.latestAccessDate, last.streamId, limit))
+                .subscribeOn(Schedulers.io());
+    }
+
+    /**
+     * The most played streams, emitted again when the history changes.
+     * The following streams are loaded with {@link #getMostPlayedAfter}.
+     */
+    public Flowable<List<StreamStatisticsEntry>> getMostPlayed(final int limit) {
+        return streamHistoryTable.getMostPlayed(limit).subscribeOn(Schedulers.io());
+    }
+
+    public Single<List<StreamStatisticsEntry>> getMostPlayedAfter(final StreamStatisticsEntry last,
+                                                                  final int limit) {
+        return Single.fromCallable(() -> streamHistoryTable
+                .getMostPlayedAfter(last.watchCount, last.streamId, limit))
+                .subscribeOn(Schedulers.io());
     }
 
     public Single<List<Long>> insertStreamHistory(final Collection<StreamHistoryEntry> entries) {
@@ -129,7 +178,7 @@ public class HistoryRecordManager {
                 .subscribeOn(Schedulers.io());
     }
 
-    private boolean isStreamHistoryEnabled() {
+    boolean isStreamHistoryEnabled() {
         return sharedPreferences.getBoolean(streamHistoryKey, false);
     }
 
@@ -195,6 +244,34 @@ public class HistoryRecordManager {
         })).subscribeOn(Schedulers.io());
     }
 
+    /**
+     * Write the views and stream states buffered by {@link HistoryWriteBuffer} in a single
+     * transaction, each stream is upserted once.
+     */
+    void writeBuffered(@NonNull final List<HistoryWriteBuffer.PendingView> views,
+                       @NonNull final Collection<HistoryWriteBuffer.PendingState> states) {
+        database.runInTransaction(() -> {
+            final Map<String, Long> streamIds = new HashMap<>();
+            for (final HistoryWriteBuffer.PendingView view : views) {
+                insertView(upsertOnce(streamIds, view.info), view.accessDate);
+            }
+            for (final HistoryWriteBuffer.PendingState state : states) {
+                streamStateTable.upsert(new StreamStateEntity(upsertOnce(streamIds, state.info),
+                        state.progressTime));
+            }
+        });
+    }
+
+    private long upsertOnce(final Map<String, Long> streamIds, final StreamInfo info) {
+        final String key = HistoryWriteBuffer.keyOf(info);
+        Long streamId = streamIds.get(key);
+        if (streamId == null) {
+            streamId = streamTable.upsert(new StreamEntity(info));
+            streamIds.put(key, streamId);
+        }
+        return streamId;
+    }
+
     ///////////////////////////////////////////////////////
     // Utility
     ///////////////////////////////////////////////////////
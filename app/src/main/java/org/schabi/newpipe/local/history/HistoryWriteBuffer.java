@@ -0,0 +1,204 @@
+package org.schabi.newpipe.local.history;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import org.schabi.newpipe.MainActivity;
+import org.schabi.newpipe.extractor.stream.StreamInfo;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Completable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Predicate;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Write-behind buffer for the views and playback states recorded by the players.
+ * <p>
+ * Instead of a transaction per write, the writes are kept in memory and flushed together in a
+ * single transaction, {@link #FLUSH_DELAY_MILLIS} after the first one or earlier when the
+ * player pauses or is destroyed. Only the latest playback state of each stream is written, and
+ * each stream is upserted once per flush.
+ * <p>
+ * The buffer is shared by all the players of the process.
+ */
+public final class HistoryWriteBuffer {
+    private static final String TAG = HistoryWriteBuffer.class.getSimpleName();
+    private static final boolean DEBUG = MainActivity.DEBUG;
+
+    private static final long FLUSH_DELAY_MILLIS = 30_000;
+
+    private static volatile HistoryWriteBuffer instance;
+
+    private final HistoryRecordManager recordManager;
+
+    private List<PendingView> views = new ArrayList<>();
+    private Map<String, PendingState> states = new LinkedHashMap<>();
+    private Disposable scheduledFlush;
+
+    /* Serializes the flushes, so the writes reach the database in order */
+    private final Object flushLock = new Object();
+
+    private HistoryWriteBuffer(final Context context) {
+        recordManager = new HistoryRecordManager(context);
+    }
+
+    @NonNull
+    public static HistoryWriteBuffer getInstance(@NonNull final Context context) {
+        HistoryWriteBuffer result = instance;
+        if (result == null) {
+            synchronized (HistoryWriteBuffer.class) {
+                result = instance;
+                if (result == null) {
+                    instance = (result = new HistoryWriteBuffer(context.getApplicationContext()));
+                }
+            }
+        }
+        return result;
+    }
+
+    /*//////////////////////////////////////////////////////////////////////////
+    // Buffered writes
+    //////////////////////////////////////////////////////////////////////////*/
+
+    /**
+     * Record a view of the stream in the watch history, if it's enabled.
+     */
+    public synchronized void onViewed(@NonNull final StreamInfo info) {
+        if (!recordManager.isStreamHistoryEnabled()) return;
+
+        views.add(new PendingView(info, new Date()));
+        scheduleFlush();
+    }
+
+    /**
+     * Save the playback position of the stream, replacing the one still waiting to be written.
+     */
+    public synchronized void saveStreamState(@NonNull final StreamInfo info,
+                                             final long progressTime) {
+        states.put(keyOf(info), new PendingState(info, progressTime));
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (scheduledFlush != null) return;
+        scheduledFlush = Completable.timer(FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS,
+                Schedulers.io())
+                .subscribe(this::flushNow, error -> Log.e(TAG, "Scheduled flush failed", error));
+    }
+
+    /*//////////////////////////////////////////////////////////////////////////
+    // Flush
+    //////////////////////////////////////////////////////////////////////////*/
+
+    /**
+     * Write the buffered views and states now, in the background.
+     */
+    public void flush() {
+        synchronized (this) {
+            if (views.isEmpty() && states.isEmpty()) return;
+        }
+        Completable.fromAction(this::flushNow)
+                .subscribeOn(Schedulers.io())
+                .subscribe(() -> {/* successful */},
+                        error -> Log.e(TAG, "Flush failed", error));
+    }
+
+    private void flushNow() {
+        synchronized (flushLock) {
+            final List<PendingView> pendingViews;
+            final Map<String, PendingState> pendingStates;
+            synchronized (this) {
+                if (scheduledFlush != null) {
+                    scheduledFlush.dispose();
+                    scheduledFlush = null;
+                }
+                if (views.isEmpty() && states.isEmpty()) return;
+
+                pendingViews = views;
+                pendingStates = states;
+                views = new ArrayList<>();
+                states = new LinkedHashMap<>();
+            }
+
+            if (DEBUG) Log.d(TAG, "flushNow() writing " + pendingViews.size() + " views and " +
+                    pendingStates.size() + " states");
+            try {
+                recordManager.writeBuffered(pendingViews, pendingStates.values());
+            } catch (RuntimeException error) {
+                restore(pendingViews, pendingStates);
+                throw error;
+            }
+        }
+    }
+
+    /**
+     * Put a batch which failed to be written back in front of the buffer, to retry it with the
+     * next flush. The states saved in the meantime are newer, so they are kept.
+     */
+    private synchronized void restore(@NonNull final List<PendingView> pendingViews,
+                                      @NonNull final Map<String, PendingState> pendingStates) {
+        pendingViews.addAll(views);
+        views = pendingViews;
+
+        pendingStates.putAll(states);
+        states = pendingStates;
+
+        scheduleFlush();
+    }
+
+    /**
+     * Drop the buffered views of the streams matching the filter, then run the deletion of the
+     * written ones while no flush is running, so the next flush doesn't write back the history
+     * which was just deleted.
+     */
+    <T> T deleteViews(@NonNull final Predicate<StreamInfo> filter,
+                      @NonNull final Callable<T> deletion) throws Exception {
+        synchronized (flushLock) {
+            synchronized (this) {
+                final Iterator<PendingView> iterator = views.iterator();
+                while (iterator.hasNext()) {
+                    if (filter.test(iterator.next().info)) iterator.remove();
+                }
+            }
+            return deletion.call();
+        }
+    }
+
+    static String keyOf(@NonNull final StreamInfo info) {
+        return info.getServiceId() + ":" + info.getUrl();
+    }
+
+    /*//////////////////////////////////////////////////////////////////////////
+    // Pending writes
+    //////////////////////////////////////////////////////////////////////////*/
+
+    static final class PendingView {
+        final StreamInfo info;
+        final Date accessDate;
+
+        PendingView(final StreamInfo info, final Date accessDate) {
+            this.info = info;
+            this.accessDate = accessDate;
+        }
+    }
+
+    static final class PendingState {
+        final StreamInfo info;
+        final long progressTime;
+
+        PendingState(final StreamInfo info, final long progressTime) {
+            this.info = info;
+            this.progressTime = progressTime;
+        }
+    }
+}
@@ -8,6 +8,7 @@ import android.os.Parcelable;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.design.widget.Snackbar;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -21,6 +22,7 @@ import org.schabi.newpipe.R;
 import org.schabi.newpipe.database.LocalItem;
 import org.schabi.newpipe.database.stream.StreamStatisticsEntry;
 import org.schabi.newpipe.extractor.stream.StreamInfoItem;
+import org.schabi.newpipe.fragments.OnScrollBelowItemsListener;
 import org.schabi.newpipe.local.BaseLocalListFragment;
 import org.schabi.newpipe.info_list.InfoItemDialog;
 import org.schabi.newpipe.player.playqueue.PlayQueue;
@@ -32,15 +34,25 @@ import org.schabi.newpipe.util.ThemeHelper;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import icepick.State;
+import io.reactivex.Flowable;
+import io.reactivex.Single;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.CompositeDisposable;
 import io.reactivex.disposables.Disposable;
 
 public class StatisticsPlaylistFragment
-        extends BaseLocalListFragment<List<StreamStatisticsEntry>, Void> {
+        extends BaseLocalListFragment<List<StreamStatisticsEntry>, List<StreamStatisticsEntry>> {
+
+    /**
+     * The statistics are loaded by pages of this size as the list is scrolled, only the first
+     * one is updated when the history changes
+     */
+    private static final int PAGE_SIZE = 50;
 
     private View headerPlayAllButton;
     private View headerPopupButton;
@@ -55,6 +67,9 @@ public class StatisticsPlaylistFragment
 
     /* Used for independent events */
     private Subscription databaseSubscription;
+    private Disposable nextPageDisposable;
+    private boolean hasMoreItems;
+    private boolean isFirstPageShown;
     private HistoryRecordManager recordManager;
     private final CompositeDisposable disposables = new CompositeDisposable();
 
@@ -65,18 +80,16 @@ public class StatisticsPlaylistFragment
 
     StatisticSortMode sortMode = StatisticSortMode.LAST_PLAYED;
 
-    protected List<StreamStatisticsEntry> processResult(final List<StreamStatisticsEntry> results) {
-        switch (sortMode) {
-            case LAST_PLAYED:
-                Collections.sort(results, (left, right) ->
-                    right.latestAccessDate.compareTo(left.latestAccessDate));
-                return results;
-            case MOST_PLAYED:
-                Collections.sort(results, (left, right) ->
-                        Long.compare(right.watchCount, left.watchCount));
-                return results;
-            default: return null;
-        }
+    private Flowable<List<StreamStatisticsEntry>> getFirstPage() {
+        return sortMode == StatisticSortMode.MOST_PLAYED
+                ? recordManager.getMostPlayed(PAGE_SIZE)
+                : recordManager.getLastPlayed(PAGE_SIZE);
+    }
+
+    private Single<List<StreamStatisticsEntry>> getPageAfter(final StreamStatisticsEntry last) {
+        return sortMode == StatisticSortMode.MOST_PLAYED
+                ? recordManager.getMostPlayedAfter(last, PAGE_SIZE)
+                : recordManager.getLastPlayedAfter(last, PAGE_SIZE);
     }
 
     ///////////////////////////////////////////////////////////////////////////
@@ -153,6 +166,14 @@ public class StatisticsPlaylistFragment
                 }
             }
         });
+
+        itemsList.clearOnScrollListeners();
+        itemsList.addOnScrollListener(new OnScrollBelowItemsListener() {
+            @Override
+            public void onScrolledDown(RecyclerView recyclerView) {
+                if (hasMoreItems && !isLoading.get()) loadMoreItems();
+            }
+        });
     }
 
     ///////////////////////////////////////////////////////////////////////////
@@ -162,11 +183,25 @@ public class StatisticsPlaylistFragment
     @Override
     public void startLoading(boolean forceLoad) {
         super.startLoading(forceLoad);
-        recordManager.getStreamStatistics()
+        isFirstPageShown = false;
+        getFirstPage()
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(getHistoryObserver());
     }
 
+    private void loadMoreItems() {
+        final List<LocalItem> items = itemListAdapter.getItemsList();
+        if (items.isEmpty()) return;
+        final LocalItem last = items.get(items.size() - 1);
+        if (!(last instanceof StreamStatisticsEntry)) return;
+
+        isLoading.set(true);
+        showListFooter(true);
+        nextPageDisposable = getPageAfter((StreamStatisticsEntry) last)
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(this::handleNextItems, this::onError);
+    }
+
     ///////////////////////////////////////////////////////////////////////////
     // Fragment LifeCycle - Destruction
     ///////////////////////////////////////////////////////////////////////////
@@ -188,6 +223,9 @@ public class StatisticsPlaylistFragment
 
         if (databaseSubscription != null) databaseSubscription.cancel();
         databaseSubscription = null;
+
+        if (nextPageDisposable != null) nextPageDisposable.dispose();
+        nextPageDisposable = null;
     }
 
     @Override
@@ -236,17 +274,31 @@ public class StatisticsPlaylistFragment
 
         playlistCtrl.setVisibility(View.VISIBLE);
 
-        itemListAdapter.clearStreamItemList();
-
         if (result.isEmpty()) {
+            if (nextPageDisposable != null) nextPageDisposable.dispose();
+            showListFooter(false);
+            itemListAdapter.clearStreamItemList();
+            hasMoreItems = false;
+            isFirstPageShown = false;
             showEmptyState();
             return;
         }
 
-        itemListAdapter.addItems(processResult(result));
-        if (itemsListState != null) {
-            itemsList.getLayoutManager().onRestoreInstanceState(itemsListState);
-            itemsListState = null;
+        if (isFirstPageShown) {
+            updateFirstPage(result);
+        } else {
+            // A new first page, the pages loaded after the previous one are outdated
+            if (nextPageDisposable != null) nextPageDisposable.dispose();
+            showListFooter(false);
+            itemListAdapter.clearStreamItemList();
+            hasMoreItems = result.size() >= PAGE_SIZE;
+            itemListAdapter.addItems(result);
+            isFirstPageShown = true;
+
+            if (itemsListState != null) {
+                itemsList.getLayoutManager().onRestoreInstanceState(itemsListState);
+                itemsListState = null;
+            }
         }
 
         headerPlayAllButton.setOnClickListener(view ->
@@ -259,6 +311,45 @@ public class StatisticsPlaylistFragment
 
         hideLoading();
     }
+
+    /**
+     * Replace the rows of the first page with its new emission, keeping the pages loaded after
+     * it and the scroll position. The first page query is emitted again on any write to the
+     * streams, most of which don't change the history at all.
+     */
+    private void updateFirstPage(@NonNull final List<StreamStatisticsEntry> firstPage) {
+        final List<LocalItem> items = new ArrayList<>(itemListAdapter.getItemsList().size());
+        items.addAll(firstPage);
+
+        if (firstPage.size() < PAGE_SIZE) {
+            // That's the whole history
+            if (nextPageDisposable != null) nextPageDisposable.dispose();
+            showListFooter(false);
+            hasMoreItems = false;
+        } else {
+            // The streams pushed out of the first page are the first ones of the next pages
+            final Set<Long> firstPageIds = new HashSet<>(firstPage.size());
+            for (final StreamStatisticsEntry entry : firstPage) firstPageIds.add(entry.streamId);
+            for (final LocalItem item : itemListAdapter.getItemsList()) {
+                if (item instanceof StreamStatisticsEntry &&
+                        !firstPageIds.contains(((StreamStatisticsEntry) item).streamId)) {
+                    items.add(item);
+                }
+            }
+        }
+        itemListAdapter.setItems(items);
+    }
+
+    @Override
+    public void handleNextItems(List<StreamStatisticsEntry> result) {
+        super.handleNextItems(result);
+        if (itemListAdapter == null) return;
+
+        showListFooter(false);
+        hasMoreItems = result.size() >= PAGE_SIZE;
+        itemListAdapter.addItems(result);
+    }
+
     ///////////////////////////////////////////////////////////////////////////
     // Fragment Error Handling
     ///////////////////////////////////////////////////////////////////////////
@@ -267,6 +358,7 @@ public class StatisticsPlaylistFragment
     protected void resetFragment() {
         super.resetFragment();
         if (databaseSubscription != null) databaseSubscription.cancel();
+        if (nextPageDisposable != null) nextPageDisposable.dispose();
     }
 
     @Override
@@ -350,10 +442,16 @@ public class StatisticsPlaylistFragment
                 .get(index);
         if(infoItem instanceof StreamStatisticsEntry) {
             final StreamStatisticsEntry entry = (StreamStatisticsEntry) infoItem;
-            final Disposable onDelete = recordManager.deleteStreamHistory(entry.streamId)
+            final Disposable onDelete = recordManager.deleteStreamHistory(entry)
                     .observeOn(AndroidSchedulers.mainThread())
                     .subscribe(
                             howManyDeleted -> {
+                                // It may be kept as pushed out of the first page,
+                                // see updateFirstPage()
+                                if (itemListAdapter != null &&
+                                        itemListAdapter.getItemsList().contains(infoItem)) {
+                                    itemListAdapter.removeItem(infoItem);
+                                }
                                 if(getView() != null) {
                                     Snackbar.make(getView(), R.string.one_item_deleted,
                                             Snackbar.LENGTH_SHORT).show();
@@ -84,6 +84,9 @@ public class LocalPlaylistFragment extends BaseLocalListFragment<List<PlaylistSt
     private AtomicBoolean isLoadingComplete;
     /* Has the playlist been modified (e.g. items reordered or deleted) */
     private AtomicBoolean isModified;
+    /* Changes of the order not saved yet, only touching the moved and removed streams */
+    private PlaylistJoinChanges pendingChanges;
+    private PlaylistStreamEntry draggedItem;
 
     public static LocalPlaylistFragment getInstance(long playlistId, String name) {
         LocalPlaylistFragment instance = new LocalPlaylistFragment();
@@ -105,6 +108,7 @@ public class LocalPlaylistFragment extends BaseLocalListFragment<List<PlaylistSt
 
         isLoadingComplete = new AtomicBoolean();
         isModified = new AtomicBoolean();
+        pendingChanges = new PlaylistJoinChanges();
     }
 
     @Override
@@ -179,7 +183,12 @@ public class LocalPlaylistFragment extends BaseLocalListFragment<List<PlaylistSt
 
             @Override
             public void drag(LocalItem selectedItem, RecyclerView.ViewHolder viewHolder) {
-                if (itemTouchHelper != null) itemTouchHelper.startDrag(viewHolder);
+                if (itemTouchHelper == null) return;
+
+                if (selectedItem instanceof PlaylistStreamEntry) {
+                    draggedItem = (PlaylistStreamEntry) selectedItem;
+                }
+                itemTouchHelper.startDrag(viewHolder);
             }
         });
     }
@@ -211,6 +220,7 @@ public class LocalPlaylistFragment extends BaseLocalListFragment<List<PlaylistSt
 
         isLoadingComplete.set(false);
         isModified.set(false);
+        pendingChanges = new PlaylistJoinChanges();
 
         playlistManager.getPlaylistStreams(playlistId)
                 .onBackpressureLatest()
@@ -259,6 +269,8 @@ public class LocalPlaylistFragment extends BaseLocalListFragment<List<PlaylistSt
 
         isLoadingComplete = null;
         isModified = null;
+        pendingChanges = null;
+        draggedItem = null;
     }
 
     ///////////////////////////////////////////////////////////////////////////
@@ -403,13 +415,57 @@ public class LocalPlaylistFragment extends BaseLocalListFragment<List<PlaylistSt
     }
 
     private void deleteItem(final PlaylistStreamEntry item) {
-        if (itemListAdapter == null) return;
+        if (itemListAdapter == null || pendingChanges == null) return;
 
+        pendingChanges.remove(item.joinIndex);
         itemListAdapter.removeItem(item);
         setVideoCount(itemListAdapter.getItemsList().size());
         saveChanges();
     }
 
+    /**
+     * Give the dropped item a join index between its new neighbours, or renumber the
+     * whole playlist if there is no room left between them.
+     */
+    private void onItemDropped(final PlaylistStreamEntry item) {
+        if (itemListAdapter == null || pendingChanges == null) return;
+
+        final List<LocalItem> items = itemListAdapter.getItemsList();
+        final int position = items.indexOf(item);
+        if (position == -1) return;
+
+        final Integer previous = position > 0 ? joinIndexOf(items.get(position - 1)) : null;
+        final Integer next = position < items.size() - 1 ?
+                joinIndexOf(items.get(position + 1)) : null;
+        if ((previous == null || previous < item.joinIndex) &&
+                (next == null || item.joinIndex < next)) {
+            // Dropped back in its place
+            return;
+        }
+
+        final int joinIndex = PlaylistJoinChanges.indexBetween(previous, next);
+        if (joinIndex != PlaylistJoinChanges.NO_INDEX) {
+            pendingChanges.move(item.joinIndex, joinIndex);
+            item.joinIndex = joinIndex;
+        } else {
+            List<Long> streamIds = new ArrayList<>(items.size());
+            for (final LocalItem localItem : items) {
+                if (localItem instanceof PlaylistStreamEntry) {
+                    final PlaylistStreamEntry entry = (PlaylistStreamEntry) localItem;
+                    entry.joinIndex = streamIds.size() * PlaylistJoinChanges.INDEX_GAP;
+                    streamIds.add(entry.streamId);
+                }
+            }
+            pendingChanges.renumber(streamIds);
+        }
+        saveChanges();
+    }
+
+    @Nullable
+    private static Integer joinIndexOf(final LocalItem item) {
+        return item instanceof PlaylistStreamEntry ? ((PlaylistStreamEntry) item).joinIndex : null;
+    }
+
     private void saveChanges() {
         if (isModified == null || debouncedSaveSignal == null) return;
 
@@ -437,21 +493,27 @@ public class LocalPlaylistFragment extends BaseLocalListFragment<List<PlaylistSt
             return;
         }
 
-        final List<LocalItem> items = itemListAdapter.getItemsList();
-        List<Long> streamIds = new ArrayList<>(items.size());
-        for (final LocalItem item : items) {
-            if (item instanceof PlaylistStreamEntry) {
-                streamIds.add(((PlaylistStreamEntry) item).streamId);
-            }
+        final PlaylistJoinChanges changes = pendingChanges;
+        if (changes == null || changes.isEmpty()) {
+            isModified.set(false);
+            return;
         }
+        pendingChanges = new PlaylistJoinChanges();
 
-        Log.d(TAG, "Updating playlist id=[" + playlistId +
-                "] with [" + streamIds.size() + "] items");
+        Log.d(TAG, "Updating playlist id=[" + playlistId + "] with [" +
+                changes.operations.size() + "] changes, renumbered=[" +
+                (changes.renumbered != null) + "]");
 
-        final Disposable disposable = playlistManager.updateJoin(playlistId, streamIds)
+        final Disposable disposable = playlistManager.applyChanges(playlistId, changes)
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(
-                        () -> { if (isModified != null) isModified.set(false); },
+                        () -> {
+                            // Keep the changes made while saving for the next save
+                            if (isModified != null && pendingChanges != null &&
+                                    pendingChanges.isEmpty()) {
+                                isModified.set(false);
+                            }
+                        },
                         this::onError
                 );
         disposables.add(disposable);
@@ -491,6 +553,14 @@ public class LocalPlaylistFragment extends BaseLocalListFragment<List<PlaylistSt
                 return isSwapped;
             }
 
+            @Override
+            public void clearView(RecyclerView recyclerView,
+                                  RecyclerView.ViewHolder viewHolder) {
+                super.clearView(recyclerView, viewHolder);
+                if (draggedItem != null) onItemDropped(draggedItem);
+                draggedItem = null;
+            }
+
             @Override
             public boolean isLongPressDragEnabled() {
                 return false;
@@ -21,6 +21,8 @@ import io.reactivex.Maybe;
 import io.reactivex.Single;
 import io.reactivex.schedulers.Schedulers;
 
+import static org.schabi.newpipe.local.playlist.PlaylistJoinChanges.INDEX_GAP;
+
 public class LocalPlaylistManager {
 
     private final AppDatabase database;
@@ -51,9 +53,18 @@ public class LocalPlaylistManager {
                                               final List<StreamEntity> streams) {
         return playlistStreamTable.getMaximumIndexOf(playlistId)
                 .firstElement()
-                .map(maxJoinIndex -> database.runInTransaction(() ->
-                        upsertStreams(playlistId, streams, maxJoinIndex + 1))
-                ).subscribeOn(Schedulers.io());
+                .map(maxJoinIndex -> database.runInTransaction(() -> {
+                    final long lastIndex = (long) maxJoinIndex + (long) INDEX_GAP * streams.size();
+                    if (lastIndex <= Integer.MAX_VALUE) {
+                        return upsertStreams(playlistId, streams, maxJoinIndex + INDEX_GAP);
+                    }
+
+                    // Out of indices at the end, pack the playlist first
+                    final List<Long> streamIds =
+                            playlistStreamTable.getOrderedStreamIdsOf(playlistId);
+                    renumber(playlistId, streamIds);
+                    return upsertStreams(playlistId, streams, streamIds.size() * INDEX_GAP);
+                })).subscribeOn(Schedulers.io());
     }
 
     private List<Long> upsertStreams(final long playlistId,
@@ -64,21 +75,39 @@ public class LocalPlaylistManager {
         final List<Long> streamIds = streamTable.upsertAll(streams);
         for (int index = 0; index < streamIds.size(); index++) {
             joinEntities.add(new PlaylistStreamEntity(playlistId, streamIds.get(index),
-                    index + indexOffset));
+                    indexOffset + index * INDEX_GAP));
         }
         return playlistStreamTable.insertAll(joinEntities);
     }
 
-    public Completable updateJoin(final long playlistId, final List<Long> streamIds) {
+    /**
+     * Save the changes made to the order of a playlist in a single transaction, moves and
+     * removals only write the rows of the streams they concern.
+     */
+    public Completable applyChanges(final long playlistId, final PlaylistJoinChanges changes) {
+        return Completable.fromRunnable(() -> database.runInTransaction(() -> {
+            if (changes.renumbered != null) renumber(playlistId, changes.renumbered);
+
+            for (final PlaylistJoinChanges.Operation operation : changes.operations) {
+                if (operation.removed) {
+                    playlistStreamTable.deleteJoin(playlistId, operation.fromIndex);
+                } else {
+                    playlistStreamTable.moveJoin(playlistId, operation.fromIndex,
+                            operation.toIndex);
+                }
+            }
+        })).subscribeOn(Schedulers.io());
+    }
+
+    private void renumber(final long playlistId, final List<Long> streamIds) {
         List<PlaylistStreamEntity> joinEntities = new ArrayList<>(streamIds.size());
         for (int i = 0; i < streamIds.size(); i++) {
-            joinEntities.add(new PlaylistStreamEntity(playlistId, streamIds.get(i), i));
+            joinEntities.add(new PlaylistStreamEntity(playlistId, streamIds.get(i),
+                    i * INDEX_GAP));
         }
 
-        return Completable.fromRunnable(() -> database.runInTransaction(() -> {
-            playlistStreamTable.deleteBatch(playlistId);
-            playlistStreamTable.insertAll(joinEntities);
-        })).subscribeOn(Schedulers.io());
+        playlistStreamTable.deleteBatch(playlistId);
+        playlistStreamTable.insertAll(joinEntities);
     }
 
     public Flowable<List<PlaylistMetadataEntry>> getPlaylists() {
@@ -0,0 +1,91 @@
+package org.schabi.newpipe.local.playlist;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Changes made to the order of a local playlist, waiting to be saved by
+ * {@link LocalPlaylistManager#applyChanges}.
+ * <p>
+ * The streams of a playlist are ordered by sparse join indices, {@link #INDEX_GAP} apart when
+ * they are added, so a stream can be moved by giving it an index between its new neighbours:
+ * a move or a removal only writes the row of that stream. The whole playlist is renumbered
+ * only when there is no room left between two indices.
+ */
+public final class PlaylistJoinChanges {
+    /**
+     * Distance between the join indices of streams added to a playlist
+     */
+    public static final int INDEX_GAP = 1024;
+
+    /**
+     * Returned by {@link #indexBetween} when the playlist must be renumbered
+     */
+    public static final int NO_INDEX = Integer.MIN_VALUE;
+
+    /**
+     * Order of the whole playlist to write first, if it was renumbered
+     */
+    @Nullable
+    List<Long> renumbered;
+    final List<Operation> operations = new ArrayList<>();
+
+    static final class Operation {
+        final int fromIndex;
+        final int toIndex;
+        final boolean removed;
+
+        private Operation(final int fromIndex, final int toIndex, final boolean removed) {
+            this.fromIndex = fromIndex;
+            this.toIndex = toIndex;
+            this.removed = removed;
+        }
+    }
+
+    /**
+     * @param previous the join index of the stream before, or null at the start of the playlist
+     * @param next     the join index of the stream after, or null at the end of the playlist
+     * @return a join index between the two, or {@link #NO_INDEX} if there is no room left
+     */
+    public static int indexBetween(@Nullable final Integer previous,
+                                   @Nullable final Integer next) {
+        final long index;
+        if (previous == null && next == null) {
+            index = 0;
+        } else if (previous == null) {
+            index = (long) next - INDEX_GAP;
+        } else if (next == null) {
+            index = (long) previous + INDEX_GAP;
+        } else if ((long) next - previous < 2) {
+            return NO_INDEX;
+        } else {
+            index = previous + ((long) next - previous) / 2;
+        }
+
+        return index > NO_INDEX && index <= Integer.MAX_VALUE ? (int) index : NO_INDEX;
+    }
+
+    public void move(final int fromIndex, final int toIndex) {
+        operations.add(new Operation(fromIndex, toIndex, false));
+    }
+
+    public void remove(final int index) {
+        operations.add(new Operation(index, NO_INDEX, true));
+    }
+
+    /**
+     * Replace the order of the whole playlist, the streams get the join indices
+     * {@code 0, INDEX_GAP, 2 * INDEX_GAP...} and the previous changes are dropped.
+     */
+    public void renumber(@NonNull final List<Long> streamIds) {
+        renumbered = streamIds;
+        operations.clear();
+    }
+
+    public boolean isEmpty() {
+        return renumbered == null && operations.isEmpty();
+    }
+}
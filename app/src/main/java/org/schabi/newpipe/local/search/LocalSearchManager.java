@@ -0,0 +1,33 @@
+package org.schabi.newpipe.local.search;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+
+import org.schabi.newpipe.NewPipeDatabase;
+import org.schabi.newpipe.database.search.LocalSearchDAO;
+import org.schabi.newpipe.database.search.LocalSearchEntry;
+
+import java.util.List;
+
+import io.reactivex.Single;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Searches the titles and uploaders of the streams, playlists and subscriptions of the library.
+ */
+public class LocalSearchManager {
+
+    private final LocalSearchDAO localSearchTable;
+
+    public LocalSearchManager(final Context context) {
+        localSearchTable = NewPipeDatabase.getInstance(context).localSearchDAO();
+    }
+
+    /**
+     * @return the best matches of the query, as the user types it
+     */
+    public Single<List<LocalSearchEntry>> search(@NonNull final String query, final int limit) {
+        return Single.fromCallable(() -> localSearchTable.search(query, limit))
+                .subscribeOn(Schedulers.io());
+    }
+}
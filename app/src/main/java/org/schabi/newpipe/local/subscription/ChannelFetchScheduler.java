@@ -0,0 +1,364 @@
+package org.schabi.newpipe.local.subscription;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.schabi.newpipe.MainActivity;
+import org.schabi.newpipe.extractor.channel.ChannelInfo;
+import org.schabi.newpipe.extractor.exceptions.ReCaptchaException;
+import org.schabi.newpipe.util.ExtractorHelper;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Single;
+import io.reactivex.SingleEmitter;
+
+/**
+ * Channel Fetch Scheduler singleton:
+ * Runs the channel extractions of the feed refresh and of the subscription imports.
+ * <p>
+ * Each service has its own concurrency limit, adjusted by additive increase and multiplicative
+ * decrease: every successful extraction raises it a little, while a throttled one (HTTP 429,
+ * which the downloader reports as a {@link ReCaptchaException}) halves it and pauses the
+ * service for an exponentially growing backoff before retrying.
+ * <p>
+ * Requests wait in two lanes per service, the foreground lane, for what the user is looking
+ * at, is always dispatched before the background one.
+ */
+public final class ChannelFetchScheduler {
+
+    public enum Priority {
+        FOREGROUND, BACKGROUND
+    }
+
+    private static volatile ChannelFetchScheduler instance;
+
+    public static ChannelFetchScheduler getInstance() {
+        ChannelFetchScheduler result = instance;
+        if (result == null) {
+            synchronized (ChannelFetchScheduler.class) {
+                result = instance;
+                if (result == null) {
+                    instance = (result = new ChannelFetchScheduler());
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private static final String TAG = "ChannelFetchScheduler";
+    private static final boolean DEBUG = MainActivity.DEBUG;
+
+    private static final int INITIAL_LIMIT = 4;
+    private static final int MAX_LIMIT = 16;
+    private static final long INITIAL_BACKOFF_MILLIS = 2000;
+    private static final long MAX_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(2);
+    /**
+     * How many times a throttled request is queued again before giving up
+     */
+    private static final int MAX_THROTTLED_RETRIES = 2;
+    private static final double LATENCY_SMOOTHING = 0.2;
+    private static final long THROUGHPUT_WINDOW_MILLIS = 10000;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService timer;
+    private final Map<Integer, ServiceLane> lanes = new HashMap<>();
+
+    private ChannelFetchScheduler() {
+        final AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(MAX_LIMIT, MAX_LIMIT,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                runnable -> new Thread(runnable, "ChannelFetch-" + threadCount.incrementAndGet()));
+        executor.allowCoreThreadTimeOut(true);
+        timer = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    /**
+     * Queue the extraction of a channel, it starts as soon as its service allows it.
+     * Disposing the returned {@link Single} before then removes it from the queue.
+     */
+    public Single<ChannelInfo> fetch(final int serviceId, final String url,
+                                     final boolean forceLoad, @NonNull final Priority priority) {
+        return Single.create(emitter -> {
+            final FetchTask task = new FetchTask(serviceId, url, forceLoad, priority, emitter);
+            emitter.setCancellable(() -> task.cancelled = true);
+            enqueue(task, false);
+        });
+    }
+
+    /*//////////////////////////////////////////////////////////////////////////
+    // Dispatching
+    //////////////////////////////////////////////////////////////////////////*/
+
+    private synchronized ServiceLane getLane(final int serviceId) {
+        ServiceLane lane = lanes.get(serviceId);
+        if (lane == null) {
+            lane = new ServiceLane(serviceId);
+            lanes.put(serviceId, lane);
+        }
+        return lane;
+    }
+
+    private synchronized void enqueue(final FetchTask task, final boolean first) {
+        final ServiceLane lane = getLane(task.serviceId);
+        final ArrayDeque<FetchTask> queue = task.priority == Priority.FOREGROUND
+                ? lane.foreground : lane.background;
+        if (first) queue.addFirst(task);
+        else queue.addLast(task);
+
+        dispatch(lane);
+    }
+
+    private synchronized void dispatch(final ServiceLane lane) {
+        final long now = System.currentTimeMillis();
+        if (now < lane.resumeTime) {
+            scheduleWakeUp(lane, lane.resumeTime - now);
+            return;
+        }
+
+        while (lane.inFlight < (int) lane.limit) {
+            FetchTask task = lane.foreground.poll();
+            if (task == null) task = lane.background.poll();
+            if (task == null) break;
+            if (task.cancelled) continue;
+
+            lane.inFlight++;
+            executor.execute(task);
+        }
+    }
+
+    private void scheduleWakeUp(final ServiceLane lane, final long delay) {
+        if (lane.wakeUpScheduled) return;
+        lane.wakeUpScheduled = true;
+
+        timer.schedule(() -> {
+            synchronized (ChannelFetchScheduler.this) {
+                lane.wakeUpScheduled = false;
+                dispatch(lane);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void onSuccess(final ServiceLane lane, final long latency) {
+        lane.inFlight--;
+        lane.limit = Math.min(MAX_LIMIT, lane.limit + 1 / lane.limit);
+        lane.backoff = 0;
+        lane.completed++;
+        lane.recordLatency(latency);
+
+        if (DEBUG) Log.d(TAG, "onSuccess() called with: " + lane.toMetrics());
+        dispatch(lane);
+    }
+
+    private synchronized void onFailure(final ServiceLane lane, final long latency) {
+        lane.inFlight--;
+        lane.failed++;
+        lane.recordLatency(latency);
+        dispatch(lane);
+    }
+
+    /**
+     * @param retry the task to queue again once the backoff is over, if any
+     */
+    private synchronized void onThrottled(final ServiceLane lane, @Nullable final FetchTask retry) {
+        lane.inFlight--;
+        lane.throttled++;
+
+        final long now = System.currentTimeMillis();
+        // The requests already running when the service started throttling only count once
+        if (now >= lane.resumeTime) {
+            lane.limit = Math.max(1, lane.limit / 2);
+            lane.backoff = lane.backoff == 0
+                    ? INITIAL_BACKOFF_MILLIS : Math.min(MAX_BACKOFF_MILLIS, lane.backoff * 2);
+            lane.resumeTime = now + lane.backoff;
+        }
+        if (DEBUG) Log.d(TAG, "onThrottled() called with: " + lane.toMetrics());
+
+        if (retry != null) {
+            enqueue(retry, true);
+        } else {
+            dispatch(lane);
+        }
+    }
+
+    private synchronized void onCancelled(final ServiceLane lane) {
+        lane.inFlight--;
+        dispatch(lane);
+    }
+
+    private static boolean isThrottled(final Throwable error) {
+        return ExtractorHelper.hasAssignableCauseThrowable(error, ReCaptchaException.class);
+    }
+
+    /*//////////////////////////////////////////////////////////////////////////
+    // Metrics
+    //////////////////////////////////////////////////////////////////////////*/
+
+    /**
+     * @return the metrics of a service, or null if no channel of this service was fetched yet
+     */
+    @Nullable
+    public synchronized Metrics getMetrics(final int serviceId) {
+        final ServiceLane lane = lanes.get(serviceId);
+        return lane == null ? null : lane.toMetrics();
+    }
+
+    public synchronized List<Metrics> getAllMetrics() {
+        final List<Metrics> metrics = new ArrayList<>(lanes.size());
+        for (final ServiceLane lane : lanes.values()) metrics.add(lane.toMetrics());
+        return metrics;
+    }
+
+    public static final class Metrics {
+        public final int serviceId;
+        public final double concurrencyLimit;
+        public final int inFlight;
+        public final int queued;
+        public final long completed;
+        public final long failed;
+        public final long throttled;
+        public final double averageLatencyMillis;
+        public final double throughputPerSecond;
+
+        Metrics(int serviceId, double concurrencyLimit, int inFlight, int queued, long completed,
+                long failed, long throttled, double averageLatencyMillis,
+                double throughputPerSecond) {
+            this.serviceId = serviceId;
+            this.concurrencyLimit = concurrencyLimit;
+            this.inFlight = inFlight;
+            this.queued = queued;
+            this.completed = completed;
+            this.failed = failed;
+            this.throttled = throttled;
+            this.averageLatencyMillis = averageLatencyMillis;
+            this.throughputPerSecond = throughputPerSecond;
+        }
+
+        @Override
+        public String toString() {
+            return "serviceId = [" + serviceId + "], limit = [" + concurrencyLimit +
+                    "], inFlight = [" + inFlight + "], queued = [" + queued +
+                    "], completed = [" + completed + "], failed = [" + failed +
+                    "], throttled = [" + throttled + "], latency = [" + averageLatencyMillis +
+                    "ms], throughput = [" + throughputPerSecond + "/s]";
+        }
+    }
+
+    /*//////////////////////////////////////////////////////////////////////////
+    // Internal
+    //////////////////////////////////////////////////////////////////////////*/
+
+    /**
+     * Queues, concurrency limit and statistics of a service, guarded by the scheduler monitor.
+     */
+    private static final class ServiceLane {
+        final int serviceId;
+        final ArrayDeque<FetchTask> foreground = new ArrayDeque<>();
+        final ArrayDeque<FetchTask> background = new ArrayDeque<>();
+
+        double limit = INITIAL_LIMIT;
+        int inFlight;
+        long backoff;
+        long resumeTime;
+        boolean wakeUpScheduled;
+
+        long completed;
+        long failed;
+        long throttled;
+        double averageLatency;
+        long windowStart = System.currentTimeMillis();
+        long windowCount;
+        double throughput;
+
+        ServiceLane(int serviceId) {
+            this.serviceId = serviceId;
+        }
+
+        void recordLatency(final long latency) {
+            averageLatency = averageLatency == 0
+                    ? latency : averageLatency + LATENCY_SMOOTHING * (latency - averageLatency);
+
+            windowCount++;
+            final long now = System.currentTimeMillis();
+            if (now - windowStart >= THROUGHPUT_WINDOW_MILLIS) {
+                throughput = windowCount * 1000.0 / (now - windowStart);
+                windowStart = now;
+                windowCount = 0;
+            }
+        }
+
+        Metrics toMetrics() {
+            return new Metrics(serviceId, limit, inFlight, foreground.size() + background.size(),
+                    completed, failed, throttled, averageLatency, throughput);
+        }
+    }
+
+    private final class FetchTask implements Runnable {
+        final int serviceId;
+        final String url;
+        final boolean forceLoad;
+        final Priority priority;
+        final SingleEmitter<ChannelInfo> emitter;
+
+        volatile boolean cancelled;
+        int throttledRetries;
+
+        FetchTask(int serviceId, String url, boolean forceLoad, Priority priority,
+                  SingleEmitter<ChannelInfo> emitter) {
+            this.serviceId = serviceId;
+            this.url = url;
+            this.forceLoad = forceLoad;
+            this.priority = priority;
+            this.emitter = emitter;
+        }
+
+        @Override
+        public void run() {
+            final ServiceLane lane = getLane(serviceId);
+            if (cancelled) {
+                onCancelled(lane);
+                return;
+            }
+
+            final long startTime = System.nanoTime();
+            final Single<ChannelInfo> load;
+            try {
+                load = ExtractorHelper.getChannelInfo(serviceId, url, forceLoad);
+            } catch (Throwable error) {
+                onFailure(lane, 0);
+                emitter.tryOnError(error);
+                return;
+            }
+
+            // Completes on this thread, unless joining a load of the same channel already running
+            //noinspection ResultOfMethodCallIgnored
+            load.subscribe(info -> {
+                onSuccess(lane, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+                emitter.onSuccess(info);
+            }, error -> {
+                if (!isThrottled(error)) {
+                    onFailure(lane, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+                    emitter.tryOnError(error);
+                } else if (!cancelled && throttledRetries++ < MAX_THROTTLED_RETRIES) {
+                    onThrottled(lane, this);
+                } else {
+                    onThrottled(lane, null);
+                    emitter.tryOnError(error);
+                }
+            });
+        }
+    }
+}
@@ -10,21 +10,16 @@ import org.schabi.newpipe.database.AppDatabase;
 import org.schabi.newpipe.database.subscription.SubscriptionDAO;
 import org.schabi.newpipe.database.subscription.SubscriptionEntity;
 import org.schabi.newpipe.extractor.channel.ChannelInfo;
-import org.schabi.newpipe.util.ExtractorHelper;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import io.reactivex.Completable;
 import io.reactivex.CompletableSource;
 import io.reactivex.Flowable;
 import io.reactivex.Maybe;
-import io.reactivex.Scheduler;
 import io.reactivex.functions.Function;
-import io.reactivex.schedulers.Schedulers;
 
 /**
  * Subscription Service singleton:
@@ -53,19 +48,16 @@ public class SubscriptionService {
     protected final String TAG = "SubscriptionService@" + Integer.toHexString(hashCode());
     protected static final boolean DEBUG = MainActivity.DEBUG;
     private static final int SUBSCRIPTION_DEBOUNCE_INTERVAL = 500;
-    private static final int SUBSCRIPTION_THREAD_POOL_SIZE = 4;
 
     private final AppDatabase db;
     private final Flowable<List<SubscriptionEntity>> subscription;
 
-    private final Scheduler subscriptionScheduler;
+    private final ChannelFetchScheduler fetchScheduler;
 
     private SubscriptionService(Context context) {
         db = NewPipeDatabase.getInstance(context.getApplicationContext());
         subscription = getSubscriptionInfos();
-
-        final Executor subscriptionExecutor = Executors.newFixedThreadPool(SUBSCRIPTION_THREAD_POOL_SIZE);
-        subscriptionScheduler = Schedulers.from(subscriptionExecutor);
+        fetchScheduler = ChannelFetchScheduler.getInstance();
     }
 
     /**
@@ -99,11 +91,16 @@ public class SubscriptionService {
     }
 
     public Maybe<ChannelInfo> getChannelInfo(final SubscriptionEntity subscriptionEntity) {
-        if (DEBUG) Log.d(TAG, "getChannelInfo() called with: subscriptionEntity = [" + subscriptionEntity + "]");
+        return getChannelInfo(subscriptionEntity, false, ChannelFetchScheduler.Priority.FOREGROUND);
+    }
+
+    public Maybe<ChannelInfo> getChannelInfo(final SubscriptionEntity subscriptionEntity,
+                                             final boolean forceLoad,
+                                             final ChannelFetchScheduler.Priority priority) {
+        if (DEBUG) Log.d(TAG, "getChannelInfo() called with: subscriptionEntity = [" + subscriptionEntity + "], forceLoad = [" + forceLoad + "], priority = [" + priority + "]");
 
-        return Maybe.fromSingle(ExtractorHelper
-                .getChannelInfo(subscriptionEntity.getServiceId(), subscriptionEntity.getUrl(), false))
-                .subscribeOn(subscriptionScheduler);
+        return Maybe.fromSingle(fetchScheduler.fetch(subscriptionEntity.getServiceId(),
+                subscriptionEntity.getUrl(), forceLoad, priority));
     }
 
     /**
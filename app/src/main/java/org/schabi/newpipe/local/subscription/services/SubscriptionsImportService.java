@@ -33,9 +33,9 @@ import org.schabi.newpipe.database.subscription.SubscriptionEntity;
 import org.schabi.newpipe.extractor.NewPipe;
 import org.schabi.newpipe.extractor.channel.ChannelInfo;
 import org.schabi.newpipe.extractor.subscription.SubscriptionItem;
+import org.schabi.newpipe.local.subscription.ChannelFetchScheduler;
 import org.schabi.newpipe.local.subscription.ImportExportJsonHelper;
 import org.schabi.newpipe.util.Constants;
-import org.schabi.newpipe.util.ExtractorHelper;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -129,11 +129,6 @@ public class SubscriptionsImportService extends BaseImportExportService {
     // Imports
     //////////////////////////////////////////////////////////////////////////*/
 
-    /**
-     * How many extractions running in parallel.
-     */
-    public static final int PARALLEL_EXTRACTIONS = 8;
-
     /**
      * Number of items to buffer to mass-insert in the subscriptions table, this leads to
      * a better performance as we can then use db transactions.
@@ -165,18 +160,11 @@ public class SubscriptionsImportService extends BaseImportExportService {
         flowable.doOnNext(subscriptionItems -> eventListener.onSizeReceived(subscriptionItems.size()))
                 .flatMap(Flowable::fromIterable)
 
-                .parallel(PARALLEL_EXTRACTIONS)
-                .runOn(Schedulers.io())
-                .map((Function<SubscriptionItem, Notification<ChannelInfo>>) subscriptionItem -> {
-                    try {
-                        return Notification.createOnNext(ExtractorHelper
-                                .getChannelInfo(subscriptionItem.getServiceId(), subscriptionItem.getUrl(), true)
-                                .blockingGet());
-                    } catch (Throwable e) {
-                        return Notification.createOnError(e);
-                    }
-                })
-                .sequential()
+                .flatMapSingle(subscriptionItem -> ChannelFetchScheduler.getInstance()
+                        .fetch(subscriptionItem.getServiceId(), subscriptionItem.getUrl(), true,
+                                ChannelFetchScheduler.Priority.BACKGROUND)
+                        .map(Notification::createOnNext)
+                        .onErrorReturn(Notification::createOnError))
 
                 .observeOn(Schedulers.io())
                 .doOnNext(getNotificationsConsumer())
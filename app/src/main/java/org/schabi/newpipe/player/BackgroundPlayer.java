@@ -51,6 +51,8 @@ import org.schabi.newpipe.player.resolver.MediaSourceTag;
 import org.schabi.newpipe.util.NavigationHelper;
 import org.schabi.newpipe.util.ThemeHelper;
 
+import io.reactivex.Completable;
+
 import static org.schabi.newpipe.player.helper.PlayerHelper.getTimeString;
 
 
@@ -414,6 +416,12 @@ public final class BackgroundPlayer extends Service {
             return resolver.resolve(info);
         }
 
+        @Override
+        @NonNull
+        public Completable prefetchOf(final PlayQueueItem item, final StreamInfo info) {
+            return resolver.prefetch(info);
+        }
+
         @Override
         public void onPlaybackShutdown() {
             super.onPlaybackShutdown();
@@ -55,7 +55,7 @@ import org.schabi.newpipe.BuildConfig;
 import org.schabi.newpipe.Downloader;
 import org.schabi.newpipe.R;
 import org.schabi.newpipe.extractor.stream.StreamInfo;
-import org.schabi.newpipe.local.history.HistoryRecordManager;
+import org.schabi.newpipe.local.history.HistoryWriteBuffer;
 import org.schabi.newpipe.player.helper.AudioReactor;
 import org.schabi.newpipe.player.helper.LoadController;
 import org.schabi.newpipe.player.helper.MediaSessionManager;
@@ -75,11 +75,14 @@ import org.schabi.newpipe.util.SerializedCache;
 
 import java.io.IOException;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import io.reactivex.Observable;
 import io.reactivex.android.schedulers.AndroidSchedulers;
-import io.reactivex.disposables.CompositeDisposable;
 import io.reactivex.disposables.Disposable;
 import io.reactivex.disposables.SerialDisposable;
 
@@ -110,7 +113,7 @@ public abstract class BasePlayer implements
     final protected IntentFilter intentFilter;
 
     @NonNull
-    final protected HistoryRecordManager recordManager;
+    final protected HistoryWriteBuffer historyWriter;
 
     @NonNull
     final protected CustomTrackSelector trackSelector;
@@ -124,8 +127,7 @@ public abstract class BasePlayer implements
 
     @NonNull
     final private SerialDisposable progressUpdateReactor;
-    @NonNull
-    final private CompositeDisposable databaseUpdateReactor;
+
     /*//////////////////////////////////////////////////////////////////////////
     // Intent
     //////////////////////////////////////////////////////////////////////////*/
@@ -198,10 +200,9 @@ public abstract class BasePlayer implements
         this.intentFilter = new IntentFilter();
         setupBroadcastReceiver(intentFilter);
 
-        this.recordManager = new HistoryRecordManager(context);
+        this.historyWriter = HistoryWriteBuffer.getInstance(context);
 
         this.progressUpdateReactor = new SerialDisposable();
-        this.databaseUpdateReactor = new CompositeDisposable();
 
         final String userAgent = Downloader.USER_AGENT;
         final DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter();
@@ -289,7 +290,7 @@ public abstract class BasePlayer implements
         playQueue = queue;
         playQueue.init();
         if (playbackManager != null) playbackManager.dispose();
-        playbackManager = new MediaSourceManager(this, playQueue);
+        playbackManager = new MediaSourceManager(context, this, playQueue);
 
         if (playQueueAdapter != null) playQueueAdapter.dispose();
         playQueueAdapter = new PlayQueueAdapter(context, playQueue);
@@ -308,6 +309,9 @@ public abstract class BasePlayer implements
         if (playbackManager != null) playbackManager.dispose();
         if (mediaSessionManager != null) mediaSessionManager.dispose();
 
+        dataSource.setPinnedStreams(Collections.emptyList());
+        if (DEBUG) Log.d(TAG, "Cache metrics: " + PlayerDataSource.getCacheMetrics());
+
         if (playQueueAdapter != null) {
             playQueueAdapter.unsetSelectedListener();
             playQueueAdapter.dispose();
@@ -319,8 +323,8 @@ public abstract class BasePlayer implements
         destroyPlayer();
         unregisterBroadcastReceiver();
 
-        databaseUpdateReactor.clear();
         progressUpdateReactor.set(null);
+        historyWriter.flush();
 
     }
 
@@ -454,6 +458,7 @@ public abstract class BasePlayer implements
 
     public void onPaused() {
         if (isProgressLoopRunning()) stopProgressLoop();
+        historyWriter.flush();
     }
 
     public void onPausedSeek() {
@@ -778,6 +783,13 @@ public abstract class BasePlayer implements
         simpleExoPlayer.prepare(mediaSource);
     }
 
+    @Override
+    public void onPlaybackWindowChanged(@NonNull final Collection<PlayQueueItem> items) {
+        final List<String> streamUrls = new ArrayList<>(items.size());
+        for (final PlayQueueItem item : items) streamUrls.add(item.getUrl());
+        dataSource.setPinnedStreams(streamUrls);
+    }
+
     public void onPlaybackSynchronize(@NonNull final PlayQueueItem item) {
         if (DEBUG) Log.d(TAG, "Playback - onPlaybackSynchronize() called with " +
                 "item=[" + item.getTitle() + "], url=[" + item.getUrl() + "]");
@@ -987,13 +999,7 @@ public abstract class BasePlayer implements
 
     private void registerView() {
         if (currentMetadata == null) return;
-        final StreamInfo currentInfo = currentMetadata.getMetadata();
-        final Disposable viewRegister = recordManager.onViewed(currentInfo).onErrorComplete()
-                .subscribe(
-                        ignored -> {/* successful */},
-                        error -> Log.e(TAG, "Player onViewed() failure: ", error)
-                );
-        databaseUpdateReactor.add(viewRegister);
+        historyWriter.onViewed(currentMetadata.getMetadata());
     }
 
     protected void reload() {
@@ -1002,20 +1008,13 @@ public abstract class BasePlayer implements
         }
 
         if (playQueue != null) {
-            playbackManager = new MediaSourceManager(this, playQueue);
+            playbackManager = new MediaSourceManager(context, this, playQueue);
         }
     }
 
     protected void savePlaybackState(final StreamInfo info, final long progress) {
         if (info == null) return;
-        final Disposable stateSaver = recordManager.saveStreamState(info, progress)
-                .observeOn(AndroidSchedulers.mainThread())
-                .onErrorComplete()
-                .subscribe(
-                        ignored -> {/* successful */},
-                        error -> Log.e(TAG, "savePlaybackState() failure: ", error)
-                );
-        databaseUpdateReactor.add(stateSaver);
+        historyWriter.saveStreamState(info, progress);
     }
 
     private void savePlaybackState() {
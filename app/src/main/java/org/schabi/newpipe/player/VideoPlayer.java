@@ -70,6 +70,8 @@ import org.schabi.newpipe.util.AnimationUtils;
 import java.util.ArrayList;
 import java.util.List;
 
+import io.reactivex.Completable;
+
 import static org.schabi.newpipe.player.helper.PlayerHelper.formatSpeed;
 import static org.schabi.newpipe.player.helper.PlayerHelper.getTimeString;
 import static org.schabi.newpipe.util.AnimationUtils.animateView;
@@ -384,6 +386,12 @@ public abstract class VideoPlayer extends BasePlayer
         return resolver.resolve(info);
     }
 
+    @Override
+    @NonNull
+    public Completable prefetchOf(final PlayQueueItem item, final StreamInfo info) {
+        return resolver.prefetch(info);
+    }
+
     /*//////////////////////////////////////////////////////////////////////////
     // States Implementation
     //////////////////////////////////////////////////////////////////////////*/
@@ -1,20 +1,27 @@
 package org.schabi.newpipe.player.helper;
 
 import android.content.Context;
+import android.net.Uri;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.util.Log;
 
 import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
 import com.google.android.exoplayer2.upstream.DefaultDataSource;
 import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
 import com.google.android.exoplayer2.upstream.FileDataSource;
 import com.google.android.exoplayer2.upstream.TransferListener;
 import com.google.android.exoplayer2.upstream.cache.CacheDataSink;
 import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
-import com.google.android.exoplayer2.upstream.cache.LeastRecentlyUsedCacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.CacheUtil;
 import com.google.android.exoplayer2.upstream.cache.SimpleCache;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /* package-private */ class CacheFactory implements DataSource.Factory {
     private static final String TAG = "CacheFactory";
@@ -30,6 +37,18 @@ import java.io.File;
     // see: https://stackoverflow.com/questions/28700391/using-cache-in-exoplayer
     // todo: make this a singleton?
     private static SimpleCache cache;
+    private static PinningCacheEvictor evictor;
+
+    /**
+     * Bytes read by the players through the cache, and bytes of those fetched from the network.
+     * */
+    private static final AtomicLong bytesRead = new AtomicLong();
+    private static final AtomicLong bytesFromNetwork = new AtomicLong();
+
+    /**
+     * Prepended to the keys of the data sources, to tie them to a stream.
+     * */
+    @NonNull private final String keyPrefix;
 
     public CacheFactory(@NonNull final Context context,
                         @NonNull final String userAgent,
@@ -38,12 +57,20 @@ import java.io.File;
                 PlayerHelper.getPreferredFileSize(context));
     }
 
+    private CacheFactory(@NonNull final CacheFactory parent, @NonNull final String keyPrefix) {
+        this.dataSourceFactory = parent.dataSourceFactory;
+        this.cacheDir = parent.cacheDir;
+        this.maxFileSize = parent.maxFileSize;
+        this.keyPrefix = keyPrefix;
+    }
+
     private CacheFactory(@NonNull final Context context,
                          @NonNull final String userAgent,
                          @NonNull final TransferListener<? super DataSource> transferListener,
                          final long maxCacheSize,
                          final long maxFileSize) {
         this.maxFileSize = maxFileSize;
+        this.keyPrefix = "";
 
         dataSourceFactory = new DefaultDataSourceFactory(context, userAgent, transferListener);
         cacheDir = new File(context.getExternalCacheDir(), CACHE_FOLDER_NAME);
@@ -53,11 +80,20 @@ import java.io.File;
         }
 
         if (cache == null) {
-            final LeastRecentlyUsedCacheEvictor evictor = new LeastRecentlyUsedCacheEvictor(maxCacheSize);
+            evictor = new PinningCacheEvictor(maxCacheSize);
             cache = new SimpleCache(cacheDir, evictor);
         }
     }
 
+    /**
+     * @return a factory whose data sources key the cached content under the given prefix,
+     * so that the content of a stream can be pinned by it
+     * */
+    @NonNull
+    public CacheFactory forStream(@NonNull final String keyPrefix) {
+        return new CacheFactory(this, keyPrefix);
+    }
+
     @Override
     public DataSource createDataSource() {
         Log.d(TAG, "initExoPlayerCache: cacheDir = " + cacheDir.getAbsolutePath());
@@ -66,7 +102,83 @@ import java.io.File;
         final FileDataSource fileSource = new FileDataSource();
         final CacheDataSink dataSink = new CacheDataSink(cache, maxFileSize);
 
-        return new CacheDataSource(cache, dataSource, fileSource, dataSink, CACHE_FLAGS, null);
+        final CacheDataSource cacheDataSource = new CacheDataSource(cache,
+                new CountingDataSource(dataSource, bytesFromNetwork, null),
+                fileSource, dataSink, CACHE_FLAGS, null);
+        return new CountingDataSource(cacheDataSource, bytesRead, keyPrefix);
+    }
+
+    /**
+     * Keep the content of the given streams in the cache, until the owner pins other ones.
+     * */
+    public static void setPinned(@NonNull final Object owner,
+                                 @NonNull final Collection<String> keyPrefixes) {
+        if (evictor != null) evictor.setPinned(owner, keyPrefixes);
+    }
+
+    public static long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    public static long getBytesFromNetwork() {
+        return bytesFromNetwork.get();
+    }
+
+    /**
+     * Blocks until the range of the given {@link DataSpec} is in the cache, skipping the
+     * parts already cached.
+     * */
+    public void prefetch(@NonNull final DataSpec dataSpec,
+                         @Nullable final AtomicBoolean isCanceled)
+            throws IOException, InterruptedException {
+        CacheUtil.cache(dataSpec, cache, dataSourceFactory.createDataSource(), null, isCanceled);
+    }
+
+    /**
+     * Counts the bytes read from a data source and, when given a key prefix, replaces the
+     * url derived cache key of the requests by a stable one (see {@link StableCacheKey}).
+     * Requests already carrying a key, like those of a progressive stream, keep it.
+     * */
+    private static final class CountingDataSource implements DataSource {
+        @NonNull private final DataSource upstream;
+        @NonNull private final AtomicLong counter;
+        @Nullable private final String keyPrefix;
+
+        CountingDataSource(@NonNull final DataSource upstream,
+                           @NonNull final AtomicLong counter,
+                           @Nullable final String keyPrefix) {
+            this.upstream = upstream;
+            this.counter = counter;
+            this.keyPrefix = keyPrefix;
+        }
+
+        @Override
+        public long open(DataSpec dataSpec) throws IOException {
+            if (keyPrefix == null || dataSpec.key != null) return upstream.open(dataSpec);
+
+            final String key = keyPrefix + StableCacheKey.of(dataSpec.uri.toString());
+            return upstream.open(new DataSpec(dataSpec.uri, dataSpec.postBody,
+                    dataSpec.absoluteStreamPosition, dataSpec.position, dataSpec.length,
+                    key, dataSpec.flags));
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) throws IOException {
+            final int read = upstream.read(buffer, offset, readLength);
+            if (read > 0) counter.addAndGet(read);
+            return read;
+        }
+
+        @Override
+        @Nullable
+        public Uri getUri() {
+            return upstream.getUri();
+        }
+
+        @Override
+        public void close() throws IOException {
+            upstream.close();
+        }
     }
 
     public void tryDeleteCacheFiles() {
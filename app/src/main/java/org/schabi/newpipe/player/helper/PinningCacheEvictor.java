@@ -0,0 +1,122 @@
+package org.schabi.newpipe.player.helper;
+
+import android.support.annotation.NonNull;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.CacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.CacheSpan;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Evicts the least recently used spans once the cache exceeds its maximum size, skipping the
+ * spans of pinned streams. Streams are pinned by key prefix, every cache key of a stream starts
+ * with its url (see {@link PlayerHelper#cacheKeyOf}).
+ * <br><br>
+ * Pinned spans can make the cache go over its maximum size, until they are unpinned.
+ * */
+/*package-private*/ class PinningCacheEvictor implements CacheEvictor {
+    private final long maxBytes;
+    private final TreeSet<CacheSpan> leastRecentlyUsed;
+    private long currentSize;
+
+    private final Map<Object, Collection<String>> pins = new HashMap<>();
+
+    /*package-private*/ PinningCacheEvictor(final long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.leastRecentlyUsed = new TreeSet<>(PinningCacheEvictor::compare);
+    }
+
+    /**
+     * Replaces the pinned streams of an owner, an empty collection releases them.
+     *
+     * @param owner the player pinning the streams, players don't override each other's pins
+     * @param keyPrefixes the urls of the pinned streams
+     * */
+    /*package-private*/ synchronized void setPinned(@NonNull final Object owner,
+                                                    @NonNull final Collection<String> keyPrefixes) {
+        if (keyPrefixes.isEmpty()) {
+            pins.remove(owner);
+        } else {
+            pins.put(owner, new ArrayList<>(keyPrefixes));
+        }
+    }
+
+    private synchronized boolean isPinned(@NonNull final String key) {
+        for (final Collection<String> keyPrefixes : pins.values()) {
+            for (final String keyPrefix : keyPrefixes) {
+                if (key.startsWith(keyPrefix)) return true;
+            }
+        }
+        return false;
+    }
+
+    /*//////////////////////////////////////////////////////////////////////////
+    // Cache Evictor
+    //////////////////////////////////////////////////////////////////////////*/
+
+    @Override
+    public void onCacheInitialized() {
+        // Do nothing.
+    }
+
+    @Override
+    public void onStartFile(Cache cache, String key, long position, long length) {
+        if (length != C.LENGTH_UNSET) evictCache(cache, length);
+    }
+
+    @Override
+    public void onSpanAdded(Cache cache, CacheSpan span) {
+        leastRecentlyUsed.add(span);
+        currentSize += span.length;
+        evictCache(cache, 0);
+    }
+
+    @Override
+    public void onSpanRemoved(Cache cache, CacheSpan span) {
+        leastRecentlyUsed.remove(span);
+        currentSize -= span.length;
+    }
+
+    @Override
+    public void onSpanTouched(Cache cache, CacheSpan oldSpan, CacheSpan newSpan) {
+        onSpanRemoved(cache, oldSpan);
+        onSpanAdded(cache, newSpan);
+    }
+
+    private void evictCache(@NonNull final Cache cache, final long requiredSpace) {
+        long excess = currentSize + requiredSpace - maxBytes;
+        if (excess <= 0) return;
+
+        // Removing a span calls back onSpanRemoved, so pick them all before
+        final List<CacheSpan> evicted = new ArrayList<>();
+        for (final CacheSpan span : leastRecentlyUsed) {
+            if (excess <= 0) break;
+            if (isPinned(span.key)) continue;
+
+            evicted.add(span);
+            excess -= span.length;
+        }
+
+        for (final CacheSpan span : evicted) {
+            try {
+                cache.removeSpan(span);
+            } catch (Cache.CacheException e) {
+                // do nothing.
+            }
+        }
+    }
+
+    private static int compare(@NonNull final CacheSpan lhs, @NonNull final CacheSpan rhs) {
+        if (lhs.lastAccessTimestamp != rhs.lastAccessTimestamp) {
+            return lhs.lastAccessTimestamp < rhs.lastAccessTimestamp ? -1 : 1;
+        }
+        return lhs.compareTo(rhs);
+    }
+}
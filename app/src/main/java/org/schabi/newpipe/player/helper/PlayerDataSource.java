@@ -1,8 +1,10 @@
 package org.schabi.newpipe.player.helper;
 
 import android.content.Context;
+import android.net.Uri;
 import android.support.annotation.NonNull;
 
+import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.source.ExtractorMediaSource;
 import com.google.android.exoplayer2.source.SingleSampleMediaSource;
 import com.google.android.exoplayer2.source.dash.DashMediaSource;
@@ -11,15 +13,23 @@ import com.google.android.exoplayer2.source.hls.HlsMediaSource;
 import com.google.android.exoplayer2.source.smoothstreaming.DefaultSsChunkSource;
 import com.google.android.exoplayer2.source.smoothstreaming.SsMediaSource;
 import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
 import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
 import com.google.android.exoplayer2.upstream.TransferListener;
 
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.reactivex.Completable;
+import io.reactivex.schedulers.Schedulers;
+
 public class PlayerDataSource {
     private static final int MANIFEST_MINIMUM_RETRY = 5;
     private static final int EXTRACTOR_MINIMUM_RETRY = Integer.MAX_VALUE;
     private static final int LIVE_STREAM_EDGE_GAP_MILLIS = 10000;
 
-    private final DataSource.Factory cacheDataSourceFactory;
+    private final CacheFactory cacheDataSourceFactory;
     private final DataSource.Factory cachelessDataSourceFactory;
 
     public PlayerDataSource(@NonNull final Context context,
@@ -49,18 +59,26 @@ public class PlayerDataSource {
                 .setLivePresentationDelayMs(LIVE_STREAM_EDGE_GAP_MILLIS);
     }
 
-    public SsMediaSource.Factory getSsMediaSourceFactory() {
+    /*//////////////////////////////////////////////////////////////////////////
+    // Adaptive sources, the manifests list signed urls that expire, so only the
+    // chunks are cached, under keys tied to the stream
+    //////////////////////////////////////////////////////////////////////////*/
+
+    public SsMediaSource.Factory getSsMediaSourceFactory(@NonNull final String key) {
         return new SsMediaSource.Factory(new DefaultSsChunkSource.Factory(
-                cacheDataSourceFactory), cacheDataSourceFactory);
+                cacheDataSourceFactory.forStream(key)), cachelessDataSourceFactory);
     }
 
-    public HlsMediaSource.Factory getHlsMediaSourceFactory() {
-        return new HlsMediaSource.Factory(cacheDataSourceFactory);
+    public HlsMediaSource.Factory getHlsMediaSourceFactory(@NonNull final String key) {
+        final DataSource.Factory chunkDataSourceFactory = cacheDataSourceFactory.forStream(key);
+        return new HlsMediaSource.Factory(dataType -> dataType == C.DATA_TYPE_MANIFEST
+                ? cachelessDataSourceFactory.createDataSource()
+                : chunkDataSourceFactory.createDataSource());
     }
 
-    public DashMediaSource.Factory getDashMediaSourceFactory() {
+    public DashMediaSource.Factory getDashMediaSourceFactory(@NonNull final String key) {
         return new DashMediaSource.Factory(new DefaultDashChunkSource.Factory(
-                cacheDataSourceFactory), cacheDataSourceFactory);
+                cacheDataSourceFactory.forStream(key)), cachelessDataSourceFactory);
     }
 
     public ExtractorMediaSource.Factory getExtractorMediaSourceFactory() {
@@ -75,4 +93,69 @@ public class PlayerDataSource {
     public SingleSampleMediaSource.Factory getSampleMediaSourceFactory() {
         return new SingleSampleMediaSource.Factory(cacheDataSourceFactory);
     }
+
+    /**
+     * Keeps the cached content of the given streams from being evicted, until the next call.
+     *
+     * @param streamUrls the urls of the streams, an empty collection releases the pins
+     * */
+    public void setPinnedStreams(@NonNull final Collection<String> streamUrls) {
+        CacheFactory.setPinned(this, streamUrls);
+    }
+
+    @NonNull
+    public static CacheMetrics getCacheMetrics() {
+        return new CacheMetrics(CacheFactory.getBytesRead(), CacheFactory.getBytesFromNetwork());
+    }
+
+    public static final class CacheMetrics {
+        /**
+         * Bytes read by the players, from the cache or from the network
+         * */
+        public final long bytesRead;
+        public final long bytesFromNetwork;
+
+        CacheMetrics(final long bytesRead, final long bytesFromNetwork) {
+            this.bytesRead = bytesRead;
+            this.bytesFromNetwork = bytesFromNetwork;
+        }
+
+        /**
+         * @return the bytes read from the cache instead of the network
+         * */
+        public long getBytesSaved() {
+            return Math.max(0, bytesRead - bytesFromNetwork);
+        }
+
+        public double getHitRatio() {
+            return bytesRead == 0 ? 0 : (double) getBytesSaved() / bytesRead;
+        }
+
+        @Override
+        public String toString() {
+            return "bytesRead = [" + bytesRead + "], bytesFromNetwork = [" + bytesFromNetwork +
+                    "], bytesSaved = [" + getBytesSaved() + "], hitRatio = [" + getHitRatio() + "]";
+        }
+    }
+
+    /**
+     * Downloads the first bytes of a progressive stream into the player cache, under the
+     * same key as {@link #getExtractorMediaSourceFactory(String)}, so the player reads them
+     * from the cache later on. Disposing stops the download.
+     * */
+    @NonNull
+    public Completable prefetch(@NonNull final Uri uri, @NonNull final String key,
+                                final long length) {
+        return Completable.create(emitter -> {
+            final AtomicBoolean isCanceled = new AtomicBoolean(false);
+            emitter.setCancellable(() -> isCanceled.set(true));
+
+            try {
+                cacheDataSourceFactory.prefetch(new DataSpec(uri, 0, length, key), isCanceled);
+                emitter.onComplete();
+            } catch (IOException | InterruptedException e) {
+                emitter.tryOnError(e);
+            }
+        }).subscribeOn(Schedulers.io());
+    }
 }
@@ -0,0 +1,121 @@
+package org.schabi.newpipe.player.helper;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Derives cache keys from media urls that stay the same for the same content.
+ * <br><br>
+ * Segment and file urls of the services are signed and expire, and are served by many hosts
+ * of the same CDN, so keying the cache on the raw url means a replay never hits. The key keeps
+ * the domain, the path and the query parameters identifying the content, and drops the ones
+ * that only authorize or route the request.
+ * */
+/*package-private*/ final class StableCacheKey {
+    private StableCacheKey() {}
+
+    /**
+     * Path segment after which the path is made of name/value pairs (googlevideo urls).
+     * */
+    private static final String PATH_PARAMETERS_MARKER = "videoplayback";
+
+    private static final Set<String> VOLATILE_PARAMETERS = new HashSet<>(Arrays.asList(
+            // Signatures and expiration
+            "expire", "expires", "signature", "sig", "lsig", "sparams", "lsparams", "policy",
+            "key-pair-id",
+            // Client, session and routing
+            "ip", "ipbits", "ei", "ms", "mv", "mt", "mm", "mn", "pl", "initcwndbps", "requiressl",
+            "source", "c", "txp", "fexp", "gir", "nh", "ratebypass", "pcm2cms", "cpn", "rn",
+            "rbuf", "alr", "keepalive", "vprv", "hang"));
+
+    @NonNull
+    static String of(@NonNull final String url) {
+        String rest = url;
+
+        final int fragment = rest.indexOf('#');
+        if (fragment != -1) rest = rest.substring(0, fragment);
+
+        final int scheme = rest.indexOf("://");
+        if (scheme != -1) rest = rest.substring(scheme + 3);
+
+        final int queryStart = rest.indexOf('?');
+        final String query = queryStart == -1 ? "" : rest.substring(queryStart + 1);
+        if (queryStart != -1) rest = rest.substring(0, queryStart);
+
+        final int pathStart = rest.indexOf('/');
+        final String authority = pathStart == -1 ? rest : rest.substring(0, pathStart);
+        final String path = pathStart == -1 ? "" : rest.substring(pathStart);
+
+        final StringBuilder key = new StringBuilder(url.length())
+                .append(domainOf(authority))
+                .append(stablePathOf(path));
+
+        final List<String> parameters = new ArrayList<>();
+        for (final String parameter : query.split("&")) {
+            if (parameter.isEmpty()) continue;
+
+            final int separator = parameter.indexOf('=');
+            final String name = separator == -1 ? parameter : parameter.substring(0, separator);
+            if (!isVolatile(name)) parameters.add(parameter);
+        }
+        Collections.sort(parameters);
+
+        for (int i = 0; i < parameters.size(); i++) {
+            key.append(i == 0 ? '?' : '&').append(parameters.get(i));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Keep the last two labels of the host, CDNs spread the same content over many hosts.
+     * */
+    @NonNull
+    private static String domainOf(@NonNull final String authority) {
+        String host = authority;
+        final int userInfo = host.lastIndexOf('@');
+        if (userInfo != -1) host = host.substring(userInfo + 1);
+        final int port = host.indexOf(':');
+        if (port != -1) host = host.substring(0, port);
+
+        final int last = host.lastIndexOf('.');
+        if (last <= 0) return host;
+        final int secondLast = host.lastIndexOf('.', last - 1);
+        return secondLast == -1 ? host : host.substring(secondLast + 1);
+    }
+
+    @NonNull
+    private static String stablePathOf(@NonNull final String path) {
+        final String[] segments = path.split("/", -1);
+
+        int marker = -1;
+        for (int i = 0; i < segments.length; i++) {
+            if (segments[i].equals(PATH_PARAMETERS_MARKER)) {
+                marker = i;
+                break;
+            }
+        }
+        if (marker == -1) return path;
+
+        final StringBuilder stablePath = new StringBuilder(path.length());
+        for (int i = 1; i <= marker; i++) stablePath.append('/').append(segments[i]);
+
+        for (int i = marker + 1; i < segments.length; i += 2) {
+            if (i + 1 < segments.length && isVolatile(segments[i])) continue;
+
+            stablePath.append('/').append(segments[i]);
+            if (i + 1 < segments.length) stablePath.append('/').append(segments[i + 1]);
+        }
+        return stablePath.toString();
+    }
+
+    private static boolean isVolatile(@NonNull final String name) {
+        return VOLATILE_PARAMETERS.contains(name.toLowerCase(Locale.ENGLISH));
+    }
+}
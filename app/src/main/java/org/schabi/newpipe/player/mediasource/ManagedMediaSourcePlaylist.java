@@ -70,6 +70,20 @@ public class ManagedMediaSourcePlaylist {
         internalSource.removeMediaSource(index);
     }
 
+    /**
+     * Removes the given number of {@link ManagedMediaSource} from {@link ConcatenatingMediaSource}
+     * from the given index, or as many as the playlist has after it.
+     * @see #remove(int)
+     * */
+    public synchronized void remove(final int index, final int count) {
+        if (index < 0 || index >= internalSource.getSize()) return;
+
+        final int end = Math.min(internalSource.getSize(), index + count);
+        for (int i = index; i < end; i++) {
+            internalSource.removeMediaSource(index);
+        }
+    }
+
     /**
      * Moves a {@link ManagedMediaSource} in {@link ConcatenatingMediaSource}
      * from the given source index to the target index. If either index is out of bound,
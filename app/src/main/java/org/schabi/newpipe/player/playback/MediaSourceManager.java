@@ -1,7 +1,9 @@
 package org.schabi.newpipe.player.playback;
 
+import android.content.Context;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.v4.util.ArrayMap;
 import android.support.v4.util.ArraySet;
 import android.util.Log;
 
@@ -24,14 +26,18 @@ import org.schabi.newpipe.util.ServiceHelper;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import io.reactivex.Observable;
+import io.reactivex.Scheduler;
 import io.reactivex.Single;
 import io.reactivex.android.schedulers.AndroidSchedulers;
-import io.reactivex.disposables.CompositeDisposable;
 import io.reactivex.disposables.Disposable;
 import io.reactivex.internal.subscriptions.EmptySubscription;
 import io.reactivex.schedulers.Schedulers;
@@ -45,19 +51,43 @@ public class MediaSourceManager {
     @NonNull private final String TAG = "MediaSourceManager@" + hashCode();
 
     /**
-     * Determines how many streams before and after the current stream should be loaded.
-     * The default value (1) ensures seamless playback under typical network settings.
+     * Determines how many streams before the current stream should be loaded.
+     * The streams before will only be cached for future usage.
+     * */
+    private final static int BACKWARD_WINDOW_SIZE = 1;
+
+    /**
+     * Thread shared by the managers of all players, on which the loaded stream infos are
+     * resolved into media sources and the load signals are timed and debounced.
      * <br><br>
-     * The streams after the current will be loaded into the playlist timeline while the
-     * streams before will only be cached for future usage.
+     * The play queue and the playlist are only touched on the main thread, which is left with
+     * handing the resolved sources over to the playlist timeline.
      *
+     * @see #getLoadedMediaSource(PlayQueueItem)
      * @see #onMediaSourceReceived(PlayQueueItem, ManagedMediaSource)
      * */
-    private final static int WINDOW_SIZE = 1;
+    private final static Scheduler ORCHESTRATION_SCHEDULER = Schedulers.from(
+            Executors.newSingleThreadExecutor(runnable ->
+                    new Thread(runnable, "MediaSourceManager")));
+
+    private final static AtomicLong loadedSourceCount = new AtomicLong();
+    private final static AtomicLong fetchNanos = new AtomicLong();
+    private final static AtomicLong resolveNanos = new AtomicLong();
+    private final static AtomicLong handoffNanos = new AtomicLong();
 
     @NonNull private final PlaybackListener playbackListener;
     @NonNull private final PlayQueue playQueue;
 
+    /**
+     * Determines how many streams after the current stream should be loaded into the
+     * playlist timeline, and how many of them have the beginning of their media cached.
+     * The window size is updated on every load, it is at least 1 to ensure seamless playback.
+     *
+     * @see #onMediaSourceReceived(PlayQueueItem, ManagedMediaSource)
+     * */
+    @NonNull private final PreloadWindow preloadWindow;
+    private int windowSize;
+
     /**
      * Determines the gap time between the playback position and the playback duration which
      * the {@link #getEdgeIntervalSignal()} begins to request loading.
@@ -88,29 +118,36 @@ public class MediaSourceManager {
     @NonNull private Subscription playQueueReactor;
 
     /**
-     * Determines the maximum number of disposables allowed in the {@link #loaderReactor}.
-     * Once exceeded, new calls to {@link #loadImmediate()} will evict all disposables in the
-     * {@link #loaderReactor} in order to load a new set of items.
+     * Loaders of the items in the current window, keyed by item. On every call to
+     * {@link #loadImmediate()}, the loaders of items that left the window are disposed,
+     * so skipping through the queue does not keep loading streams that will not be played.
      *
      * @see #loadImmediate()
      * @see #maybeLoadItem(PlayQueueItem)
      * */
-    private final static int MAXIMUM_LOADER_SIZE = WINDOW_SIZE * 2 + 1;
-    @NonNull private final CompositeDisposable loaderReactor;
-    @NonNull private final Set<PlayQueueItem> loadingItems;
+    @NonNull private final Map<PlayQueueItem, Disposable> loaders;
+    /**
+     * Media prefetches of the upcoming items, kept once completed so that an item is
+     * prefetched only once while it stays upcoming.
+     *
+     * @see #maybePrefetchItem(PlayQueueItem)
+     * */
+    @NonNull private final Map<PlayQueueItem, Disposable> prefetchers;
 
     @NonNull private final AtomicBoolean isBlocked;
 
     @NonNull private ManagedMediaSourcePlaylist playlist;
 
-    public MediaSourceManager(@NonNull final PlaybackListener listener,
+    public MediaSourceManager(@NonNull final Context context,
+                              @NonNull final PlaybackListener listener,
                               @NonNull final PlayQueue playQueue) {
-        this(listener, playQueue, /*loadDebounceMillis=*/400L,
+        this(context, listener, playQueue, /*loadDebounceMillis=*/400L,
                 /*playbackNearEndGapMillis=*/TimeUnit.MILLISECONDS.convert(30, TimeUnit.SECONDS),
                 /*progressUpdateIntervalMillis*/TimeUnit.MILLISECONDS.convert(2, TimeUnit.SECONDS));
     }
 
-    private MediaSourceManager(@NonNull final PlaybackListener listener,
+    private MediaSourceManager(@NonNull final Context context,
+                               @NonNull final PlaybackListener listener,
                                @NonNull final PlayQueue playQueue,
                                final long loadDebounceMillis,
                                final long playbackNearEndGapMillis,
@@ -127,6 +164,9 @@ public class MediaSourceManager {
         this.playbackListener = listener;
         this.playQueue = playQueue;
 
+        this.preloadWindow = new PreloadWindow(context);
+        this.windowSize = preloadWindow.getWindowSize(playQueue);
+
         this.playbackNearEndGapMillis = playbackNearEndGapMillis;
         this.progressUpdateIntervalMillis = progressUpdateIntervalMillis;
         this.nearEndIntervalSignal = getEdgeIntervalSignal();
@@ -136,14 +176,13 @@ public class MediaSourceManager {
         this.debouncedLoader = getDebouncedLoader();
 
         this.playQueueReactor = EmptySubscription.INSTANCE;
-        this.loaderReactor = new CompositeDisposable();
+        this.loaders = new ArrayMap<>();
+        this.prefetchers = new ArrayMap<>();
 
         this.isBlocked = new AtomicBoolean(false);
 
         this.playlist = new ManagedMediaSourcePlaylist();
 
-        this.loadingItems = Collections.synchronizedSet(new ArraySet<>());
-
         playQueue.getBroadcastReceiver()
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(getReactor());
@@ -162,7 +201,8 @@ public class MediaSourceManager {
         debouncedLoader.dispose();
 
         playQueueReactor.cancel();
-        loaderReactor.dispose();
+        clearLoaders(loaders, Collections.emptySet());
+        clearLoaders(prefetchers, Collections.emptySet());
     }
 
     /*//////////////////////////////////////////////////////////////////////////
@@ -206,11 +246,12 @@ public class MediaSourceManager {
                 populateSources();
                 break;
             case SELECT:
+                preloadWindow.onSelectionChanged();
                 maybeRenewCurrentIndex();
                 break;
             case REMOVE:
                 final RemoveEvent removeEvent = (RemoveEvent) event;
-                playlist.remove(removeEvent.getRemoveIndex());
+                playlist.remove(removeEvent.getRemoveIndex(), removeEvent.getRemoveCount());
                 break;
             case MOVE:
                 final MoveEvent moveEvent = (MoveEvent) event;
@@ -257,7 +298,7 @@ public class MediaSourceManager {
     //////////////////////////////////////////////////////////////////////////*/
 
     private boolean isPlayQueueReady() {
-        final boolean isWindowLoaded = playQueue.size() - playQueue.getIndex() > WINDOW_SIZE;
+        final boolean isWindowLoaded = playQueue.size() - playQueue.getIndex() > windowSize;
         return playQueue.isComplete() || isWindowLoaded;
     }
 
@@ -316,15 +357,15 @@ public class MediaSourceManager {
     //////////////////////////////////////////////////////////////////////////*/
 
     private Observable<Long> getEdgeIntervalSignal() {
-        return Observable.interval(progressUpdateIntervalMillis, TimeUnit.MILLISECONDS)
+        return Observable.interval(progressUpdateIntervalMillis, TimeUnit.MILLISECONDS,
+                ORCHESTRATION_SCHEDULER)
                 .filter(ignored ->
                         playbackListener.isApproachingPlaybackEdge(playbackNearEndGapMillis));
     }
 
     private Disposable getDebouncedLoader() {
         return debouncedSignal.mergeWith(nearEndIntervalSignal)
-                .debounce(loadDebounceMillis, TimeUnit.MILLISECONDS)
-                .subscribeOn(Schedulers.single())
+                .debounce(loadDebounceMillis, TimeUnit.MILLISECONDS, ORCHESTRATION_SCHEDULER)
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(timestamp -> loadImmediate());
     }
@@ -335,38 +376,76 @@ public class MediaSourceManager {
 
     private void loadImmediate() {
         if (DEBUG) Log.d(TAG, "MediaSource - loadImmediate() called");
-        final ItemsToLoad itemsToLoad = getItemsToLoad(playQueue);
+        windowSize = preloadWindow.getWindowSize(playQueue);
+        final ItemsToLoad itemsToLoad = getItemsToLoad(playQueue, windowSize,
+                preloadWindow.getMediaPrefetchCount());
         if (itemsToLoad == null) return;
 
-        // Evict the previous items being loaded to free up memory, before start loading new ones
-        maybeClearLoaders();
+        // Cancel the items no longer in the window to free up memory and bandwidth,
+        // before start loading new ones
+        final Set<PlayQueueItem> window = new ArraySet<>(itemsToLoad.neighbors);
+        window.add(itemsToLoad.center);
+        clearLoaders(loaders, window);
+        clearLoaders(prefetchers, itemsToLoad.upcoming);
+        playbackListener.onPlaybackWindowChanged(window);
 
         maybeLoadItem(itemsToLoad.center);
         for (final PlayQueueItem item : itemsToLoad.neighbors) {
             maybeLoadItem(item);
         }
+        for (final PlayQueueItem item : itemsToLoad.upcoming) {
+            maybePrefetchItem(item);
+        }
     }
 
     private void maybeLoadItem(@NonNull final PlayQueueItem item) {
         if (DEBUG) Log.d(TAG, "maybeLoadItem() called.");
         if (playQueue.indexOf(item) >= playlist.size()) return;
 
-        if (!loadingItems.contains(item) && isCorrectionNeeded(item)) {
+        if (!loaders.containsKey(item) && isCorrectionNeeded(item)) {
             if (DEBUG) Log.d(TAG, "MediaSource - Loading=[" + item.getTitle() +
                     "] with url=[" + item.getUrl() + "]");
 
-            loadingItems.add(item);
             final Disposable loader = getLoadedMediaSource(item)
                     .observeOn(AndroidSchedulers.mainThread())
                     /* No exception handling since getLoadedMediaSource guarantees nonnull return */
                     .subscribe(mediaSource -> onMediaSourceReceived(item, mediaSource));
-            loaderReactor.add(loader);
+            loaders.put(item, loader);
         }
     }
 
+    private void maybePrefetchItem(@NonNull final PlayQueueItem item) {
+        if (prefetchers.containsKey(item)) return;
+        if (DEBUG) Log.d(TAG, "MediaSource - Prefetching=[" + item.getTitle() +
+                "] with url=[" + item.getUrl() + "]");
+
+        final Disposable prefetcher = item.getStream()
+                .flatMapCompletable(streamInfo -> playbackListener.prefetchOf(item, streamInfo))
+                .subscribe(
+                        () -> {
+                            if (DEBUG) Log.d(TAG, "MediaSource - Prefetched=[" +
+                                    item.getTitle() + "]");
+                        },
+                        error -> {
+                            if (DEBUG) Log.d(TAG, "MediaSource - Prefetch failed=[" +
+                                    item.getTitle() + "]", error);
+                        });
+        prefetchers.put(item, prefetcher);
+    }
+
     private Single<ManagedMediaSource> getLoadedMediaSource(@NonNull final PlayQueueItem stream) {
-        return stream.getStream().map(streamInfo -> {
+        final long fetchStart = System.nanoTime();
+        return stream.getStream().observeOn(ORCHESTRATION_SCHEDULER).map(streamInfo -> {
+            final long resolveStart = System.nanoTime();
             final MediaSource source = playbackListener.sourceOf(stream, streamInfo);
+
+            final long resolveEnd = System.nanoTime();
+            fetchNanos.addAndGet(resolveStart - fetchStart);
+            resolveNanos.addAndGet(resolveEnd - resolveStart);
+            if (DEBUG) Log.d(TAG, "MediaSource - Resolved=[" + stream.getTitle() + "], " +
+                    "fetch=[" + (resolveStart - fetchStart) / 1000000 + " ms], " +
+                    "resolve=[" + (resolveEnd - resolveStart) / 1000000 + " ms]");
+
             if (source == null) {
                 final String message = "Unable to resolve source from stream info." +
                         " URL: " + stream.getUrl() +
@@ -383,19 +462,32 @@ public class MediaSourceManager {
                 new StreamInfoLoadException(throwable)));
     }
 
+    /**
+     * Hands a resolved source over to the playlist on the main thread, the handoff ends once
+     * the timeline has changed on the playback thread.
+     * */
     private void onMediaSourceReceived(@NonNull final PlayQueueItem item,
                                        @NonNull final ManagedMediaSource mediaSource) {
         if (DEBUG) Log.d(TAG, "MediaSource - Loaded=[" + item.getTitle() +
                 "] with url=[" + item.getUrl() + "]");
 
-        loadingItems.remove(item);
+        loaders.remove(item);
 
         final int itemIndex = playQueue.indexOf(item);
         // Only update the playlist timeline for items at the current index or after.
         if (isCorrectionNeeded(item)) {
             if (DEBUG) Log.d(TAG, "MediaSource - Updating index=[" + itemIndex + "] with " +
                     "title=[" + item.getTitle() + "] at url=[" + item.getUrl() + "]");
-            playlist.update(itemIndex, mediaSource, this::maybeSynchronizePlayer);
+            final long handoffStart = System.nanoTime();
+            playlist.update(itemIndex, mediaSource, () -> {
+                final long handoff = System.nanoTime() - handoffStart;
+                loadedSourceCount.incrementAndGet();
+                handoffNanos.addAndGet(handoff);
+                if (DEBUG) Log.d(TAG, "MediaSource - Handed over=[" + item.getTitle() +
+                        "] in " + handoff / 1000000 + " ms");
+
+                maybeSynchronizePlayer();
+            });
         }
     }
 
@@ -444,14 +536,57 @@ public class MediaSourceManager {
         playlist.invalidate(currentIndex, this::loadImmediate);
     }
 
-    private void maybeClearLoaders() {
-        if (DEBUG) Log.d(TAG, "MediaSource - maybeClearLoaders() called.");
-        if (!loadingItems.contains(playQueue.getItem()) &&
-                loaderReactor.size() > MAXIMUM_LOADER_SIZE) {
-            loaderReactor.clear();
-            loadingItems.clear();
+    /**
+     * Disposes and removes the loaders of all items not in the given window.
+     * */
+    private static void clearLoaders(@NonNull final Map<PlayQueueItem, Disposable> loaders,
+                                     @NonNull final Collection<PlayQueueItem> window) {
+        final Iterator<Map.Entry<PlayQueueItem, Disposable>> iterator =
+                loaders.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<PlayQueueItem, Disposable> entry = iterator.next();
+            if (window.contains(entry.getKey())) continue;
+
+            entry.getValue().dispose();
+            iterator.remove();
         }
     }
+
+    /*//////////////////////////////////////////////////////////////////////////
+    // Stage Timings
+    //////////////////////////////////////////////////////////////////////////*/
+
+    /**
+     * @return number of sources handed over to a playlist timeline, by all managers
+     * */
+    public static long getLoadedSourceCount() {
+        return loadedSourceCount.get();
+    }
+
+    /**
+     * @return total time spent loading the stream infos of the resolved sources,
+     * in milliseconds
+     * */
+    public static long getFetchTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(fetchNanos.get());
+    }
+
+    /**
+     * @return total time spent resolving stream infos into sources on the orchestration thread,
+     * in milliseconds
+     * */
+    public static long getResolveTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(resolveNanos.get());
+    }
+
+    /**
+     * @return total time between the main thread receiving the resolved sources and the
+     * playlist timeline being updated with them, in milliseconds
+     * */
+    public static long getHandoffTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(handoffNanos.get());
+    }
+
     /*//////////////////////////////////////////////////////////////////////////
     // MediaSource Playlist Helpers
     //////////////////////////////////////////////////////////////////////////*/
@@ -472,7 +607,9 @@ public class MediaSourceManager {
     // Manager Helpers
     //////////////////////////////////////////////////////////////////////////*/
     @Nullable
-    private static ItemsToLoad getItemsToLoad(@NonNull final PlayQueue playQueue) {
+    private static ItemsToLoad getItemsToLoad(@NonNull final PlayQueue playQueue,
+                                              final int windowSize,
+                                              final int prefetchCount) {
         // The current item has higher priority
         final int currentIndex = playQueue.getIndex();
         final PlayQueueItem currentItem = playQueue.getItem(currentIndex);
@@ -481,8 +618,8 @@ public class MediaSourceManager {
         // The rest are just for seamless playback
         // Although timeline is not updated prior to the current index, these sources are still
         // loaded into the cache for faster retrieval at a potentially later time.
-        final int leftBound = Math.max(0, currentIndex - MediaSourceManager.WINDOW_SIZE);
-        final int rightLimit = currentIndex + MediaSourceManager.WINDOW_SIZE + 1;
+        final int leftBound = Math.max(0, currentIndex - BACKWARD_WINDOW_SIZE);
+        final int rightLimit = currentIndex + windowSize + 1;
         final int rightBound = Math.min(playQueue.size(), rightLimit);
         final Set<PlayQueueItem> neighbors = new ArraySet<>(
                 playQueue.getStreams().subList(leftBound,rightBound));
@@ -494,17 +631,28 @@ public class MediaSourceManager {
         }
         neighbors.remove(currentItem);
 
-        return new ItemsToLoad(currentItem, neighbors);
+        // Only the streams right after the current one are likely to be played next
+        final Set<PlayQueueItem> upcoming = new ArraySet<>(prefetchCount);
+        for (int i = 1; i <= Math.min(prefetchCount, windowSize); i++) {
+            final PlayQueueItem item = playQueue.getItem(currentIndex + i);
+            if (item == null || item == currentItem) break;
+            upcoming.add(item);
+        }
+
+        return new ItemsToLoad(currentItem, neighbors, upcoming);
     }
 
     private static class ItemsToLoad {
         @NonNull final private PlayQueueItem center;
         @NonNull final private Collection<PlayQueueItem> neighbors;
+        @NonNull final private Collection<PlayQueueItem> upcoming;
 
         ItemsToLoad(@NonNull final PlayQueueItem center,
-                    @NonNull final Collection<PlayQueueItem> neighbors) {
+                    @NonNull final Collection<PlayQueueItem> neighbors,
+                    @NonNull final Collection<PlayQueueItem> upcoming) {
             this.center = center;
             this.neighbors = neighbors;
+            this.upcoming = upcoming;
         }
     }
 }
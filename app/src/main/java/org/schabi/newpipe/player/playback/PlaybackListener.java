@@ -8,6 +8,10 @@ import com.google.android.exoplayer2.source.MediaSource;
 import org.schabi.newpipe.extractor.stream.StreamInfo;
 import org.schabi.newpipe.player.playqueue.PlayQueueItem;
 
+import java.util.Collection;
+
+import io.reactivex.Completable;
+
 public interface PlaybackListener {
 
     /**
@@ -54,6 +58,23 @@ public interface PlaybackListener {
     @Nullable
     MediaSource sourceOf(final PlayQueueItem item, final StreamInfo info);
 
+    /**
+     * Requests the listener to cache the beginning of the media of a stream info, which is
+     * expected to be played soon, using the same streams {@link #sourceOf} would resolve.
+     *
+     * May be called at any time.
+     * */
+    @NonNull
+    Completable prefetchOf(final PlayQueueItem item, final StreamInfo info);
+
+    /**
+     * Called when the manager starts loading a new window of streams, made of the current
+     * stream and the ones around it. Signals to the listener that they may be played soon.
+     *
+     * May be called at any time.
+     * */
+    void onPlaybackWindowChanged(@NonNull final Collection<PlayQueueItem> items);
+
     /**
      * Called when the play queue can no longer to played or used.
      * Currently, this means the play queue is empty and complete.
@@ -0,0 +1,94 @@
+package org.schabi.newpipe.player.playback;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.support.annotation.NonNull;
+import android.support.v4.net.ConnectivityManagerCompat;
+
+import org.schabi.newpipe.player.playqueue.AbstractInfoPlayQueue;
+import org.schabi.newpipe.player.playqueue.PlayQueue;
+
+/**
+ * Decides how many streams after the current one the {@link MediaSourceManager} loads ahead,
+ * and for how many of them the beginning of the media is cached.
+ * <br><br>
+ * The window is larger on unmetered networks, on play queues of playlists and channels, which
+ * are usually listened to in order, and when the user recently skipped through the queue.
+ * */
+/*package-private*/ class PreloadWindow {
+    private final static int MIN_WINDOW_SIZE = 1;
+    private final static int MAX_WINDOW_SIZE = 4;
+
+    /**
+     * A stream played for less than this before the next selection is considered skipped.
+     * */
+    private final static long SKIP_THRESHOLD_MILLIS = 15000;
+    private final static int SKIP_HISTORY_SIZE = 4;
+
+    @NonNull private final Context context;
+
+    @NonNull private final boolean[] skipHistory = new boolean[SKIP_HISTORY_SIZE];
+    private int skipHistoryIndex;
+    private long lastSelectionMillis;
+
+    /*package-private*/ PreloadWindow(@NonNull final Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * Records a change of the current stream, to detect skipping.
+     * */
+    /*package-private*/ void onSelectionChanged() {
+        final long now = System.currentTimeMillis();
+        if (lastSelectionMillis != 0) {
+            skipHistory[skipHistoryIndex] = now - lastSelectionMillis < SKIP_THRESHOLD_MILLIS;
+            skipHistoryIndex = (skipHistoryIndex + 1) % SKIP_HISTORY_SIZE;
+        }
+        lastSelectionMillis = now;
+    }
+
+    /**
+     * @return the number of streams after the current one to load into the timeline
+     * */
+    /*package-private*/ int getWindowSize(@NonNull final PlayQueue playQueue) {
+        final NetworkInfo network = getActiveNetwork();
+        if (network == null || !network.isConnected()) return MIN_WINDOW_SIZE;
+
+        int windowSize = isMetered() ? MIN_WINDOW_SIZE : MIN_WINDOW_SIZE + 1;
+        if (playQueue instanceof AbstractInfoPlayQueue) windowSize++;
+        if (isSkipping()) windowSize++;
+        return Math.min(windowSize, MAX_WINDOW_SIZE);
+    }
+
+    /**
+     * @return the number of streams after the current one whose beginning should be cached
+     * */
+    /*package-private*/ int getMediaPrefetchCount() {
+        final NetworkInfo network = getActiveNetwork();
+        if (network == null || !network.isConnected() || isMetered()) return 0;
+        return isSkipping() ? 2 : 1;
+    }
+
+    private boolean isSkipping() {
+        int skips = 0;
+        for (final boolean skipped : skipHistory) {
+            if (skipped) skips++;
+        }
+        return skips * 2 >= SKIP_HISTORY_SIZE;
+    }
+
+    private NetworkInfo getActiveNetwork() {
+        final ConnectivityManager manager = getConnectivityManager();
+        return manager == null ? null : manager.getActiveNetworkInfo();
+    }
+
+    private boolean isMetered() {
+        final ConnectivityManager manager = getConnectivityManager();
+        return manager == null || ConnectivityManagerCompat.isActiveNetworkMetered(manager);
+    }
+
+    private ConnectivityManager getConnectivityManager() {
+        return (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+}
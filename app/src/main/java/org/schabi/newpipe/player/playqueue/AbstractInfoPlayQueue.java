@@ -15,7 +15,21 @@ import io.reactivex.SingleObserver;
 import io.reactivex.annotations.NonNull;
 import io.reactivex.disposables.Disposable;
 
+/**
+ * Play queue of a remote list, loaded one page at a time as the playback gets to its end.
+ * <p>
+ * The queue only keeps a window of the list: the items played more than
+ * {@link #MAX_PLAYED_ITEMS} items ago are dropped when a page is appended, so playing a long
+ * playlist or channel doesn't grow the queue, and the state saved with it, without bound.
+ * The cursor to the next page is saved with the queue. Shuffled queues keep all their items,
+ * to be able to unshuffle.
+ */
 abstract class AbstractInfoPlayQueue<T extends ListInfo, U extends InfoItem> extends PlayQueue {
+    /**
+     * How many played items are kept before the current one
+     */
+    static final int MAX_PLAYED_ITEMS = 500;
+
     boolean isInitial;
     boolean isComplete;
 
@@ -68,7 +82,7 @@ abstract class AbstractInfoPlayQueue<T extends ListInfo, U extends InfoItem> ext
                 if (!result.hasNextPage()) isComplete = true;
                 nextUrl = result.getNextPageUrl();
 
-                append(extractListItems(result.getRelatedItems()));
+                appendPage(extractListItems(result.getRelatedItems()));
 
                 fetchReactor.dispose();
                 fetchReactor = null;
@@ -99,7 +113,7 @@ abstract class AbstractInfoPlayQueue<T extends ListInfo, U extends InfoItem> ext
                 if (!result.hasNextPage()) isComplete = true;
                 nextUrl = result.getNextPageUrl();
 
-                append(extractListItems(result.getItems()));
+                appendPage(extractListItems(result.getItems()));
 
                 fetchReactor.dispose();
                 fetchReactor = null;
@@ -114,6 +128,14 @@ abstract class AbstractInfoPlayQueue<T extends ListInfo, U extends InfoItem> ext
         };
     }
 
+    void appendPage(final List<PlayQueueItem> items) {
+        append(items);
+        if (isShuffled()) return;
+
+        final int excess = getIndex() - MAX_PLAYED_ITEMS;
+        if (excess > 0) removeRange(0, excess);
+    }
+
     @Override
     public void dispose() {
         super.dispose();
@@ -17,11 +17,18 @@ import org.schabi.newpipe.player.playqueue.events.RemoveEvent;
 import org.schabi.newpipe.player.playqueue.events.ReorderEvent;
 import org.schabi.newpipe.player.playqueue.events.SelectEvent;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import io.reactivex.BackpressureStrategy;
@@ -37,15 +44,16 @@ import io.reactivex.subjects.BehaviorSubject;
  * message bus, providing all listeners with new updates to the play queue.
  *
  * This class can be serialized for passing intents, but in order to start the
- * message bus, it must be initialized.
+ * message bus, it must be initialized. The serialized form is compact, see
+ * {@link #writeObject(ObjectOutputStream)}.
  * */
 public abstract class PlayQueue implements Serializable {
     private final String TAG = "PlayQueue@" + Integer.toHexString(hashCode());
 
     public static final boolean DEBUG = !BuildConfig.BUILD_TYPE.equals("release");
 
-    private ArrayList<PlayQueueItem> backup;
-    private ArrayList<PlayQueueItem> streams;
+    private transient ArrayList<PlayQueueItem> backup;
+    private transient ArrayList<PlayQueueItem> streams;
     @NonNull private final AtomicInteger queueIndex;
 
     private transient BehaviorSubject<PlayQueueEvent> eventBroadcast;
@@ -55,6 +63,7 @@ public abstract class PlayQueue implements Serializable {
     PlayQueue(final int index, final List<PlayQueueItem> startWith) {
         streams = new ArrayList<>();
         streams.addAll(startWith);
+        updateQueueIndices(0, streams.size());
 
         queueIndex = new AtomicInteger(index);
     }
@@ -132,11 +141,15 @@ public abstract class PlayQueue implements Serializable {
 
     /**
      * Returns the index of the given item using referential equality.
-     * May be null despite play queue contains identical item.
+     * May be -1 despite play queue contains identical item.
+     *
+     * Several lookups follow every queue event, so the items know their index, kept up to
+     * date by the write ops. The queue is only scanned for items it doesn't contain, or which
+     * were added to another queue afterwards.
      * */
     public int indexOf(@NonNull final PlayQueueItem item) {
-        // referential equality, can't think of a better way to do this
-        // todo: better than this
+        final int index = item.getQueueIndex();
+        if (index >= 0 && index < streams.size() && streams.get(index) == item) return index;
         return streams.indexOf(item);
     }
 
@@ -233,7 +246,9 @@ public abstract class PlayQueue implements Serializable {
             backup.addAll(itemList);
             Collections.shuffle(itemList);
         }
+        final int oldSize = streams.size();
         streams.addAll(itemList);
+        updateQueueIndices(oldSize, streams.size());
 
         broadcast(new AppendEvent(itemList.size()));
     }
@@ -252,6 +267,38 @@ public abstract class PlayQueue implements Serializable {
         broadcast(new RemoveEvent(index, getIndex()));
     }
 
+    /**
+     * Removes the items from the given index, inclusive, to the other one, exclusive, with a
+     * single {@link RemoveEvent}.
+     *
+     * The current playing index is moved back by the number of removed items if it is after
+     * them. If the current item is removed, the item following the range is selected, or the
+     * first one when there is none.
+     * */
+    public synchronized void removeRange(final int fromIndex, final int toIndex) {
+        if (fromIndex < 0 || toIndex > streams.size() || fromIndex >= toIndex) return;
+
+        final int currentIndex = queueIndex.get();
+        final int count = toIndex - fromIndex;
+        final List<PlayQueueItem> removed = streams.subList(fromIndex, toIndex);
+        if (backup != null) {
+            final Set<PlayQueueItem> items =
+                    Collections.newSetFromMap(new IdentityHashMap<>(count));
+            items.addAll(removed);
+            backup.removeAll(items);
+        }
+        removed.clear();
+        updateQueueIndices(fromIndex, streams.size());
+
+        if (currentIndex >= toIndex) {
+            queueIndex.set(currentIndex - count);
+        } else if (currentIndex >= fromIndex) {
+            queueIndex.set(fromIndex < streams.size() ? fromIndex : 0);
+        }
+
+        broadcast(new RemoveEvent(fromIndex, getIndex(), count));
+    }
+
     /**
      * Report an exception for the item at the current index in order and the course of action:
      * if the error can be skipped or the current item should be removed.
@@ -290,6 +337,16 @@ public abstract class PlayQueue implements Serializable {
             backup.remove(backupIndex);
         }
         streams.remove(removeIndex);
+        updateQueueIndices(removeIndex, streams.size());
+    }
+
+    /**
+     * Update the index of the items in the given range, after they moved in the queue.
+     * */
+    private void updateQueueIndices(final int fromIndex, final int toIndex) {
+        for (int i = fromIndex; i < toIndex; i++) {
+            streams.get(i).setQueueIndex(i);
+        }
     }
 
     /**
@@ -315,6 +372,7 @@ public abstract class PlayQueue implements Serializable {
         }
 
         streams.add(target, streams.remove(source));
+        updateQueueIndices(Math.min(source, target), Math.max(source, target) + 1);
         broadcast(new MoveEvent(source, target));
     }
 
@@ -360,6 +418,7 @@ public abstract class PlayQueue implements Serializable {
         if (newIndex != -1) {
             streams.add(0, streams.remove(newIndex));
         }
+        updateQueueIndices(0, streams.size());
         queueIndex.set(0);
 
         broadcast(new ReorderEvent(originIndex, queueIndex.get()));
@@ -381,6 +440,7 @@ public abstract class PlayQueue implements Serializable {
         streams.clear();
         streams = backup;
         backup = null;
+        updateQueueIndices(0, streams.size());
 
         final int newIndex = streams.indexOf(current);
         if (newIndex != -1) {
@@ -392,6 +452,61 @@ public abstract class PlayQueue implements Serializable {
         broadcast(new ReorderEvent(originIndex, queueIndex.get()));
     }
 
+    /*//////////////////////////////////////////////////////////////////////////
+    // Serialization
+    //////////////////////////////////////////////////////////////////////////*/
+
+    /**
+     * The queue is serialized every time it is passed to another player and when the player
+     * state is saved, so the items are written field by field: each distinct string once, e.g.
+     * the uploader of all the items of a channel, and the shuffle backup as positions in the
+     * queue instead of a second list of items.
+     * */
+    private synchronized void writeObject(final ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+
+        final Map<String, Integer> strings = new HashMap<>();
+        out.writeInt(streams.size());
+        for (final PlayQueueItem item : streams) {
+            item.writeTo(out, strings);
+        }
+
+        if (backup == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        // The backup holds the same items as the queue, in another order
+        final Map<PlayQueueItem, Integer> positions = new IdentityHashMap<>(streams.size());
+        for (int i = 0; i < streams.size(); i++) {
+            positions.put(streams.get(i), i);
+        }
+        out.writeInt(backup.size());
+        for (final PlayQueueItem item : backup) {
+            PlayQueueItem.writeVarInt(out, positions.get(item));
+        }
+    }
+
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+
+        final List<String> strings = new ArrayList<>();
+        final int size = in.readInt();
+        streams = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            streams.add(PlayQueueItem.readFrom(in, strings));
+        }
+        updateQueueIndices(0, streams.size());
+
+        final int backupSize = in.readInt();
+        if (backupSize >= 0) {
+            backup = new ArrayList<>(backupSize);
+            for (int i = 0; i < backupSize; i++) {
+                backup.add(streams.get(PlayQueueItem.readVarInt(in)));
+            }
+        }
+    }
+
     /*//////////////////////////////////////////////////////////////////////////
     // Rx Broadcast
     //////////////////////////////////////////////////////////////////////////*/
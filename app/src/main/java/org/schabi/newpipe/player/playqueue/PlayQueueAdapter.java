@@ -122,7 +122,8 @@ public class PlayQueueAdapter extends RecyclerView.Adapter<RecyclerView.ViewHold
                 break;
             case REMOVE:
                 final RemoveEvent removeEvent = (RemoveEvent) message;
-                notifyItemRemoved(removeEvent.getRemoveIndex());
+                notifyItemRangeRemoved(removeEvent.getRemoveIndex(),
+                        removeEvent.getRemoveCount());
                 notifyItemChanged(removeEvent.getQueueIndex());
                 break;
             case MOVE:
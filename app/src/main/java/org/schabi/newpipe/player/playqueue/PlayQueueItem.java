@@ -8,7 +8,12 @@ import org.schabi.newpipe.extractor.stream.StreamInfoItem;
 import org.schabi.newpipe.extractor.stream.StreamType;
 import org.schabi.newpipe.util.ExtractorHelper;
 
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
 
 import io.reactivex.Single;
 import io.reactivex.schedulers.Schedulers;
@@ -26,7 +31,9 @@ public class PlayQueueItem implements Serializable {
     @NonNull final private StreamType streamType;
 
     private long recoveryPosition;
-    private Throwable error;
+    private transient Throwable error;
+    /* Index of the item in its play queue, only a hint when the item is shared */
+    private transient int queueIndex = -1;
 
     PlayQueueItem(@NonNull final StreamInfo info) {
         this(info.getName(), info.getUrl(), info.getServiceId(), info.getDuration(),
@@ -112,4 +119,110 @@ public class PlayQueueItem implements Serializable {
     /*package-private*/ void setRecoveryPosition(final long recoveryPosition) {
         this.recoveryPosition = recoveryPosition;
     }
+
+    /*package-private*/ int getQueueIndex() {
+        return queueIndex;
+    }
+
+    /*package-private*/ void setQueueIndex(final int queueIndex) {
+        this.queueIndex = queueIndex;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    // Compact serialization, used by the play queue
+    ////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @param strings the strings already written, with their index
+     */
+    /*package-private*/ void writeTo(@NonNull final ObjectOutput out,
+                                     @NonNull final Map<String, Integer> strings)
+            throws IOException {
+        writeString(out, strings, title);
+        writeString(out, strings, url);
+        out.writeInt(serviceId);
+        out.writeLong(duration);
+        writeString(out, strings, thumbnailUrl);
+        writeString(out, strings, uploader);
+        writeString(out, strings, streamType.name());
+        out.writeLong(recoveryPosition);
+    }
+
+    /**
+     * @param strings the strings already read, in the order they were written
+     */
+    @NonNull
+    /*package-private*/ static PlayQueueItem readFrom(@NonNull final ObjectInput in,
+                                                      @NonNull final List<String> strings)
+            throws IOException, ClassNotFoundException {
+        final String title = readString(in, strings);
+        final String url = readString(in, strings);
+        final int serviceId = in.readInt();
+        final long duration = in.readLong();
+        final String thumbnailUrl = readString(in, strings);
+        final String uploader = readString(in, strings);
+        final StreamType streamType = StreamType.valueOf(readString(in, strings));
+
+        final PlayQueueItem item = new PlayQueueItem(title, url, serviceId, duration,
+                thumbnailUrl, uploader, streamType);
+        item.setRecoveryPosition(in.readLong());
+        return item;
+    }
+
+    /* A string is written as a varint: the index of a string already written plus 2,
+       or one of these markers followed by a new string */
+    private static final int NEW_STRING = 0;
+    private static final int NEW_LONG_STRING = 1;
+    /* Longest string which always fits in writeUTF(), 3 bytes per char at most */
+    private static final int MAX_UTF_LENGTH = 65535 / 3;
+
+    private static void writeString(@NonNull final ObjectOutput out,
+                                    @NonNull final Map<String, Integer> strings,
+                                    @NonNull final String value) throws IOException {
+        final Integer index = strings.get(value);
+        if (index != null) {
+            writeVarInt(out, index + 2);
+            return;
+        }
+
+        strings.put(value, strings.size());
+        if (value.length() <= MAX_UTF_LENGTH) {
+            writeVarInt(out, NEW_STRING);
+            out.writeUTF(value);
+        } else {
+            writeVarInt(out, NEW_LONG_STRING);
+            out.writeObject(value);
+        }
+    }
+
+    @NonNull
+    private static String readString(@NonNull final ObjectInput in,
+                                     @NonNull final List<String> strings)
+            throws IOException, ClassNotFoundException {
+        final int marker = readVarInt(in);
+        if (marker >= 2) return strings.get(marker - 2);
+
+        final String value = marker == NEW_STRING ? in.readUTF() : (String) in.readObject();
+        strings.add(value);
+        return value;
+    }
+
+    /*package-private*/ static void writeVarInt(@NonNull final ObjectOutput out, int value)
+            throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /*package-private*/ static int readVarInt(@NonNull final ObjectInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
 }
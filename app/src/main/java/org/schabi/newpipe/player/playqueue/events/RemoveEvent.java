@@ -4,6 +4,7 @@ package org.schabi.newpipe.player.playqueue.events;
 public class RemoveEvent implements PlayQueueEvent {
     final private int removeIndex;
     final private int queueIndex;
+    final private int removeCount;
 
     @Override
     public PlayQueueEventType type() {
@@ -11,8 +12,13 @@ public class RemoveEvent implements PlayQueueEvent {
     }
 
     public RemoveEvent(final int removeIndex, final int queueIndex) {
+        this(removeIndex, queueIndex, 1);
+    }
+
+    public RemoveEvent(final int removeIndex, final int queueIndex, final int removeCount) {
         this.removeIndex = removeIndex;
         this.queueIndex = queueIndex;
+        this.removeCount = removeCount;
     }
 
     public int getQueueIndex() {
@@ -22,4 +28,8 @@ public class RemoveEvent implements PlayQueueEvent {
     public int getRemoveIndex() {
         return removeIndex;
     }
+
+    public int getRemoveCount() {
+        return removeCount;
+    }
 }
@@ -13,6 +13,8 @@ import org.schabi.newpipe.player.helper.PlayerDataSource;
 import org.schabi.newpipe.player.helper.PlayerHelper;
 import org.schabi.newpipe.util.ListHelper;
 
+import io.reactivex.Completable;
+
 public class AudioPlaybackResolver implements PlaybackResolver {
 
     @NonNull private final Context context;
@@ -30,12 +32,29 @@ public class AudioPlaybackResolver implements PlaybackResolver {
         final MediaSource liveSource = maybeBuildLiveMediaSource(dataSource, info);
         if (liveSource != null) return liveSource;
 
-        final int index = ListHelper.getDefaultAudioFormat(context, info.getAudioStreams());
-        if (index < 0 || index >= info.getAudioStreams().size()) return null;
+        final AudioStream audio = getAudioStream(info);
+        if (audio == null) return null;
 
-        final AudioStream audio = info.getAudioStreams().get(index);
         final MediaSourceTag tag = new MediaSourceTag(info);
         return buildMediaSource(dataSource, audio.getUrl(), PlayerHelper.cacheKeyOf(info, audio),
                 MediaFormat.getSuffixById(audio.getFormatId()), tag);
     }
+
+    @Override
+    @NonNull
+    public Completable prefetch(@NonNull StreamInfo info) {
+        final AudioStream audio = getAudioStream(info);
+        if (audio == null || isLiveStream(info)) return Completable.complete();
+
+        return prefetchMediaSource(dataSource, audio.getUrl(), PlayerHelper.cacheKeyOf(info, audio),
+                MediaFormat.getSuffixById(audio.getFormatId()),
+                prefetchLengthOf(audio.average_bitrate));
+    }
+
+    @Nullable
+    private AudioStream getAudioStream(@NonNull final StreamInfo info) {
+        final int index = ListHelper.getDefaultAudioFormat(context, info.getAudioStreams());
+        if (index < 0 || index >= info.getAudioStreams().size()) return null;
+        return info.getAudioStreams().get(index);
+    }
 }
@@ -13,15 +13,29 @@ import org.schabi.newpipe.extractor.stream.StreamInfo;
 import org.schabi.newpipe.extractor.stream.StreamType;
 import org.schabi.newpipe.player.helper.PlayerDataSource;
 
+import io.reactivex.Completable;
+
 public interface PlaybackResolver extends Resolver<StreamInfo, MediaSource> {
+    /**
+     * How much of a progressive stream is prefetched, in seconds of playback.
+     * */
+    int PREFETCH_SECONDS = 10;
+    /**
+     * How much of a progressive stream is prefetched when its bitrate is unknown.
+     * */
+    long DEFAULT_PREFETCH_LENGTH = 1024 * 1024;
+
+    /**
+     * Caches the beginning of the streams this resolver would select for a stream info,
+     * so that its playback can start without waiting for the network.
+     * */
+    @NonNull
+    Completable prefetch(@NonNull final StreamInfo info);
 
     @Nullable
     default MediaSource maybeBuildLiveMediaSource(@NonNull final PlayerDataSource dataSource,
                                                   @NonNull final StreamInfo info) {
-        final StreamType streamType = info.getStreamType();
-        if (!(streamType == StreamType.AUDIO_LIVE_STREAM || streamType == StreamType.LIVE_STREAM)) {
-            return null;
-        }
+        if (!isLiveStream(info)) return null;
 
         final MediaSourceTag tag = new MediaSourceTag(info);
         if (!info.getHlsUrl().isEmpty()) {
@@ -33,6 +47,11 @@ public interface PlaybackResolver extends Resolver<StreamInfo, MediaSource> {
         return null;
     }
 
+    default boolean isLiveStream(@NonNull final StreamInfo info) {
+        final StreamType streamType = info.getStreamType();
+        return streamType == StreamType.AUDIO_LIVE_STREAM || streamType == StreamType.LIVE_STREAM;
+    }
+
     @NonNull
     default MediaSource buildLiveMediaSource(@NonNull final PlayerDataSource dataSource,
                                              @NonNull final String sourceUrl,
@@ -66,13 +85,13 @@ public interface PlaybackResolver extends Resolver<StreamInfo, MediaSource> {
 
         switch (type) {
             case C.TYPE_SS:
-                return dataSource.getLiveSsMediaSourceFactory().setTag(metadata)
+                return dataSource.getSsMediaSourceFactory(cacheKey).setTag(metadata)
                         .createMediaSource(uri);
             case C.TYPE_DASH:
-                return dataSource.getDashMediaSourceFactory().setTag(metadata)
+                return dataSource.getDashMediaSourceFactory(cacheKey).setTag(metadata)
                         .createMediaSource(uri);
             case C.TYPE_HLS:
-                return dataSource.getHlsMediaSourceFactory().setTag(metadata)
+                return dataSource.getHlsMediaSourceFactory(cacheKey).setTag(metadata)
                         .createMediaSource(uri);
             case C.TYPE_OTHER:
                 return dataSource.getExtractorMediaSourceFactory(cacheKey).setTag(metadata)
@@ -81,4 +100,31 @@ public interface PlaybackResolver extends Resolver<StreamInfo, MediaSource> {
                 throw new IllegalStateException("Unsupported type: " + type);
         }
     }
+
+    /**
+     * Caches the first bytes of a progressive stream, the manifests and segments of adaptive
+     * streams are left to the player.
+     * */
+    @NonNull
+    default Completable prefetchMediaSource(@NonNull final PlayerDataSource dataSource,
+                                            @NonNull final String sourceUrl,
+                                            @NonNull final String cacheKey,
+                                            @NonNull final String overrideExtension,
+                                            final long length) {
+        final Uri uri = Uri.parse(sourceUrl);
+        @C.ContentType final int type = TextUtils.isEmpty(overrideExtension) ?
+                Util.inferContentType(uri) : Util.inferContentType("." + overrideExtension);
+        if (type != C.TYPE_OTHER) return Completable.complete();
+
+        return dataSource.prefetch(uri, cacheKey, length);
+    }
+
+    /**
+     * @param averageBitrate the bitrate of the stream in kbps, or a negative value if unknown
+     * @return the number of bytes covering {@link #PREFETCH_SECONDS} of playback
+     * */
+    default long prefetchLengthOf(final int averageBitrate) {
+        if (averageBitrate <= 0) return DEFAULT_PREFETCH_LENGTH;
+        return averageBitrate * 1000L / 8 * PREFETCH_SECONDS;
+    }
 }
@@ -21,6 +21,8 @@ import org.schabi.newpipe.util.ListHelper;
 import java.util.ArrayList;
 import java.util.List;
 
+import io.reactivex.Completable;
+
 import static com.google.android.exoplayer2.C.SELECTION_FLAG_AUTOSELECT;
 import static com.google.android.exoplayer2.C.TIME_UNSET;
 
@@ -55,17 +57,7 @@ public class VideoPlaybackResolver implements PlaybackResolver {
         List<MediaSource> mediaSources = new ArrayList<>();
 
         // Create video stream source
-        final List<VideoStream> videos = ListHelper.getSortedStreamVideosList(context,
-                info.getVideoStreams(), info.getVideoOnlyStreams(), false);
-        final int index;
-        if (videos.isEmpty()) {
-            index = -1;
-        } else if (playbackQuality == null) {
-            index = qualityResolver.getDefaultResolutionIndex(videos);
-        } else {
-            index = qualityResolver.getOverrideResolutionIndex(videos, getPlaybackQuality());
-        }
-        final MediaSourceTag tag = new MediaSourceTag(info, videos, index);
+        final MediaSourceTag tag = selectVideoStream(info);
         @Nullable final VideoStream video = tag.getSelectedVideoStream();
 
         if (video != null) {
@@ -76,12 +68,8 @@ public class VideoPlaybackResolver implements PlaybackResolver {
         }
 
         // Create optional audio stream source
-        final List<AudioStream> audioStreams = info.getAudioStreams();
-        final AudioStream audio = audioStreams.isEmpty() ? null : audioStreams.get(
-                ListHelper.getDefaultAudioFormat(context, audioStreams));
-        // Use the audio stream if there is no video stream, or
-        // Merge with audio stream in case if video does not contain audio
-        if (audio != null && ((video != null && video.isVideoOnly) || video == null)) {
+        final AudioStream audio = selectAudioStream(info, video);
+        if (audio != null) {
             final MediaSource audioSource = buildMediaSource(dataSource, audio.getUrl(),
                     PlayerHelper.cacheKeyOf(info, audio),
                     MediaFormat.getSuffixById(audio.getFormatId()), tag);
@@ -112,6 +100,58 @@ public class VideoPlaybackResolver implements PlaybackResolver {
         }
     }
 
+    @Override
+    @NonNull
+    public Completable prefetch(@NonNull StreamInfo info) {
+        if (isLiveStream(info)) return Completable.complete();
+
+        final List<Completable> prefetches = new ArrayList<>(2);
+        @Nullable final VideoStream video = selectVideoStream(info).getSelectedVideoStream();
+        if (video != null) {
+            prefetches.add(prefetchMediaSource(dataSource, video.getUrl(),
+                    PlayerHelper.cacheKeyOf(info, video),
+                    MediaFormat.getSuffixById(video.getFormatId()), DEFAULT_PREFETCH_LENGTH));
+        }
+
+        final AudioStream audio = selectAudioStream(info, video);
+        if (audio != null) {
+            prefetches.add(prefetchMediaSource(dataSource, audio.getUrl(),
+                    PlayerHelper.cacheKeyOf(info, audio),
+                    MediaFormat.getSuffixById(audio.getFormatId()),
+                    prefetchLengthOf(audio.average_bitrate)));
+        }
+        return Completable.merge(prefetches);
+    }
+
+    @NonNull
+    private MediaSourceTag selectVideoStream(@NonNull final StreamInfo info) {
+        final List<VideoStream> videos = ListHelper.getSortedStreamVideosList(context,
+                info.getVideoStreams(), info.getVideoOnlyStreams(), false);
+        final int index;
+        if (videos.isEmpty()) {
+            index = -1;
+        } else if (playbackQuality == null) {
+            index = qualityResolver.getDefaultResolutionIndex(videos);
+        } else {
+            index = qualityResolver.getOverrideResolutionIndex(videos, getPlaybackQuality());
+        }
+        return new MediaSourceTag(info, videos, index);
+    }
+
+    /**
+     * Use the audio stream if there is no video stream, or
+     * merge with audio stream in case if video does not contain audio.
+     * */
+    @Nullable
+    private AudioStream selectAudioStream(@NonNull final StreamInfo info,
+                                          @Nullable final VideoStream video) {
+        if (video != null && !video.isVideoOnly) return null;
+
+        final List<AudioStream> audioStreams = info.getAudioStreams();
+        return audioStreams.isEmpty() ? null : audioStreams.get(
+                ListHelper.getDefaultAudioFormat(context, audioStreams));
+    }
+
     @Nullable
     public String getPlaybackQuality() {
         return playbackQuality;
@@ -47,6 +47,9 @@ import org.schabi.newpipe.report.UserAction;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import io.reactivex.Maybe;
 import io.reactivex.Single;
@@ -55,6 +58,16 @@ public final class ExtractorHelper {
     private static final String TAG = ExtractorHelper.class.getSimpleName();
     private static final InfoCache cache = InfoCache.getInstance();
 
+    /**
+     * Network loads currently running, keyed by service id and url,
+     * so concurrent requests for the same info share a single extraction.
+     */
+    private static final Map<String, Single<? extends Info>> inFlightLoads = new ConcurrentHashMap<>();
+
+    private static final AtomicLong cacheHitCount = new AtomicLong();
+    private static final AtomicLong cacheMissCount = new AtomicLong();
+    private static final AtomicLong coalescedLoadCount = new AtomicLong();
+
     private ExtractorHelper() {
         //no instance
     }
@@ -161,7 +174,7 @@ public final class ExtractorHelper {
     //////////////////////////////////////////////////////////////////////////*/
 
     /**
-     * Check if we can load it from the cache (forceLoad parameter), if we can't,
+     * Check if we can load it from the memory or disk cache (forceLoad parameter), if we can't,
      * load from the network (Single loadFromNetwork)
      * and put the results in the cache.
      */
@@ -170,7 +183,8 @@ public final class ExtractorHelper {
                                                          String url,
                                                          Single<I> loadFromNetwork) {
         checkServiceId(serviceId);
-        loadFromNetwork = loadFromNetwork.doOnSuccess(info -> cache.putInfo(serviceId, url, info));
+        loadFromNetwork = coalesceLoad(serviceId, url,
+                loadFromNetwork.doOnSuccess(info -> cache.putInfo(serviceId, url, info)));
 
         Single<I> load;
         if (forceLoad) {
@@ -178,6 +192,7 @@ public final class ExtractorHelper {
             load = loadFromNetwork;
         } else {
             load = Maybe.concat(ExtractorHelper.loadFromCache(serviceId, url),
+                    ExtractorHelper.loadFromDiskCache(serviceId, url),
                     loadFromNetwork.toMaybe())
                     .firstElement() //Take the first valid
                     .toSingle();
@@ -186,6 +201,55 @@ public final class ExtractorHelper {
         return load;
     }
 
+    /**
+     * Make concurrent subscriptions for the same service id and url share a single load,
+     * the first subscriber starts it and the following ones join it until it terminates.
+     */
+    private static <I extends Info> Single<I> coalesceLoad(final int serviceId,
+                                                           final String url,
+                                                           final Single<I> load) {
+        return Single.defer(() -> {
+            final String key = serviceId + url;
+            synchronized (inFlightLoads) {
+                //noinspection unchecked
+                final Single<I> inFlight = (Single<I>) inFlightLoads.get(key);
+                if (inFlight != null) {
+                    coalescedLoadCount.incrementAndGet();
+                    if (MainActivity.DEBUG) Log.d(TAG, "coalesceLoad() joining load for " + key);
+                    return inFlight;
+                }
+
+                cacheMissCount.incrementAndGet();
+                final Single<I> shared = load
+                        .doFinally(() -> inFlightLoads.remove(key))
+                        .cache();
+                inFlightLoads.put(key, shared);
+                return shared;
+            }
+        });
+    }
+
+    /**
+     * @return number of infos served from the memory or disk cache
+     */
+    public static long getCacheHitCount() {
+        return cacheHitCount.get();
+    }
+
+    /**
+     * @return number of infos that had to be loaded from the network
+     */
+    public static long getCacheMissCount() {
+        return cacheMissCount.get();
+    }
+
+    /**
+     * @return number of requests that joined an already running network load
+     */
+    public static long getCoalescedLoadCount() {
+        return coalescedLoadCount.get();
+    }
+
     /**
      * Default implementation uses the {@link InfoCache} to get cached results
      */
@@ -198,6 +262,28 @@ public final class ExtractorHelper {
 
                 // Only return info if it's not null (it is cached)
                 if (info != null) {
+                    cacheHitCount.incrementAndGet();
+                    return Maybe.just(info);
+                }
+
+                return Maybe.empty();
+            });
+    }
+
+    /**
+     * Look for the info in the disk tier of the {@link InfoCache},
+     * must be subscribed off the main thread as it reads from disk.
+     */
+    public static <I extends Info> Maybe<I> loadFromDiskCache(final int serviceId, final String url) {
+        checkServiceId(serviceId);
+        return Maybe.defer(() -> {
+                //noinspection unchecked
+                I info = (I) cache.getFromDisk(serviceId, url);
+                if (MainActivity.DEBUG) Log.d(TAG, "loadFromDiskCache() called, info > " + info);
+
+                // Only return info if it's not null (it is cached)
+                if (info != null) {
+                    cacheHitCount.incrementAndGet();
                     return Maybe.just(info);
                 }
 
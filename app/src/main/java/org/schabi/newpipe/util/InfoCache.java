@@ -19,6 +19,7 @@
 
 package org.schabi.newpipe.util;
 
+import android.content.Context;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.util.LruCache;
@@ -27,6 +28,7 @@ import android.util.Log;
 import org.schabi.newpipe.MainActivity;
 import org.schabi.newpipe.extractor.Info;
 
+import java.io.File;
 import java.util.Map;
 
 
@@ -41,7 +43,15 @@ public final class InfoCache {
      */
     private static final int TRIM_CACHE_TO = 30;
 
+    private static final String DISK_CACHE_DIR_NAME = "info_cache";
+    /**
+     * Maximum amount of bytes the serialized infos can take on disk
+     */
+    private static final long MAX_DISK_CACHE_SIZE = 16 * 1024 * 1024;
+
     private static final LruCache<String, CacheData> lruCache = new LruCache<>(MAX_ITEMS_ON_CACHE);
+    @Nullable
+    private static InfoDiskCache diskCache;
 
     private InfoCache() {
         //no instance
@@ -51,6 +61,18 @@ public final class InfoCache {
         return instance;
     }
 
+    /**
+     * Initialize the disk tier of the cache, usually you want to call this in the Application class.
+     * Until this is called, only the in-memory cache is used.
+     *
+     * @param context used to get the cache dir
+     */
+    public static void init(@NonNull final Context context) {
+        final File directory = new File(context.getCacheDir(), DISK_CACHE_DIR_NAME);
+        diskCache = new InfoDiskCache(directory, MAX_DISK_CACHE_SIZE);
+        diskCache.trim();
+    }
+
     @Nullable
     public Info getFromKey(int serviceId, @NonNull String url) {
         if (DEBUG) Log.d(TAG, "getFromKey() called with: serviceId = [" + serviceId + "], url = [" + url + "]");
@@ -59,21 +81,47 @@ public final class InfoCache {
         }
     }
 
+    /**
+     * Look for the info in the disk cache, if found, it is also put back in the memory cache.
+     * <p>
+     * This does blocking I/O, so don't call it from the main thread.
+     */
+    @Nullable
+    public Info getFromDisk(int serviceId, @NonNull String url) {
+        if (DEBUG) Log.d(TAG, "getFromDisk() called with: serviceId = [" + serviceId + "], url = [" + url + "]");
+        if (diskCache == null) return null;
+
+        final String key = keyOf(serviceId, url);
+        final InfoDiskCache.Entry entry = diskCache.get(key);
+        if (entry == null) return null;
+
+        // Keep the expiration it was first cached with
+        synchronized (lruCache) {
+            lruCache.put(key, new CacheData(entry.info, entry.expireTimestamp));
+        }
+        return entry.info;
+    }
+
     public void putInfo(int serviceId, @NonNull String url, @NonNull Info info) {
         if (DEBUG) Log.d(TAG, "putInfo() called with: info = [" + info + "]");
 
         final long expirationMillis = ServiceHelper.getCacheExpirationMillis(info.getServiceId());
+        final String key = keyOf(serviceId, url);
+        final CacheData data = new CacheData(info,
+                System.currentTimeMillis() + expirationMillis);
         synchronized (lruCache) {
-            final CacheData data = new CacheData(info, expirationMillis);
-            lruCache.put(keyOf(serviceId, url), data);
+            lruCache.put(key, data);
         }
+        if (diskCache != null) diskCache.put(key, info, data.expireTimestamp);
     }
 
     public void removeInfo(int serviceId, @NonNull String url) {
         if (DEBUG) Log.d(TAG, "removeInfo() called with: serviceId = [" + serviceId + "], url = [" + url + "]");
+        final String key = keyOf(serviceId, url);
         synchronized (lruCache) {
-            lruCache.remove(keyOf(serviceId, url));
+            lruCache.remove(key);
         }
+        if (diskCache != null) diskCache.remove(key);
     }
 
     public void clearCache() {
@@ -81,6 +129,7 @@ public final class InfoCache {
         synchronized (lruCache) {
             lruCache.evictAll();
         }
+        if (diskCache != null) diskCache.clear();
     }
 
     public void trimCache() {
@@ -89,6 +138,7 @@ public final class InfoCache {
             removeStaleCache();
             lruCache.trimToSize(TRIM_CACHE_TO);
         }
+        if (diskCache != null) diskCache.trim();
     }
 
     public long getSize() {
@@ -128,8 +178,8 @@ public final class InfoCache {
         final private long expireTimestamp;
         final private Info info;
 
-        private CacheData(@NonNull final Info info, final long timeoutMillis) {
-            this.expireTimestamp = System.currentTimeMillis() + timeoutMillis;
+        private CacheData(@NonNull final Info info, final long expireTimestamp) {
+            this.expireTimestamp = expireTimestamp;
             this.info = info;
         }
 
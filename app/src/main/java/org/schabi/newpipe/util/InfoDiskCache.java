@@ -0,0 +1,308 @@
+/*
+ * InfoDiskCache.java is part of NewPipe
+ *
+ * License: GPL-3.0+
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.schabi.newpipe.util;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.schabi.newpipe.MainActivity;
+import org.schabi.newpipe.extractor.Info;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Second tier of the {@link InfoCache}, keeps gzipped serialized {@link Info} blobs on disk
+ * so they survive process death.
+ * <p>
+ * Every entry is a single file, named after the hash of its key, made of a small header
+ * (magic, expiration timestamp, key) followed by the compressed object stream.
+ * The directory is kept under a byte budget, evicting the least recently used files first.
+ * Writes and evictions run on a single background thread, reads are synchronous and
+ * are expected to be called off the main thread.
+ */
+final class InfoDiskCache {
+    private static final boolean DEBUG = MainActivity.DEBUG;
+    private static final String TAG = "InfoDiskCache";
+
+    private static final int MAGIC = 0x4E504943; // "NPIC"
+    private static final String FILE_SUFFIX = ".info";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int BUFFER_SIZE = 8 * 1024;
+    /* Expiration timestamp of a file without a valid header, always expired */
+    private static final long UNREADABLE = Long.MIN_VALUE;
+
+    @NonNull private final File directory;
+    private final long maxSizeBytes;
+    /**
+     * When trimming, drop entries until the cache is below this size,
+     * so that a burst of writes doesn't trigger a trim on every single one.
+     */
+    private final long trimToBytes;
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, TAG);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private long currentSize = -1;
+
+    InfoDiskCache(@NonNull final File directory, final long maxSizeBytes) {
+        this.directory = directory;
+        this.maxSizeBytes = maxSizeBytes;
+        this.trimToBytes = maxSizeBytes * 3 / 4;
+    }
+
+    /**
+     * Read the entry associated with this key, returns null when it doesn't exist,
+     * is expired or can't be read (in which case it is also deleted).
+     */
+    @Nullable
+    Entry get(@NonNull final String key) {
+        final File file = fileOf(key);
+        if (!file.exists()) return null;
+
+        long expireTimestamp = UNREADABLE;
+        try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE))) {
+            if (input.readInt() != MAGIC) throw new IOException("Bad magic");
+
+            expireTimestamp = input.readLong();
+            final String storedKey = input.readUTF();
+            if (!key.equals(storedKey)) {
+                // Hash collision, let the new entry overwrite it later
+                return null;
+            }
+            if (System.currentTimeMillis() > expireTimestamp) {
+                input.close();
+                removeIfUnchanged(key, expireTimestamp);
+                return null;
+            }
+
+            final ObjectInputStream objectInput = new ObjectInputStream(new GZIPInputStream(input));
+            final Object object = objectInput.readObject();
+            if (!(object instanceof Info)) throw new IOException("Not an Info: " + object);
+
+            // Mark as recently used, the eviction is based on it
+            //noinspection ResultOfMethodCallIgnored
+            file.setLastModified(System.currentTimeMillis());
+            return new Entry((Info) object, expireTimestamp);
+        } catch (Exception e) {
+            if (DEBUG) Log.w(TAG, "get() failed to read entry for key = [" + key + "]", e);
+            removeIfUnchanged(key, expireTimestamp);
+            return null;
+        }
+    }
+
+    void put(@NonNull final String key, @NonNull final Info info, final long expireTimestamp) {
+        writer.execute(() -> write(key, info, expireTimestamp));
+    }
+
+    void remove(@NonNull final String key) {
+        writer.execute(() -> {
+            final File file = fileOf(key);
+            final long length = file.length();
+            if (file.delete() && currentSize >= 0) currentSize -= length;
+        });
+    }
+
+    /**
+     * Remove the entry read with the given expiration timestamp, unless it was written again
+     * in the meantime by a {@link #put} queued or running since it was read.
+     */
+    private void removeIfUnchanged(@NonNull final String key, final long readExpireTimestamp) {
+        writer.execute(() -> {
+            final File file = fileOf(key);
+            if (expireTimestampOf(file) != readExpireTimestamp) return;
+
+            final long length = file.length();
+            if (file.delete() && currentSize >= 0) currentSize -= length;
+        });
+    }
+
+    void clear() {
+        writer.execute(() -> {
+            final File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    //noinspection ResultOfMethodCallIgnored
+                    file.delete();
+                }
+            }
+            currentSize = 0;
+        });
+    }
+
+    /**
+     * Remove all the expired entries, and make sure the directory is below the byte budget.
+     */
+    void trim() {
+        writer.execute(() -> {
+            final File[] files = listEntries();
+            if (files == null) return;
+
+            final long now = System.currentTimeMillis();
+            for (File file : files) {
+                if (isExpired(file, now)) {
+                    //noinspection ResultOfMethodCallIgnored
+                    file.delete();
+                }
+            }
+
+            currentSize = -1;
+            ensureBudget();
+        });
+    }
+
+    static final class Entry {
+        @NonNull final Info info;
+        /**
+         * The expiration the entry was written with, so it keeps it when read back
+         */
+        final long expireTimestamp;
+
+        private Entry(@NonNull final Info info, final long expireTimestamp) {
+            this.info = info;
+            this.expireTimestamp = expireTimestamp;
+        }
+    }
+
+    /*//////////////////////////////////////////////////////////////////////////
+    // Writer thread
+    //////////////////////////////////////////////////////////////////////////*/
+
+    private void write(@NonNull final String key, @NonNull final Info info,
+                       final long expireTimestamp) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.e(TAG, "Failed to create cache directory: " + directory.getAbsolutePath());
+            return;
+        }
+
+        final File file = fileOf(key);
+        final File temp = new File(directory, file.getName() + TEMP_SUFFIX);
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp), BUFFER_SIZE))) {
+            output.writeInt(MAGIC);
+            output.writeLong(expireTimestamp);
+            output.writeUTF(key);
+
+            final GZIPOutputStream gzipOutput = new GZIPOutputStream(output, BUFFER_SIZE);
+            final ObjectOutputStream objectOutput = new ObjectOutputStream(gzipOutput);
+            objectOutput.writeObject(info);
+            objectOutput.flush();
+            gzipOutput.finish();
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to write entry for key = [" + key + "]", e);
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            return;
+        }
+
+        final long oldLength = file.length();
+        if (!temp.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            return;
+        }
+
+        if (currentSize >= 0) currentSize += file.length() - oldLength;
+        ensureBudget();
+
+        if (DEBUG) {
+            Log.d(TAG, "write() wrote " + file.length() + " bytes for key = [" + key + "]," +
+                    " cache size = [" + currentSize + "]");
+        }
+    }
+
+    private void ensureBudget() {
+        if (currentSize < 0) currentSize = computeSize();
+        if (currentSize <= maxSizeBytes) return;
+
+        final File[] files = listEntries();
+        if (files == null) return;
+
+        // Least recently used first
+        final long[] lastModified = new long[files.length];
+        final Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            lastModified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, (left, right) -> Long.compare(lastModified[left], lastModified[right]));
+
+        for (Integer index : order) {
+            if (currentSize <= trimToBytes) break;
+
+            final File file = files[index];
+            final long length = file.length();
+            if (file.delete()) currentSize -= length;
+        }
+    }
+
+    private long computeSize() {
+        final File[] files = listEntries();
+        if (files == null) return 0;
+
+        long size = 0;
+        for (File file : files) size += file.length();
+        return size;
+    }
+
+    @Nullable
+    private File[] listEntries() {
+        return directory.listFiles((dir, name) -> name.endsWith(FILE_SUFFIX));
+    }
+
+    private static boolean isExpired(@NonNull final File file, final long now) {
+        return now > expireTimestampOf(file);
+    }
+
+    /**
+     * @return the expiration timestamp stored in the header of the file, or
+     * {@link #UNREADABLE} if it can't be read
+     */
+    private static long expireTimestampOf(@NonNull final File file) {
+        try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+            return input.readInt() == MAGIC ? input.readLong() : UNREADABLE;
+        } catch (IOException e) {
+            return UNREADABLE;
+        }
+    }
+
+    @NonNull
+    private File fileOf(@NonNull final String key) {
+        return new File(directory, Integer.toHexString(key.hashCode()) +
+                Integer.toHexString(key.length()) + FILE_SUFFIX);
+    }
+}
@@ -1,9 +1,14 @@
 package org.schabi.newpipe.util;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.net.ConnectivityManager;
 import android.preference.PreferenceManager;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.StringRes;
 
 import org.schabi.newpipe.R;
@@ -15,7 +20,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 @SuppressWarnings("WeakerAccess")
 public final class ListHelper {
@@ -33,48 +40,71 @@ public final class ListHelper {
 
     private static final List<String> HIGH_RESOLUTION_LIST = Arrays.asList("1440p", "2160p", "1440p60", "2160p60");
 
+    // Number of sorted video stream lists kept, enough for the streams shown and played at once
+    private static final int SORTED_LISTS_CACHE_SIZE = 8;
+
+    private static final Object policyLock = new Object();
+    private static volatile SelectionPolicy currentPolicy;
+    private static boolean isListening;
+
+    // Most recently used first, guarded by itself
+    private static final List<SortedVideoStreams> sortedVideoStreams = new ArrayList<>();
+    private static final AtomicLong sortedListHitCount = new AtomicLong();
+    private static final AtomicLong sortedListMissCount = new AtomicLong();
+
+    // Kept here since the preferences only hold weak references to their listeners
+    private static final SharedPreferences.OnSharedPreferenceChangeListener preferenceListener =
+            (preferences, key) -> invalidatePolicy();
+    private static final BroadcastReceiver connectivityReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            invalidatePolicy();
+        }
+    };
+
     /**
      * @see #getDefaultResolutionIndex(String, String, MediaFormat, List)
      */
     public static int getDefaultResolutionIndex(Context context, List<VideoStream> videoStreams) {
-        String defaultResolution = computeDefaultResolution(context,
-                R.string.default_resolution_key, R.string.default_resolution_value);
-        return getDefaultResolutionWithDefaultFormat(context, defaultResolution, videoStreams);
+        final SelectionPolicy policy = getPolicy(context);
+        return getDefaultResolutionIndex(policy.defaultResolution, policy.bestResolutionKey,
+                policy.defaultVideoFormat, videoStreams);
     }
 
     /**
      * @see #getDefaultResolutionIndex(String, String, MediaFormat, List)
      */
     public static int getResolutionIndex(Context context, List<VideoStream> videoStreams, String defaultResolution) {
-        return getDefaultResolutionWithDefaultFormat(context, defaultResolution, videoStreams);
+        final SelectionPolicy policy = getPolicy(context);
+        return getDefaultResolutionIndex(defaultResolution, policy.bestResolutionKey,
+                policy.defaultVideoFormat, videoStreams);
     }
 
     /**
      * @see #getDefaultResolutionIndex(String, String, MediaFormat, List)
      */
     public static int getPopupDefaultResolutionIndex(Context context, List<VideoStream> videoStreams) {
-        String defaultResolution = computeDefaultResolution(context,
-                R.string.default_popup_resolution_key, R.string.default_popup_resolution_value);
-        return getDefaultResolutionWithDefaultFormat(context, defaultResolution, videoStreams);
+        final SelectionPolicy policy = getPolicy(context);
+        return getDefaultResolutionIndex(policy.popupDefaultResolution, policy.bestResolutionKey,
+                policy.defaultVideoFormat, videoStreams);
     }
 
     /**
      * @see #getDefaultResolutionIndex(String, String, MediaFormat, List)
      */
     public static int getPopupResolutionIndex(Context context, List<VideoStream> videoStreams, String defaultResolution) {
-        return getDefaultResolutionWithDefaultFormat(context, defaultResolution, videoStreams);
+        return getResolutionIndex(context, videoStreams, defaultResolution);
     }
 
     public static int getDefaultAudioFormat(Context context, List<AudioStream> audioStreams) {
-        MediaFormat defaultFormat = getDefaultFormat(context, R.string.default_audio_format_key,
-                R.string.default_audio_format_value);
+        final SelectionPolicy policy = getPolicy(context);
 
         // If the user has chosen to limit resolution to conserve mobile data
         // usage then we should also limit our audio usage.
-        if (isLimitingDataUsage(context)) {
-            return getMostCompactAudioIndex(defaultFormat, audioStreams);
+        if (policy.isLimitingDataUsage()) {
+            return getMostCompactAudioIndex(policy.defaultAudioFormat, audioStreams);
         } else {
-            return getHighestQualityAudioIndex(defaultFormat, audioStreams);
+            return getHighestQualityAudioIndex(policy.defaultAudioFormat, audioStreams);
         }
     }
 
@@ -86,22 +116,178 @@ public final class ListHelper {
      * @param videoStreams     normal videos list
      * @param videoOnlyStreams video only stream list
      * @param ascendingOrder   true -> smallest to greatest | false -> greatest to smallest
-     * @return the sorted list
+     * @return the sorted list, a new one which can be modified by the caller
      */
     public static List<VideoStream> getSortedStreamVideosList(Context context, List<VideoStream> videoStreams, List<VideoStream> videoOnlyStreams, boolean ascendingOrder) {
-        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        return getSortedStreamVideosList(getPolicy(context), videoStreams, videoOnlyStreams, ascendingOrder);
+    }
 
-        boolean showHigherResolutions = preferences.getBoolean(context.getString(R.string.show_higher_resolutions_key), false);
-        MediaFormat defaultFormat = getDefaultFormat(context, R.string.default_video_format_key, R.string.default_video_format_value);
+    /**
+     * @return number of sorted video stream lists found in the cache
+     */
+    public static long getSortedListHitCount() {
+        return sortedListHitCount.get();
+    }
 
-        return getSortedStreamVideosList(defaultFormat, showHigherResolutions, videoStreams, videoOnlyStreams, ascendingOrder);
+    /**
+     * @return number of video stream lists that had to be sorted
+     */
+    public static long getSortedListMissCount() {
+        return sortedListMissCount.get();
+    }
+
+    /*//////////////////////////////////////////////////////////////////////////
+    // Selection Policy
+    //////////////////////////////////////////////////////////////////////////*/
+
+    /**
+     * The preferences and network state which the streams are selected with, read once and
+     * shared by all the calls until a preference changes or the connectivity changes.
+     */
+    static final class SelectionPolicy {
+        @NonNull final String bestResolutionKey;
+        @NonNull final String defaultResolution;
+        @NonNull final String popupDefaultResolution;
+        final MediaFormat defaultVideoFormat;
+        final MediaFormat defaultAudioFormat;
+        final boolean showHigherResolutions;
+        @Nullable final String resolutionLimit;
+
+        SelectionPolicy(@NonNull final String bestResolutionKey,
+                        @NonNull final String defaultResolution,
+                        @NonNull final String popupDefaultResolution,
+                        final MediaFormat defaultVideoFormat,
+                        final MediaFormat defaultAudioFormat,
+                        final boolean showHigherResolutions,
+                        @Nullable final String resolutionLimit) {
+            this.bestResolutionKey = bestResolutionKey;
+            this.defaultResolution = defaultResolution;
+            this.popupDefaultResolution = popupDefaultResolution;
+            this.defaultVideoFormat = defaultVideoFormat;
+            this.defaultAudioFormat = defaultAudioFormat;
+            this.showHigherResolutions = showHigherResolutions;
+            this.resolutionLimit = resolutionLimit;
+        }
+
+        boolean isLimitingDataUsage() {
+            return resolutionLimit != null;
+        }
+    }
+
+    @NonNull
+    private static SelectionPolicy getPolicy(Context context) {
+        SelectionPolicy result = currentPolicy;
+        if (result != null) return result;
+
+        synchronized (policyLock) {
+            if (!isListening) {
+                final Context appContext = context.getApplicationContext();
+                PreferenceManager.getDefaultSharedPreferences(appContext)
+                        .registerOnSharedPreferenceChangeListener(preferenceListener);
+                appContext.registerReceiver(connectivityReceiver,
+                        new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+                isListening = true;
+            }
+
+            result = currentPolicy;
+            if (result == null) {
+                currentPolicy = (result = readPolicy(context));
+            }
+            return result;
+        }
+    }
+
+    private static void invalidatePolicy() {
+        synchronized (policyLock) {
+            currentPolicy = null;
+        }
+        synchronized (sortedVideoStreams) {
+            sortedVideoStreams.clear();
+        }
+    }
+
+    @NonNull
+    private static SelectionPolicy readPolicy(Context context) {
+        final SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        final String resolutionLimit = getResolutionLimit(context);
+
+        return new SelectionPolicy(context.getString(R.string.best_resolution_key),
+                computeDefaultResolution(context, R.string.default_resolution_key,
+                        R.string.default_resolution_value, resolutionLimit),
+                computeDefaultResolution(context, R.string.default_popup_resolution_key,
+                        R.string.default_popup_resolution_value, resolutionLimit),
+                getDefaultFormat(context, R.string.default_video_format_key,
+                        R.string.default_video_format_value),
+                getDefaultFormat(context, R.string.default_audio_format_key,
+                        R.string.default_audio_format_value),
+                preferences.getBoolean(context.getString(R.string.show_higher_resolutions_key), false),
+                resolutionLimit);
+    }
+
+    /**
+     * Sorted video streams of a stream info, the source lists are compared by identity.
+     */
+    private static final class SortedVideoStreams {
+        final SelectionPolicy policy;
+        final List<VideoStream> videoStreams;
+        final List<VideoStream> videoOnlyStreams;
+        final boolean ascendingOrder;
+        final List<VideoStream> sorted;
+
+        SortedVideoStreams(SelectionPolicy policy, List<VideoStream> videoStreams,
+                           List<VideoStream> videoOnlyStreams, boolean ascendingOrder,
+                           List<VideoStream> sorted) {
+            this.policy = policy;
+            this.videoStreams = videoStreams;
+            this.videoOnlyStreams = videoOnlyStreams;
+            this.ascendingOrder = ascendingOrder;
+            this.sorted = sorted;
+        }
+    }
+
+    /**
+     * Same as {@link #getSortedStreamVideosList(MediaFormat, boolean, List, List, boolean)}
+     * with the format and resolutions of the policy, the sorted lists of the last
+     * {@link #SORTED_LISTS_CACHE_SIZE} stream infos are remembered.
+     *
+     * @return the sorted list, a new one which can be modified by the caller
+     */
+    static List<VideoStream> getSortedStreamVideosList(@NonNull SelectionPolicy policy, List<VideoStream> videoStreams, List<VideoStream> videoOnlyStreams, boolean ascendingOrder) {
+        synchronized (sortedVideoStreams) {
+            final Iterator<SortedVideoStreams> iterator = sortedVideoStreams.iterator();
+            while (iterator.hasNext()) {
+                final SortedVideoStreams entry = iterator.next();
+                if (entry.policy == policy && entry.videoStreams == videoStreams
+                        && entry.videoOnlyStreams == videoOnlyStreams
+                        && entry.ascendingOrder == ascendingOrder) {
+                    iterator.remove();
+                    sortedVideoStreams.add(0, entry);
+                    sortedListHitCount.incrementAndGet();
+                    return new ArrayList<>(entry.sorted);
+                }
+            }
+        }
+
+        sortedListMissCount.incrementAndGet();
+        final List<VideoStream> sorted = getSortedStreamVideosList(policy.defaultVideoFormat,
+                policy.showHigherResolutions, videoStreams, videoOnlyStreams, ascendingOrder);
+
+        synchronized (sortedVideoStreams) {
+            sortedVideoStreams.add(0, new SortedVideoStreams(policy, videoStreams,
+                    videoOnlyStreams, ascendingOrder, new ArrayList<>(sorted)));
+            if (sortedVideoStreams.size() > SORTED_LISTS_CACHE_SIZE) {
+                sortedVideoStreams.remove(sortedVideoStreams.size() - 1);
+            }
+        }
+        return sorted;
     }
 
     /*//////////////////////////////////////////////////////////////////////////
     // Utils
     //////////////////////////////////////////////////////////////////////////*/
 
-    private static String computeDefaultResolution(Context context, int key, int value) {
+    private static String computeDefaultResolution(Context context, int key, int value,
+                                                   @Nullable String maxResolution) {
         SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
 
         // Load the prefered resolution otherwise the best available
@@ -109,7 +295,6 @@ public final class ListHelper {
                 ? preferences.getString(context.getString(key), context.getString(value))
                 : context.getString(R.string.best_resolution_key);
 
-        String maxResolution = getResolutionLimit(context);
         if (maxResolution != null && (resolution.equals(context.getString(R.string.best_resolution_key))
                 || compareVideoStreamResolution(maxResolution, resolution) < 1)) {
             resolution = maxResolution;
@@ -331,15 +516,6 @@ public final class ListHelper {
         return lowerResMatchNoRefreshIndex;
     }
 
-    /**
-     * Fetches the desired resolution or returns the default if it is not found. The resolution
-     * will be reduced if video chocking is active.
-     */
-    private static int getDefaultResolutionWithDefaultFormat(Context context, String defaultResolution, List<VideoStream> videoStreams) {
-        MediaFormat defaultFormat = getDefaultFormat(context, R.string.default_video_format_key, R.string.default_video_format_value);
-        return getDefaultResolutionIndex(defaultResolution, context.getString(R.string.best_resolution_key), defaultFormat, videoStreams);
-    }
-
     private static MediaFormat getDefaultFormat(Context context, @StringRes int defaultFormatKey, @StringRes int defaultFormatValueKey) {
         SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
 
@@ -417,12 +593,6 @@ public final class ListHelper {
         return ListHelper.VIDEO_FORMAT_QUALITY_RANKING.indexOf(streamA.getFormat()) - ListHelper.VIDEO_FORMAT_QUALITY_RANKING.indexOf(streamB.getFormat());
     }
 
-
-
-    private static boolean isLimitingDataUsage(Context context) {
-        return getResolutionLimit(context) != null;
-    }
-
     /**
      * The maximum resolution allowed
      * @param context App context
@@ -0,0 +1,102 @@
+package org.schabi.newpipe.util;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+import android.util.Log;
+
+import org.schabi.newpipe.MainActivity;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.Single;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Loads the next page of a list in the background, before the user asks for it.
+ * <p>
+ * The prefetched page is kept by its url and handed over by {@link #get}: already loaded, or
+ * still loading, in which case the request joins the running load instead of starting a new
+ * one. A prefetch which failed is loaded again when asked for.
+ *
+ * @param <P> type of the pages
+ */
+public final class PagePrefetcher<P> {
+    private static final String TAG = PagePrefetcher.class.getSimpleName();
+
+    private static final AtomicLong hitCount = new AtomicLong();
+    private static final AtomicLong joinCount = new AtomicLong();
+    private static final AtomicLong missCount = new AtomicLong();
+
+    @Nullable
+    private String pageUrl;
+    @Nullable
+    private Single<P> page;
+    @Nullable
+    private Disposable worker;
+    private volatile boolean isLoaded;
+
+    /**
+     * Start loading the page in the background, unless it is already.
+     */
+    public void prefetch(@Nullable final String pageUrl, @NonNull final Single<P> load) {
+        if (TextUtils.isEmpty(pageUrl) || pageUrl.equals(this.pageUrl)) return;
+        if (MainActivity.DEBUG) Log.d(TAG, "prefetch() called with: pageUrl = [" + pageUrl + "]");
+
+        clear();
+        this.pageUrl = pageUrl;
+        page = load.subscribeOn(Schedulers.io()).cache();
+        worker = page.subscribe(loaded -> isLoaded = true, error -> {/* loaded again by get() */});
+    }
+
+    /**
+     * @param load how to load the page if it wasn't prefetched
+     * @return the page, prefetched or not
+     */
+    @NonNull
+    public Single<P> get(@Nullable final String pageUrl, @NonNull final Single<P> load) {
+        if (page == null || pageUrl == null || !pageUrl.equals(this.pageUrl)) {
+            missCount.incrementAndGet();
+            return load;
+        }
+
+        (isLoaded ? hitCount : joinCount).incrementAndGet();
+        // The cached load goes on without its worker
+        final Single<P> prefetched = page.onErrorResumeNext(load);
+        clear();
+        return prefetched;
+    }
+
+    /**
+     * Forget the prefetched page, e.g. because the list is reloaded.
+     */
+    public void clear() {
+        if (worker != null) worker.dispose();
+        pageUrl = null;
+        page = null;
+        worker = null;
+        isLoaded = false;
+    }
+
+    /**
+     * @return number of pages already prefetched when asked for
+     */
+    public static long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return number of pages still being prefetched when asked for
+     */
+    public static long getJoinCount() {
+        return joinCount.get();
+    }
+
+    /**
+     * @return number of pages which weren't prefetched when asked for
+     */
+    public static long getMissCount() {
+        return missCount.get();
+    }
+}
@@ -0,0 +1,78 @@
+package us.shandian.giga.get;
+
+/**
+ * Token bucket shared by the download threads of all the missions, limiting their total
+ * download rate so downloads don't starve the playback or the rest of the device.
+ * <p>
+ * A thread reports each buffer it received with {@link #throttle(int)}, which sleeps once the
+ * bucket is empty until the rate catches up. The bucket holds up to one second of tokens, so
+ * short idle periods can be made up for by a burst.
+ */
+public final class BandwidthLimiter {
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private static final BandwidthLimiter instance = new BandwidthLimiter();
+
+    /**
+     * Bytes per second, 0 if unlimited
+     */
+    private long mRate;
+    /**
+     * Bytes that can be read without waiting, negative when threads are waiting for the rate
+     */
+    private double mTokens;
+    private long mLastRefill;
+
+    BandwidthLimiter() {
+    }
+
+    public static BandwidthLimiter getInstance() {
+        return instance;
+    }
+
+    /**
+     * @param bytesPerSecond the maximum total download rate, 0 to remove the limit
+     */
+    public void setRate(long bytesPerSecond) {
+        setRate(bytesPerSecond, System.nanoTime());
+    }
+
+    synchronized void setRate(long bytesPerSecond, long now) {
+        mRate = Math.max(bytesPerSecond, 0);
+        mTokens = 0;
+        mLastRefill = now;
+    }
+
+    public synchronized long getRate() {
+        return mRate;
+    }
+
+    /**
+     * Account received bytes, and wait until the rate allows them.
+     */
+    void throttle(int bytes) {
+        final long wait = reserve(bytes, System.nanoTime());
+        if (wait <= 0) return;
+
+        try {
+            Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+        } catch (InterruptedException e) {
+            // Let the download thread see it and pause the mission
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Take tokens for the received bytes.
+     *
+     * @return the nanoseconds to wait before reading more
+     */
+    synchronized long reserve(int bytes, long now) {
+        if (mRate <= 0) return 0;
+
+        mTokens = Math.min(mTokens + (now - mLastRefill) * (double) mRate / NANOS_PER_SECOND, mRate);
+        mLastRefill = now;
+        mTokens -= bytes;
+        return mTokens >= 0 ? 0 : (long) Math.ceil(-mTokens * NANOS_PER_SECOND / mRate);
+    }
+}
@@ -0,0 +1,346 @@
+package us.shandian.giga.get;
+
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Hands out the blocks of a {@link DownloadMission} to its threads.
+ * <p>
+ * Blocks are claimed without locking, through an atomic cursor and a bitset of claimed blocks,
+ * a second bitset tracks the blocks that have been completely written.
+ * <p>
+ * Once there are no free blocks left, an idle thread can steal the second half of the range
+ * another thread is still downloading, so a single slow connection doesn't hold up the end
+ * of the mission. The owner of a range writes its data while holding the {@link Range} monitor,
+ * and never past {@link Range#limit}, which is what a thief lowers to take over the rest.
+ * <p>
+ * The CRC32 of each completed block is kept along, to verify the block when the file is read
+ * again (see {@link MissionHasher}).
+ */
+final class BlockAllocator {
+    /**
+     * Ranges smaller than this are not worth a new request
+     */
+    static final long MIN_STEAL_BYTES = 128 * 1024;
+
+    private final long mBlocks;
+    private final long mLength;
+    /**
+     * Offset where a block is cut short, the end of the first part of a muxed mission
+     */
+    private final long mSplit;
+    private final AtomicLong mCursor = new AtomicLong();
+    private final AtomicLongArray mClaimed;
+    private final AtomicLongArray mCompleted;
+    /**
+     * Bytes left to write in each block
+     */
+    private final AtomicIntegerArray mRemaining;
+    private final AtomicLongArray mHasChecksum;
+    private final AtomicIntegerArray mChecksums;
+    private final Range[] mRanges;
+
+    /**
+     * Byte range a thread is currently downloading, guarded by its own monitor.
+     */
+    static final class Range {
+        /**
+         * Offset up to which the owner wrote
+         */
+        long progress;
+        /**
+         * Exclusive end of the range, only ever lowered by a thief
+         */
+        long limit;
+    }
+
+    BlockAllocator(long blocks, long length, int threads) {
+        this(blocks, length, threads, length);
+    }
+
+    /**
+     * @param split offset at which the block containing it ends early, the following block
+     *              starts at the next block boundary as usual
+     */
+    BlockAllocator(long blocks, long length, int threads, long split) {
+        mBlocks = blocks;
+        mLength = length;
+        mSplit = split;
+        mClaimed = new AtomicLongArray(wordCount(blocks));
+        mCompleted = new AtomicLongArray(wordCount(blocks));
+        mRemaining = new AtomicIntegerArray((int) blocks);
+        mHasChecksum = new AtomicLongArray(wordCount(blocks));
+        mChecksums = new AtomicIntegerArray((int) blocks);
+        for (int i = 0; i < blocks; i++) {
+            mRemaining.set(i, (int) (blockEnd(i) - blockStart(i)));
+        }
+
+        mRanges = new Range[Math.max(threads, 1)];
+        for (int i = 0; i < mRanges.length; i++) {
+            mRanges[i] = new Range();
+        }
+    }
+
+    long getBlocks() {
+        return mBlocks;
+    }
+
+    int getThreads() {
+        return mRanges.length;
+    }
+
+    /**
+     * Claim the next free block.
+     *
+     * @return the block, or -1 if all the blocks are claimed
+     */
+    long claimNext() {
+        long block;
+        while ((block = mCursor.getAndIncrement()) < mBlocks) {
+            if (tryClaim(block)) return block;
+        }
+        // Don't let the cursor overflow when threads keep asking
+        mCursor.set(mBlocks);
+        return -1;
+    }
+
+    /**
+     * @return true if the block was free and is now claimed by the caller
+     */
+    boolean tryClaim(long block) {
+        return setBit(mClaimed, block);
+    }
+
+    boolean isClaimed(long block) {
+        return getBit(mClaimed, block);
+    }
+
+    boolean isCompleted(long block) {
+        return getBit(mCompleted, block);
+    }
+
+    /**
+     * Account written bytes of a block.
+     *
+     * @return true if this completed the block
+     */
+    boolean commit(long block, int length) {
+        return mRemaining.addAndGet((int) block, -length) <= 0 && setBit(mCompleted, block);
+    }
+
+    /**
+     * Mark a completed block as corrupted, it's downloaded again from its start
+     */
+    void invalidate(long block) {
+        clearBit(mHasChecksum, block);
+        clearBit(mCompleted, block);
+        mRemaining.set((int) block, (int) (blockEnd(block) - blockStart(block)));
+        clearBit(mClaimed, block);
+
+        // Let the threads find it again
+        long cursor;
+        do {
+            cursor = mCursor.get();
+            if (cursor <= block) break;
+        } while (!mCursor.compareAndSet(cursor, block));
+    }
+
+    void setChecksum(long block, int crc) {
+        mChecksums.set((int) block, crc);
+        setBit(mHasChecksum, block);
+    }
+
+    boolean hasChecksum(long block) {
+        return getBit(mHasChecksum, block);
+    }
+
+    int getChecksum(long block) {
+        return mChecksums.get((int) block);
+    }
+
+    /**
+     * Reset the number of bytes left in a block, when resuming its download from an offset
+     */
+    void resume(long block, long offset) {
+        mRemaining.set((int) block, (int) (blockEnd(block) - offset));
+    }
+
+    Range getRange(int threadId) {
+        return mRanges[threadId];
+    }
+
+    /**
+     * Set the range a thread is about to download
+     */
+    void beginRange(int threadId, long start, long end) {
+        final Range range = mRanges[threadId];
+        synchronized (range) {
+            range.progress = start;
+            range.limit = end;
+        }
+    }
+
+    /**
+     * Take over the second half of the largest range still being downloaded by another thread,
+     * the thief's own range is set to the stolen one.
+     *
+     * @return the start and the exclusive end of the stolen range, or null if there is nothing
+     * worth stealing
+     */
+    @Nullable
+    long[] steal(int thiefId) {
+        Range victim = null;
+        long largest = 2 * MIN_STEAL_BYTES - 1;
+        for (int i = 0; i < mRanges.length; i++) {
+            if (i == thiefId) continue;
+            final Range range = mRanges[i];
+            synchronized (range) {
+                final long remaining = range.limit - range.progress;
+                if (remaining > largest) {
+                    largest = remaining;
+                    victim = range;
+                }
+            }
+        }
+        if (victim == null) return null;
+
+        final long[] stolen;
+        synchronized (victim) {
+            // The owner kept writing since the scan
+            final long remaining = victim.limit - victim.progress;
+            if (remaining < 2 * MIN_STEAL_BYTES) return null;
+
+            final long middle = victim.progress + remaining / 2;
+            stolen = new long[]{middle, victim.limit};
+            victim.limit = middle;
+        }
+
+        beginRange(thiefId, stolen[0], stolen[1]);
+        return stolen;
+    }
+
+    long blockStart(long block) {
+        return block * DownloadManager.BLOCK_SIZE;
+    }
+
+    long blockEnd(long block) {
+        final long end = Math.min((block + 1) * DownloadManager.BLOCK_SIZE, mLength);
+        return blockStart(block) < mSplit && end > mSplit ? mSplit : end;
+    }
+
+    long blockOf(long offset) {
+        return offset / DownloadManager.BLOCK_SIZE;
+    }
+
+    /*//////////////////////////////////////////////////////////////////////////
+    // Persistence
+    //////////////////////////////////////////////////////////////////////////*/
+
+    static int bitmapSize(long blocks) {
+        return (int) ((blocks + 7) >>> 3);
+    }
+
+    void writeClaimed(byte[] bitmap) {
+        writeBitmap(mClaimed, bitmap);
+    }
+
+    void writeCompleted(byte[] bitmap) {
+        writeBitmap(mCompleted, bitmap);
+    }
+
+    void writeHasChecksum(byte[] bitmap) {
+        writeBitmap(mHasChecksum, bitmap);
+    }
+
+    /**
+     * Restore the checksums of the blocks from the state file
+     *
+     * @param hasChecksum bitmap of the blocks with a checksum
+     * @param checksums   the checksum of each block
+     */
+    void restoreChecksums(byte[] hasChecksum, int[] checksums) {
+        for (long block = 0; block < mBlocks; block++) {
+            if ((hasChecksum[(int) (block >>> 3)] & (1 << (block & 7))) != 0) {
+                setChecksum(block, checksums[(int) block]);
+            }
+        }
+    }
+
+    /**
+     * Restore the claimed and completed blocks from the state file.
+     */
+    void restore(byte[] claimed, byte[] completed) {
+        for (long block = 0; block < mBlocks; block++) {
+            final int index = (int) (block >>> 3);
+            final int mask = 1 << (block & 7);
+            if ((claimed[index] & mask) != 0) setBit(mClaimed, block);
+            if ((completed[index] & mask) != 0) {
+                setBit(mCompleted, block);
+                mRemaining.set((int) block, 0);
+            }
+        }
+    }
+
+    /**
+     * Give back the blocks that were claimed but never completed, and that no thread will
+     * resume, e.g. because the thread which stole part of them was stopped.
+     *
+     * @param resumed blocks some thread will resume
+     */
+    void releaseOrphans(long[] resumed) {
+        outer:
+        for (long block = 0; block < mBlocks; block++) {
+            if (!isClaimed(block) || isCompleted(block)) continue;
+            for (long resumedBlock : resumed) {
+                if (resumedBlock == block) continue outer;
+            }
+            clearBit(mClaimed, block);
+            mRemaining.set((int) block, (int) (blockEnd(block) - blockStart(block)));
+        }
+        mCursor.set(0);
+    }
+
+    private void writeBitmap(AtomicLongArray bits, byte[] bitmap) {
+        for (int i = 0; i < bitmap.length; i++) {
+            bitmap[i] = (byte) (bits.get(i >>> 3) >>> ((i & 7) << 3));
+        }
+    }
+
+    /*//////////////////////////////////////////////////////////////////////////
+    // Bitset
+    //////////////////////////////////////////////////////////////////////////*/
+
+    private static int wordCount(long blocks) {
+        return (int) ((blocks + 63) >>> 6);
+    }
+
+    private static boolean getBit(AtomicLongArray bits, long index) {
+        return (bits.get((int) (index >>> 6)) & (1L << index)) != 0;
+    }
+
+    /**
+     * @return true if the bit was not set before
+     */
+    private static boolean setBit(AtomicLongArray bits, long index) {
+        final int word = (int) (index >>> 6);
+        final long mask = 1L << index;
+        long current;
+        do {
+            current = bits.get(word);
+            if ((current & mask) != 0) return false;
+        } while (!bits.compareAndSet(word, current, current | mask));
+        return true;
+    }
+
+    private static void clearBit(AtomicLongArray bits, long index) {
+        final int word = (int) (index >>> 6);
+        final long mask = 1L << index;
+        long current;
+        do {
+            current = bits.get(word);
+        } while (!bits.compareAndSet(word, current, current & ~mask));
+    }
+}
@@ -14,6 +14,19 @@ public interface DownloadManager {
      */
     int startMission(String url, String location, String name, boolean isAudio, int threads);
 
+    /**
+     * Start a new download mission for a video-only stream and an audio stream,
+     * muxed into a single file once both are downloaded
+     *
+     * @param videoUrl the url of the video-only stream, fragmented MP4
+     * @param audioUrl the url of the audio stream, fragmented MP4
+     * @param location the location
+     * @param name     the name of the file to create
+     * @param threads  the number of threads maximal used to download chunks of the files
+     * @return the identifier of the mission.
+     */
+    int startMuxedMission(String videoUrl, String audioUrl, String location, String name, int threads);
+
     /**
      * Resume the execution of a download mission.
      *
@@ -28,6 +41,19 @@ public interface DownloadManager {
      */
     void pauseMission(int id);
 
+    /**
+     * Pause all the missions, including the queued ones, e.g. when the service stops.
+     */
+    void pauseAllMissions();
+
+    /**
+     * Set the number of missions downloading at the same time,
+     * the other started missions wait in a queue.
+     *
+     * @param count the maximum number of running missions
+     */
+    void setMaxConcurrentMissions(int count);
+
     /**
      * Deletes the mission from the downloaded list but keeps the downloaded file.
      *
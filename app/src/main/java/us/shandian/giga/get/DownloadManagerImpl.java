@@ -3,6 +3,7 @@ package us.shandian.giga.get;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
@@ -15,22 +16,49 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-
-import us.shandian.giga.util.Utility;
+import java.util.Map;
+import java.util.Set;
 
 import static org.schabi.newpipe.BuildConfig.DEBUG;
 
+/**
+ * Keeps the list of missions and schedules their downloads.
+ * <p>
+ * At most {@link #getMaxConcurrentMissions()} missions download at the same time, the other
+ * started missions wait in a queue and are started automatically, oldest first, when a running
+ * mission finishes, fails or is paused. A mission resumed by the user goes to the front of the
+ * queue.
+ */
 public class DownloadManagerImpl implements DownloadManager {
     private static final String TAG = DownloadManagerImpl.class.getSimpleName();
+    public static final int DEFAULT_MAX_CONCURRENT_MISSIONS = 3;
+
     private final DownloadDataSource mDownloadDataSource;
 
     private final ArrayList<DownloadMission> mMissions = new ArrayList<>();
+    /**
+     * Missions waiting for a free slot, guarded by this manager
+     */
+    private final ArrayDeque<DownloadMission> mQueue = new ArrayDeque<>();
+    /**
+     * Missions initializing or downloading, guarded by this manager
+     */
+    private final Set<DownloadMission> mActive = new HashSet<>();
+    private int mMaxConcurrentMissions = DEFAULT_MAX_CONCURRENT_MISSIONS;
+    /**
+     * The missions only keep weak references to their listeners, guarded by this manager
+     */
+    private final Map<DownloadMission, MissionListener> mMissionListeners = new HashMap<>();
     @NonNull
     private final Context context;
 
@@ -54,6 +82,17 @@ public class DownloadManagerImpl implements DownloadManager {
 
     @Override
     public int startMission(String url, String location, String name, boolean isAudio, int threads) {
+        return startMission(url, null, location, name, threads);
+    }
+
+    @Override
+    public int startMuxedMission(String videoUrl, String audioUrl, String location, String name,
+                                 int threads) {
+        return startMission(videoUrl, audioUrl, location, name, threads);
+    }
+
+    private int startMission(String url, @Nullable String audioUrl, String location, String name,
+                             int threads) {
         DownloadMission existingMission = getMissionByLocation(location, name);
         if (existingMission != null) {
             // Already downloaded or downloading
@@ -73,27 +112,45 @@ public class DownloadManagerImpl implements DownloadManager {
         }
 
         DownloadMission mission = new DownloadMission(name, url, location);
+        mission.audioUrl = audioUrl;
         mission.timestamp = System.currentTimeMillis();
         mission.threadCount = threads;
-        mission.addListener(new MissionListener(mission));
-        new Initializer(mission).start();
-        return insertMission(mission);
+        attachListener(mission);
+        int index = insertMission(mission);
+        enqueue(mission, false);
+        return index;
     }
 
     @Override
     public void resumeMission(int i) {
         DownloadMission d = getMission(i);
         if (!d.running && d.errCode == -1) {
-            d.start();
+            attachListener(d);
+            enqueue(d, true);
         }
     }
 
     @Override
     public void pauseMission(int i) {
         DownloadMission d = getMission(i);
+        synchronized (this) {
+            if (mQueue.remove(d)) d.enqueued = false;
+        }
         if (d.running) {
             d.pause();
         }
+        onMissionStopped(d);
+    }
+
+    @Override
+    public void pauseAllMissions() {
+        synchronized (this) {
+            for (DownloadMission mission : mQueue) mission.enqueued = false;
+            mQueue.clear();
+        }
+        for (int i = 0; i < getCount(); i++) {
+            pauseMission(i);
+        }
     }
 
     @Override
@@ -102,10 +159,94 @@ public class DownloadManagerImpl implements DownloadManager {
         if (mission.finished) {
             mDownloadDataSource.deleteMission(mission);
         }
+        synchronized (this) {
+            mQueue.remove(mission);
+            mission.enqueued = false;
+            mMissionListeners.remove(mission);
+        }
+        onMissionStopped(mission);
         mission.delete();
         mMissions.remove(i);
     }
 
+    /*//////////////////////////////////////////////////////////////////////////
+    // Scheduler
+    //////////////////////////////////////////////////////////////////////////*/
+
+    @Override
+    public synchronized void setMaxConcurrentMissions(int count) {
+        mMaxConcurrentMissions = Math.max(count, 1);
+        scheduleNext();
+    }
+
+    public synchronized int getMaxConcurrentMissions() {
+        return mMaxConcurrentMissions;
+    }
+
+    /**
+     * Queue a mission to be started once there is a free slot
+     *
+     * @param first true to put it before the missions already waiting
+     */
+    private synchronized void enqueue(DownloadMission mission, boolean first) {
+        if (mActive.contains(mission)) return;
+
+        mQueue.remove(mission);
+        if (first) {
+            mQueue.addFirst(mission);
+        } else {
+            mQueue.addLast(mission);
+        }
+        mission.enqueued = true;
+        scheduleNext();
+    }
+
+    /**
+     * Free the slot of a mission which finished, failed or was paused
+     */
+    private synchronized void onMissionStopped(DownloadMission mission) {
+        if (mActive.remove(mission)) scheduleNext();
+    }
+
+    /**
+     * Start the queued missions while there are free slots
+     */
+    private synchronized void scheduleNext() {
+        // A mission can also stop on its own, e.g. when its thread was interrupted it's paused
+        for (Iterator<DownloadMission> iterator = mActive.iterator(); iterator.hasNext(); ) {
+            DownloadMission mission = iterator.next();
+            if (mission.finished || mission.errCode != -1
+                    || (!mission.running && mission.recovered)) {
+                iterator.remove();
+            }
+        }
+
+        while (mActive.size() < mMaxConcurrentMissions && !mQueue.isEmpty()) {
+            DownloadMission mission = mQueue.pollFirst();
+            mission.enqueued = false;
+            if (mission.finished || mission.running || mission.errCode != -1) continue;
+
+            mActive.add(mission);
+            if (mission.length <= 0) {
+                new Initializer(mission).start();
+            } else {
+                mission.start();
+            }
+        }
+
+        if (DEBUG) {
+            Log.d(TAG, "scheduleNext: " + mActive.size() + " active, " + mQueue.size() + " queued");
+        }
+    }
+
+    private synchronized void attachListener(DownloadMission mission) {
+        if (mMissionListeners.containsKey(mission)) return;
+
+        MissionListener listener = new MissionListener(mission);
+        mMissionListeners.put(mission, listener);
+        mission.addListener(listener);
+    }
+
     private void loadMissions(Iterable<String> searchLocations) {
         mMissions.clear();
         loadFinishedMissions();
@@ -170,7 +311,7 @@ public class DownloadManagerImpl implements DownloadManager {
 
             for (File sub : subs) {
                 if (sub.isFile() && sub.getName().endsWith(".giga")) {
-                    DownloadMission mis = Utility.readFromFile(sub.getAbsolutePath());
+                    DownloadMission mis = MissionStateFile.read(sub);
                     if (mis != null) {
                         if (mis.finished) {
                             if (!sub.delete()) {
@@ -298,37 +439,47 @@ public class DownloadManagerImpl implements DownloadManager {
 
         public Initializer(DownloadMission mission) {
             this.mission = mission;
-            this.handler = new Handler();
+            // Also created by scheduleNext() on the threads of the missions which stopped
+            this.handler = new Handler(Looper.getMainLooper());
         }
 
         @Override
         public void run() {
             try {
-                URL url = new URL(mission.url);
-                HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                mission.length = conn.getContentLength();
-
-                if (mission.length <= 0) {
-                    mission.errCode = DownloadMission.ERROR_SERVER_UNSUPPORTED;
-                    //mission.notifyError(DownloadMission.ERROR_SERVER_UNSUPPORTED);
-                    return;
-                }
+                if (mission.isMuxed()) {
+                    if (!initMuxed()) {
+                        mission.errCode = DownloadMission.ERROR_SERVER_UNSUPPORTED;
+                        onMissionStopped(mission);
+                        return;
+                    }
+                } else {
+                    URL url = new URL(mission.url);
+                    HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+                    mission.length = conn.getContentLength();
+
+                    if (mission.length <= 0) {
+                        mission.errCode = DownloadMission.ERROR_SERVER_UNSUPPORTED;
+                        //mission.notifyError(DownloadMission.ERROR_SERVER_UNSUPPORTED);
+                        onMissionStopped(mission);
+                        return;
+                    }
 
-                // Open again
-                conn = (HttpURLConnection) url.openConnection();
-                conn.setRequestProperty("Range", "bytes=" + (mission.length - 10) + "-" + mission.length);
+                    // Open again
+                    conn = (HttpURLConnection) url.openConnection();
+                    conn.setRequestProperty("Range", "bytes=" + (mission.length - 10) + "-" + mission.length);
 
-                if (conn.getResponseCode() != 206) {
-                    // Fallback to single thread if no partial content support
-                    mission.fallback = true;
+                    if (conn.getResponseCode() != 206) {
+                        // Fallback to single thread if no partial content support
+                        mission.fallback = true;
 
-                    if (DEBUG) {
-                        Log.d(TAG, "falling back");
+                        if (DEBUG) {
+                            Log.d(TAG, "falling back");
+                        }
                     }
-                }
 
-                if (DEBUG) {
-                    Log.d(TAG, "response = " + conn.getResponseCode());
+                    if (DEBUG) {
+                        Log.d(TAG, "response = " + conn.getResponseCode());
+                    }
                 }
 
                 mission.blocks = mission.length / BLOCK_SIZE;
@@ -347,12 +498,16 @@ public class DownloadManagerImpl implements DownloadManager {
 
 
                 new File(mission.location).mkdirs();
-                new File(mission.location + "/" + mission.name).createNewFile();
-                RandomAccessFile af = new RandomAccessFile(mission.location + "/" + mission.name, "rw");
+                mission.getDataFile().createNewFile();
+                RandomAccessFile af = new RandomAccessFile(mission.getDataFile(), "rw");
                 af.setLength(mission.length);
                 af.close();
 
-                mission.start();
+                synchronized (DownloadManagerImpl.this) {
+                    // Paused or deleted while initializing, its slot was already freed
+                    if (!mActive.contains(mission) || mission.running) return;
+                    mission.start();
+                }
             } catch (IOException ie) {
                 if(context == null) throw new RuntimeException(ie);
 
@@ -365,6 +520,46 @@ public class DownloadManagerImpl implements DownloadManager {
                 throw new RuntimeException(e);
             }
         }
+
+        /**
+         * Lay out the video and the audio stream of a muxed mission in its data file,
+         * the audio stream starts at the first block boundary after the video stream.
+         * <p>
+         * Both streams are downloaded in blocks, there is no single threaded fallback.
+         *
+         * @return false if a server doesn't give the length or doesn't support ranges
+         */
+        private boolean initMuxed() throws IOException {
+            final long videoLength = probeLength(mission.url);
+            final long audioLength = probeLength(mission.audioUrl);
+            if (videoLength <= 0 || audioLength <= 0) return false;
+
+            mission.videoLength = videoLength;
+            mission.length = mission.getAudioOffset() + audioLength;
+            // The padding between the streams is never downloaded
+            mission.done = mission.getAudioOffset() - videoLength;
+            return true;
+        }
+
+        /**
+         * @return the length of the file, or -1 if it's unknown or ranges are not supported
+         */
+        private long probeLength(String url) throws IOException {
+            HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+            final long length = conn.getContentLength();
+            conn.disconnect();
+            if (length <= 0) return -1;
+
+            conn = (HttpURLConnection) new URL(url).openConnection();
+            conn.setRequestProperty("Range", "bytes=" + (length - 10) + "-" + length);
+            final int code = conn.getResponseCode();
+            conn.disconnect();
+
+            if (DEBUG) {
+                Log.d(TAG, "muxed stream length = " + length + ", response = " + code);
+            }
+            return code == 206 ? length : -1;
+        }
     }
 
     /**
@@ -380,16 +575,18 @@ public class DownloadManagerImpl implements DownloadManager {
         }
 
         @Override
-        public void onProgressUpdate(DownloadMission downloadMission, long done, long total) {
+        public void onProgressUpdate(DownloadMission downloadMission, ProgressSnapshot progress) {
         }
 
         @Override
         public void onFinish(DownloadMission downloadMission) {
             mDownloadDataSource.addMission(mMission);
+            onMissionStopped(mMission);
         }
 
         @Override
         public void onError(DownloadMission downloadMission, int errCode) {
+            onMissionStopped(mMission);
         }
     }
 }
@@ -2,19 +2,22 @@ package us.shandian.giga.get;
 
 import android.os.Handler;
 import android.os.Looper;
+import android.support.annotation.Nullable;
 import android.util.Log;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
 import java.io.Serializable;
 import java.lang.ref.WeakReference;
+import java.nio.channels.FileChannel;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
-import us.shandian.giga.util.Utility;
+import us.shandian.giga.postprocessing.Mp4DashMuxer;
 
 import static org.schabi.newpipe.BuildConfig.DEBUG;
 
@@ -23,10 +26,26 @@ public class DownloadMission implements Serializable {
 
     private static final String TAG = DownloadMission.class.getSimpleName();
 
-    public interface MissionListener {
-        HashMap<MissionListener, Handler> handlerStore = new HashMap<>();
+    /**
+     * Minimum time between two writes of the state file while downloading
+     */
+    private static final long STATE_FLUSH_INTERVAL_MILLIS = 1000;
+    /**
+     * Amount of downloaded bytes after which the state file is written, regardless of the time
+     */
+    private static final long STATE_FLUSH_BYTES = 4 * 1024 * 1024;
 
-        void onProgressUpdate(DownloadMission downloadMission, long done, long total);
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Listener of a mission, called on the main thread
+     */
+    public interface MissionListener {
+        /**
+         * Called at most {@link ProgressDispatcher#TICKS_PER_SECOND} times per second
+         * while the mission is downloading
+         */
+        void onProgressUpdate(DownloadMission downloadMission, ProgressSnapshot progress);
 
         void onFinish(DownloadMission downloadMission);
 
@@ -34,6 +53,8 @@ public class DownloadMission implements Serializable {
     }
 
     public static final int ERROR_SERVER_UNSUPPORTED = 206;
+    public static final int ERROR_POSTPROCESSING = 207;
+    public static final int ERROR_CONNECTION = 208;
     public static final int ERROR_UNKNOWN = 233;
 
     /**
@@ -46,6 +67,18 @@ public class DownloadMission implements Serializable {
      */
     public String url;
 
+    /**
+     * The url of the audio stream muxed with the video-only stream at {@link #url},
+     * null for a single file
+     */
+    public String audioUrl;
+
+    /**
+     * Number of bytes of the video stream of a muxed mission, the audio stream follows it
+     * in the data file from the next block boundary
+     */
+    public long videoLength;
+
     /**
      * The directory to store the download
      */
@@ -68,17 +101,58 @@ public class DownloadMission implements Serializable {
     public int threadCount = 3;
     public int finishCount;
     private final List<Long> threadPositions = new ArrayList<>();
-    public final Map<Long, Boolean> blockState = new HashMap<>();
+    /**
+     * Byte offset in the file reached by each thread, used to resume inside a block
+     */
+    private List<Long> threadOffsets = new ArrayList<>();
+    /**
+     * CRC32 of the part of its current block each thread wrote, from the block start to
+     * its offset, or -1 if unknown. Used to verify that part before resuming after it.
+     */
+    private List<Long> threadPrefixCrcs = new ArrayList<>();
     public boolean running;
     public boolean finished;
     public boolean fallback;
+    /**
+     * ETag or Last-Modified date of the file, used to resume a fallback download with If-Range
+     */
+    public String validator;
     public int errCode = -1;
+    /**
+     * Checksums of the finished file, null if they were not computed during the download
+     */
+    public String md5;
+    public String sha1;
     public long timestamp;
 
     public transient boolean recovered;
+    /**
+     * True while the mission waits for a free slot in the queue of the {@link DownloadManager}
+     */
+    public transient volatile boolean enqueued;
+    /**
+     * Incremented every time the mission is started, so the threads of a previous run which
+     * were still waiting to be executed don't download along with the new ones
+     */
+    transient volatile int startCount;
 
     private transient ArrayList<WeakReference<MissionListener>> mListeners = new ArrayList<>();
-    private transient boolean mWritingToFile;
+    private transient BlockAllocator mAllocator;
+    private transient MissionStateFile mStateFile;
+    private transient long mLastStateFlush;
+    private transient long mBytesSinceStateFlush;
+    private transient FileChannel mChannel;
+    private transient int mChannelUsers;
+    /**
+     * True while the progress is waiting for the next tick of the {@link ProgressDispatcher}
+     */
+    private transient boolean mProgressPending;
+    private transient ProgressSampler mSampler;
+    private transient volatile MissionHasher mHasher;
+    /**
+     * True when the threads finished and the mission waits for the last blocks to be hashed
+     */
+    private transient boolean mThreadsFinished;
 
     private static final int NO_IDENTIFIER = -1;
 
@@ -112,14 +186,71 @@ public class DownloadMission implements Serializable {
      */
     public boolean isBlockPreserved(long block) {
         checkBlock(block);
-        return blockState.containsKey(block) ? blockState.get(block) : false;
+        return getAllocator().isClaimed(block);
     }
 
     public void preserveBlock(long block) {
         checkBlock(block);
-        synchronized (blockState) {
-            blockState.put(block, true);
+        getAllocator().tryClaim(block);
+    }
+
+    /**
+     * Reserve a block if no other thread did it before
+     *
+     * @param block the block identifier
+     * @return true if the block was free and is now reserved by the caller
+     */
+    public boolean tryPreserveBlock(long block) {
+        checkBlock(block);
+        return getAllocator().tryClaim(block);
+    }
+
+    /**
+     * Get the allocator handing out the blocks to the threads,
+     * a new one is created when the number of blocks or threads changed.
+     */
+    synchronized BlockAllocator getAllocator() {
+        if (mAllocator == null || mAllocator.getBlocks() != blocks
+                || mAllocator.getThreads() < threadCount) {
+            mAllocator = new BlockAllocator(blocks, length, threadCount,
+                    isMuxed() ? videoLength : length);
+        }
+        return mAllocator;
+    }
+
+    /**
+     * Called after the state of the mission was read from its state file.
+     * <p>
+     * When two threads stopped inside the same block (one stole part of the other's range),
+     * only the one with the lowest offset resumes it. The claimed blocks that were not
+     * completed and that no thread resumes are given back to the allocator.
+     */
+    void onRestored() {
+        final BlockAllocator allocator = getAllocator();
+        final int threads = threadPositions.size();
+        final long[] resumed = new long[threads];
+
+        for (int i = 0; i < threads; i++) {
+            final long block = threadPositions.get(i);
+            resumed[i] = -1;
+            if (block < 0 || block >= blocks || allocator.isCompleted(block)) continue;
+
+            final long offset = getThreadOffset(i);
+            if (offset >= allocator.blockEnd(block)) continue;
+
+            for (int j = 0; j < i; j++) {
+                if (resumed[j] != block) continue;
+                if (getThreadOffset(j) <= offset) {
+                    setThreadOffset(i, allocator.blockEnd(block));
+                } else {
+                    setThreadOffset(j, allocator.blockEnd(block));
+                    resumed[j] = -1;
+                }
+            }
+            if (getThreadOffset(i) < allocator.blockEnd(block)) resumed[i] = block;
         }
+
+        allocator.releaseOrphans(resumed);
     }
 
     /**
@@ -142,6 +273,180 @@ public class DownloadMission implements Serializable {
         return threadPositions.get(threadId);
     }
 
+    /**
+     * @return the number of threads with a saved position
+     */
+    int getThreadPositionCount() {
+        return threadPositions.size();
+    }
+
+    /**
+     * Restore the saved position and offset of a thread, used when reading the state file
+     */
+    void restoreThread(int threadId, long position, long offset, long prefixCrc) {
+        while (threadPositions.size() <= threadId) {
+            threadPositions.add((long) threadPositions.size());
+        }
+        threadPositions.set(threadId, position);
+        setThreadOffset(threadId, offset, prefixCrc);
+    }
+
+    /**
+     * Save the byte offset reached by a thread
+     *
+     * @param threadId the identifier of the thread
+     * @param offset   the offset in the file up to which the thread wrote
+     */
+    public void setThreadOffset(int threadId, long offset) {
+        setThreadOffset(threadId, offset, -1);
+    }
+
+    /**
+     * Save the byte offset reached by a thread
+     *
+     * @param threadId  the identifier of the thread
+     * @param offset    the offset in the file up to which the thread wrote
+     * @param prefixCrc the CRC32 of the block of the thread from its start to the offset,
+     *                  or -1 if unknown
+     */
+    public void setThreadOffset(int threadId, long offset, long prefixCrc) {
+        synchronized (threadOffsets) {
+            while (threadOffsets.size() <= threadId) {
+                threadOffsets.add(-1L);
+                threadPrefixCrcs.add(-1L);
+            }
+            threadOffsets.set(threadId, offset);
+            threadPrefixCrcs.set(threadId, prefixCrc);
+        }
+    }
+
+    /**
+     * Get the byte offset reached by a thread
+     *
+     * @param threadId the identifier of the thread
+     * @return the offset, or -1 if it is unknown
+     */
+    public long getThreadOffset(int threadId) {
+        synchronized (threadOffsets) {
+            return threadId < threadOffsets.size() ? threadOffsets.get(threadId) : -1;
+        }
+    }
+
+    /**
+     * Get the CRC32 of the block of a thread from its start to the offset of the thread
+     *
+     * @param threadId the identifier of the thread
+     * @return the CRC32, or -1 if it is unknown
+     */
+    public long getThreadPrefixCrc(int threadId) {
+        synchronized (threadOffsets) {
+            return threadId < threadPrefixCrcs.size() ? threadPrefixCrcs.get(threadId) : -1;
+        }
+    }
+
+    /*//////////////////////////////////////////////////////////////////////////
+    // Muxed missions
+    //////////////////////////////////////////////////////////////////////////*/
+
+    /**
+     * @return true if a video-only stream and an audio stream are downloaded together and
+     * muxed into the final file once both are complete
+     */
+    public boolean isMuxed() {
+        return audioUrl != null;
+    }
+
+    /**
+     * @return the offset of the audio stream in the data file of a muxed mission
+     */
+    public long getAudioOffset() {
+        final long blockSize = DownloadManager.BLOCK_SIZE;
+        return (videoLength + blockSize - 1) / blockSize * blockSize;
+    }
+
+    /**
+     * @return the url serving the given offset of the data file
+     */
+    String getUrlAt(long offset) {
+        return isMuxed() && offset >= getAudioOffset() ? audioUrl : url;
+    }
+
+    /**
+     * @return the offset to request from {@link #getUrlAt(long)} for an offset of the data file
+     */
+    long getRequestOffset(long offset) {
+        return isMuxed() && offset >= getAudioOffset() ? offset - getAudioOffset() : offset;
+    }
+
+    /**
+     * @return the exclusive end, in the data file, of the stream containing the given offset
+     */
+    long getPartEnd(long offset) {
+        return isMuxed() && offset < getAudioOffset() ? videoLength : length;
+    }
+
+    /**
+     * @return the file the threads write to, the streams of a muxed mission go to a temporary
+     * file first
+     */
+    public File getDataFile() {
+        return isMuxed() ? new File(location, name + ".part") : getDownloadedFile();
+    }
+
+    /**
+     * Mux the downloaded streams into the final file, run once all the threads finished.
+     */
+    private void mux() {
+        final File data = getDataFile();
+        final File output = getDownloadedFile();
+        try (FileChannel input = new RandomAccessFile(data, "r").getChannel();
+             FileChannel out = new RandomAccessFile(output, "rw").getChannel()) {
+            out.truncate(0);
+            Mp4DashMuxer.mux(input, 0, videoLength, getAudioOffset(), length - getAudioOffset(),
+                    out);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to mux " + name, e);
+            synchronized (this) {
+                notifyError(ERROR_POSTPROCESSING);
+                pause();
+            }
+            return;
+        }
+
+        data.delete();
+        synchronized (this) {
+            length = output.length();
+            done = length;
+            onFinish();
+        }
+    }
+
+    /**
+     * Open the downloaded file if needed, the channel is shared by all the threads of
+     * the mission and must be given back with {@link #releaseChannel()}.
+     */
+    synchronized FileChannel acquireChannel() throws IOException {
+        if (mChannel == null || !mChannel.isOpen()) {
+            mChannel = new RandomAccessFile(getDataFile(), "rw").getChannel();
+        }
+        mChannelUsers++;
+        return mChannel;
+    }
+
+    /**
+     * Close the downloaded file when the last thread using it is done
+     */
+    synchronized void releaseChannel() {
+        if (--mChannelUsers > 0 || mChannel == null) return;
+
+        try {
+            mChannel.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to close " + name, e);
+        }
+        mChannel = null;
+    }
+
     public synchronized void notifyProgress(long deltaLen) {
         if (!running) return;
 
@@ -156,20 +461,43 @@ public class DownloadMission implements Serializable {
         }
 
         if (done != length) {
-            writeThisToFile();
+            mBytesSinceStateFlush += deltaLen;
+            final long now = System.currentTimeMillis();
+            if (mBytesSinceStateFlush >= STATE_FLUSH_BYTES
+                    || now - mLastStateFlush >= STATE_FLUSH_INTERVAL_MILLIS) {
+                writeThisToFile();
+            }
         }
 
-        for (WeakReference<MissionListener> ref : mListeners) {
-            final MissionListener listener = ref.get();
-            if (listener != null) {
-                MissionListener.handlerStore.get(listener).post(new Runnable() {
-                    @Override
-                    public void run() {
-                        listener.onProgressUpdate(DownloadMission.this, done, length);
-                    }
-                });
+        if (!mProgressPending) {
+            mProgressPending = true;
+            ProgressDispatcher.schedule(this);
+        }
+    }
+
+    /**
+     * Hand the current progress to the listeners, called by the {@link ProgressDispatcher}
+     * on the main thread.
+     */
+    void dispatchProgress(long now) {
+        final long done;
+        final long length;
+        final List<MissionListener> listeners = new ArrayList<>();
+        synchronized (this) {
+            mProgressPending = false;
+            done = this.done;
+            length = this.length;
+            for (WeakReference<MissionListener> ref : mListeners) {
+                final MissionListener listener = ref.get();
+                if (listener != null) listeners.add(listener);
             }
         }
+
+        if (mSampler == null) mSampler = new ProgressSampler();
+        final ProgressSnapshot progress = mSampler.sample(done, length, now);
+        for (MissionListener listener : listeners) {
+            listener.onProgressUpdate(this, progress);
+        }
     }
 
     /**
@@ -181,10 +509,99 @@ public class DownloadMission implements Serializable {
         finishCount++;
 
         if (finishCount == threadCount) {
+            if (mHasher != null) {
+                // Complete once the last blocks are verified
+                mThreadsFinished = true;
+                requestHashing();
+            } else {
+                completeDownload();
+            }
+        }
+    }
+
+    private synchronized void completeDownload() {
+        if (isMuxed()) {
+            DownloadThreadPool.execute(this::mux);
+        } else {
             onFinish();
         }
     }
 
+    /*//////////////////////////////////////////////////////////////////////////
+    // Checksums
+    //////////////////////////////////////////////////////////////////////////*/
+
+    /**
+     * Called by a download thread when it wrote the last bytes of a block
+     *
+     * @param crc the CRC32 of the block
+     */
+    void onBlockCompleted(long block, int crc) {
+        getAllocator().setChecksum(block, crc);
+        requestHashing();
+    }
+
+    private void requestHashing() {
+        final MissionHasher hasher = mHasher;
+        if (hasher != null && hasher.request()) {
+            DownloadThreadPool.execute(() -> runHasher(hasher));
+        }
+    }
+
+    private void runHasher(MissionHasher hasher) {
+        final boolean complete;
+        try {
+            final FileChannel channel = acquireChannel();
+            try {
+                complete = hasher.run(channel, getAllocator(), this::onBlockCorrupted);
+            } finally {
+                releaseChannel();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to open the file", e);
+            synchronized (this) {
+                notifyError(ERROR_UNKNOWN);
+                pause();
+            }
+            return;
+        }
+
+        synchronized (this) {
+            if (hasher != mHasher || !mThreadsFinished || !running || errCode != -1) return;
+            mThreadsFinished = false;
+
+            if (!complete) {
+                // A block was corrupted after the threads were done, download it again
+                finishCount = 0;
+                for (int i = 0; i < threadCount; i++) {
+                    DownloadThreadPool.execute(new DownloadRunnable(this, i));
+                }
+                return;
+            }
+
+            // The digests of a muxed mission are the ones of its data file
+            if (!isMuxed()) {
+                md5 = hasher.getMd5();
+                sha1 = hasher.getSha1();
+            }
+            completeDownload();
+        }
+    }
+
+    /**
+     * Called when the part of a block written before the mission stopped doesn't match its
+     * checksum, the block is downloaded again from its start
+     */
+    synchronized void onPrefixCorrupted(long length) {
+        done -= length;
+    }
+
+    private synchronized void onBlockCorrupted(long block) {
+        final BlockAllocator allocator = getAllocator();
+        done -= allocator.blockEnd(block) - allocator.blockStart(block);
+        writeThisToFile();
+    }
+
     /**
      * Called when all parts are downloaded
      */
@@ -203,7 +620,7 @@ public class DownloadMission implements Serializable {
         for (WeakReference<MissionListener> ref : mListeners) {
             final MissionListener listener = ref.get();
             if (listener != null) {
-                MissionListener.handlerStore.get(listener).post(new Runnable() {
+                mainHandler.post(new Runnable() {
                     @Override
                     public void run() {
                         listener.onFinish(DownloadMission.this);
@@ -220,18 +637,18 @@ public class DownloadMission implements Serializable {
 
         for (WeakReference<MissionListener> ref : mListeners) {
             final MissionListener listener = ref.get();
-            MissionListener.handlerStore.get(listener).post(new Runnable() {
-                @Override
-                public void run() {
-                    listener.onError(DownloadMission.this, errCode);
-                }
-            });
+            if (listener != null) {
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onError(DownloadMission.this, errCode);
+                    }
+                });
+            }
         }
     }
 
     public synchronized void addListener(MissionListener listener) {
-        Handler handler = new Handler(Looper.getMainLooper());
-        MissionListener.handlerStore.put(listener, handler);
         mListeners.add(new WeakReference<>(listener));
     }
 
@@ -246,36 +663,56 @@ public class DownloadMission implements Serializable {
     }
 
     /**
-     * Start downloading with multiple threads.
+     * Start downloading with multiple threads, run by the {@link DownloadThreadPool}.
      */
     public void start() {
         if (!running && !finished) {
             running = true;
+            finishCount = 0;
+            startCount++;
 
             if (!fallback) {
+                getAllocator();
+                mHasher = createHasher();
+                mThreadsFinished = false;
+                // All created before any runs, the first progress clears the recovered flag
+                final DownloadRunnable[] runnables = new DownloadRunnable[threadCount];
                 for (int i = 0; i < threadCount; i++) {
-                    if (threadPositions.size() <= i && !recovered) {
+                    if (threadPositions.size() <= i) {
                         threadPositions.add((long) i);
                     }
-                    new Thread(new DownloadRunnable(this, i)).start();
+                    runnables[i] = new DownloadRunnable(this, i);
+                }
+                for (DownloadRunnable runnable : runnables) {
+                    DownloadThreadPool.execute(runnable);
                 }
+                // Verify and hash the blocks completed before a resume
+                requestHashing();
             } else {
-                // In fallback mode, resuming is not supported.
+                // In fallback mode, the single thread resumes from the downloaded length
                 threadCount = 1;
-                done = 0;
                 blocks = 0;
-                new Thread(new DownloadRunnableFallback(this)).start();
+                DownloadThreadPool.execute(new DownloadRunnableFallback(this));
             }
         }
     }
 
+    @Nullable
+    private static MissionHasher createHasher() {
+        try {
+            return new MissionHasher();
+        } catch (NoSuchAlgorithmException e) {
+            Log.w(TAG, "Unable to hash the download", e);
+            return null;
+        }
+    }
+
     public void pause() {
         if (running) {
             running = false;
             recovered = true;
 
-            // TODO: Notify & Write state to info file
-            // if (err)
+            writeThisToFile();
         }
     }
 
@@ -285,31 +722,27 @@ public class DownloadMission implements Serializable {
     public void delete() {
         deleteThisFromFile();
         new File(location, name).delete();
+        if (isMuxed()) getDataFile().delete();
     }
 
     /**
-     * Write this {@link DownloadMission} to the meta file asynchronously
-     * if no thread is already running.
+     * Write the state of this {@link DownloadMission} to the meta file.
+     * <p>
+     * The file is updated in place, so this is cheap enough to be called from the download
+     * threads, {@link #notifyProgress(long)} only does it every
+     * {@link #STATE_FLUSH_INTERVAL_MILLIS} or {@link #STATE_FLUSH_BYTES}.
      */
-    public void writeThisToFile() {
-        if (!mWritingToFile) {
-            mWritingToFile = true;
-            new Thread() {
-                @Override
-                public void run() {
-                    doWriteThisToFile();
-                    mWritingToFile = false;
-                }
-            }.start();
-        }
-    }
+    public synchronized void writeThisToFile() {
+        if (finished) return;
 
-    /**
-     * Write this {@link DownloadMission} to the meta file.
-     */
-    private void doWriteThisToFile() {
-        synchronized (blockState) {
-            Utility.writeToFile(getMetaFilename(), this);
+        mLastStateFlush = System.currentTimeMillis();
+        mBytesSinceStateFlush = 0;
+
+        if (mStateFile == null) mStateFile = new MissionStateFile(getMetaFile());
+        try {
+            mStateFile.write(this);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to write the state of " + name, e);
         }
     }
 
@@ -318,19 +751,30 @@ public class DownloadMission implements Serializable {
     {
         inputStream.defaultReadObject();
         mListeners = new ArrayList<>();
+
+        // Legacy state files don't carry the block state, the download starts over
+        done = 0;
+        threadPositions.clear();
+        threadOffsets = new ArrayList<>();
+        threadPrefixCrcs = new ArrayList<>();
     }
 
-    private void deleteThisFromFile() {
-        new File(getMetaFilename()).delete();
+    private synchronized void deleteThisFromFile() {
+        if (mStateFile != null) {
+            mStateFile.delete();
+            mStateFile = null;
+        } else {
+            getMetaFile().delete();
+        }
     }
 
     /**
-     * Get the path of the meta file
+     * Get the meta file
      *
-     * @return the path to the meta file
+     * @return the file storing the state of the mission
      */
-    private String getMetaFilename() {
-        return location + "/" + name + ".giga";
+    private File getMetaFile() {
+        return new File(location, name + ".giga");
     }
 
     public File getDownloadedFile() {
@@ -2,156 +2,425 @@ package us.shandian.giga.get;
 
 import android.util.Log;
 
-import java.io.RandomAccessFile;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
 
 import static org.schabi.newpipe.BuildConfig.DEBUG;
 
 /**
  * Runnable to download blocks of a file until the file is completely downloaded,
  * an error occurs or the process is stopped.
+ * <p>
+ * Each execution fetches one segment of up to {@link #MAX_BLOCKS_PER_REQUEST} consecutive free
+ * blocks with a single request, writes it to the mission's shared {@link FileChannel}, and then
+ * re-submits itself to the {@link DownloadThreadPool}. Blocks are claimed from the mission's
+ * {@link BlockAllocator} one by one as the response reaches them, so the request is just cut
+ * short if another thread took one of them. When no block is left, the thread steals the end
+ * of the range of a slower one.
+ * <p>
+ * The byte offset reached inside the current block is checkpointed in the mission with the
+ * CRC32 of the block up to it, a retry or a resume continues from there instead of re-fetching
+ * the whole block. A request which fails without receiving anything is retried after a
+ * growing delay, up to {@link #MAX_RETRIES} times in a row before the mission stops with an
+ * error. After a restart, the written part of the block is first checked against
+ * that CRC32, and the block is fetched again from its start if it doesn't match.
+ * <p>
+ * The CRC32 of a block is computed from the received data when the thread wrote the whole
+ * block itself, it's only read back from the file when the block was shared with another
+ * thread or resumed.
  */
 public class DownloadRunnable implements Runnable {
     private static final String TAG = DownloadRunnable.class.getSimpleName();
 
+    /**
+     * Maximum number of consecutive blocks requested at once
+     */
+    private static final int MAX_BLOCKS_PER_REQUEST = 16;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_RETRIES = 6;
+    private static final long FIRST_RETRY_DELAY_MILLIS = 1000;
+
     private final DownloadMission mMission;
     private final int mId;
+    private final int mStartCount;
+
+    private BlockAllocator mAllocator;
+    private FileChannel mChannel;
+    private ByteBuffer mBuffer;
+    /**
+     * True until the first segment of a recovered mission, which continues from the checkpoint
+     */
+    private boolean mResume;
+    private boolean mRetry;
+    /**
+     * Consecutive requests which failed before receiving any data
+     */
+    private int mRetries;
+    private final CRC32 mCrc = new CRC32();
+    /**
+     * Offset up to which {@link #mCrc} covers the current block from its start, -1 if it doesn't
+     */
+    private long mCrcEnd = -1;
+    private long mPosition;
 
     public DownloadRunnable(DownloadMission mission, int id) {
         if (mission == null) throw new NullPointerException("mission is null");
         mMission = mission;
         mId = id;
-    }
-
-    @Override
-    public void run() {
-        boolean retry = mMission.recovered;
-        long position = mMission.getPosition(mId);
+        mStartCount = mission.startCount;
+        mResume = mission.recovered;
+        mPosition = mission.getPosition(id);
 
         if (DEBUG) {
-            Log.d(TAG, mId + ":default pos " + position);
+            Log.d(TAG, mId + ":default pos " + mPosition);
             Log.d(TAG, mId + ":recovered: " + mMission.recovered);
         }
+    }
 
-        while (mMission.errCode == -1 && mMission.running && position < mMission.blocks) {
+    @Override
+    public void run() {
+        if (mStartCount != mMission.startCount) {
+            // Paused and started again while this was waiting, the new threads took over
+            if (mChannel != null) mMission.releaseChannel();
+            mChannel = null;
+            return;
+        }
 
-            if (Thread.currentThread().isInterrupted()) {
-                mMission.pause();
+        if (mChannel == null) {
+            try {
+                mChannel = mMission.acquireChannel();
+                mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+                mAllocator = mMission.getAllocator();
+            } catch (IOException e) {
+                Log.e(TAG, mId + ":unable to open the file", e);
+                notifyError(DownloadMission.ERROR_UNKNOWN);
                 return;
             }
+        }
 
-            if (DEBUG && retry) {
-                Log.d(TAG, mId + ":retry is true. Resuming at " + position);
+        if (downloadSegment()) {
+            if (mRetries > 0) {
+                DownloadThreadPool.schedule(this, FIRST_RETRY_DELAY_MILLIS << (mRetries - 1));
+            } else {
+                // Let the other missions use the pool before fetching the next segment
+                DownloadThreadPool.execute(this);
             }
+            return;
+        }
 
-            // Wait for an unblocked position
-            while (!retry && position < mMission.blocks && mMission.isBlockPreserved(position)) {
+        if (DEBUG) {
+            Log.d(TAG, "thread " + mId + " exited main loop");
+        }
 
-                if (DEBUG) {
-                    Log.d(TAG, mId + ":position " + position + " preserved, passing");
-                }
+        mMission.releaseChannel();
+        mChannel = null;
+        mBuffer = null;
+        mAllocator = null;
 
-                position++;
+        if (mMission.errCode == -1 && mMission.running) {
+            if (DEBUG) {
+                Log.d(TAG, "no error has happened, notifying");
             }
+            notifyFinished();
+        }
 
-            retry = false;
+        if (DEBUG && !mMission.running) {
+            Log.d(TAG, "The mission has been paused. Passing.");
+        }
+    }
 
-            if (position >= mMission.blocks) {
-                break;
-            }
+    /**
+     * Download the next segment of the file.
+     *
+     * @return true if there may be more work left for this thread
+     */
+    private boolean downloadSegment() {
+        if (mMission.errCode != -1 || !mMission.running) return false;
 
-            if (DEBUG) {
-                Log.d(TAG, mId + ":preserving position " + position);
+        if (Thread.currentThread().isInterrupted()) {
+            mMission.pause();
+            return false;
+        }
+
+        long start = -1;
+        if (mResume || mRetry) {
+            start = resumeOffset();
+
+            if (DEBUG && start != -1) {
+                Log.d(TAG, mId + ":retry is true. Resuming at " + mPosition + ", offset " + start);
             }
+        }
+        mResume = false;
+        mRetry = false;
 
-            mMission.preserveBlock(position);
-            mMission.setPosition(mId, position);
+        if (start == -1) {
+            final long block = mAllocator.claimNext();
+            if (block != -1) {
+                if (DEBUG) {
+                    Log.d(TAG, mId + ":preserving position " + block);
+                }
+                mPosition = block;
+                start = mAllocator.blockStart(block);
+                mAllocator.beginRange(mId, start, mAllocator.blockEnd(block));
+            } else {
+                // Nothing left to claim, help the slowest thread
+                final long[] stolen = mAllocator.steal(mId);
+                if (stolen == null) return false;
 
-            long start = position * DownloadManager.BLOCK_SIZE;
-            long end = start + DownloadManager.BLOCK_SIZE - 1;
+                if (DEBUG) {
+                    Log.d(TAG, mId + ":stealing range " + stolen[0] + "-" + stolen[1]);
+                }
+                start = stolen[0];
+                mPosition = mAllocator.blockOf(start);
+            }
+        }
 
-            if (end >= mMission.length) {
-                end = mMission.length - 1;
+        mMission.setPosition(mId, mPosition);
+        startCrc(start);
+        mMission.setThreadOffset(mId, start, prefixCrc(start));
+
+        final BlockAllocator.Range range = mAllocator.getRange(mId);
+        long limit = currentLimit(range);
+        long blockEnd = mAllocator.blockEnd(mPosition);
+
+        // Extend the request over the following free blocks of the same stream
+        long lastBlock = mPosition;
+        final long partEnd = mMission.getPartEnd(start);
+        if (limit == blockEnd) {
+            while (lastBlock + 1 < mAllocator.getBlocks()
+                    && mAllocator.blockStart(lastBlock + 1) < partEnd
+                    && lastBlock + 1 - mPosition < MAX_BLOCKS_PER_REQUEST
+                    && !mAllocator.isClaimed(lastBlock + 1)) {
+                lastBlock++;
             }
+        }
+        final long end = (lastBlock == mPosition ? limit : mAllocator.blockEnd(lastBlock)) - 1;
 
-            HttpURLConnection conn = null;
+        HttpURLConnection conn = null;
+        InputStream input = null;
+        boolean interrupted = false;
+        boolean received = false;
 
-            int total = 0;
+        try {
+            URL url = new URL(mMission.getUrlAt(start));
+            conn = (HttpURLConnection) url.openConnection();
+            conn.setRequestProperty("Range", "bytes=" + mMission.getRequestOffset(start) + "-"
+                    + mMission.getRequestOffset(end));
 
-            try {
-                URL url = new URL(mMission.url);
-                conn = (HttpURLConnection) url.openConnection();
-                conn.setRequestProperty("Range", "bytes=" + start + "-" + end);
+            if (DEBUG) {
+                Log.d(TAG, mId + ":" + conn.getRequestProperty("Range"));
+                Log.d(TAG, mId + ":Content-Length=" + conn.getContentLength() + " Code:" + conn.getResponseCode());
+            }
 
+            // A server may be ignoring the range request
+            if (conn.getResponseCode() != 206) {
                 if (DEBUG) {
-                    Log.d(TAG, mId + ":" + conn.getRequestProperty("Range"));
-                    Log.d(TAG, mId + ":Content-Length=" + conn.getContentLength() + " Code:" + conn.getResponseCode());
+                    Log.e(TAG, mId + ":Unsupported " + conn.getResponseCode());
                 }
 
-                // A server may be ignoring the range request
-                if (conn.getResponseCode() != 206) {
-                    mMission.errCode = DownloadMission.ERROR_SERVER_UNSUPPORTED;
-                    notifyError();
+                conn.disconnect();
+                notifyError(DownloadMission.ERROR_SERVER_UNSUPPORTED);
+                return false;
+            }
 
-                    if (DEBUG) {
-                        Log.e(TAG, mId + ":Unsupported " + conn.getResponseCode());
-                    }
+            input = conn.getInputStream();
+            final byte[] buf = mBuffer.array();
 
+            while (start <= end) {
+                if (!mMission.running) {
+                    interrupted = true;
                     break;
                 }
 
-                RandomAccessFile f = new RandomAccessFile(mMission.location + "/" + mMission.name, "rw");
-                f.seek(start);
-                java.io.InputStream ipt = conn.getInputStream();
-                byte[] buf = new byte[64*1024];
-
-                while (start < end && mMission.running) {
-                    int len = ipt.read(buf, 0, buf.length);
-
-                    if (len == -1) {
+                if (start == blockEnd) {
+                    // Entering the next block of the segment
+                    if (!mAllocator.tryClaim(mPosition + 1)) {
+                        if (DEBUG) {
+                            Log.d(TAG, mId + ":position " + (mPosition + 1) + " taken, ending segment");
+                        }
+                        interrupted = true;
                         break;
-                    } else {
-                        start += len;
-                        total += len;
-                        f.write(buf, 0, len);
-                        notifyProgress(len);
                     }
+                    mPosition++;
+                    mMission.setPosition(mId, mPosition);
+                    blockEnd = mAllocator.blockEnd(mPosition);
+                    mAllocator.beginRange(mId, start, blockEnd);
+                    startCrc(start);
                 }
 
-                if (DEBUG && mMission.running) {
-                    Log.d(TAG, mId + ":position " + position + " finished, total length " + total);
+                limit = currentLimit(range);
+                if (start >= limit) {
+                    // Another thread stole the end of the range
+                    interrupted = true;
+                    break;
                 }
 
-                f.close();
-                ipt.close();
+                int len = input.read(buf, 0, (int) Math.min(buf.length, limit - start));
+                if (len == -1) break;
+                BandwidthLimiter.getInstance().throttle(len);
+
+                synchronized (range) {
+                    // The range may have been stolen while reading
+                    len = (int) Math.min(len, range.limit - start);
+                    if (len > 0) {
+                        mBuffer.clear();
+                        mBuffer.limit(len);
+                        long writePosition = start;
+                        while (mBuffer.hasRemaining()) {
+                            writePosition += mChannel.write(mBuffer, writePosition);
+                        }
+                        range.progress = start + len;
+                    }
+                }
+                if (len > 0 && mCrcEnd == start) {
+                    mCrc.update(buf, 0, len);
+                    mCrcEnd += len;
+                } else {
+                    mCrcEnd = -1;
+                }
+                if (len <= 0) {
+                    interrupted = true;
+                    break;
+                }
+
+                start += len;
+                received = true;
+                mMission.setThreadOffset(mId, start, prefixCrc(start));
+                if (mAllocator.commit(mPosition, len)) onBlockCompleted(mPosition);
+                notifyProgress(len);
+            }
 
-                // TODO We should save progress for each thread
-            } catch (Exception e) {
-                // TODO Retry count limit & notify error
-                retry = true;
+            if (start < currentLimit(range) && !interrupted) {
+                // The response ended before the range, fetch the rest of it again
+                mRetry = true;
+            }
 
-                notifyProgress(-total);
+            if (DEBUG && mMission.running) {
+                Log.d(TAG, mId + ":position " + mPosition + " segment finished at " + start);
+            }
+        } catch (Exception e) {
+            mRetry = true;
+            interrupted = true;
 
-                if (DEBUG) {
-                    Log.d(TAG, mId + ":position " + position + " retrying", e);
+            if (DEBUG) {
+                Log.d(TAG, mId + ":position " + mPosition + " retrying at " + start, e);
+            }
+        } finally {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException ignored) {
                 }
             }
+            // Only a fully read response can go back to the connection pool
+            if (interrupted && conn != null) {
+                conn.disconnect();
+            }
         }
 
-        if (DEBUG) {
-            Log.d(TAG, "thread " + mId + " exited main loop");
+        if (received || !mRetry) {
+            mRetries = 0;
+        } else if (mMission.running && mMission.errCode == -1 && ++mRetries > MAX_RETRIES) {
+            Log.e(TAG, mId + ":giving up at " + start + " after " + MAX_RETRIES + " retries");
+            notifyError(DownloadMission.ERROR_CONNECTION);
         }
 
-        if (mMission.errCode == -1 && mMission.running) {
+        return mMission.errCode == -1 && mMission.running;
+    }
+
+    /**
+     * Find where to continue the range this thread was downloading.
+     *
+     * @return the offset to resume from, or -1 if there is nothing to resume
+     */
+    private long resumeOffset() {
+        final BlockAllocator.Range range = mAllocator.getRange(mId);
+        synchronized (range) {
+            if (range.limit > 0) {
+                // The allocator already knows the range, the mission was paused or a request failed
+                if (range.progress >= range.limit) return -1;
+                mPosition = mAllocator.blockOf(range.progress);
+                return range.progress;
+            }
+        }
+
+        // The mission was restored from its state file, continue from the saved offset
+        if (mPosition < 0 || mPosition >= mAllocator.getBlocks()
+                || mAllocator.isCompleted(mPosition)) {
+            return -1;
+        }
+
+        final long blockStart = mAllocator.blockStart(mPosition);
+        final long blockEnd = mAllocator.blockEnd(mPosition);
+        long offset = mMission.getThreadOffset(mId);
+        if (offset >= blockEnd) return -1;
+        if (offset < blockStart) offset = blockStart;
+
+        if (offset > blockStart && !verifyPrefix(blockStart, offset)) {
+            // Torn write or unknown checksum, don't trust any of the block
             if (DEBUG) {
-                Log.d(TAG, "no error has happened, notifying");
+                Log.d(TAG, mId + ":block " + mPosition + " doesn't match its checkpoint, fetching it again");
             }
-            notifyFinished();
+            mMission.onPrefixCorrupted(offset - blockStart);
+            offset = blockStart;
         }
 
-        if (DEBUG && !mMission.running) {
-            Log.d(TAG, "The mission has been paused. Passing.");
+        mAllocator.tryClaim(mPosition);
+        mAllocator.resume(mPosition, offset);
+        mAllocator.beginRange(mId, offset, blockEnd);
+        return offset;
+    }
+
+    /**
+     * Check the part of the block written before the restart against the CRC32 saved with the
+     * checkpoint, {@link #mCrc} then covers it.
+     */
+    private boolean verifyPrefix(long blockStart, long offset) {
+        final long expected = mMission.getThreadPrefixCrc(mId);
+        if (expected == -1) return false;
+
+        mCrc.reset();
+        try {
+            MissionHasher.updateCrc(mCrc, mChannel, blockStart, offset);
+        } catch (IOException e) {
+            Log.w(TAG, mId + ":unable to read block " + mPosition, e);
+            mCrcEnd = -1;
+            return false;
+        }
+        mCrcEnd = mCrc.getValue() == expected ? offset : -1;
+        return mCrcEnd == offset;
+    }
+
+    private void startCrc(long start) {
+        if (start == mAllocator.blockStart(mPosition)) {
+            mCrc.reset();
+            mCrcEnd = start;
+        } else if (mCrcEnd != start) {
+            // Unless the block is continued from where the CRC stopped, e.g. after a retry
+            mCrcEnd = -1;
+        }
+    }
+
+    private long prefixCrc(long offset) {
+        return mCrcEnd == offset ? mCrc.getValue() : -1;
+    }
+
+    private void onBlockCompleted(long block) throws IOException {
+        final long blockStart = mAllocator.blockStart(block);
+        final long blockEnd = mAllocator.blockEnd(block);
+        final int crc = mCrcEnd == blockEnd ? (int) mCrc.getValue()
+                : MissionHasher.crcOf(mChannel, blockStart, blockEnd);
+        mMission.onBlockCompleted(block, crc);
+    }
+
+    private static long currentLimit(BlockAllocator.Range range) {
+        synchronized (range) {
+            return range.limit;
         }
     }
 
@@ -161,9 +430,9 @@ public class DownloadRunnable implements Runnable {
         }
     }
 
-    private void notifyError() {
+    private void notifyError(final int err) {
         synchronized (mMission) {
-            mMission.notifyError(DownloadMission.ERROR_SERVER_UNSUPPORTED);
+            mMission.notifyError(err);
             mMission.pause();
         }
     }
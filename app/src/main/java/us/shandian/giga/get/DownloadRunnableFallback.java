@@ -1,55 +1,196 @@
 package us.shandian.giga.get;
 
-import java.io.BufferedInputStream;
-import java.io.RandomAccessFile;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static org.schabi.newpipe.BuildConfig.DEBUG;
 
-// Single-threaded fallback mode
+/**
+ * Single-threaded fallback mode, used when the server doesn't support ranges well enough
+ * for {@link DownloadRunnable}.
+ * <p>
+ * The file is streamed with a single request through a large buffer, written with one
+ * positional write and one progress notification per buffer (or per
+ * {@link #PROGRESS_INTERVAL_MILLIS} on slow connections).
+ * <p>
+ * The download continues from the saved progress of the mission: the request asks for the
+ * rest of the file with {@code Range: bytes=N-}, guarded by {@code If-Range} when the server
+ * gave a validator, so a changed file is sent in full. When the server answers with the whole
+ * file instead, the download restarts from the beginning. An interrupted response is resumed
+ * the same way, up to {@link #MAX_RETRIES} times in a row.
+ */
 public class DownloadRunnableFallback implements Runnable {
+    private static final String TAG = DownloadRunnableFallback.class.getSimpleName();
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final long PROGRESS_INTERVAL_MILLIS = 500;
+    private static final int MAX_RETRIES = 3;
+
     private final DownloadMission mMission;
-    //private int mId;
 
     public DownloadRunnableFallback(DownloadMission mission) {
         if (mission == null) throw new NullPointerException("mission is null");
-        //mId = id;
         mMission = mission;
     }
 
     @Override
     public void run() {
+        final FileChannel channel;
+        try {
+            channel = mMission.acquireChannel();
+        } catch (IOException e) {
+            Log.e(TAG, "unable to open the file", e);
+            notifyError(DownloadMission.ERROR_UNKNOWN);
+            return;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        int retries = 0;
         try {
-            URL url = new URL(mMission.url);
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+            while (mMission.errCode == -1 && mMission.running) {
+                final long start = mMission.done;
+                final long end = download(channel, buffer, start);
+                if (end == -1) break;
+
+                if (end > start) retries = 0;
+                if (mMission.length <= 0 || end >= mMission.length) break;
+
+                // The response ended early, continue from where it stopped
+                if (++retries > MAX_RETRIES) {
+                    notifyError(DownloadMission.ERROR_UNKNOWN);
+                    break;
+                }
+                if (DEBUG) Log.d(TAG, "response ended at " + end + ", retry " + retries);
+            }
+        } finally {
+            mMission.releaseChannel();
+        }
+
+        if (mMission.errCode == -1 && mMission.running) {
+            notifyFinished();
+        }
+    }
+
+    /**
+     * Download the file from the given offset until the end of the response.
+     *
+     * @return the offset reached, or -1 if the download must stop
+     */
+    private long download(FileChannel channel, ByteBuffer buffer, long start) {
+        HttpURLConnection conn = null;
+        InputStream input = null;
+        long position = start;
+
+        try {
+            conn = (HttpURLConnection) new URL(mMission.url).openConnection();
+            if (start > 0) {
+                conn.setRequestProperty("Range", "bytes=" + start + "-");
+                if (mMission.validator != null) {
+                    conn.setRequestProperty("If-Range", mMission.validator);
+                }
+            }
 
-            if (conn.getResponseCode() != 200 && conn.getResponseCode() != 206) {
+            final int code = conn.getResponseCode();
+            if (DEBUG) Log.d(TAG, "requested from " + start + ", response = " + code);
+
+            if (code == 200) {
+                // Range ignored or file changed, start over
+                if (start > 0) resetProgress();
+                position = 0;
+            } else if (code != 206) {
                 notifyError(DownloadMission.ERROR_SERVER_UNSUPPORTED);
-            } else {
-                RandomAccessFile f = new RandomAccessFile(mMission.location + "/" + mMission.name, "rw");
-                f.seek(0);
-                BufferedInputStream ipt = new BufferedInputStream(conn.getInputStream());
-                byte[] buf = new byte[512];
-                int len = 0;
+                return -1;
+            }
+            saveValidator(conn);
 
-                while ((len = ipt.read(buf, 0, 512)) != -1 && mMission.running) {
-                    f.write(buf, 0, len);
-                    notifyProgress(len);
+            input = conn.getInputStream();
+            final byte[] buf = buffer.array();
+            long lastProgress = System.currentTimeMillis();
 
-                    if (Thread.interrupted()) {
-                        break;
-                    }
+            while (mMission.running) {
+                if (Thread.interrupted()) {
+                    mMission.pause();
+                    break;
+                }
 
+                final int len = input.read(buf, buffer.position(), buffer.remaining());
+                final boolean ended = len == -1;
+                if (!ended) {
+                    buffer.position(buffer.position() + len);
+                    BandwidthLimiter.getInstance().throttle(len);
                 }
 
-                f.close();
-                ipt.close();
+                final long now = System.currentTimeMillis();
+                if (ended || !buffer.hasRemaining()
+                        || now - lastProgress >= PROGRESS_INTERVAL_MILLIS) {
+                    position = flush(channel, buffer, position);
+                    lastProgress = now;
+                }
+                if (ended) break;
             }
-        } catch (Exception e) {
-            notifyError(DownloadMission.ERROR_UNKNOWN);
+            return position;
+        } catch (IOException e) {
+            if (DEBUG) Log.d(TAG, "download interrupted at " + position, e);
+            try {
+                // Keep what was received before the failure
+                return flush(channel, buffer, position);
+            } catch (IOException ignored) {
+                return position;
+            }
+        } finally {
+            buffer.clear();
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException ignored) {
+                }
+            }
+            if (conn != null) conn.disconnect();
         }
+    }
 
-        if (mMission.errCode == -1 && mMission.running) {
-            notifyFinished();
+    /**
+     * Write the buffered data at the given position and report it as progress.
+     *
+     * @return the position after the written data
+     */
+    private long flush(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.flip();
+        final int len = buffer.remaining();
+        long writePosition = position;
+        while (buffer.hasRemaining()) {
+            writePosition += channel.write(buffer, writePosition);
+        }
+        buffer.clear();
+
+        if (len > 0) notifyProgress(len);
+        return position + len;
+    }
+
+    /**
+     * Remember the validator of the file, to only resume the same version of it.
+     * Weak ETags can't be used with If-Range.
+     */
+    private void saveValidator(HttpURLConnection conn) {
+        String validator = conn.getHeaderField("ETag");
+        if (validator == null || validator.startsWith("W/")) {
+            validator = conn.getHeaderField("Last-Modified");
+        }
+
+        synchronized (mMission) {
+            mMission.validator = validator;
+        }
+    }
+
+    private void resetProgress() {
+        synchronized (mMission) {
+            mMission.done = 0;
         }
     }
 
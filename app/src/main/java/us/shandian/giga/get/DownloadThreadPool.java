@@ -0,0 +1,64 @@
+package us.shandian.giga.get;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool shared by the download threads of all the missions.
+ * <p>
+ * A {@link DownloadRunnable} only fetches one segment per execution and then re-submits itself,
+ * so queued missions get their turn instead of waiting for the running ones to complete.
+ */
+public final class DownloadThreadPool {
+    /**
+     * Maximum number of connections downloading at the same time, across all missions
+     */
+    public static final int MAX_THREADS = 8;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            MAX_THREADS, MAX_THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), new DownloadThreadFactory());
+
+    /**
+     * Only waits for the delays, the runnables are then executed by the pool
+     */
+    private static final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1);
+
+    static {
+        executor.allowCoreThreadTimeOut(true);
+        timer.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        timer.allowCoreThreadTimeOut(true);
+    }
+
+    private DownloadThreadPool() {
+        //no instance
+    }
+
+    public static void execute(Runnable runnable) {
+        executor.execute(runnable);
+    }
+
+    /**
+     * Execute the runnable in the pool after the delay, without taking one of its threads
+     * until then.
+     */
+    public static void schedule(Runnable runnable, long delayMillis) {
+        timer.schedule(() -> executor.execute(runnable), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static class DownloadThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, "DownloadThread-" + count.incrementAndGet());
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package us.shandian.giga.get;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+import static org.schabi.newpipe.BuildConfig.DEBUG;
+
+/**
+ * Computes the MD5 and SHA-1 of a block mission while it downloads, so the checksums are known
+ * as soon as the file is complete.
+ * <p>
+ * The blocks complete in any order, the hasher follows the completed blocks from the start of
+ * the file and reads each of them back once, right after it was written, while it's still in
+ * the page cache. Every block is verified against the CRC32 saved when it completed: a mismatch
+ * means the data didn't make it to the disk, e.g. the device crashed before the mission was
+ * resumed, and the block is downloaded again.
+ * <p>
+ * The digests can't be saved in the state file, after a resume the completed blocks are read
+ * again from the start of the file.
+ */
+final class MissionHasher {
+    private static final String TAG = MissionHasher.class.getSimpleName();
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final MessageDigest mMd5;
+    private final MessageDigest mSha1;
+    private final CRC32 mCrc = new CRC32();
+    /**
+     * Holds a whole block, which is only added to the digests once verified
+     */
+    private final ByteBuffer mBuffer = ByteBuffer.allocate(DownloadManager.BLOCK_SIZE);
+
+    /**
+     * Next block to hash, only used by the thread holding {@link #mBusy}
+     */
+    private long mCursor;
+    private final AtomicBoolean mBusy = new AtomicBoolean();
+    private final AtomicBoolean mPending = new AtomicBoolean();
+
+    MissionHasher() throws NoSuchAlgorithmException {
+        mMd5 = MessageDigest.getInstance("MD5");
+        mSha1 = MessageDigest.getInstance("SHA1");
+    }
+
+    /**
+     * Ask for the newly completed blocks to be hashed.
+     *
+     * @return true if the caller must run {@link #run}, false if a thread already hashes and
+     * will take care of them
+     */
+    boolean request() {
+        mPending.set(true);
+        return mBusy.compareAndSet(false, true);
+    }
+
+    /**
+     * Hash the completed blocks until no more are requested, must only be called after
+     * {@link #request()} returned true.
+     *
+     * @return true if all the blocks are hashed
+     */
+    boolean run(FileChannel channel, BlockAllocator allocator, Callback callback) {
+        boolean complete;
+        do {
+            try {
+                mPending.set(false);
+                complete = hashCompleted(channel, allocator, callback);
+            } finally {
+                mBusy.set(false);
+            }
+        } while (!complete && mPending.get() && mBusy.compareAndSet(false, true));
+        return complete;
+    }
+
+    interface Callback {
+        /**
+         * Called when a completed block doesn't match its checksum, after it was invalidated
+         */
+        void onCorrupted(long block);
+    }
+
+    /**
+     * @return true once all the blocks are hashed
+     */
+    private boolean hashCompleted(FileChannel channel, BlockAllocator allocator, Callback callback) {
+        while (mCursor < allocator.getBlocks() && allocator.isCompleted(mCursor)) {
+            final long block = mCursor;
+            try {
+                readBlock(channel, allocator.blockStart(block), allocator.blockEnd(block));
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to read block " + block, e);
+                return false;
+            }
+
+            final byte[] bytes = mBuffer.array();
+            final int length = mBuffer.position();
+            mCrc.reset();
+            mCrc.update(bytes, 0, length);
+            if (allocator.hasChecksum(block) && (int) mCrc.getValue() != allocator.getChecksum(block)) {
+                if (DEBUG) Log.d(TAG, "block " + block + " is corrupted");
+                allocator.invalidate(block);
+                callback.onCorrupted(block);
+                return false;
+            }
+
+            mMd5.update(bytes, 0, length);
+            mSha1.update(bytes, 0, length);
+            mCursor++;
+        }
+        return mCursor >= allocator.getBlocks();
+    }
+
+    /**
+     * @return the CRC32 of a range of the file, to checksum a block written by several threads
+     */
+    static int crcOf(FileChannel channel, long start, long end) throws IOException {
+        final CRC32 crc = new CRC32();
+        updateCrc(crc, channel, start, end);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Add a range of the file to a CRC32
+     */
+    static void updateCrc(CRC32 crc, FileChannel channel, long start, long end) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long position = start;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            final int len = channel.read(buffer, position);
+            if (len == -1) throw new IOException("Unexpected end of file");
+            crc.update(buffer.array(), 0, len);
+            position += len;
+        }
+    }
+
+    private void readBlock(FileChannel channel, long start, long end) throws IOException {
+        mBuffer.clear();
+        mBuffer.limit((int) (end - start));
+        while (mBuffer.hasRemaining()) {
+            final int len = channel.read(mBuffer, start + mBuffer.position());
+            if (len == -1) throw new IOException("Unexpected end of file");
+        }
+    }
+
+    /**
+     * @return the MD5 of the file, only valid once {@link #run} returned true
+     */
+    String getMd5() {
+        return toHex(mMd5.digest());
+    }
+
+    /**
+     * @return the SHA-1 of the file, only valid once {@link #run} returned true
+     */
+    String getSha1() {
+        return toHex(mSha1.digest());
+    }
+
+    private static String toHex(byte[] digest) {
+        final StringBuilder builder = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+            builder.append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,215 @@
+package us.shandian.giga.get;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import us.shandian.giga.util.Utility;
+
+/**
+ * Binary state file of an unfinished {@link DownloadMission} (the ".giga" file).
+ * <p>
+ * The file starts with a static header written once (magic, version, timestamp, name, url,
+ * location, validator and the audio stream of a muxed mission), followed by a dynamic section
+ * with a fixed layout for a given number of threads and blocks: the counters, the position,
+ * offset and CRC32 of the written part of the current block of each thread, three bitmaps,
+ * of the claimed, of the completed and of the checksummed blocks, and the CRC32 of each block.
+ * Updates overwrite the dynamic section in place with a single positional write, the whole
+ * file is only rewritten when its layout changes.
+ */
+final class MissionStateFile {
+    private static final String TAG = MissionStateFile.class.getSimpleName();
+
+    private static final int MAGIC = 0x47494741; // "GIGA"
+    private static final int VERSION = 1;
+
+    private static final int FLAG_FINISHED = 1;
+    private static final int FLAG_FALLBACK = 1 << 1;
+
+    /**
+     * length, done, blocks, errCode, flags, thread count
+     */
+    private static final int COUNTERS_SIZE = 8 + 8 + 8 + 4 + 4 + 4;
+    private static final int THREAD_ENTRY_SIZE = 8 + 8 + 8;
+
+    private final File mFile;
+    private FileChannel mChannel;
+    private ByteBuffer mDynamic;
+    private byte[] mBitmap;
+    private long mStaticSize;
+    private String mValidator;
+
+    MissionStateFile(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Write the current state of the mission, in place when possible.
+     */
+    synchronized void write(DownloadMission mission) throws IOException {
+        final int threads = mission.getThreadPositionCount();
+        final int bitmapSize = BlockAllocator.bitmapSize(mission.blocks);
+        final int dynamicSize = COUNTERS_SIZE + threads * THREAD_ENTRY_SIZE + 3 * bitmapSize
+                + (int) mission.blocks * 4;
+
+        final boolean relayout = mChannel == null || !mChannel.isOpen()
+                || mDynamic == null || mDynamic.capacity() != dynamicSize
+                || (mValidator == null ? mission.validator != null
+                        : !mValidator.equals(mission.validator));
+        if (relayout) {
+            close();
+            mChannel = new RandomAccessFile(mFile, "rw").getChannel();
+            mDynamic = ByteBuffer.allocate(dynamicSize);
+            mBitmap = new byte[bitmapSize];
+            mValidator = mission.validator;
+
+            final ByteBuffer header = ByteBuffer.wrap(encodeHeader(mission));
+            mStaticSize = header.remaining();
+            mChannel.truncate(0);
+            while (header.hasRemaining()) mChannel.write(header);
+        }
+
+        mDynamic.clear();
+        mDynamic.putLong(mission.length);
+        mDynamic.putLong(mission.done);
+        mDynamic.putLong(mission.blocks);
+        mDynamic.putInt(mission.errCode);
+        mDynamic.putInt((mission.finished ? FLAG_FINISHED : 0) | (mission.fallback ? FLAG_FALLBACK : 0));
+        mDynamic.putInt(threads);
+        for (int i = 0; i < threads; i++) {
+            mDynamic.putLong(mission.getPosition(i));
+            mDynamic.putLong(mission.getThreadOffset(i));
+            mDynamic.putLong(mission.getThreadPrefixCrc(i));
+        }
+        final BlockAllocator allocator = mission.getAllocator();
+        allocator.writeClaimed(mBitmap);
+        mDynamic.put(mBitmap);
+        allocator.writeCompleted(mBitmap);
+        mDynamic.put(mBitmap);
+        allocator.writeHasChecksum(mBitmap);
+        mDynamic.put(mBitmap);
+        for (long block = 0; block < mission.blocks; block++) {
+            mDynamic.putInt(allocator.getChecksum(block));
+        }
+        mDynamic.flip();
+
+        long position = mStaticSize;
+        while (mDynamic.hasRemaining()) {
+            position += mChannel.write(mDynamic, position);
+        }
+    }
+
+    synchronized void close() {
+        if (mChannel == null) return;
+
+        try {
+            mChannel.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to close " + mFile.getPath(), e);
+        }
+        mChannel = null;
+        mDynamic = null;
+        mBitmap = null;
+    }
+
+    synchronized void delete() {
+        close();
+        //noinspection ResultOfMethodCallIgnored
+        mFile.delete();
+    }
+
+    /**
+     * Read a mission from its state file, also accepts the legacy java serialized files.
+     *
+     * @return the mission or null if the file can't be read
+     */
+    @Nullable
+    static DownloadMission read(File file) {
+        try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readInt() != MAGIC) {
+                input.close();
+                return Utility.readFromFile(file.getAbsolutePath());
+            }
+
+            final int version = input.readInt();
+            if (version != VERSION) throw new IOException("Unknown version " + version);
+
+            final long timestamp = input.readLong();
+            final String name = input.readUTF();
+            final String url = input.readUTF();
+            final String location = input.readUTF();
+            final String validator = input.readUTF();
+            final String audioUrl = input.readUTF();
+            final long videoLength = input.readLong();
+
+            final DownloadMission mission = new DownloadMission(name, url, location);
+            mission.timestamp = timestamp;
+            mission.validator = validator.isEmpty() ? null : validator;
+            mission.audioUrl = audioUrl.isEmpty() ? null : audioUrl;
+            mission.videoLength = videoLength;
+            mission.length = input.readLong();
+            mission.done = input.readLong();
+            mission.blocks = input.readLong();
+            mission.errCode = input.readInt();
+
+            final int flags = input.readInt();
+            mission.finished = (flags & FLAG_FINISHED) != 0;
+            mission.fallback = (flags & FLAG_FALLBACK) != 0;
+
+            final int threads = input.readInt();
+            mission.threadCount = Math.max(threads, 1);
+            for (int i = 0; i < threads; i++) {
+                final long position = input.readLong();
+                final long offset = input.readLong();
+                final long prefixCrc = input.readLong();
+                mission.restoreThread(i, position, offset, prefixCrc);
+            }
+
+            final int bitmapSize = BlockAllocator.bitmapSize(mission.blocks);
+            final byte[] claimed = new byte[bitmapSize];
+            input.readFully(claimed);
+            final byte[] completed = new byte[bitmapSize];
+            input.readFully(completed);
+            final byte[] hasChecksum = new byte[bitmapSize];
+            input.readFully(hasChecksum);
+            final int[] checksums = new int[(int) mission.blocks];
+            for (int i = 0; i < checksums.length; i++) checksums[i] = input.readInt();
+
+            final BlockAllocator allocator = mission.getAllocator();
+            allocator.restore(claimed, completed);
+            allocator.restoreChecksums(hasChecksum, checksums);
+            mission.onRestored();
+            return mission;
+        } catch (Exception e) {
+            Log.w(TAG, "Unable to read " + file.getPath(), e);
+            return null;
+        }
+    }
+
+    private static byte[] encodeHeader(DownloadMission mission) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeLong(mission.timestamp);
+        output.writeUTF(mission.name);
+        output.writeUTF(mission.url);
+        output.writeUTF(mission.location);
+        output.writeUTF(mission.validator == null ? "" : mission.validator);
+        output.writeUTF(mission.audioUrl == null ? "" : mission.audioUrl);
+        output.writeLong(mission.videoLength);
+        output.flush();
+        return bytes.toByteArray();
+    }
+}
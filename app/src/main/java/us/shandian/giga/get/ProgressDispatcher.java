@@ -0,0 +1,59 @@
+package us.shandian.giga.get;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Publishes the progress of the running missions to their listeners on the main thread,
+ * at most {@link #TICKS_PER_SECOND} times per second.
+ * <p>
+ * The download threads only mark their mission as changed, at most once per tick, instead of
+ * posting a message per received buffer. Each tick samples the counters of the changed missions
+ * and hands one {@link ProgressSnapshot} per mission to all of its listeners.
+ */
+final class ProgressDispatcher {
+    static final int TICKS_PER_SECOND = 4;
+    private static final long TICK_MILLIS = 1000 / TICKS_PER_SECOND;
+
+    private static final Handler handler = new Handler(Looper.getMainLooper());
+    private static final Set<DownloadMission> changed = new LinkedHashSet<>();
+    private static boolean scheduled;
+
+    private static final Runnable tick = ProgressDispatcher::dispatch;
+
+    private ProgressDispatcher() {
+        //no instance
+    }
+
+    /**
+     * Publish the progress of the mission at the next tick
+     */
+    static void schedule(DownloadMission mission) {
+        synchronized (changed) {
+            changed.add(mission);
+            if (scheduled) return;
+            scheduled = true;
+        }
+        handler.postDelayed(tick, TICK_MILLIS);
+    }
+
+    private static void dispatch() {
+        final List<DownloadMission> missions;
+        synchronized (changed) {
+            missions = new ArrayList<>(changed);
+            changed.clear();
+            scheduled = false;
+        }
+
+        final long now = SystemClock.elapsedRealtime();
+        for (DownloadMission mission : missions) {
+            mission.dispatchProgress(now);
+        }
+    }
+}
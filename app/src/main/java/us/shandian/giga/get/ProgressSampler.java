@@ -0,0 +1,50 @@
+package us.shandian.giga.get;
+
+/**
+ * Turns the counters of a {@link DownloadMission} sampled at each tick into a
+ * {@link ProgressSnapshot}, with the speed smoothed by an exponential moving average so the
+ * displayed speed and time left don't jump around with every burst of the connections.
+ * <p>
+ * Only used from the thread of the {@link ProgressDispatcher}.
+ */
+final class ProgressSampler {
+    /**
+     * Weight of the latest sample in the smoothed speed
+     */
+    private static final float SMOOTHING = 0.3f;
+    /**
+     * Samples closer than this are merged, their speed would be mostly noise
+     */
+    private static final long MIN_SAMPLE_MILLIS = 100;
+    /**
+     * The speed is reset after such a gap, e.g. when the mission was paused
+     */
+    private static final long MAX_SAMPLE_MILLIS = 5000;
+
+    private long mLastDone = -1;
+    private long mLastTime;
+    private float mSpeed = -1;
+
+    ProgressSnapshot sample(long done, long length, long now) {
+        if (mLastDone == -1 || done < mLastDone || now - mLastTime > MAX_SAMPLE_MILLIS) {
+            reset(done, now);
+        } else if (now - mLastTime >= MIN_SAMPLE_MILLIS) {
+            final float speed = (done - mLastDone) * 1000f / (now - mLastTime);
+            mSpeed = mSpeed < 0 ? speed : mSpeed + SMOOTHING * (speed - mSpeed);
+            mLastDone = done;
+            mLastTime = now;
+        }
+
+        final long eta = mSpeed > 0 ? (long) Math.ceil((length - done) / mSpeed) : -1;
+        return new ProgressSnapshot(done, length, Math.max(mSpeed, 0), eta);
+    }
+
+    /**
+     * Forget the speed, the next samples start measuring it again
+     */
+    void reset(long done, long now) {
+        mLastDone = done;
+        mLastTime = now;
+        mSpeed = -1;
+    }
+}
@@ -0,0 +1,37 @@
+package us.shandian.giga.get;
+
+/**
+ * Immutable progress of a {@link DownloadMission} at one tick of the {@link ProgressDispatcher}.
+ */
+public final class ProgressSnapshot {
+    /**
+     * Number of bytes downloaded
+     */
+    public final long done;
+    /**
+     * Number of bytes of the mission
+     */
+    public final long length;
+    /**
+     * Smoothed download speed in bytes per second
+     */
+    public final float speed;
+    /**
+     * Estimated time left in seconds, or -1 while the speed is unknown
+     */
+    public final long eta;
+
+    ProgressSnapshot(long done, long length, float speed, long eta) {
+        this.done = done;
+        this.length = length;
+        this.speed = speed;
+        this.eta = eta;
+    }
+
+    /**
+     * @return the downloaded fraction, between 0 and 1
+     */
+    public float getProgress() {
+        return length > 0 ? (float) done / length : 0;
+    }
+}
@@ -19,7 +19,7 @@ public class DownloadMissionSQLiteHelper extends SQLiteOpenHelper {
     // TODO: use NewPipeSQLiteHelper ('s constants) when playlist branch is merged (?)
     private static final String DATABASE_NAME = "downloads.db";
 
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 3;
     /**
      * The table name of download missions
      */
@@ -45,6 +45,12 @@ public class DownloadMissionSQLiteHelper extends SQLiteOpenHelper {
 
     static final String KEY_TIMESTAMP = "timestamp";
 
+    /**
+     * The keys to the checksums computed during the download, null if they were not
+     */
+    static final String KEY_MD5 = "md5";
+    static final String KEY_SHA1 = "sha1";
+
     /**
      * The statement to create the table
      */
@@ -55,6 +61,8 @@ public class DownloadMissionSQLiteHelper extends SQLiteOpenHelper {
                     KEY_URL + " TEXT NOT NULL, " +
                     KEY_DONE + " INTEGER NOT NULL, " +
                     KEY_TIMESTAMP + " INTEGER NOT NULL, " +
+                    KEY_MD5 + " TEXT, " +
+                    KEY_SHA1 + " TEXT, " +
                     " UNIQUE(" + KEY_LOCATION + ", " + KEY_NAME + "));";
 
 
@@ -75,6 +83,8 @@ public class DownloadMissionSQLiteHelper extends SQLiteOpenHelper {
         values.put(KEY_NAME, downloadMission.name);
         values.put(KEY_DONE, downloadMission.done);
         values.put(KEY_TIMESTAMP, downloadMission.timestamp);
+        values.put(KEY_MD5, downloadMission.md5);
+        values.put(KEY_SHA1, downloadMission.sha1);
         return values;
     }
 
@@ -85,7 +95,10 @@ public class DownloadMissionSQLiteHelper extends SQLiteOpenHelper {
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // Currently nothing to do
+        if (oldVersion < 3) {
+            db.execSQL("ALTER TABLE " + MISSIONS_TABLE_NAME + " ADD COLUMN " + KEY_MD5 + " TEXT");
+            db.execSQL("ALTER TABLE " + MISSIONS_TABLE_NAME + " ADD COLUMN " + KEY_SHA1 + " TEXT");
+        }
     }
 
     public static DownloadMission getMissionFromCursor(Cursor cursor) {
@@ -97,6 +110,8 @@ public class DownloadMissionSQLiteHelper extends SQLiteOpenHelper {
         DownloadMission mission = new DownloadMission(name, url, location);
         mission.done = cursor.getLong(cursor.getColumnIndexOrThrow(KEY_DONE));
         mission.timestamp = cursor.getLong(cursor.getColumnIndexOrThrow(KEY_TIMESTAMP));
+        mission.md5 = cursor.getString(cursor.getColumnIndexOrThrow(KEY_MD5));
+        mission.sha1 = cursor.getString(cursor.getColumnIndexOrThrow(KEY_SHA1));
         mission.finished = true;
         return mission;
     }
@@ -0,0 +1,372 @@
+package us.shandian.giga.postprocessing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Muxes a DASH video-only stream and a DASH audio stream, both fragmented MP4, into a single
+ * fragmented MP4 file.
+ * <p>
+ * Only the boxes describing the tracks ({@code moov}) and the fragment headers ({@code moof})
+ * are read into memory to renumber the tracks and the fragments. The fragments are copied
+ * between the file channels as they are, interleaved by decode time. The segment indexes
+ * ({@code sidx}) of the inputs point into them, so they are dropped.
+ */
+public final class Mp4DashMuxer {
+    private static final int FTYP = fourcc("ftyp");
+    private static final int MOOV = fourcc("moov");
+    private static final int MVHD = fourcc("mvhd");
+    private static final int TRAK = fourcc("trak");
+    private static final int TKHD = fourcc("tkhd");
+    private static final int MDIA = fourcc("mdia");
+    private static final int MDHD = fourcc("mdhd");
+    private static final int MVEX = fourcc("mvex");
+    private static final int MEHD = fourcc("mehd");
+    private static final int TREX = fourcc("trex");
+    private static final int MOOF = fourcc("moof");
+    private static final int MFHD = fourcc("mfhd");
+    private static final int TRAF = fourcc("traf");
+    private static final int TFHD = fourcc("tfhd");
+    private static final int TFDT = fourcc("tfdt");
+    private static final int MDAT = fourcc("mdat");
+
+    private static final int VIDEO_TRACK_ID = 1;
+    private static final int AUDIO_TRACK_ID = 2;
+
+    private static final int TFHD_BASE_DATA_OFFSET_PRESENT = 0x1;
+
+    private Mp4DashMuxer() {}
+
+    /**
+     * @param input       the file holding both streams
+     * @param videoOffset the offset of the video stream in the input
+     * @param videoLength the length of the video stream
+     * @param audioOffset the offset of the audio stream in the input
+     * @param audioLength the length of the audio stream
+     * @param output      the file to write the muxed streams to, from its current position
+     * @throws IOException if a stream is not a fragmented MP4 with a single track
+     */
+    public static void mux(FileChannel input, long videoOffset, long videoLength,
+                           long audioOffset, long audioLength, FileChannel output)
+            throws IOException {
+        final Track video = new Track(input, videoOffset, videoLength, VIDEO_TRACK_ID);
+        final Track audio = new Track(input, audioOffset, audioLength, AUDIO_TRACK_ID);
+
+        writeFully(output, ByteBuffer.wrap(video.ftyp));
+        writeFully(output, ByteBuffer.wrap(buildMoov(video, audio)));
+
+        int sequenceNumber = 1;
+        int videoIndex = 0;
+        int audioIndex = 0;
+        while (videoIndex < video.fragments.size() || audioIndex < audio.fragments.size()) {
+            final Fragment fragment;
+            final Track track;
+            if (audioIndex >= audio.fragments.size() || (videoIndex < video.fragments.size()
+                    && video.fragments.get(videoIndex).time <= audio.fragments.get(audioIndex).time)) {
+                track = video;
+                fragment = video.fragments.get(videoIndex++);
+            } else {
+                track = audio;
+                fragment = audio.fragments.get(audioIndex++);
+            }
+
+            copyFragment(input, track, fragment, sequenceNumber++, output);
+        }
+    }
+
+    /*//////////////////////////////////////////////////////////////////////////
+    // Movie header
+    //////////////////////////////////////////////////////////////////////////*/
+
+    private static byte[] buildMoov(Track video, Track audio) throws IOException {
+        final ByteArrayOutputStream mvex = new ByteArrayOutputStream();
+        final ByteBuffer videoMvex = video.moovChild(MVEX);
+        if (videoMvex != null) {
+            final ByteBuffer mehd = child(videoMvex, MEHD);
+            if (mehd != null) write(mvex, mehd);
+        }
+        mvex.write(video.trex());
+        mvex.write(audio.trex());
+
+        final ByteBuffer mvhd = video.moovChild(MVHD);
+        if (mvhd == null) throw new IOException("No movie header");
+        // next_track_ID is the last field of the movie header
+        mvhd.putInt(mvhd.limit() - 4, AUDIO_TRACK_ID + 1);
+
+        final ByteArrayOutputStream moov = new ByteArrayOutputStream();
+        write(moov, mvhd);
+        write(moov, video.trak);
+        write(moov, audio.trak);
+        moov.write(box(MVEX, mvex.toByteArray()));
+        return box(MOOV, moov.toByteArray());
+    }
+
+    /*//////////////////////////////////////////////////////////////////////////
+    // Fragments
+    //////////////////////////////////////////////////////////////////////////*/
+
+    /**
+     * Copy a fragment, from its {@code moof} to the end of its {@code mdat}, so that the data
+     * offsets relative to the {@code moof} stay valid.
+     */
+    private static void copyFragment(FileChannel input, Track track, Fragment fragment,
+                                     int sequenceNumber, FileChannel output) throws IOException {
+        final ByteBuffer moof = ByteBuffer.allocate((int) fragment.moofSize);
+        readFully(input, moof, fragment.offset);
+        moof.flip();
+
+        final long newOffset = output.position();
+        for (final ByteBuffer box : children(moof)) {
+            final int type = box.getInt(4);
+            if (type == MFHD) {
+                box.putInt(12, sequenceNumber);
+            } else if (type == TRAF) {
+                final ByteBuffer tfhd = child(box, TFHD);
+                if (tfhd == null) throw new IOException("No track fragment header");
+                tfhd.putInt(12, track.newId);
+
+                if ((tfhd.getInt(8) & TFHD_BASE_DATA_OFFSET_PRESENT) != 0) {
+                    // Absolute offset in the original stream, move it along with the fragment
+                    final long originalOffset = fragment.offset - track.start;
+                    tfhd.putLong(16, tfhd.getLong(16) - originalOffset + newOffset);
+                }
+            }
+        }
+
+        moof.rewind();
+        writeFully(output, moof);
+
+        long position = fragment.offset + fragment.moofSize;
+        final long end = fragment.offset + fragment.size;
+        while (position < end) {
+            position += input.transferTo(position, end - position, output);
+        }
+    }
+
+    /*//////////////////////////////////////////////////////////////////////////
+    // Input
+    //////////////////////////////////////////////////////////////////////////*/
+
+    private static final class Fragment {
+        final long offset;
+        final long moofSize;
+        /**
+         * From the start of the moof to the end of the mdat
+         */
+        final long size;
+        /**
+         * Decode time of the first sample in seconds
+         */
+        final double time;
+
+        Fragment(long offset, long moofSize, long size, double time) {
+            this.offset = offset;
+            this.moofSize = moofSize;
+            this.size = size;
+            this.time = time;
+        }
+    }
+
+    private static final class Track {
+        final long start;
+        final int newId;
+        final byte[] ftyp;
+        final ByteBuffer moov;
+        final ByteBuffer trak;
+        final int originalId;
+        final long timescale;
+        final List<Fragment> fragments = new ArrayList<>();
+
+        Track(FileChannel input, long start, long length, int newId) throws IOException {
+            this.start = start;
+            this.newId = newId;
+
+            byte[] ftyp = null;
+            ByteBuffer moov = null;
+            long moofOffset = -1;
+            long moofSize = 0;
+            double moofTime = 0;
+
+            final long end = start + length;
+            long position = start;
+            final ByteBuffer header = ByteBuffer.allocate(16);
+            while (position + 8 <= end) {
+                header.clear();
+                header.limit(16);
+                if (end - position < 16) header.limit(8);
+                readFully(input, header, position);
+
+                long size = header.getInt(0) & 0xFFFFFFFFL;
+                final int type = header.getInt(4);
+                if (size == 1) {
+                    size = header.getLong(8);
+                } else if (size == 0) {
+                    size = end - position;
+                }
+                if (size < 8 || position + size > end) {
+                    throw new IOException("Invalid box at " + (position - start));
+                }
+
+                if (type == FTYP) {
+                    ftyp = read(input, position, size).array();
+                } else if (type == MOOV) {
+                    moov = read(input, position, size);
+                } else if (type == MOOF) {
+                    final ByteBuffer moof = read(input, position, size);
+                    moofOffset = position;
+                    moofSize = size;
+                    moofTime = decodeTime(moof, moofTime);
+                } else if (type == MDAT && moofOffset != -1) {
+                    fragments.add(new Fragment(moofOffset, moofSize,
+                            position + size - moofOffset, moofTime));
+                    moofOffset = -1;
+                }
+
+                position += size;
+            }
+
+            if (ftyp == null || moov == null) throw new IOException("Not an MP4 stream");
+            this.ftyp = ftyp;
+            this.moov = moov;
+
+            ByteBuffer trak = null;
+            for (final ByteBuffer box : children(moov)) {
+                if (box.getInt(4) != TRAK) continue;
+                if (trak != null) throw new IOException("More than one track");
+                trak = box;
+            }
+            if (trak == null) throw new IOException("No track");
+            if (child(moov, MVEX) == null) throw new IOException("Not a fragmented MP4 stream");
+
+            final ByteBuffer tkhd = child(trak, TKHD);
+            final ByteBuffer mdia = child(trak, MDIA);
+            final ByteBuffer mdhd = mdia == null ? null : child(mdia, MDHD);
+            if (tkhd == null || mdhd == null) throw new IOException("Invalid track");
+
+            final int idOffset = tkhd.get(8) == 1 ? 28 : 20;
+            this.originalId = tkhd.getInt(idOffset);
+            tkhd.putInt(idOffset, newId);
+            this.trak = trak;
+
+            this.timescale = mdhd.getInt(mdhd.get(8) == 1 ? 28 : 20) & 0xFFFFFFFFL;
+            if (timescale != 0) {
+                for (int i = 0; i < fragments.size(); i++) {
+                    final Fragment fragment = fragments.get(i);
+                    fragments.set(i, new Fragment(fragment.offset, fragment.moofSize,
+                            fragment.size, fragment.time / timescale));
+                }
+            }
+        }
+
+        ByteBuffer moovChild(int type) {
+            return Mp4DashMuxer.child(moov, type);
+        }
+
+        /**
+         * @return the track extends box of this track, with the new track id
+         */
+        byte[] trex() throws IOException {
+            final ByteBuffer mvex = moovChild(MVEX);
+            if (mvex != null) {
+                for (final ByteBuffer box : children(mvex)) {
+                    if (box.getInt(4) != TREX || box.getInt(12) != originalId) continue;
+                    box.putInt(12, newId);
+                    final byte[] trex = new byte[box.limit()];
+                    box.get(trex);
+                    box.rewind();
+                    return trex;
+                }
+            }
+            throw new IOException("No track extends box");
+        }
+
+        /**
+         * @return the decode time of the fragment in the track timescale, or the previous one
+         * if the fragment doesn't tell
+         */
+        private static double decodeTime(ByteBuffer moof, double previous) {
+            final ByteBuffer traf = Mp4DashMuxer.child(moof, TRAF);
+            final ByteBuffer tfdt = traf == null ? null : Mp4DashMuxer.child(traf, TFDT);
+            if (tfdt == null) return previous;
+            return tfdt.get(8) == 1 ? (double) tfdt.getLong(12) : tfdt.getInt(12) & 0xFFFFFFFFL;
+        }
+    }
+
+    /*//////////////////////////////////////////////////////////////////////////
+    // Boxes
+    //////////////////////////////////////////////////////////////////////////*/
+
+    /**
+     * @return views of the child boxes of a container box, sharing its content
+     */
+    private static List<ByteBuffer> children(ByteBuffer container) {
+        final List<ByteBuffer> children = new ArrayList<>();
+        int position = 8;
+        while (position + 8 <= container.limit()) {
+            final int size = container.getInt(position);
+            if (size < 8 || position + size > container.limit()) break;
+
+            final ByteBuffer duplicate = container.duplicate();
+            duplicate.position(position);
+            duplicate.limit(position + size);
+            children.add(duplicate.slice());
+            position += size;
+        }
+        return children;
+    }
+
+    private static ByteBuffer child(ByteBuffer container, int type) {
+        for (final ByteBuffer box : children(container)) {
+            if (box.getInt(4) == type) return box;
+        }
+        return null;
+    }
+
+    private static byte[] box(int type, byte[] content) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length + 8);
+        final DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(content.length + 8);
+        output.writeInt(type);
+        output.write(content);
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void write(ByteArrayOutputStream output, ByteBuffer box) {
+        final ByteBuffer duplicate = box.duplicate();
+        duplicate.rewind();
+        final byte[] bytes = new byte[duplicate.remaining()];
+        duplicate.get(bytes);
+        output.write(bytes, 0, bytes.length);
+    }
+
+    private static ByteBuffer read(FileChannel input, long position, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) throw new IOException("Box too large");
+        final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        readFully(input, buffer, position);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void readFully(FileChannel input, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            final int read = input.read(buffer, position);
+            if (read == -1) throw new IOException("Unexpected end of file");
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel output, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) output.write(buffer);
+    }
+
+    private static int fourcc(String type) {
+        return (type.charAt(0) << 24) | (type.charAt(1) << 16) | (type.charAt(2) << 8) | type.charAt(3);
+    }
+}
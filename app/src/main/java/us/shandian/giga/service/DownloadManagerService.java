@@ -6,6 +6,7 @@ import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
@@ -14,6 +15,8 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Message;
+import android.preference.PreferenceManager;
+import android.support.annotation.Nullable;
 import android.support.v4.app.NotificationCompat.Builder;
 import android.support.v4.content.PermissionChecker;
 import android.util.Log;
@@ -22,14 +25,21 @@ import android.widget.Toast;
 import org.schabi.newpipe.R;
 import org.schabi.newpipe.download.DownloadActivity;
 import org.schabi.newpipe.settings.NewPipeSettings;
+import org.schabi.newpipe.util.Localization;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 
+import us.shandian.giga.get.BandwidthLimiter;
 import us.shandian.giga.get.DownloadDataSource;
 import us.shandian.giga.get.DownloadManager;
 import us.shandian.giga.get.DownloadManagerImpl;
 import us.shandian.giga.get.DownloadMission;
+import us.shandian.giga.get.ProgressSnapshot;
 import us.shandian.giga.get.sqlite.SQLiteDownloadDataSource;
+import us.shandian.giga.util.Utility;
 
 import static org.schabi.newpipe.BuildConfig.DEBUG;
 
@@ -46,18 +56,32 @@ public class DownloadManagerService extends Service {
     private static final String EXTRA_LOCATION = "DownloadManagerService.extra.location";
     private static final String EXTRA_IS_AUDIO = "DownloadManagerService.extra.is_audio";
     private static final String EXTRA_THREADS = "DownloadManagerService.extra.threads";
+    private static final String EXTRA_AUDIO_URL = "DownloadManagerService.extra.audio_url";
 
 
     private DMBinder mBinder;
     private DownloadManager mManager;
-    private Notification mNotification;
+    private Builder mNotificationBuilder;
+    private volatile Notification mNotification;
     private Handler mHandler;
     private long mLastTimeStamp = System.currentTimeMillis();
+    /**
+     * Latest progress of the running missions, only used on the main thread
+     */
+    private final Map<DownloadMission, ProgressSnapshot> mProgress = new HashMap<>();
     private DownloadDataSource mDataSource;
 
 
     private final MissionListener missionListener = new MissionListener();
 
+    private final SharedPreferences.OnSharedPreferenceChangeListener mPreferenceListener =
+            (prefs, key) -> {
+                if (getString(R.string.max_concurrent_downloads_key).equals(key)
+                        || getString(R.string.download_bandwidth_limit_key).equals(key)) {
+                    applySchedulerSettings(prefs);
+                }
+            };
+
 
     private void notifyMediaScanner(DownloadMission mission) {
         Uri uri = Uri.parse("file://" + mission.location + "/" + mission.name);
@@ -88,6 +112,10 @@ public class DownloadManagerService extends Service {
             }
         }
 
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        applySchedulerSettings(prefs);
+        prefs.registerOnSharedPreferenceChangeListener(mPreferenceListener);
+
         Intent openDownloadListIntent = new Intent(this, DownloadActivity.class)
                 .setAction(Intent.ACTION_MAIN);
 
@@ -104,6 +132,7 @@ public class DownloadManagerService extends Service {
                 .setContentTitle(getString(R.string.msg_running))
                 .setContentText(getString(R.string.msg_running_detail));
 
+        mNotificationBuilder = builder;
         mNotification = builder.build();
 
         HandlerThread thread = new HandlerThread("ServiceMessenger");
@@ -130,12 +159,14 @@ public class DownloadManagerService extends Service {
 
     }
 
-    private void startMissionAsync(final String url, final String location, final String name,
-                                   final boolean isAudio, final int threads) {
+    private void startMissionAsync(final String url, final String audioUrl, final String location,
+                                   final String name, final boolean isAudio, final int threads) {
         mHandler.post(new Runnable() {
             @Override
             public void run() {
-                int missionId = mManager.startMission(url, location, name, isAudio, threads);
+                int missionId = audioUrl == null
+                        ? mManager.startMission(url, location, name, isAudio, threads)
+                        : mManager.startMuxedMission(url, audioUrl, location, name, threads);
                 mBinder.onMissionAdded(mManager.getMission(missionId));
             }
         });
@@ -154,7 +185,8 @@ public class DownloadManagerService extends Service {
             int threads = intent.getIntExtra(EXTRA_THREADS, 1);
             boolean isAudio = intent.getBooleanExtra(EXTRA_IS_AUDIO, false);
             String url = intent.getDataString();
-            startMissionAsync(url, location, name, isAudio, threads);
+            String audioUrl = intent.getStringExtra(EXTRA_AUDIO_URL);
+            startMissionAsync(url, audioUrl, location, name, isAudio, threads);
         }
         return START_NOT_STICKY;
     }
@@ -167,9 +199,9 @@ public class DownloadManagerService extends Service {
             Log.d(TAG, "Destroying");
         }
 
-        for (int i = 0; i < mManager.getCount(); i++) {
-            mManager.pauseMission(i);
-        }
+        PreferenceManager.getDefaultSharedPreferences(this)
+                .unregisterOnSharedPreferenceChangeListener(mPreferenceListener);
+        mManager.pauseAllMissions();
 
         stopForeground(true);
     }
@@ -192,6 +224,28 @@ public class DownloadManagerService extends Service {
         return mBinder;
     }
 
+    /**
+     * Apply the maximum number of running missions and the bandwidth limit
+     */
+    private void applySchedulerSettings(SharedPreferences prefs) {
+        int maxMissions = parseSetting(prefs, R.string.max_concurrent_downloads_key,
+                R.string.max_concurrent_downloads_default_value);
+        int limitKilobytes = parseSetting(prefs, R.string.download_bandwidth_limit_key,
+                R.string.download_bandwidth_limit_default_value);
+
+        mManager.setMaxConcurrentMissions(maxMissions);
+        BandwidthLimiter.getInstance().setRate(limitKilobytes * 1024L);
+    }
+
+    private int parseSetting(SharedPreferences prefs, int keyId, int defaultValueId) {
+        String defaultValue = getString(defaultValueId);
+        try {
+            return Integer.parseInt(prefs.getString(getString(keyId), defaultValue));
+        } catch (NumberFormatException e) {
+            return Integer.parseInt(defaultValue);
+        }
+    }
+
     private void postUpdateMessage() {
         mHandler.sendEmptyMessage(UPDATE_MESSAGE);
     }
@@ -205,6 +259,13 @@ public class DownloadManagerService extends Service {
     }
 
     public static void startMission(Context context, String url, String location, String name, boolean isAudio, int threads) {
+        startMission(context, url, null, location, name, isAudio, threads);
+    }
+
+    /**
+     * Start a download, a video-only stream is muxed with the audio stream when one is given
+     */
+    public static void startMission(Context context, String url, @Nullable String audioUrl, String location, String name, boolean isAudio, int threads) {
         Intent intent = new Intent(context, DownloadManagerService.class);
         intent.setAction(Intent.ACTION_RUN);
         intent.setData(Uri.parse(url));
@@ -212,16 +273,51 @@ public class DownloadManagerService extends Service {
         intent.putExtra(EXTRA_LOCATION, location);
         intent.putExtra(EXTRA_IS_AUDIO, isAudio);
         intent.putExtra(EXTRA_THREADS, threads);
+        intent.putExtra(EXTRA_AUDIO_URL, audioUrl);
         context.startService(intent);
     }
 
 
+    /**
+     * Show the overall progress of the running missions in the notification
+     */
+    private void updateNotificationProgress() {
+        long done = 0;
+        long length = 0;
+        float speed = 0;
+        for (Iterator<Map.Entry<DownloadMission, ProgressSnapshot>> iterator = mProgress.entrySet().iterator();
+             iterator.hasNext(); ) {
+            Map.Entry<DownloadMission, ProgressSnapshot> entry = iterator.next();
+            if (!entry.getKey().running) {
+                iterator.remove();
+                continue;
+            }
+            done += entry.getValue().done;
+            length += entry.getValue().length;
+            speed += entry.getValue().speed;
+        }
+
+        if (length <= 0) {
+            mNotificationBuilder.setProgress(0, 0, false)
+                    .setContentText(getString(R.string.msg_running_detail));
+        } else {
+            String text = Utility.formatSpeed(speed);
+            if (speed > 0) text += " " + Localization.getDurationString((long) ((length - done) / speed));
+            mNotificationBuilder.setProgress(100, (int) (done * 100 / length), false)
+                    .setContentText(text);
+        }
+        mNotification = mNotificationBuilder.build();
+    }
+
     private class MissionListener implements DownloadMission.MissionListener {
         @Override
-        public void onProgressUpdate(DownloadMission downloadMission, long done, long total) {
+        public void onProgressUpdate(DownloadMission downloadMission, ProgressSnapshot progress) {
+            mProgress.put(downloadMission, progress);
+
             long now = System.currentTimeMillis();
             long delta = now - mLastTimeStamp;
             if (delta > 2000) {
+                updateNotificationProgress();
                 postUpdateMessage();
                 mLastTimeStamp = now;
             }
@@ -229,12 +325,16 @@ public class DownloadManagerService extends Service {
 
         @Override
         public void onFinish(DownloadMission downloadMission) {
+            mProgress.remove(downloadMission);
+            updateNotificationProgress();
             postUpdateMessage();
             notifyMediaScanner(downloadMission);
         }
 
         @Override
         public void onError(DownloadMission downloadMission, int errCode) {
+            mProgress.remove(downloadMission);
+            updateNotificationProgress();
             postUpdateMessage();
         }
     }
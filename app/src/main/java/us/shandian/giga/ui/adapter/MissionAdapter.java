@@ -26,6 +26,7 @@ import android.widget.Toast;
 
 import org.schabi.newpipe.R;
 import org.schabi.newpipe.download.DeleteDownloadManager;
+import org.schabi.newpipe.util.Localization;
 
 import java.io.File;
 import java.lang.ref.WeakReference;
@@ -37,6 +38,7 @@ import java.util.Map;
 
 import us.shandian.giga.get.DownloadManager;
 import us.shandian.giga.get.DownloadMission;
+import us.shandian.giga.get.ProgressSnapshot;
 import us.shandian.giga.service.DownloadManagerService;
 import us.shandian.giga.ui.common.ProgressDrawable;
 import us.shandian.giga.util.Utility;
@@ -114,8 +116,6 @@ public class MissionAdapter extends RecyclerView.Adapter<MissionAdapter.ViewHold
         h.observer = null;
         h.progress = null;
         h.position = -1;
-        h.lastTimeStamp = -1;
-        h.lastDone = -1;
         h.colorId = 0;
     }
 
@@ -151,44 +151,41 @@ public class MissionAdapter extends RecyclerView.Adapter<MissionAdapter.ViewHold
     }
 
     private void updateProgress(ViewHolder h) {
-        updateProgress(h, false);
-    }
-
-    private void updateProgress(ViewHolder h, boolean finished) {
         if (h.mission == null) return;
 
-        long now = System.currentTimeMillis();
-
-        if (h.lastTimeStamp == -1) {
-            h.lastTimeStamp = now;
-        }
-
-        if (h.lastDone == -1) {
-            h.lastDone = h.mission.done;
+        if (h.mission.errCode > 0) {
+            h.status.setText(R.string.msg_error);
+        } else if (h.mission.enqueued) {
+            h.status.setText(R.string.msg_queued);
+        } else {
+            float progress = (float) h.mission.done / h.mission.length;
+            h.status.setText(String.format(Locale.US, "%.2f%%", progress * 100));
+            h.progress.setProgress(progress);
         }
+    }
 
-        long deltaTime = now - h.lastTimeStamp;
-        long deltaDone = h.mission.done - h.lastDone;
+    /**
+     * Show a snapshot of the progress, the speed is already smoothed by the sampler
+     */
+    private void updateProgress(ViewHolder h, ProgressSnapshot snapshot) {
+        if (h.mission == null) return;
 
-        if (deltaTime == 0 || deltaTime > 1000 || finished) {
-            if (h.mission.errCode > 0) {
-                h.status.setText(R.string.msg_error);
-            } else {
-                float progress = (float) h.mission.done / h.mission.length;
-                h.status.setText(String.format(Locale.US, "%.2f%%", progress * 100));
-                h.progress.setProgress(progress);
-            }
+        if (h.mission.errCode > 0) {
+            h.status.setText(R.string.msg_error);
+            return;
         }
 
-        if (deltaTime > 1000 && deltaDone > 0) {
-            float speed = (float) deltaDone / deltaTime;
-            String speedStr = Utility.formatSpeed(speed * 1000);
-            String sizeStr = Utility.formatBytes(h.mission.length);
+        float progress = snapshot.getProgress();
+        h.status.setText(String.format(Locale.US, "%.2f%%", progress * 100));
+        h.progress.setProgress(progress);
 
+        String sizeStr = Utility.formatBytes(snapshot.length);
+        if (snapshot.speed > 0 && h.mission.running) {
+            String speedStr = Utility.formatSpeed(snapshot.speed);
+            if (snapshot.eta >= 0) speedStr += " " + Localization.getDurationString(snapshot.eta);
             h.size.setText(sizeStr + " " + speedStr);
-
-            h.lastTimeStamp = now;
-            h.lastDone = h.mission.done;
+        } else {
+            h.size.setText(sizeStr);
         }
     }
 
@@ -210,7 +207,7 @@ public class MissionAdapter extends RecyclerView.Adapter<MissionAdapter.ViewHold
         checksum.setVisible(false);
 
         if (!h.mission.finished) {
-            if (!h.mission.running) {
+            if (!h.mission.running && !h.mission.enqueued) {
                 if (h.mission.errCode == -1) {
                     start.setVisible(true);
                 }
@@ -232,12 +229,13 @@ public class MissionAdapter extends RecyclerView.Adapter<MissionAdapter.ViewHold
                     case R.id.start:
                         mDownloadManager.resumeMission(h.position);
                         mBinder.onMissionAdded(mItemList.get(h.position));
+                        updateProgress(h);
                         return true;
                     case R.id.pause:
                         mDownloadManager.pauseMission(h.position);
                         mBinder.onMissionRemoved(mItemList.get(h.position));
-                        h.lastTimeStamp = -1;
-                        h.lastDone = -1;
+                        h.size.setText(Utility.formatBytes(h.mission.length));
+                        updateProgress(h);
                         return true;
                     case R.id.delete:
                         mDeleteDownloadManager.add(h.mission);
@@ -247,7 +245,13 @@ public class MissionAdapter extends RecyclerView.Adapter<MissionAdapter.ViewHold
                     case R.id.md5:
                     case R.id.sha1:
                         DownloadMission mission = mItemList.get(h.position);
-                        new ChecksumTask(mContext).execute(mission.location + "/" + mission.name, ALGORITHMS.get(id));
+                        // Computed while downloading, except for single threaded and muxed downloads
+                        String checksum = id == R.id.md5 ? mission.md5 : mission.sha1;
+                        if (checksum != null) {
+                            Utility.copyToClipboard(mContext, checksum);
+                        } else {
+                            new ChecksumTask(mContext).execute(mission.location + "/" + mission.name, ALGORITHMS.get(id));
+                        }
                         return true;
                     default:
                         return false;
@@ -313,8 +317,6 @@ public class MissionAdapter extends RecyclerView.Adapter<MissionAdapter.ViewHold
         public ProgressDrawable progress;
         public MissionObserver observer;
 
-        public long lastTimeStamp = -1;
-        public long lastDone = -1;
         public int colorId;
 
         public ViewHolder(View v) {
@@ -339,8 +341,8 @@ public class MissionAdapter extends RecyclerView.Adapter<MissionAdapter.ViewHold
         }
 
         @Override
-        public void onProgressUpdate(DownloadMission downloadMission, long done, long total) {
-            mAdapter.updateProgress(mHolder);
+        public void onProgressUpdate(DownloadMission downloadMission, ProgressSnapshot progress) {
+            mAdapter.updateProgress(mHolder, progress);
         }
 
         @Override
@@ -350,7 +352,7 @@ public class MissionAdapter extends RecyclerView.Adapter<MissionAdapter.ViewHold
             //mAdapter.notifyDataSetChanged();
             if (mHolder.mission != null) {
                 mHolder.size.setText(Utility.formatBytes(mHolder.mission.length));
-                mAdapter.updateProgress(mHolder, true);
+                mAdapter.updateProgress(mHolder);
             }
         }
 
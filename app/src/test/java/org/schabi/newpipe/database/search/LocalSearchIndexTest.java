@@ -0,0 +1,54 @@
+package org.schabi.newpipe.database.search;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.schabi.newpipe.database.search.LocalSearchIndex.rank;
+import static org.schabi.newpipe.database.search.LocalSearchIndex.toMatchQuery;
+
+public class LocalSearchIndexTest {
+
+    @Test
+    public void matchQueryUsesEveryWordAsPrefix() {
+        assertEquals("lofi*", toMatchQuery("Lofi"));
+        assertEquals("lofi* hip* hop*", toMatchQuery("  Lofi hip-HOP "));
+        assertEquals("\u00c7a* va*", toMatchQuery("\u00c7a va?"));
+    }
+
+    @Test
+    public void matchQueryDropsOperators() {
+        assertEquals("a* or* b*", toMatchQuery("\"a\" OR b*"));
+        assertEquals("title* x*", toMatchQuery("title:x"));
+        assertNull(toMatchQuery(" -\"*() "));
+        assertNull(toMatchQuery(""));
+    }
+
+    /**
+     * @param hits for each column, the hits in the row, in all rows and the rows with hits
+     */
+    private static byte[] matchinfo(final int rows, final int[]... hits) {
+        final ByteBuffer buffer = ByteBuffer.allocate(4 * (3 + 3 * hits.length))
+                .order(ByteOrder.nativeOrder());
+        buffer.putInt(1).putInt(hits.length).putInt(rows);
+        for (final int[] column : hits) {
+            for (final int value : column) buffer.putInt(value);
+        }
+        return buffer.array();
+    }
+
+    @Test
+    public void rankPrefersTitlesAndRareWords() {
+        final double title = rank(matchinfo(100, new int[]{1, 10, 10}, new int[]{0, 5, 5}));
+        final double uploader = rank(matchinfo(100, new int[]{0, 10, 10}, new int[]{1, 5, 5}));
+        final double common = rank(matchinfo(100, new int[]{1, 90, 90}, new int[]{0, 5, 5}));
+
+        assertTrue(title > uploader);
+        assertTrue(title > common);
+        assertEquals(0, rank(matchinfo(100, new int[]{0, 10, 10}, new int[]{0, 5, 5})), 0);
+    }
+}
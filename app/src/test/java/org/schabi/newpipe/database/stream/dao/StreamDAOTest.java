@@ -0,0 +1,242 @@
+package org.schabi.newpipe.database.stream.dao;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.schabi.newpipe.database.stream.model.StreamEntity;
+import org.schabi.newpipe.extractor.stream.StreamType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.reactivex.Flowable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test and statement count benchmark of {@link StreamDAO#upsertAll}, against an in-memory
+ * table which counts the statements the DAO runs.
+ */
+public class StreamDAOTest {
+    private static final int PLAYLIST_SIZE = 5000;
+
+    private InMemoryStreamDAO dao;
+
+    @Before
+    public void setUp() {
+        dao = new InMemoryStreamDAO();
+    }
+
+    private static StreamEntity stream(final int serviceId, final String url, final String title) {
+        return new StreamEntity(serviceId, title, url, StreamType.VIDEO_STREAM,
+                "thumbnail", "uploader", 60);
+    }
+
+    private static List<StreamEntity> playlist(final String title) {
+        final List<StreamEntity> streams = new ArrayList<>(PLAYLIST_SIZE);
+        for (int i = 0; i < PLAYLIST_SIZE; i++) {
+            streams.add(stream(0, "https://example.com/watch?v=" + i, title + i));
+        }
+        return streams;
+    }
+
+    @Test
+    public void upsertAllKeepsOrderAndIds() {
+        final List<Long> first = dao.upsertAll(Arrays.asList(
+                stream(0, "a", "A"), stream(0, "b", "B"), stream(1, "a", "A")));
+        assertEquals(3, dao.rows.size());
+
+        final List<Long> second = dao.upsertAll(Arrays.asList(
+                stream(1, "a", "A"), stream(0, "c", "C"), stream(0, "a", "A")));
+        assertEquals(first.get(2), second.get(0));
+        assertEquals(first.get(0), second.get(2));
+        assertEquals(4, dao.rows.size());
+    }
+
+    @Test
+    public void upsertAllInsertsDuplicatesOnce() {
+        final List<Long> ids = dao.upsertAll(Arrays.asList(
+                stream(0, "a", "A"), stream(0, "a", "A"), stream(0, "a", "A2")));
+
+        assertEquals(1, dao.rows.size());
+        assertEquals(ids.get(0), ids.get(1));
+        assertEquals(ids.get(0), ids.get(2));
+        assertEquals("A2", dao.rows.get(ids.get(0)).getTitle());
+    }
+
+    @Test
+    public void upsertAllOnlyUpdatesChangedStreams() {
+        dao.upsertAll(Arrays.asList(stream(0, "a", "A"), stream(0, "b", "B")));
+        dao.resetCounts();
+
+        dao.upsertAll(Arrays.asList(stream(0, "a", "A"), stream(0, "b", "B2")));
+        assertEquals(0, dao.insertedRows);
+        assertEquals(1, dao.updatedRows);
+    }
+
+    @Test
+    public void upsertAllPlaylistStatementCounts() {
+        dao.upsertAll(playlist("title "));
+        assertEquals(PLAYLIST_SIZE / StreamDAO.LOOKUP_CHUNK_SIZE, dao.lookups);
+        assertEquals(1, dao.insertStatements);
+        assertEquals(PLAYLIST_SIZE, dao.insertedRows);
+        assertEquals(0, dao.updatedRows);
+
+        dao.resetCounts();
+        dao.upsertAll(playlist("title "));
+        assertEquals(PLAYLIST_SIZE / StreamDAO.LOOKUP_CHUNK_SIZE, dao.lookups);
+        assertEquals(0, dao.insertStatements);
+        assertEquals(0, dao.updatedRows);
+
+        dao.resetCounts();
+        dao.upsertAll(playlist("renamed "));
+        assertEquals(PLAYLIST_SIZE / StreamDAO.LOOKUP_CHUNK_SIZE, dao.lookups);
+        assertEquals(1, dao.updateStatements);
+        assertEquals(PLAYLIST_SIZE, dao.updatedRows);
+
+        // The previous implementation ran a lookup per stream and updated all of them
+        assertTrue(dao.lookups + dao.insertStatements + dao.updateStatements < 20);
+    }
+
+    /**
+     * A stream table keyed by uid, with the unique service id and url index of the real one
+     */
+    private static class InMemoryStreamDAO extends StreamDAO {
+        final Map<Long, StreamEntity> rows = new HashMap<>();
+        final Map<String, Long> index = new HashMap<>();
+        long nextUid = 1;
+
+        int lookups;
+        int insertStatements;
+        int insertedRows;
+        int updateStatements;
+        int updatedRows;
+
+        void resetCounts() {
+            lookups = insertStatements = insertedRows = updateStatements = updatedRows = 0;
+        }
+
+        private static String keyOf(final int serviceId, final String url) {
+            return serviceId + ":" + url;
+        }
+
+        private static StreamEntity copyOf(final StreamEntity stream) {
+            final StreamEntity copy = new StreamEntity(stream.getServiceId(), stream.getTitle(),
+                    stream.getUrl(), stream.getStreamType(), stream.getThumbnailUrl(),
+                    stream.getUploader(), stream.getDuration());
+            copy.setUid(stream.getUid());
+            return copy;
+        }
+
+        private long insertRow(final StreamEntity stream) {
+            final String key = keyOf(stream.getServiceId(), stream.getUrl());
+            if (index.containsKey(key)) throw new IllegalStateException("Duplicate " + key);
+
+            final StreamEntity row = copyOf(stream);
+            row.setUid(nextUid++);
+            rows.put(row.getUid(), row);
+            index.put(key, row.getUid());
+            insertedRows++;
+            return row.getUid();
+        }
+
+        private int updateRow(final StreamEntity stream) {
+            if (!rows.containsKey(stream.getUid())) return 0;
+            rows.put(stream.getUid(), copyOf(stream));
+            updatedRows++;
+            return 1;
+        }
+
+        @Override
+        StreamEntity getStreamInternal(long serviceId, String url) {
+            lookups++;
+            final Long uid = index.get(keyOf((int) serviceId, url));
+            return uid == null ? null : copyOf(rows.get(uid));
+        }
+
+        @Override
+        List<StreamEntity> getStreamsInternal(int serviceId, List<String> urls) {
+            if (urls.size() > LOOKUP_CHUNK_SIZE) throw new IllegalArgumentException("Too many");
+            lookups++;
+            final List<StreamEntity> result = new ArrayList<>();
+            for (final String url : urls) {
+                final Long uid = index.get(keyOf(serviceId, url));
+                if (uid != null) result.add(copyOf(rows.get(uid)));
+            }
+            return result;
+        }
+
+        @Override
+        public long insert(StreamEntity stream) {
+            insertStatements++;
+            return insertRow(stream);
+        }
+
+        @Override
+        public List<Long> insertAll(StreamEntity... streams) {
+            return insertAll(Arrays.asList(streams));
+        }
+
+        @Override
+        public List<Long> insertAll(Collection<StreamEntity> streams) {
+            insertStatements++;
+            final List<Long> ids = new ArrayList<>(streams.size());
+            for (final StreamEntity stream : streams) ids.add(insertRow(stream));
+            return ids;
+        }
+
+        @Override
+        public int update(StreamEntity stream) {
+            updateStatements++;
+            return updateRow(stream);
+        }
+
+        @Override
+        public void update(Collection<StreamEntity> streams) {
+            updateStatements++;
+            for (final StreamEntity stream : streams) updateRow(stream);
+        }
+
+        @Override
+        public Flowable<List<StreamEntity>> getAll() {
+            return Flowable.just(new ArrayList<>(rows.values()));
+        }
+
+        @Override
+        public Flowable<List<StreamEntity>> listByService(int serviceId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Flowable<List<StreamEntity>> getStream(long serviceId, String url) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void delete(StreamEntity stream) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int delete(Collection<StreamEntity> streams) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int deleteAll() {
+            final int count = rows.size();
+            rows.clear();
+            index.clear();
+            return count;
+        }
+
+        @Override
+        public int deleteOrphans() {
+            return 0;
+        }
+    }
+}
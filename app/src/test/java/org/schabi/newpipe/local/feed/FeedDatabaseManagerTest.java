@@ -0,0 +1,74 @@
+package org.schabi.newpipe.local.feed;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.schabi.newpipe.local.feed.FeedDatabaseManager.ORDER_GAP;
+
+public class FeedDatabaseManagerTest {
+
+    @Test
+    public void computeOrdersFirstFetch() {
+        long[] orders = FeedDatabaseManager.computeOrders(Arrays.asList("a", "b", "c"),
+                Collections.<String, Long>emptyMap(), 1000);
+        assertArrayEquals(new long[]{1000 * ORDER_GAP, 999 * ORDER_GAP, 998 * ORDER_GAP}, orders);
+    }
+
+    @Test
+    public void computeOrdersKeepsKnownStreams() {
+        Map<String, Long> known = new HashMap<>();
+        known.put("b", 500L);
+        known.put("c", 499L);
+
+        long[] orders = FeedDatabaseManager.computeOrders(Arrays.asList("a", "b", "c"), known, 1000);
+        assertArrayEquals(new long[]{1000 * ORDER_GAP, 500, 499}, orders);
+    }
+
+    @Test
+    public void computeOrdersNewStreamBetweenKnownOnes() {
+        Map<String, Long> known = new HashMap<>();
+        known.put("a", 500L);
+        known.put("c", 400L);
+
+        long[] orders = FeedDatabaseManager.computeOrders(Arrays.asList("a", "b", "c"), known, 1000);
+        assertArrayEquals(new long[]{500, 450, 400}, orders);
+    }
+
+    @Test
+    public void computeOrdersNewStreamsBetweenAdjacentKnownOnes() {
+        Map<String, Long> known = new HashMap<>();
+        known.put("a", 500L);
+        known.put("c", 499L);
+
+        long[] orders = FeedDatabaseManager.computeOrders(Arrays.asList("a", "b", "c", "d"),
+                known, 1000);
+        // No room between a and c, c is moved down
+        assertArrayEquals(new long[]{500, 499, 498, 498 - ORDER_GAP}, orders);
+    }
+
+    @Test
+    public void computeOrdersKeepsChannelOrderOnRepeatedMerges() {
+        final Map<String, Long> known = new HashMap<>();
+        known.put("a", 500L);
+        known.put("z", 400L);
+
+        // A new stream appears right below the first one on every fetch
+        for (int fetch = 0; fetch < 20; fetch++) {
+            final String[] channel = new String[fetch + 3];
+            channel[0] = "a";
+            for (int i = 0; i <= fetch; i++) channel[i + 1] = "new" + (fetch - i);
+            channel[fetch + 2] = "z";
+
+            final long[] orders = FeedDatabaseManager.computeOrders(Arrays.asList(channel),
+                    known, 1000);
+            for (int i = 1; i < orders.length; i++) assertTrue(orders[i - 1] > orders[i]);
+            for (int i = 0; i < channel.length; i++) known.put(channel[i], orders[i]);
+        }
+    }
+}
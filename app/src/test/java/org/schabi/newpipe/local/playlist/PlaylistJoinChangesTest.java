@@ -0,0 +1,62 @@
+package org.schabi.newpipe.local.playlist;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.schabi.newpipe.local.playlist.PlaylistJoinChanges.INDEX_GAP;
+import static org.schabi.newpipe.local.playlist.PlaylistJoinChanges.NO_INDEX;
+import static org.schabi.newpipe.local.playlist.PlaylistJoinChanges.indexBetween;
+
+public class PlaylistJoinChangesTest {
+
+    @Test
+    public void indexBetweenNeighbours() {
+        assertEquals(0, indexBetween(null, null));
+        assertEquals(-INDEX_GAP, indexBetween(null, 0));
+        assertEquals(3 * INDEX_GAP, indexBetween(2 * INDEX_GAP, null));
+        assertEquals(INDEX_GAP / 2, indexBetween(0, INDEX_GAP));
+        assertEquals(-1, indexBetween(-2, 0));
+    }
+
+    @Test
+    public void indexBetweenWithoutRoom() {
+        assertEquals(NO_INDEX, indexBetween(4, 5));
+        assertEquals(NO_INDEX, indexBetween(4, 4));
+        assertEquals(NO_INDEX, indexBetween(Integer.MAX_VALUE - 1, null));
+        assertEquals(NO_INDEX, indexBetween(null, Integer.MIN_VALUE + 1));
+        assertEquals(Integer.MAX_VALUE - 1, indexBetween(Integer.MAX_VALUE - 2, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void repeatedMovesBeforeRenumbering() {
+        // A stream moved again and again to the front of the second stream
+        int next = INDEX_GAP;
+        int moves = 0;
+        while ((next = indexBetween(0, next)) != NO_INDEX) moves++;
+        assertEquals(10, moves);
+    }
+
+    @Test
+    public void renumberDropsPreviousChanges() {
+        final PlaylistJoinChanges changes = new PlaylistJoinChanges();
+        assertTrue(changes.isEmpty());
+
+        changes.move(0, 2 * INDEX_GAP + INDEX_GAP / 2);
+        changes.remove(INDEX_GAP);
+        assertNull(changes.renumbered);
+        assertEquals(2, changes.operations.size());
+
+        changes.renumber(Arrays.asList(3L, 1L));
+        assertTrue(changes.operations.isEmpty());
+        assertFalse(changes.isEmpty());
+
+        changes.remove(0);
+        assertEquals(1, changes.operations.size());
+        assertTrue(changes.operations.get(0).removed);
+    }
+}
@@ -0,0 +1,44 @@
+package org.schabi.newpipe.player.helper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class StableCacheKeyTest {
+
+    @Test
+    public void signedQueryParametersAreIgnored() {
+        final String first = StableCacheKey.of("https://r4---sn-aigl6nek.googlevideo.com/" +
+                "videoplayback?expire=1540000000&id=o-abc&itag=137&clen=1234&signature=AAA&ip=1.2.3.4");
+        final String second = StableCacheKey.of("https://r1---sn-4g5e6nez.googlevideo.com/" +
+                "videoplayback?itag=137&signature=BBB&id=o-abc&ip=5.6.7.8&expire=1550000000&clen=1234");
+
+        assertEquals("googlevideo.com/videoplayback?clen=1234&id=o-abc&itag=137", first);
+        assertEquals(first, second);
+    }
+
+    @Test
+    public void signedPathParametersAreIgnored() {
+        final String first = StableCacheKey.of("https://r4---sn-aigl6nek.googlevideo.com/" +
+                "videoplayback/id/o-abc/itag/140/expire/1540000000/signature/AAA/sq/3");
+        final String second = StableCacheKey.of("https://r2---sn-aigl6nek.googlevideo.com/" +
+                "videoplayback/id/o-abc/itag/140/expire/1550000000/signature/BBB/sq/3");
+
+        assertEquals("googlevideo.com/videoplayback/id/o-abc/itag/140/sq/3", first);
+        assertEquals(first, second);
+    }
+
+    @Test
+    public void contentParametersAreKept() {
+        assertNotEquals(
+                StableCacheKey.of("https://cf-hls-media.sndcdn.com/media/0/31762/abc.mp3?Policy=a"),
+                StableCacheKey.of("https://cf-hls-media.sndcdn.com/media/31762/63524/abc.mp3?Policy=a"));
+        assertNotEquals(
+                StableCacheKey.of("https://example.com/videoplayback/itag/137/sq/1"),
+                StableCacheKey.of("https://example.com/videoplayback/itag/137/sq/2"));
+        assertEquals("sndcdn.com/media/0/31762/abc.mp3",
+                StableCacheKey.of("https://cf-hls-media.sndcdn.com/media/0/31762/abc.mp3" +
+                        "?Policy=a&Signature=b&Key-Pair-Id=c#t=10"));
+    }
+}
@@ -0,0 +1,218 @@
+package org.schabi.newpipe.player.playqueue;
+
+import org.junit.Test;
+import org.schabi.newpipe.extractor.stream.StreamInfoItem;
+import org.schabi.newpipe.extractor.stream.StreamType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PlayQueueTest {
+    private static final int CHANNEL_SIZE = 10000;
+    private static final int EVENTS = 100;
+
+    private static List<StreamInfoItem> channel(final int size) {
+        final List<StreamInfoItem> items = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            final StreamInfoItem item = new StreamInfoItem(0,
+                    "https://www.youtube.com/watch?v=" + i, "Video " + i, StreamType.VIDEO_STREAM);
+            // Extracted strings are distinct instances, even when equal
+            item.setUploaderName(new String("Uploader"));
+            item.setThumbnailUrl("https://i.ytimg.com/vi/" + i + "/hqdefault.jpg");
+            item.setDuration(i);
+            items.add(item);
+        }
+        return items;
+    }
+
+    private static byte[] serialize(final Object object) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static PlayQueue deserialize(final byte[] bytes) throws Exception {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (PlayQueue) in.readObject();
+        }
+    }
+
+    private static void assertSameItem(final PlayQueueItem expected, final PlayQueueItem actual) {
+        assertEquals(expected.getTitle(), actual.getTitle());
+        assertEquals(expected.getUrl(), actual.getUrl());
+        assertEquals(expected.getServiceId(), actual.getServiceId());
+        assertEquals(expected.getDuration(), actual.getDuration());
+        assertEquals(expected.getThumbnailUrl(), actual.getThumbnailUrl());
+        assertEquals(expected.getUploader(), actual.getUploader());
+        assertEquals(expected.getStreamType(), actual.getStreamType());
+        assertEquals(expected.getRecoveryPosition(), actual.getRecoveryPosition());
+    }
+
+    @Test
+    public void serializationKeepsItemsIndexAndShuffle() throws Exception {
+        final PlayQueue queue = new SinglePlayQueue(channel(50), 7);
+        queue.setRecovery(7, 42_000);
+        queue.shuffle();
+        queue.remove(3);
+
+        final PlayQueue copy = deserialize(serialize(queue));
+        assertEquals(queue.getIndex(), copy.getIndex());
+        assertEquals(queue.size(), copy.size());
+        assertTrue(copy.isShuffled());
+        for (int i = 0; i < queue.size(); i++) {
+            assertSameItem(queue.getItem(i), copy.getItem(i));
+        }
+        assertEquals(42_000, copy.getItem().getRecoveryPosition());
+
+        // The backup refers to the same items as the queue
+        final PlayQueueItem current = copy.getItem();
+        queue.unshuffle();
+        copy.unshuffle();
+        assertSame(current, copy.getItem());
+        for (int i = 0; i < queue.size(); i++) {
+            assertSameItem(queue.getItem(i), copy.getItem(i));
+        }
+    }
+
+    @Test
+    public void serializationSharesStrings() throws Exception {
+        final PlayQueue copy = deserialize(serialize(new SinglePlayQueue(channel(3), 0)));
+        assertSame(copy.getItem(0).getUploader(), copy.getItem(2).getUploader());
+        assertNotSame(copy.getItem(0).getUrl(), copy.getItem(2).getUrl());
+    }
+
+    @Test
+    public void serializationIsCompact() throws Exception {
+        final PlayQueue queue = new SinglePlayQueue(channel(CHANNEL_SIZE), 0);
+        queue.shuffle();
+        final byte[] compact = serialize(queue);
+
+        // What the queue and its shuffle backup used to be written as
+        final List<List<PlayQueueItem>> lists = new ArrayList<>();
+        lists.add(new ArrayList<>(queue.getStreams()));
+        lists.add(new ArrayList<>(queue.getStreams()));
+        final byte[] plain = serialize(lists);
+
+        assertTrue(compact.length < plain.length);
+    }
+
+    private static void assertIndices(final PlayQueue queue) {
+        final List<PlayQueueItem> streams = new ArrayList<>(queue.getStreams());
+        for (final PlayQueueItem item : streams) {
+            assertEquals(streams.indexOf(item), queue.indexOf(item));
+        }
+    }
+
+    @Test
+    public void indexOfFollowsQueueChanges() {
+        final Random random = new Random(42);
+        final List<StreamInfoItem> items = channel(200);
+        final PlayQueue queue = new SinglePlayQueue(items.subList(0, 100), 0);
+        final PlayQueueItem removed = queue.getItem(5);
+        assertIndices(queue);
+
+        for (int step = 0; step < 200; step++) {
+            switch (random.nextInt(6)) {
+                case 0:
+                    queue.append(new PlayQueueItem(items.get(100 + random.nextInt(100))));
+                    break;
+                case 1:
+                    queue.remove(random.nextInt(queue.size()));
+                    break;
+                case 2:
+                    queue.move(random.nextInt(queue.size()), random.nextInt(queue.size()));
+                    break;
+                case 3:
+                    queue.shuffle();
+                    break;
+                case 4:
+                    queue.unshuffle();
+                    break;
+                default:
+                    queue.setIndex(random.nextInt(queue.size()));
+                    queue.error(random.nextBoolean());
+                    break;
+            }
+            assertIndices(queue);
+        }
+
+        queue.remove(queue.indexOf(removed));
+        assertEquals(-1, queue.indexOf(removed));
+        assertEquals(-1, queue.indexOf(new PlayQueueItem(items.get(0))));
+    }
+
+    @Test
+    public void removeRangeMovesIndex() {
+        final PlayQueue queue = new SinglePlayQueue(channel(10), 6);
+        final PlayQueueItem current = queue.getItem();
+        queue.removeRange(0, 4);
+        assertEquals(6, queue.size());
+        assertEquals(2, queue.getIndex());
+        assertSame(current, queue.getItem());
+        assertIndices(queue);
+
+        // The current item is removed, the one after the range is selected
+        final PlayQueueItem next = queue.getItem(4);
+        queue.removeRange(1, 4);
+        assertEquals(1, queue.getIndex());
+        assertSame(next, queue.getItem());
+
+        queue.removeRange(1, 3);
+        assertEquals(1, queue.size());
+        assertEquals(0, queue.getIndex());
+        assertIndices(queue);
+    }
+
+    @Test
+    public void removeRangeRemovesFromBackup() {
+        final PlayQueue queue = new SinglePlayQueue(channel(10), 0);
+        queue.shuffle();
+        final List<PlayQueueItem> removed = new ArrayList<>(queue.getStreams().subList(2, 5));
+        queue.removeRange(2, 5);
+
+        queue.unshuffle();
+        assertEquals(7, queue.size());
+        for (final PlayQueueItem item : removed) assertEquals(-1, queue.indexOf(item));
+        assertIndices(queue);
+    }
+
+    /**
+     * Checks the lookups the media source manager and the players do after every queue event
+     * against a scan, on a shuffled queue which is changed between the events: an item is moved,
+     * the first one removed and a new one appended.
+     */
+    @Test
+    public void indexOfMatchesScanAfterEvents() {
+        final int size = CHANNEL_SIZE;
+        final Random random = new Random(size);
+        final List<StreamInfoItem> items = channel(size + EVENTS);
+        final PlayQueue queue = new SinglePlayQueue(items.subList(0, size), 0);
+        queue.shuffle();
+
+        for (int event = 0; event < EVENTS; event++) {
+            final int source = random.nextInt(size);
+            queue.move(source, Math.min(size - 1, source + random.nextInt(10)));
+            queue.remove(0);
+            queue.append(new PlayQueueItem(items.get(size + event)));
+
+            final List<PlayQueueItem> streams = queue.getStreams();
+            for (int i = 0; i < 5; i++) {
+                final PlayQueueItem item = streams.get(random.nextInt(size));
+                assertEquals(streams.indexOf(item), queue.indexOf(item));
+            }
+        }
+    }
+}
@@ -10,6 +10,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 
 public class ListHelperTest {
     private static final String BEST_RESOLUTION_KEY = "best_resolution";
@@ -66,6 +67,33 @@ public class ListHelperTest {
         for (int i = 0; i < result.size(); i++) assertEquals(result.get(i).resolution, expected.get(i));
     }
 
+    @Test
+    public void getSortedStreamVideosListRememberedTest() {
+        final ListHelper.SelectionPolicy policy = new ListHelper.SelectionPolicy(
+                BEST_RESOLUTION_KEY, "720p", "480p", MediaFormat.MPEG_4, MediaFormat.M4A,
+                true, null);
+        final long hits = ListHelper.getSortedListHitCount();
+
+        final List<VideoStream> first = ListHelper.getSortedStreamVideosList(policy, videoStreamsTestList, videoOnlyStreamsTestList, false);
+        final List<VideoStream> second = ListHelper.getSortedStreamVideosList(policy, videoStreamsTestList, videoOnlyStreamsTestList, false);
+        assertEquals(hits + 1, ListHelper.getSortedListHitCount());
+        assertEquals(first, second);
+        assertNotSame(first, second);
+
+        // The callers can modify the returned lists
+        second.clear();
+        assertEquals(first, ListHelper.getSortedStreamVideosList(policy, videoStreamsTestList, videoOnlyStreamsTestList, false));
+
+        // Another policy sorts the streams again
+        final ListHelper.SelectionPolicy lowerPolicy = new ListHelper.SelectionPolicy(
+                BEST_RESOLUTION_KEY, "720p", "480p", MediaFormat.MPEG_4, MediaFormat.M4A,
+                false, "480p");
+        final long misses = ListHelper.getSortedListMissCount();
+        final List<VideoStream> lower = ListHelper.getSortedStreamVideosList(lowerPolicy, videoStreamsTestList, videoOnlyStreamsTestList, false);
+        assertEquals(misses + 1, ListHelper.getSortedListMissCount());
+        assertEquals("1080p60", lower.get(0).resolution);
+    }
+
     @Test
     public void getSortedStreamVideosExceptHighResolutionsTest() {
         ////////////////////////////////////
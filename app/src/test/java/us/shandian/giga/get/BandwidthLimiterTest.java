@@ -0,0 +1,48 @@
+package us.shandian.giga.get;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test for {@link BandwidthLimiter}
+ */
+public class BandwidthLimiterTest {
+    private static final long SECOND = 1000000000L;
+
+    private BandwidthLimiter limiter;
+
+    @Before
+    public void setUp() {
+        limiter = new BandwidthLimiter();
+    }
+
+    @Test
+    public void testUnlimitedNeverWaits() {
+        assertEquals(0, limiter.reserve(10 * 1024 * 1024, 0));
+    }
+
+    @Test
+    public void testWaitsForTheDeficit() {
+        final long start = System.nanoTime();
+        limiter.setRate(1000, start);
+
+        // The bucket starts empty, 500 bytes take half a second
+        assertEquals(SECOND / 2, limiter.reserve(500, start));
+        // The debt adds up across threads
+        assertEquals(SECOND, limiter.reserve(500, start));
+        // Half a second later, half of the debt was paid
+        assertEquals(SECOND / 2, limiter.reserve(0, start + SECOND / 2));
+    }
+
+    @Test
+    public void testBurstIsCappedToOneSecond() {
+        final long start = System.nanoTime();
+        limiter.setRate(1000, start);
+
+        // After a long idle period, only one second worth of bytes is free
+        assertEquals(0, limiter.reserve(1000, start + 60 * SECOND));
+        assertEquals(SECOND / 10, limiter.reserve(100, start + 60 * SECOND));
+    }
+}
@@ -0,0 +1,127 @@
+package us.shandian.giga.get;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test for {@link BlockAllocator}
+ */
+public class BlockAllocatorTest {
+    private static final long BLOCKS = 70;
+    private static final long LENGTH = BLOCKS * DownloadManager.BLOCK_SIZE - 100;
+
+    private BlockAllocator allocator;
+
+    @Before
+    public void setUp() {
+        allocator = new BlockAllocator(BLOCKS, LENGTH, 3);
+    }
+
+    @Test
+    public void testClaimNextSkipsClaimedBlocks() {
+        assertTrue(allocator.tryClaim(1));
+        assertEquals(0, allocator.claimNext());
+        assertEquals(2, allocator.claimNext());
+
+        for (long block = 3; block < BLOCKS; block++) {
+            assertEquals(block, allocator.claimNext());
+        }
+        assertEquals(-1, allocator.claimNext());
+        assertEquals(-1, allocator.claimNext());
+    }
+
+    @Test
+    public void testTryClaimOnlyOnce() {
+        assertTrue(allocator.tryClaim(65));
+        assertFalse(allocator.tryClaim(65));
+        assertTrue(allocator.isClaimed(65));
+        assertFalse(allocator.isClaimed(64));
+    }
+
+    @Test
+    public void testCommitCompletesBlock() {
+        assertFalse(allocator.commit(0, DownloadManager.BLOCK_SIZE / 2));
+        assertFalse(allocator.isCompleted(0));
+        assertTrue(allocator.commit(0, DownloadManager.BLOCK_SIZE / 2));
+        assertTrue(allocator.isCompleted(0));
+
+        // The last block is shorter
+        assertTrue(allocator.commit(BLOCKS - 1, DownloadManager.BLOCK_SIZE - 100));
+    }
+
+    @Test
+    public void testSplitBlockEndsAtSplit() {
+        final long split = 10 * DownloadManager.BLOCK_SIZE + 100;
+        final BlockAllocator muxed = new BlockAllocator(BLOCKS, LENGTH, 3, split);
+
+        assertEquals(split, muxed.blockEnd(10));
+        assertEquals(11 * DownloadManager.BLOCK_SIZE, muxed.blockStart(11));
+        assertEquals(12 * DownloadManager.BLOCK_SIZE, muxed.blockEnd(11));
+        assertEquals(10 * DownloadManager.BLOCK_SIZE, muxed.blockEnd(9));
+
+        // The bytes between the split and the next block are never written
+        assertTrue(muxed.commit(10, 100));
+    }
+
+    @Test
+    public void testStealTakesSecondHalfOfLargestRange() {
+        long start = allocator.blockStart(4);
+        long end = allocator.blockEnd(4);
+        allocator.beginRange(0, start, end);
+        allocator.beginRange(1, allocator.blockEnd(7) - 1000, allocator.blockEnd(7));
+
+        long[] stolen = allocator.steal(2);
+        assertNotNull(stolen);
+        assertEquals(start + (end - start) / 2, stolen[0]);
+        assertEquals(end, stolen[1]);
+        assertEquals(stolen[0], allocator.getRange(0).limit);
+        assertEquals(stolen[0], allocator.getRange(2).progress);
+        assertEquals(stolen[1], allocator.getRange(2).limit);
+    }
+
+    @Test
+    public void testNothingToStealFromSmallRanges() {
+        allocator.beginRange(0, 0, BlockAllocator.MIN_STEAL_BYTES);
+        assertNull(allocator.steal(1));
+    }
+
+    @Test
+    public void testBitmapsRoundTrip() {
+        allocator.tryClaim(0);
+        allocator.tryClaim(9);
+        allocator.tryClaim(64);
+        allocator.commit(9, DownloadManager.BLOCK_SIZE);
+
+        byte[] claimed = new byte[BlockAllocator.bitmapSize(BLOCKS)];
+        byte[] completed = new byte[claimed.length];
+        allocator.writeClaimed(claimed);
+        allocator.writeCompleted(completed);
+
+        BlockAllocator restored = new BlockAllocator(BLOCKS, LENGTH, 3);
+        restored.restore(claimed, completed);
+        for (long block = 0; block < BLOCKS; block++) {
+            assertEquals("claimed " + block, allocator.isClaimed(block), restored.isClaimed(block));
+            assertEquals("completed " + block, allocator.isCompleted(block), restored.isCompleted(block));
+        }
+    }
+
+    @Test
+    public void testReleaseOrphans() {
+        allocator.tryClaim(0);
+        allocator.tryClaim(1);
+        allocator.tryClaim(2);
+        allocator.commit(0, DownloadManager.BLOCK_SIZE);
+
+        allocator.releaseOrphans(new long[]{2, -1});
+        assertTrue(allocator.isClaimed(0));
+        assertFalse(allocator.isClaimed(1));
+        assertTrue(allocator.isClaimed(2));
+        assertEquals(1, allocator.claimNext());
+    }
+}
@@ -0,0 +1,105 @@
+package us.shandian.giga.get;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test for {@link MissionHasher}
+ */
+public class MissionHasherTest {
+    private static final long BLOCKS = 3;
+    private static final long LENGTH = BLOCKS * DownloadManager.BLOCK_SIZE - 1000;
+
+    private byte[] data;
+    private FileChannel channel;
+    private BlockAllocator allocator;
+    private final List<Long> corrupted = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        data = new byte[(int) LENGTH];
+        new Random(42).nextBytes(data);
+
+        File file = File.createTempFile("newpipetest", ".part");
+        file.deleteOnExit();
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        channel.write(ByteBuffer.wrap(data), 0);
+
+        allocator = new BlockAllocator(BLOCKS, LENGTH, 1);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        channel.close();
+    }
+
+    private void complete(long block) throws IOException {
+        allocator.tryClaim(block);
+        allocator.commit(block, (int) (allocator.blockEnd(block) - allocator.blockStart(block)));
+        allocator.setChecksum(block,
+                MissionHasher.crcOf(channel, allocator.blockStart(block), allocator.blockEnd(block)));
+    }
+
+    private boolean hash(MissionHasher hasher) {
+        assertTrue(hasher.request());
+        return hasher.run(channel, allocator, corrupted::add);
+    }
+
+    @Test
+    public void testDigestsOfBlocksCompletedOutOfOrder() throws Exception {
+        MissionHasher hasher = new MissionHasher();
+
+        complete(2);
+        assertFalse(hash(hasher));
+        complete(0);
+        assertFalse(hash(hasher));
+        complete(1);
+        assertTrue(hash(hasher));
+
+        assertEquals(hex(MessageDigest.getInstance("MD5").digest(data)), hasher.getMd5());
+        assertEquals(hex(MessageDigest.getInstance("SHA1").digest(data)), hasher.getSha1());
+        assertTrue(corrupted.isEmpty());
+    }
+
+    @Test
+    public void testCorruptedBlockIsInvalidated() throws Exception {
+        for (long block = 0; block < BLOCKS; block++) complete(block);
+        // Lost write of the middle block
+        channel.write(ByteBuffer.allocate(100), allocator.blockStart(1) + 10);
+
+        MissionHasher hasher = new MissionHasher();
+        assertFalse(hash(hasher));
+        assertEquals(1, corrupted.size());
+        assertEquals(1L, (long) corrupted.get(0));
+        assertFalse(allocator.isCompleted(1));
+        assertFalse(allocator.isClaimed(1));
+        assertEquals(1, allocator.claimNext());
+
+        // Downloaded again
+        channel.write(ByteBuffer.wrap(data), 0);
+        complete(1);
+        assertTrue(hash(hasher));
+        assertEquals(hex(MessageDigest.getInstance("MD5").digest(data)), hasher.getMd5());
+    }
+
+    private static String hex(byte[] digest) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : digest) builder.append(String.format("%02x", b));
+        return builder.toString();
+    }
+}
@@ -0,0 +1,132 @@
+package us.shandian.giga.get;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test for {@link MissionStateFile}
+ */
+public class MissionStateFileTest {
+
+    private File directory;
+    private DownloadMission mission;
+
+    @Before
+    public void setUp() throws IOException {
+        File temp = File.createTempFile("newpipetest", "");
+        assertTrue(temp.delete());
+        assertTrue(temp.mkdir());
+        temp.deleteOnExit();
+        directory = temp;
+
+        mission = new DownloadMission("video.mp4", "http://example.com/video.mp4", directory.getPath());
+        mission.timestamp = 1234;
+        mission.length = 10 * DownloadManager.BLOCK_SIZE - 10;
+        mission.blocks = 10;
+        mission.threadCount = 2;
+        mission.done = 3 * DownloadManager.BLOCK_SIZE;
+        mission.restoreThread(0, 2, 2 * DownloadManager.BLOCK_SIZE + 42, 0xDEADBEEFL);
+        mission.restoreThread(1, 7, -1, -1);
+        mission.preserveBlock(0);
+        mission.preserveBlock(2);
+        mission.preserveBlock(7);
+        mission.getAllocator().commit(0, DownloadManager.BLOCK_SIZE);
+        mission.getAllocator().setChecksum(0, 0xCAFEBABE);
+    }
+
+    @Test
+    public void testWriteAndRead() {
+        mission.writeThisToFile();
+
+        DownloadMission read = MissionStateFile.read(new File(directory, "video.mp4.giga"));
+        assertNotNull(read);
+        assertEquals(mission.name, read.name);
+        assertEquals(mission.url, read.url);
+        assertEquals(mission.location, read.location);
+        assertEquals(mission.timestamp, read.timestamp);
+        assertEquals(mission.length, read.length);
+        assertEquals(mission.done, read.done);
+        assertEquals(mission.blocks, read.blocks);
+        assertEquals(mission.threadCount, read.threadCount);
+        assertEquals(2, read.getPosition(0));
+        assertEquals(2 * DownloadManager.BLOCK_SIZE + 42, read.getThreadOffset(0));
+        assertEquals(0xDEADBEEFL, read.getThreadPrefixCrc(0));
+        assertEquals(7, read.getPosition(1));
+        assertEquals(-1, read.getThreadOffset(1));
+        assertEquals(-1, read.getThreadPrefixCrc(1));
+
+        for (long block = 0; block < mission.blocks; block++) {
+            assertEquals("block " + block, mission.isBlockPreserved(block), read.isBlockPreserved(block));
+        }
+        assertTrue(read.getAllocator().isCompleted(0));
+        assertFalse(read.getAllocator().isCompleted(2));
+        assertTrue(read.getAllocator().hasChecksum(0));
+        assertEquals(0xCAFEBABE, read.getAllocator().getChecksum(0));
+        assertFalse(read.getAllocator().hasChecksum(2));
+    }
+
+    @Test
+    public void testMuxedMissionIsRestored() {
+        mission.audioUrl = "http://example.com/audio.m4a";
+        mission.videoLength = 4 * DownloadManager.BLOCK_SIZE + 100;
+        mission.writeThisToFile();
+
+        DownloadMission read = MissionStateFile.read(new File(directory, "video.mp4.giga"));
+        assertNotNull(read);
+        assertTrue(read.isMuxed());
+        assertEquals(mission.audioUrl, read.audioUrl);
+        assertEquals(mission.videoLength, read.videoLength);
+        assertEquals(5 * DownloadManager.BLOCK_SIZE, read.getAudioOffset());
+        assertEquals(mission.videoLength, read.getAllocator().blockEnd(4));
+    }
+
+    @Test
+    public void testOrphanBlocksAreReleased() {
+        // Claimed but neither completed nor resumed by a thread
+        mission.preserveBlock(5);
+        mission.writeThisToFile();
+
+        DownloadMission read = MissionStateFile.read(new File(directory, "video.mp4.giga"));
+        assertNotNull(read);
+        assertFalse(read.isBlockPreserved(5));
+        assertTrue(read.isBlockPreserved(2));
+        assertTrue(read.isBlockPreserved(7));
+    }
+
+    @Test
+    public void testUpdateInPlace() {
+        mission.writeThisToFile();
+        File file = new File(directory, "video.mp4.giga");
+        long size = file.length();
+
+        mission.done += 1000;
+        mission.preserveBlock(9);
+        mission.getAllocator().commit(9, DownloadManager.BLOCK_SIZE);
+        mission.writeThisToFile();
+        assertEquals(size, file.length());
+
+        DownloadMission read = MissionStateFile.read(file);
+        assertNotNull(read);
+        assertEquals(mission.done, read.done);
+        assertTrue(read.isBlockPreserved(9));
+        assertFalse(read.isBlockPreserved(8));
+    }
+
+    @Test
+    public void testDeleteRemovesFile() {
+        mission.writeThisToFile();
+        File file = new File(directory, "video.mp4.giga");
+        assertTrue(file.exists());
+
+        mission.delete();
+        assertFalse(file.exists());
+    }
+}
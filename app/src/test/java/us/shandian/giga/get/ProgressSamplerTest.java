@@ -0,0 +1,56 @@
+package us.shandian.giga.get;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test for {@link ProgressSampler}
+ */
+public class ProgressSamplerTest {
+
+    @Test
+    public void testFirstSampleHasNoSpeed() {
+        ProgressSnapshot snapshot = new ProgressSampler().sample(100, 1000, 0);
+        assertEquals(100, snapshot.done);
+        assertEquals(1000, snapshot.length);
+        assertEquals(0, snapshot.speed, 0);
+        assertEquals(-1, snapshot.eta);
+    }
+
+    @Test
+    public void testSpeedIsSmoothed() {
+        ProgressSampler sampler = new ProgressSampler();
+        sampler.sample(0, 100000, 0);
+
+        // 1000 B/s, then a burst of 5000 B/s
+        ProgressSnapshot snapshot = sampler.sample(250, 100000, 250);
+        assertEquals(1000, snapshot.speed, 0.01);
+        assertEquals(100, snapshot.eta);
+
+        snapshot = sampler.sample(1500, 100000, 500);
+        assertEquals(1000 + 0.3f * 4000, snapshot.speed, 0.01);
+    }
+
+    @Test
+    public void testCloseSamplesAreMerged() {
+        ProgressSampler sampler = new ProgressSampler();
+        sampler.sample(0, 100000, 0);
+        sampler.sample(250, 100000, 250);
+
+        ProgressSnapshot snapshot = sampler.sample(5000, 100000, 260);
+        assertEquals(5000, snapshot.done);
+        assertEquals(1000, snapshot.speed, 0.01);
+    }
+
+    @Test
+    public void testSpeedIsResetAfterPause() {
+        ProgressSampler sampler = new ProgressSampler();
+        sampler.sample(0, 100000, 0);
+        sampler.sample(250, 100000, 250);
+
+        ProgressSnapshot snapshot = sampler.sample(300, 100000, 60000);
+        assertEquals(0, snapshot.speed, 0);
+        assertEquals(-1, snapshot.eta);
+    }
+}
@@ -0,0 +1,166 @@
+package us.shandian.giga.postprocessing;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test for {@link Mp4DashMuxer}
+ */
+public class Mp4DashMuxerTest {
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private File input;
+    private File output;
+
+    @Before
+    public void setUp() throws IOException {
+        input = File.createTempFile("newpipetest", ".part");
+        input.deleteOnExit();
+        output = File.createTempFile("newpipetest", ".mp4");
+        output.deleteOnExit();
+    }
+
+    @Test
+    public void testMuxInterleavesFragmentsByTime() throws IOException {
+        final byte[] video = stream(1000, new long[]{0, 2000}, new String[]{"V0", "V2"});
+        final byte[] audio = stream(48000, new long[]{0, 72000}, new String[]{"A0", "A1.5"});
+        final int audioOffset = video.length + 100;
+
+        try (RandomAccessFile file = new RandomAccessFile(input, "rw")) {
+            file.write(video);
+            file.seek(audioOffset);
+            file.write(audio);
+        }
+
+        try (FileChannel in = new RandomAccessFile(input, "r").getChannel();
+             FileChannel out = new RandomAccessFile(output, "rw").getChannel()) {
+            Mp4DashMuxer.mux(in, 0, video.length, audioOffset, audio.length, out);
+        }
+
+        final ByteBuffer muxed = ByteBuffer.allocate((int) output.length());
+        try (FileChannel out = new RandomAccessFile(output, "r").getChannel()) {
+            while (muxed.hasRemaining()) out.read(muxed);
+        }
+        muxed.flip();
+
+        final List<String> types = new ArrayList<>();
+        final List<Integer> trackIds = new ArrayList<>();
+        final List<String> payloads = new ArrayList<>();
+        int position = 0;
+        while (position < muxed.limit()) {
+            final int size = muxed.getInt(position);
+            final String type = type(muxed, position + 4);
+            types.add(type);
+
+            if (type.equals("moov")) {
+                // mvhd, then the two traks with their tkhd first
+                final int mvhd = position + 8;
+                final int mvhdSize = muxed.getInt(mvhd);
+                assertEquals(3, muxed.getInt(mvhd + mvhdSize - 4));
+                int trak = mvhd + mvhdSize;
+                assertEquals(1, muxed.getInt(trak + 8 + 20));
+                trak += muxed.getInt(trak);
+                assertEquals(2, muxed.getInt(trak + 8 + 20));
+            } else if (type.equals("moof")) {
+                assertEquals(trackIds.size() + 1, muxed.getInt(position + 8 + 12));
+                final int traf = position + 8 + 16;
+                trackIds.add(muxed.getInt(traf + 8 + 12));
+            } else if (type.equals("mdat")) {
+                final byte[] payload = new byte[size - 8];
+                for (int i = 0; i < payload.length; i++) payload[i] = muxed.get(position + 8 + i);
+                payloads.add(new String(payload, ASCII));
+            }
+            position += size;
+        }
+
+        assertEquals("[ftyp, moov, moof, mdat, moof, mdat, moof, mdat, moof, mdat]",
+                types.toString());
+        assertEquals("[1, 2, 2, 1]", trackIds.toString());
+        assertEquals("[V0, A0, A1.5, V2]", payloads.toString());
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsNonMp4Stream() throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(input, "rw")) {
+            file.write(new byte[64]);
+        }
+
+        try (FileChannel in = new RandomAccessFile(input, "r").getChannel();
+             FileChannel out = new RandomAccessFile(output, "rw").getChannel()) {
+            Mp4DashMuxer.mux(in, 0, 32, 32, 32, out);
+        }
+    }
+
+    /*//////////////////////////////////////////////////////////////////////////
+    // Synthetic streams
+    //////////////////////////////////////////////////////////////////////////*/
+
+    /**
+     * A fragmented MP4 stream with one track, numbered 1, and one fragment per payload
+     */
+    private static byte[] stream(int timescale, long[] decodeTimes, String[] payloads)
+            throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(box("ftyp", "dash".getBytes(ASCII), new byte[4], "iso6".getBytes(ASCII)));
+
+        final byte[] mvhd = box("mvhd", new byte[96], ints(1));
+        final byte[] tkhd = box("tkhd", ints(0, 0, 0, 1), new byte[68]);
+        final byte[] mdhd = box("mdhd", ints(0, 0, 0, timescale, 0), new byte[4]);
+        final byte[] trak = box("trak", tkhd, box("mdia", mdhd));
+        final byte[] mvex = box("mvex", box("trex", ints(0, 1, 1, 0, 0, 0)));
+        bytes.write(box("moov", mvhd, trak, mvex));
+        bytes.write(box("sidx", new byte[24]));
+
+        for (int i = 0; i < payloads.length; i++) {
+            final byte[] mfhd = box("mfhd", ints(0, i + 1));
+            final byte[] tfhd = box("tfhd", ints(0, 1));
+            final byte[] tfdt = box("tfdt", ints(1 << 24), longs(decodeTimes[i]));
+            bytes.write(box("moof", mfhd, box("traf", tfhd, tfdt)));
+            bytes.write(box("mdat", payloads[i].getBytes(ASCII)));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] box(String type, byte[]... contents) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(bytes);
+        int size = 8;
+        for (final byte[] content : contents) size += content.length;
+        output.writeInt(size);
+        output.write(type.getBytes(ASCII));
+        for (final byte[] content : contents) output.write(content);
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] ints(int... values) {
+        final ByteBuffer buffer = ByteBuffer.allocate(values.length * 4);
+        for (final int value : values) buffer.putInt(value);
+        return buffer.array();
+    }
+
+    private static byte[] longs(long... values) {
+        final ByteBuffer buffer = ByteBuffer.allocate(values.length * 8);
+        for (final long value : values) buffer.putLong(value);
+        return buffer.array();
+    }
+
+    private static String type(ByteBuffer buffer, int position) {
+        final byte[] type = new byte[4];
+        for (int i = 0; i < 4; i++) type[i] = buffer.get(position + i);
+        return new String(type, ASCII);
+    }
+}